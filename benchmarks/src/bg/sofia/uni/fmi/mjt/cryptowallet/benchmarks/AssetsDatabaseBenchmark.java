@@ -0,0 +1,61 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.benchmarks;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.AssetsDatabase;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.HttpException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.NoSuchAssetException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+// The api is stubbed, so a miss measures the lookup and the publishing of the new snapshot, not the network
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AssetsDatabaseBenchmark {
+    private static final int CACHED_ASSETS = 100;
+    // Ten times the cache, each id is evicted before it is asked for again
+    private static final int MISSING_ASSETS = 1000;
+
+    private final String[] cachedIds = new String[CACHED_ASSETS];
+    private final String[] missingIds = new String[MISSING_ASSETS];
+    private AssetsDatabase assets;
+    private int next;
+
+    @Setup
+    public void setup() throws HttpException, URISyntaxException {
+        assets = new AssetsDatabase(new Benchmarks.StubServerRequest(CACHED_ASSETS));
+        assets.getAllAssets();
+        for (int i = 0; i < CACHED_ASSETS; i++) {
+            cachedIds[i] = "A" + i;
+        }
+        for (int i = 0; i < MISSING_ASSETS; i++) {
+            missingIds[i] = "M" + i;
+        }
+    }
+
+    @Benchmark
+    public Asset hit() throws NoSuchAssetException, HttpException, URISyntaxException {
+        next = (next + 1) % CACHED_ASSETS;
+        return assets.getAssetById(cachedIds[next]);
+    }
+
+    @Benchmark
+    public Asset miss() throws NoSuchAssetException, HttpException, URISyntaxException {
+        next = (next + 1) % MISSING_ASSETS;
+        return assets.getAssetById(missingIds[next]);
+    }
+}
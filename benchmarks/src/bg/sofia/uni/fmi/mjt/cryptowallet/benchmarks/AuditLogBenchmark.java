@@ -0,0 +1,57 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.benchmarks;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.audit.AuditLog;
+import bg.sofia.uni.fmi.mjt.cryptowallet.audit.AuditType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Cost of auditing one trade, which runs while the wallet is locked and should stay well under a microsecond.
+// The segments roll over during the run, so the switch to the prepared segment is part of the average.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuditLogBenchmark {
+    private Path directory;
+    private AuditLog auditLog;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("audit-benchmark");
+        auditLog = new AuditLog(directory);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        auditLog.close();
+        Benchmarks.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public void append() {
+        auditLog.append(AuditType.BUY, "user0", "BTC", 100_000_000, 400_000, 25_000_000_000L);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void appendConcurrently() {
+        auditLog.append(AuditType.BUY, "user0", "BTC", 100_000_000, 400_000, 25_000_000_000L);
+    }
+}
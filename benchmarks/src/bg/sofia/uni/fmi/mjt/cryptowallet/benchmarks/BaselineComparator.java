@@ -0,0 +1,101 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.benchmarks;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Compares two JMH result files (-rf json). A result regressed when its score or its allocated bytes per
+// operation got worse than the baseline by more than the tolerance and by more than the two error margins.
+//   BaselineComparator <baseline.json> <results.json> [tolerance]
+public class BaselineComparator {
+    private static final String THROUGHPUT_MODE = "thrpt";
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+    static final double DEFAULT_TOLERANCE = 0.1;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: <baseline.json> <results.json> [tolerance]");
+            return;
+        }
+
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TOLERANCE;
+        List<String> regressions = compare(Path.of(args[0]), Path.of(args[1]), tolerance);
+        regressions.forEach(System.out::println);
+        System.out.println(regressions.size() + " regressions");
+    }
+
+    public static List<String> compare(Path baselineFile, Path resultsFile, double tolerance) throws IOException {
+        Map<String, JsonObject> baseline = readResults(baselineFile);
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, JsonObject> result : readResults(resultsFile).entrySet()) {
+            JsonObject expected = baseline.get(result.getKey());
+            if (expected == null) {
+                continue;
+            }
+
+            JsonObject actual = result.getValue();
+            boolean higherIsBetter = THROUGHPUT_MODE.equals(actual.get("mode").getAsString());
+            checkMetric(regressions, result.getKey(), expected.getAsJsonObject("primaryMetric"),
+                    actual.getAsJsonObject("primaryMetric"), higherIsBetter, tolerance);
+
+            JsonObject expectedAllocation = secondaryMetric(expected, ALLOCATION_METRIC);
+            JsonObject actualAllocation = secondaryMetric(actual, ALLOCATION_METRIC);
+            if (expectedAllocation != null && actualAllocation != null) {
+                checkMetric(regressions, result.getKey() + " " + ALLOCATION_METRIC, expectedAllocation,
+                        actualAllocation, false, tolerance);
+            }
+        }
+        return regressions;
+    }
+
+    private static void checkMetric(List<String> regressions, String name, JsonObject expected, JsonObject actual,
+                                    boolean higherIsBetter, double tolerance) {
+        double expectedScore = expected.get("score").getAsDouble();
+        double actualScore = actual.get("score").getAsDouble();
+        double worsening = higherIsBetter ? expectedScore - actualScore : actualScore - expectedScore;
+        double allowed = Math.max(Math.abs(expectedScore) * tolerance, error(expected) + error(actual));
+        if (worsening > allowed) {
+            regressions.add(String.format("%s: %.3f -> %.3f %s", name, expectedScore, actualScore,
+                    actual.get("scoreUnit").getAsString()));
+        }
+    }
+
+    // NaN when there were too few iterations to estimate it
+    private static double error(JsonObject metric) {
+        double error = metric.get("scoreError").getAsDouble();
+        return Double.isNaN(error) ? 0 : error;
+    }
+
+    private static JsonObject secondaryMetric(JsonObject result, String name) {
+        JsonObject metrics = result.getAsJsonObject("secondaryMetrics");
+        return metrics == null || !metrics.has(name) ? null : metrics.getAsJsonObject(name);
+    }
+
+    // Keyed by the benchmark method and its parameters
+    private static Map<String, JsonObject> readResults(Path file) throws IOException {
+        Map<String, JsonObject> results = new LinkedHashMap<>();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            for (JsonElement element : JsonParser.parseReader(reader).getAsJsonArray()) {
+                JsonObject result = element.getAsJsonObject();
+                Map<String, String> params = new TreeMap<>();
+                if (result.has("params")) {
+                    for (Map.Entry<String, JsonElement> param : result.getAsJsonObject("params").entrySet()) {
+                        params.put(param.getKey(), param.getValue().getAsString());
+                    }
+                }
+                results.put(result.get("benchmark").getAsString() + (params.isEmpty() ? "" : " " + params), result);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,63 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+// Runs the benchmarks with the gc profiler and compares them with the baseline, from the project directory:
+//   BenchmarkRunner [benchmark-regexp] [--save-baseline]
+// The results are written to benchmarks/results.json. They become the baseline when there is none yet or when
+// --save-baseline is given. The numbers depend on the machine, so the baseline is recorded on the machine that
+// runs the comparisons. The exit code is 1 when a benchmark got slower or allocates more than the tolerance
+// allows (-Dbenchmarks.tolerance, 0.1 by default).
+public class BenchmarkRunner {
+    private static final Path RESULTS = Path.of("benchmarks", "results.json");
+    private static final Path BASELINE = Path.of("benchmarks", "baseline.json");
+    private static final String SAVE_BASELINE = "--save-baseline";
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String include = BenchmarkRunner.class.getPackageName() + ".*";
+        boolean saveBaseline = false;
+        for (String arg : args) {
+            if (SAVE_BASELINE.equals(arg)) {
+                saveBaseline = true;
+            } else {
+                include = arg;
+            }
+        }
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(RESULTS.toString())
+                .build();
+        new Runner(options).run();
+
+        if (saveBaseline || !Files.exists(BASELINE)) {
+            Files.copy(RESULTS, BASELINE, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Results saved as the baseline in " + BASELINE);
+            return;
+        }
+
+        double tolerance = Double.parseDouble(System.getProperty("benchmarks.tolerance",
+                String.valueOf(BaselineComparator.DEFAULT_TOLERANCE)));
+        List<String> regressions = BaselineComparator.compare(BASELINE, RESULTS, tolerance);
+        if (regressions.isEmpty()) {
+            System.out.println("No regressions against " + BASELINE);
+            return;
+        }
+
+        regressions.forEach(System.out::println);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,57 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.benchmarks;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.restServer.ApiResponse;
+import bg.sofia.uni.fmi.mjt.cryptowallet.restServer.ServerRequest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+
+final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+
+        try (var files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    // Answers at once without the network, every asset id exists and costs its index in the list
+    static class StubServerRequest extends ServerRequest {
+        private final List<Asset> assets = new ArrayList<>();
+
+        StubServerRequest(int assetsCount) {
+            for (int i = 0; i < assetsCount; i++) {
+                assets.add(asset("A" + i));
+            }
+        }
+
+        @Override
+        public CompletableFuture<ApiResponse<List<Asset>>> getAssets() {
+            return CompletableFuture.completedFuture(new ApiResponse<>(assets, HTTP_OK, null));
+        }
+
+        @Override
+        public CompletableFuture<ApiResponse<Asset>> getAssetById(String assetId) {
+            return CompletableFuture.completedFuture(new ApiResponse<>(asset(assetId), HTTP_OK, null));
+        }
+
+        private static Asset asset(String assetId) {
+            return new Asset(assetId, assetId, 1, assetId.length(), "", "");
+        }
+    }
+}
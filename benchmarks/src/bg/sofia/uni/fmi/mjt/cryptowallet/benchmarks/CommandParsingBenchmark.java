@@ -0,0 +1,48 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.benchmarks;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.command.Command;
+import bg.sofia.uni.fmi.mjt.cryptowallet.command.CommandCreator;
+import bg.sofia.uni.fmi.mjt.cryptowallet.command.CommandType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Every request line goes through these two on the selector thread
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParsingBenchmark {
+    @State(Scope.Thread)
+    public static class Input {
+        @Param({"get-wallet-summary", "buy --offering=BTC --money=100.50", "login \"user name\" \"pass word\""})
+        private String line;
+    }
+
+    // The first and the last of the declared commands, and one that is not declared
+    @State(Scope.Thread)
+    public static class Name {
+        @Param({"login", "help", "no-such-command"})
+        private String commandName;
+    }
+
+    @Benchmark
+    public Command newCommand(Input input) {
+        return CommandCreator.newCommand(input.line);
+    }
+
+    @Benchmark
+    public CommandType valueOfCommand(Name name) {
+        return CommandType.valueOfCommand(name.commandName);
+    }
+}
@@ -0,0 +1,83 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.benchmarks;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.HttpException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.NoSuchUserException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.UnauthorizedException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.LoginRateLimiter;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.PasswordHasher;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.PersistenceMode;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.User;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.UsersDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Cost of persisting one changed user against the number of stored users. The whole users file used to be
+// rewritten on every change, now a change appends the user to its shard, so this should stay flat.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+    private static final String PASSWORD = "password";
+    private static final int IMPORT_CHUNK_SIZE = 10_000;
+
+    @Param({"1000", "100000"})
+    private int usersCount;
+
+    @Param({"SYNC", "ASYNC"})
+    private PersistenceMode mode;
+
+    private Path directory;
+    private UsersDatabase usersDb;
+    private User user;
+
+    @Setup
+    public void setup() throws IOException, ClassNotFoundException, NoSuchUserException, HttpException {
+        directory = Files.createTempDirectory("persistence-benchmark");
+        usersDb = new UsersDatabase(directory.resolve("users.txt"), new PasswordHasher(1, 1, 1),
+                new LoginRateLimiter(), mode);
+
+        List<User> users = new ArrayList<>(IMPORT_CHUNK_SIZE);
+        for (int i = 0; i < usersCount; i++) {
+            users.add(new User("user" + i, PASSWORD, 100));
+            if (users.size() == IMPORT_CHUNK_SIZE || i == usersCount - 1) {
+                usersDb.importUsers(users);
+                users.clear();
+            }
+        }
+
+        usersDb.login("user0", PASSWORD);
+        user = usersDb.getUserByUsername("user0");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        usersDb.close();
+        Benchmarks.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public void deposit() throws UnauthorizedException, NoSuchUserException {
+        usersDb.deposit(user, 1);
+        usersDb.takePersisted(user).join();
+    }
+}
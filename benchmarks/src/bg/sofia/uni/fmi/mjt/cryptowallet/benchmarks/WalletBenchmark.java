@@ -0,0 +1,80 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.benchmarks;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.CryptoCurrencyNotInWalletException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.NotEnoughMoneyInWalletException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.HistoryStore;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Wallet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// The wallet is rebuilt for every iteration with historySize transactions, attached to a history store
+// like the loaded wallets of the server, so the sealing of full segments is part of the measured trades
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WalletBenchmark {
+    private static final String OWNER = "benchmark";
+    private static final double INITIAL_MONEY = 1_000_000_000.0;
+    private static final double TRADE_MONEY = 10.0;
+
+    @Param({"10", "1000", "100000"})
+    private int historySize;
+
+    private final Asset bitcoin = new Asset("BTC", "Bitcoin", 1, 25_000.0, "", "");
+    private final Asset ethereum = new Asset("ETH", "Ethereum", 1, 1_600.0, "", "");
+    private Path historyDirectory;
+    private Wallet wallet;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException, NotEnoughMoneyInWalletException {
+        historyDirectory = Files.createTempDirectory("wallet-benchmark");
+        wallet = new Wallet(INITIAL_MONEY);
+        wallet.attachHistory(new HistoryStore(historyDirectory), OWNER);
+        for (int i = 1; i < historySize; i++) {
+            wallet.buyCrypto(ethereum, TRADE_MONEY);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        Benchmarks.deleteRecursively(historyDirectory);
+    }
+
+    @Benchmark
+    public double buyThenSell() throws NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException {
+        wallet.buyCrypto(bitcoin, TRADE_MONEY);
+        return wallet.sellCrypto(bitcoin);
+    }
+
+    @Benchmark
+    public String summary() {
+        return wallet.getWalletSummary();
+    }
+
+    // A change drops the cached summary, so this is the cost of building it
+    @Benchmark
+    public String summaryAfterChange() {
+        wallet.deposit(TRADE_MONEY);
+        return wallet.getWalletSummary();
+    }
+}
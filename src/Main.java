@@ -1,15 +1,28 @@
 import bg.sofia.uni.fmi.mjt.cryptowallet.Server;
 import bg.sofia.uni.fmi.mjt.cryptowallet.assets.AssetsDatabase;
+import bg.sofia.uni.fmi.mjt.cryptowallet.audit.AuditLog;
 import bg.sofia.uni.fmi.mjt.cryptowallet.command.CommandExecutor;
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.LoopWatchdog;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.ServerMetrics;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.OrderMatcher;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.RecurringBuyScheduler;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.TriggerEngine;
 import bg.sofia.uni.fmi.mjt.cryptowallet.restServer.ServerRequest;
 import bg.sofia.uni.fmi.mjt.cryptowallet.users.UsersDatabase;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Leaderboard;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Path;
 
 public class Main {
     private static final String USERS_FILE = "resources/users.txt";
     private static final int SERVER_PORT = 6666;
+    private static final long STALL_THRESHOLD_MILLIS = Long.getLong("cryptowallet.stall.threshold.millis", 100);
+    private static final String METRICS_NAME = "bg.sofia.uni.fmi.mjt.cryptowallet:type=ServerMetrics";
 
     public static void main(String[] args) {
        /* Map<String, User> m = new HashMap<>();
@@ -25,14 +38,55 @@ public class Main {
         ServerRequest requestToApi = new ServerRequest();
         try {
             UsersDatabase usersDb = new UsersDatabase(Path.of(USERS_FILE));
+            AuditLog auditLog = new AuditLog(Path.of(USERS_FILE + ".audit"));
+            usersDb.setAuditLog(auditLog);
             AssetsDatabase assetsDb = new AssetsDatabase(requestToApi);
+            OrderMatcher orderMatcher = new OrderMatcher(usersDb, Path.of(USERS_FILE + ".orders"));
+            assetsDb.addPriceListener(orderMatcher);
+            TriggerEngine triggerEngine = new TriggerEngine(usersDb, Path.of(USERS_FILE + ".triggers"));
+            assetsDb.addPriceListener(triggerEngine);
+            RecurringBuyScheduler scheduler = new RecurringBuyScheduler(usersDb, assetsDb,
+                    Path.of(USERS_FILE + ".schedules"));
+            Leaderboard leaderboard = new Leaderboard();
+            usersDb.addWalletListener(leaderboard);
+            assetsDb.addPriceListener(leaderboard);
+            leaderboard.load(usersDb);
 
-            CommandExecutor commandExecutor = new CommandExecutor(assetsDb, usersDb);
-            Server server = new Server(SERVER_PORT, commandExecutor, usersDb);
+            ServerMetrics metrics = new ServerMetrics(assetsDb, usersDb.getPersister(),
+                    new LoopWatchdog(STALL_THRESHOLD_MILLIS));
+            registerMetrics(metrics);
+
+            CommandExecutor commandExecutor = new CommandExecutor(assetsDb, usersDb, orderMatcher, triggerEngine,
+                    scheduler, leaderboard, metrics);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    orderMatcher.close();
+                    triggerEngine.close();
+                    scheduler.close();
+                    leaderboard.close();
+                    usersDb.close();
+                    auditLog.close();
+                } catch (IOException e) {
+                    System.out.println("Error occurred while shutting down: " + e.getMessage());
+                }
+                ErrorLogger.close();
+            }));
+
+            Server server = new Server(SERVER_PORT, commandExecutor, usersDb, metrics);
+            assetsDb.addPriceListener(server);
             server.start();
         } catch (IOException | ClassNotFoundException e) {
             System.out.println("Error occurred while starting server: " + e.getMessage());
         }
 
     }
+
+    // The server keeps working without JMX, the metrics are also shown by the stats command
+    private static void registerMetrics(ServerMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(METRICS_NAME));
+        } catch (JMException e) {
+            System.out.println("Error occurred while registering the server metrics: " + e.getMessage());
+        }
+    }
 }
\ No newline at end of file
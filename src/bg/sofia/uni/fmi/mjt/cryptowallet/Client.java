@@ -1,26 +1,27 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet;
 
+import bg.sofia.uni.fmi.mjt.cryptowallet.client.WalletClient;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.CommandFailedException;
 import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
 
 import java.io.IOException;
-import java.net.ConnectException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 
 public class Client {
     private static final int SERVER_PORT = 6666;
     private static final String HOST = "localhost";
     private static final String EXIT = "exit";
-    private static final int BUFFER_SIZE = 10000;
-    private static ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private static final long TIMEOUT_MILLIS = 60_000;
+    private static final String OFFERING = "--offering=";
 
     public static void main(String[] args) {
-        try (SocketChannel socketChannel = SocketChannel.open();
+        try (WalletClient client = new WalletClient(new InetSocketAddress(HOST, SERVER_PORT), 1, TIMEOUT_MILLIS);
              Scanner scanner = new Scanner(System.in)) {
-            socketChannel.connect(new InetSocketAddress(HOST, SERVER_PORT));
-
+            client.setPushListener(price -> System.out.println("Price update: " + price));
             while (true) {
                 String message = scanner.nextLine(); // read a line from the console
 
@@ -28,38 +29,44 @@ public class Client {
                     break;
                 }
 
-                if (message != null && !message.isEmpty()) {
-                    writeMessageToChannel(message, socketChannel);
+                if (message != null && !message.isBlank()) {
+                    System.out.println(getResponse(client, message));
                 }
-
-                String reply = getResponse(socketChannel); // buffer drain
-                System.out.println(reply);
             }
-        } catch (ConnectException e) {
-            System.out.println("Something went wrong on our end. " +
-                    "Try again later or contact administrator by providing the logs in resources/errors.txt");
-            ErrorLogger.logException(e);
         } catch (IOException e) {
             System.out.println("There is a problem with the network communication");
-            e.printStackTrace();
             ErrorLogger.logException(e);
         }
     }
 
-    private static String getResponse(SocketChannel socketChannel) throws IOException {
-        buffer.clear();
-        socketChannel.read(buffer);
-        buffer.flip();
-
-        byte[] byteArray = new byte[buffer.remaining()];
-        buffer.get(byteArray);
-        return new String(byteArray, "UTF-8");
-    }
+    // Login, register and subscribe go through the client, so that it restores them after a lost connection
+    private static String getResponse(WalletClient client, String message) {
+        String[] words = message.trim().split("\\s+");
+        CompletableFuture<String> reply;
+        if (words.length == 3 && words[0].equals("login")) {
+            reply = client.login(words[1], words[2]);
+        } else if (words.length == 3 && words[0].equals("register")) {
+            reply = client.register(words[1], words[2]);
+        } else if (words.length == 2 && words[0].equals("subscribe") && words[1].startsWith(OFFERING)) {
+            reply = client.subscribe(words[1].substring(OFFERING.length()).split(","));
+        } else if (words.length == 1 && words[0].equals("unsubscribe")) {
+            reply = client.unsubscribe();
+        } else {
+            reply = client.execute(message);
+        }
 
-    private static void writeMessageToChannel(String message, SocketChannel socketChannel) throws IOException {
-        buffer.clear();  // switch to writing mode
-        buffer.put(message.getBytes());
-        buffer.flip();  // switch to reading mode
-        socketChannel.write(buffer);
+        try {
+            return reply.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof CommandFailedException failed) {
+                return failed.getMessage();
+            }
+            if (e.getCause() instanceof TimeoutException) {
+                return "The server did not answer in time, please try again";
+            }
+            ErrorLogger.logException(e);
+            return "Something went wrong on our end. " +
+                    "Try again later or contact administrator by providing the logs in resources/errors.txt";
+        }
     }
 }
@@ -0,0 +1,142 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.protocol.Frames;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.User;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+// State of one connection, attached to its key and only used by the selector thread. Requests are cut out of the
+// read bytes at the new lines, replies wait in the output queue until the socket takes them. While a command of the
+// connection runs in the background the next requests stay in the input, so that the replies keep their order and
+// a command after login already sees the user. Price pushes wait apart from the replies and only the newest one of
+// an asset is kept, so a slow subscriber gets the latest prices instead of a growing backlog.
+class ClientSession {
+    private static final int INITIAL_INPUT_BYTES = 1024;
+    private static final int MAX_REQUEST_BYTES = 64 * 1024;
+    // Above it the connection is not read until the client takes its replies
+    private static final int MAX_PENDING_OUTPUT_BYTES = 1024 * 1024;
+
+    private ByteBuffer input = ByteBuffer.allocate(INITIAL_INPUT_BYTES).flip();
+    private int scannedBytes;
+    private final Queue<ByteBuffer> output = new ArrayDeque<>();
+    private long pendingOutputBytes;
+    private final Map<String, ByteBuffer> pendingPushes = new LinkedHashMap<>();
+    private Set<String> subscription = Set.of();
+    private User user;
+    private boolean isWaiting;
+
+    // The count of read bytes, -1 at the end of the stream
+    int readFrom(ReadableByteChannel channel) throws IOException {
+        input.compact();
+        if (!input.hasRemaining()) {
+            if (input.capacity() >= MAX_REQUEST_BYTES) {
+                throw new ProtocolException("Request is longer than " + MAX_REQUEST_BYTES + " bytes");
+            }
+            ByteBuffer larger = ByteBuffer.allocate(input.capacity() * 2);
+            larger.put(input.flip());
+            input = larger;
+        }
+
+        int read = channel.read(input);
+        input.flip();
+        return read;
+    }
+
+    // The next whole request without its line end, null when it has not arrived yet
+    String nextLine() {
+        int start = input.position();
+        for (int i = start + scannedBytes; i < input.limit(); i++) {
+            if (input.get(i) == Frames.REQUEST_END) {
+                int end = i > start && input.get(i - 1) == '\r' ? i - 1 : i;
+                String line = new String(input.array(), start, end - start, StandardCharsets.UTF_8);
+                input.position(i + 1);
+                scannedBytes = 0;
+                return line;
+            }
+        }
+
+        scannedBytes = input.remaining();
+        return null;
+    }
+
+    void queue(byte type, String payload) {
+        ByteBuffer frame = Frames.encode(type, payload);
+        pendingOutputBytes += frame.remaining();
+        output.add(frame);
+    }
+
+    // Returns whether an older price of the asset was replaced
+    boolean push(String assetId, ByteBuffer frame) {
+        return pendingPushes.put(assetId, frame.duplicate()) != null;
+    }
+
+    // Writes until the socket is full, returns the count of written bytes. The pushes are queued after the
+    // replies are written, until then a newer price can still replace them.
+    long flushTo(GatheringByteChannel channel) throws IOException {
+        long written = write(channel);
+        if (output.isEmpty() && !pendingPushes.isEmpty()) {
+            for (ByteBuffer frame : pendingPushes.values()) {
+                pendingOutputBytes += frame.remaining();
+                output.add(frame);
+            }
+            pendingPushes.clear();
+            written += write(channel);
+        }
+        return written;
+    }
+
+    boolean hasPendingOutput() {
+        return !output.isEmpty() || !pendingPushes.isEmpty();
+    }
+
+    boolean isOutputFull() {
+        return pendingOutputBytes > MAX_PENDING_OUTPUT_BYTES;
+    }
+
+    Set<String> getSubscription() {
+        return subscription;
+    }
+
+    void setSubscription(Set<String> assetIds) {
+        subscription = assetIds;
+    }
+
+    User getUser() {
+        return user;
+    }
+
+    void setUser(User user) {
+        this.user = user;
+    }
+
+    boolean isWaiting() {
+        return isWaiting;
+    }
+
+    void setWaiting(boolean waiting) {
+        isWaiting = waiting;
+    }
+
+    private long write(GatheringByteChannel channel) throws IOException {
+        if (output.isEmpty()) {
+            return 0;
+        }
+
+        long written = channel.write(output.toArray(ByteBuffer[]::new));
+        while (!output.isEmpty() && !output.peek().hasRemaining()) {
+            output.poll();
+        }
+        pendingOutputBytes -= written;
+        return written;
+    }
+}
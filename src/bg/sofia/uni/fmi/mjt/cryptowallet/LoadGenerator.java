@@ -0,0 +1,354 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.LatencyHistogram;
+import bg.sofia.uni.fmi.mjt.cryptowallet.protocol.Frame;
+import bg.sofia.uni.fmi.mjt.cryptowallet.protocol.FrameReader;
+import bg.sofia.uni.fmi.mjt.cryptowallet.protocol.Frames;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+// Headless load for the wallet server, all connections are driven by one selector thread.
+//   LoadGenerator [--host=localhost] [--port=6666] [--connections=100] [--seconds=30] [--warmup=5]
+//                 [--rate=<requests per second>] [--think=<millis>] [--offering=BTC] [--users=load]
+//                 [--mix=buy:25,sell:15,get-wallet-summary:30,get-wallet-overall-summary:10,list-offerings:10,deposit-money:10]
+// Every connection first registers (or logs in) its own user and deposits money, then sends one request at a time.
+// With --rate the requests are sent at a fixed rate whatever the server does (open loop) and the latency is
+// measured from the moment a request was due, so the time it waited for a free connection is included.
+// Only the replies received after the warmup are counted.
+// Without it every connection sends its next request --think millis after the previous response (closed loop),
+// which only measures the service time. Login and register in the mix are hashed by the server like real ones,
+// a register leaves the connection logged in as the new user, who has no money.
+public class LoadGenerator {
+    private static final int BUFFER_SIZE = 10000;
+    private static final String PASSWORD = "load-password";
+    private static final String DEPOSIT = "1000000000";
+    private static final String TRADE_MONEY = "10";
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+    private static final String DEFAULT_MIX = "buy:25,sell:15,get-wallet-summary:30,get-wallet-overall-summary:10,"
+            + "list-offerings:10,deposit-money:10";
+    // Replies of the server that are not errors of the command, everything else counts as an error
+    private static final Map<String, Predicate<String>> SUCCESS = Map.of(
+            "register", reply -> reply.startsWith("Registered successfully"),
+            "login", reply -> reply.startsWith("Logged in successfully"),
+            "deposit-money", reply -> reply.endsWith("were deposited to your account"),
+            "buy", reply -> reply.endsWith("was successfully bought"),
+            "sell", reply -> reply.endsWith("was successfully sold"),
+            "list-offerings", reply -> !isGenericError(reply),
+            "get-wallet-summary", reply -> !isGenericError(reply),
+            "get-wallet-overall-summary", reply -> !isGenericError(reply));
+
+    private final InetSocketAddress address;
+    private final int connectionsCount;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final double rate;
+    private final long thinkNanos;
+    private final String offering;
+    private final String usersPrefix;
+    private final String[] mixNames;
+    private final int[] mixWeights;
+    private final int totalWeight;
+    private final SplittableRandom random = new SplittableRandom();
+
+    private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+    private final Map<String, Long> errors = new HashMap<>();
+    private final Queue<Long> dueRequests = new ArrayDeque<>();
+    // In the order they got their replies, which is also the order they are ready to send again
+    private final Queue<Connection> idleConnections = new ArrayDeque<>();
+    private long measureFrom = Long.MAX_VALUE;
+    private long registeredCount;
+    private long disconnectedCount;
+
+    public LoadGenerator(Map<String, String> options) {
+        address = new InetSocketAddress(options.getOrDefault("--host", "localhost"),
+                Integer.parseInt(options.getOrDefault("--port", "6666")));
+        connectionsCount = Integer.parseInt(options.getOrDefault("--connections", "100"));
+        durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("--seconds", "30")));
+        warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("--warmup", "5")));
+        rate = Double.parseDouble(options.getOrDefault("--rate", "0"));
+        thinkNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(options.getOrDefault("--think", "0")));
+        offering = options.getOrDefault("--offering", "BTC");
+        usersPrefix = options.getOrDefault("--users", "load");
+
+        String[] mix = options.getOrDefault("--mix", DEFAULT_MIX).split(",");
+        mixNames = new String[mix.length];
+        mixWeights = new int[mix.length];
+        int weights = 0;
+        for (int i = 0; i < mix.length; i++) {
+            String[] entry = mix[i].split(":");
+            if (entry.length != 2 || !SUCCESS.containsKey(entry[0])) {
+                throw new IllegalArgumentException("Unknown command in the mix: " + mix[i]);
+            }
+            mixNames[i] = entry[0];
+            weights += Integer.parseInt(entry[1]);
+            mixWeights[i] = weights;
+            histograms.put(entry[0], new LatencyHistogram());
+        }
+        totalWeight = weights;
+        if (connectionsCount <= 0 || totalWeight <= 0 || rate < 0) {
+            throw new IllegalArgumentException("Connections and mix weights must be positive, the rate not negative");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                System.out.println("Options are given as --name=value, unknown " + arg);
+                return;
+            }
+            options.put(option[0], option[1]);
+        }
+
+        LoadGenerator generator = new LoadGenerator(options);
+        System.out.println(generator.run());
+    }
+
+    public String run() throws IOException {
+        try (Selector selector = Selector.open()) {
+            List<Connection> connections = connect(selector);
+            awaitSetup(selector);
+
+            long start = System.nanoTime();
+            measureFrom = start + warmupNanos;
+            long end = measureFrom + durationNanos;
+            long periodNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+            long nextDue = start;
+
+            long now = start;
+            while (now < end) {
+                long wakeAt = end;
+                if (periodNanos > 0) {
+                    for (; nextDue <= now; nextDue += periodNanos) {
+                        dueRequests.add(nextDue);
+                    }
+                    while (!dueRequests.isEmpty() && !idleConnections.isEmpty()) {
+                        Connection connection = idleConnections.poll();
+                        sendOrDrop(connection, nextCommand(connection.username), dueRequests.poll());
+                    }
+                    wakeAt = nextDue;
+                } else {
+                    while (!idleConnections.isEmpty() && idleConnections.peek().readyAt <= now) {
+                        Connection connection = idleConnections.poll();
+                        sendOrDrop(connection, nextCommand(connection.username), now);
+                    }
+                    if (!idleConnections.isEmpty()) {
+                        wakeAt = Math.min(end, idleConnections.peek().readyAt);
+                    }
+                }
+
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wakeAt - now)));
+                now = System.nanoTime();
+                processSelected(selector, now);
+            }
+
+            for (Connection connection : connections) {
+                connection.channel.close();
+            }
+            return report(measureFrom, end);
+        }
+    }
+
+    private List<Connection> connect(Selector selector) throws IOException {
+        List<Connection> connections = new ArrayList<>(connectionsCount);
+        for (int i = 0; i < connectionsCount; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel, usersPrefix + i);
+            channel.connect(address);
+            channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            connections.add(connection);
+        }
+        return connections;
+    }
+
+    private void awaitSetup(Selector selector) throws IOException {
+        while (registeredCount + disconnectedCount < connectionsCount) {
+            selector.select();
+            processSelected(selector, System.nanoTime());
+        }
+    }
+
+    private void processSelected(Selector selector, long now) throws IOException {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isConnectable()) {
+                    connection.channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_READ);
+                    connection.send("register " + connection.username + " " + PASSWORD, now);
+                } else if (key.isReadable()) {
+                    connection.read(now);
+                }
+            } catch (IOException e) {
+                key.cancel();
+                connection.channel.close();
+                disconnectedCount++;
+            }
+        }
+    }
+
+    private void sendOrDrop(Connection connection, String line, long due) throws IOException {
+        try {
+            connection.send(line, due);
+        } catch (IOException e) {
+            connection.channel.close();
+            disconnectedCount++;
+        }
+    }
+
+    private String nextCommand(String username) {
+        int pick = random.nextInt(totalWeight);
+        int i = 0;
+        while (mixWeights[i] <= pick) {
+            i++;
+        }
+
+        return switch (mixNames[i]) {
+            case "register" -> "register " + usersPrefix + "-" + random.nextLong(Long.MAX_VALUE) + " " + PASSWORD;
+            case "login" -> "login " + username + " " + PASSWORD;
+            case "deposit-money" -> "deposit-money " + TRADE_MONEY;
+            case "buy" -> "buy --offering=" + offering + " --money=" + TRADE_MONEY;
+            case "sell" -> "sell --offering=" + offering;
+            default -> mixNames[i];
+        };
+    }
+
+    private String report(long measureFrom, long end) {
+        double seconds = (double) (end - measureFrom) / TimeUnit.SECONDS.toNanos(1);
+        LatencyHistogram total = new LatencyHistogram();
+        long totalErrors = 0;
+        StringBuilder result = new StringBuilder(String.format("%s loop, %d connections (%d lost), %.0f s%n",
+                rate > 0 ? "Open" : "Closed", connectionsCount, disconnectedCount, seconds));
+        result.append(String.format("%-28s %10s %10s %10s %10s %10s %10s %10s%n",
+                "command", "count", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            long commandErrors = errors.getOrDefault(entry.getKey(), 0L);
+            appendLine(result, entry.getKey(), entry.getValue(), commandErrors, seconds);
+            total.merge(entry.getValue());
+            totalErrors += commandErrors;
+        }
+        appendLine(result, "total", total, totalErrors, seconds);
+
+        if (rate > 0) {
+            result.append(String.format("%d requests were still waiting for a free connection at the end%n",
+                    dueRequests.size()));
+        }
+        return result.toString().trim();
+    }
+
+    private static void appendLine(StringBuilder result, String name, LatencyHistogram histogram, long errors,
+                                   double seconds) {
+        result.append(String.format("%-28s %10d %10d %10.1f", name, histogram.count(), errors,
+                histogram.count() / seconds));
+        for (double percentile : PERCENTILES) {
+            result.append(String.format(" %10.3f", toMillis(histogram.valueAtPercentile(percentile))));
+        }
+        result.append(String.format(" %10.3f%n", toMillis(histogram.max())));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static boolean isGenericError(String reply) {
+        return reply.startsWith("Something went wrong") || reply.startsWith("Please check your internet")
+                || reply.startsWith("Unregistered user") || reply.startsWith("Too many");
+    }
+
+    // One request in flight per connection, its reply is the next frame
+    private final class Connection {
+        private final SocketChannel channel;
+        private final String username;
+        private final FrameReader reader = new FrameReader(BUFFER_SIZE);
+        private String command;
+        private long dueAt;
+        private long readyAt;
+        private boolean isSetUp;
+
+        Connection(SocketChannel channel, String username) {
+            this.channel = channel;
+            this.username = username;
+        }
+
+        void send(String line, long due) throws IOException {
+            command = line;
+            dueAt = due;
+            ByteBuffer buffer = ByteBuffer.wrap(Frames.request(command));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        void read(long now) throws IOException {
+            if (reader.readFrom(channel) < 0) {
+                throw new IOException("Connection closed by the server");
+            }
+            Frame frame = reader.next();
+            if (frame == null || command == null) {
+                return;
+            }
+
+            String reply = frame.payload();
+            String name = command.substring(0, command.indexOf(' ') < 0 ? command.length() : command.indexOf(' '));
+            command = null;
+            if (!isSetUp) {
+                continueSetup(name, reply, now);
+                return;
+            }
+
+            if (now >= measureFrom) {
+                histograms.get(name).record(now - dueAt);
+                if (frame.isError() || !SUCCESS.get(name).test(reply)) {
+                    errors.merge(name, 1L, Long::sum);
+                }
+            }
+            readyAt = rate > 0 ? now : now + thinkNanos;
+            idleConnections.add(this);
+        }
+
+        // register, or login when the user is left from an earlier run, then deposit-money
+        private void continueSetup(String name, String reply, long now) throws IOException {
+            switch (name) {
+                case "register" -> {
+                    if (SUCCESS.get(name).test(reply)) {
+                        send("deposit-money " + DEPOSIT, now);
+                    } else {
+                        send("login " + username + " " + PASSWORD, now);
+                    }
+                }
+                case "login" -> {
+                    if (!SUCCESS.get(name).test(reply)) {
+                        throw new IOException("Could not log in as " + username + ": " + reply);
+                    }
+                    send("deposit-money " + DEPOSIT, now);
+                }
+                default -> {
+                    isSetUp = true;
+                    registeredCount++;
+                    idleConnections.add(this);
+                }
+            }
+        }
+    }
+}
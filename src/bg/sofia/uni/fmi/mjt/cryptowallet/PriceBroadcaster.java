@@ -0,0 +1,73 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.protocol.Frames;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Subscriptions of the connections to prices. A new price is encoded once, on the thread that published it, and
+// the same read only frame is queued for all its subscribers. A price that did not change is not pushed again.
+// The subscriptions are only used by the selector thread.
+class PriceBroadcaster {
+    private final Map<String, EncodedPrice> latest = new ConcurrentHashMap<>();
+    private final Map<String, Set<SelectionKey>> subscribers = new HashMap<>();
+
+    // The frames of the changed prices by asset id, called from any thread
+    Map<String, ByteBuffer> encode(Collection<Asset> assets) {
+        Map<String, ByteBuffer> frames = new LinkedHashMap<>();
+        for (Asset asset : assets) {
+            EncodedPrice previous = latest.get(asset.assetId());
+            if (previous == null || previous.price() != asset.priceUsd()) {
+                frames.put(asset.assetId(), encode(asset).frame());
+            }
+        }
+        return frames;
+    }
+
+    // The frame of the current price, shared with the pushes of the same price
+    ByteBuffer frameOf(Asset asset) {
+        EncodedPrice previous = latest.get(asset.assetId());
+        return previous != null && previous.price() == asset.priceUsd() ? previous.frame() : encode(asset).frame();
+    }
+
+    void subscribe(SelectionKey key, Collection<String> assetIds) {
+        for (String assetId : assetIds) {
+            subscribers.computeIfAbsent(assetId, ignored -> new HashSet<>()).add(key);
+        }
+    }
+
+    void unsubscribe(SelectionKey key, Collection<String> assetIds) {
+        for (String assetId : assetIds) {
+            Set<SelectionKey> keys = subscribers.get(assetId);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    subscribers.remove(assetId);
+                }
+            }
+        }
+    }
+
+    Set<SelectionKey> subscribersOf(String assetId) {
+        return subscribers.getOrDefault(assetId, Set.of());
+    }
+
+    private EncodedPrice encode(Asset asset) {
+        String payload = asset.assetId() + " " + BigDecimal.valueOf(asset.priceUsd()).toPlainString();
+        EncodedPrice price = new EncodedPrice(asset.priceUsd(), Frames.encode(Frames.PUSH, payload).asReadOnlyBuffer());
+        latest.put(asset.assetId(), price);
+        return price;
+    }
+
+    private record EncodedPrice(double price, ByteBuffer frame) {
+    }
+}
@@ -1,11 +1,17 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet;
 
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.PriceListener;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.PriceSnapshot;
 import bg.sofia.uni.fmi.mjt.cryptowallet.command.Command;
 import bg.sofia.uni.fmi.mjt.cryptowallet.command.CommandCreator;
 import bg.sofia.uni.fmi.mjt.cryptowallet.command.CommandExecutor;
 import bg.sofia.uni.fmi.mjt.cryptowallet.command.CommandType;
 import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.*;
 import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.LoopWatchdog;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.ServerMetrics;
+import bg.sofia.uni.fmi.mjt.cryptowallet.protocol.Frames;
 import bg.sofia.uni.fmi.mjt.cryptowallet.users.User;
 import bg.sofia.uni.fmi.mjt.cryptowallet.users.UsersDatabase;
 
@@ -17,72 +23,58 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-public class Server {
+public class Server implements PriceListener {
     private static final String USERS_FILE = "resources/users.txt";
     private static final int SERVER_PORT = 6666;
-    private static final int BUFFER_SIZE = 10000;
     private static final String HOST = "localhost";
     private final UsersDatabase usersDb;
     private final CommandExecutor commandExecutor;
+    private final ServerMetrics metrics;
+    private final LoopWatchdog watchdog;
 
     private final int port;
     private boolean isWorking = true;
 
-    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
-    private Selector selector;
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final PriceBroadcaster broadcaster = new PriceBroadcaster();
+    private volatile Selector selector;
 
-    public Server(int port, CommandExecutor cmdExecutor, UsersDatabase users) {
+    public Server(int port, CommandExecutor cmdExecutor, UsersDatabase users, ServerMetrics serverMetrics) {
         this.port = port;
         commandExecutor = cmdExecutor;
         usersDb = users;
+        metrics = serverMetrics;
+        watchdog = serverMetrics.loopWatchdog();
     }
 
     public void start() {
         try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
             selector = Selector.open();
             configureServerSocketChannel(serverSocketChannel, selector);
+            watchdog.start();
             while (isWorking) {
                 try {
                     int readyChannels = selector.select();
-                    if (readyChannels == 0) {
-                        continue;
-                    }
-
-                    Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
-                    while (keyIterator.hasNext()) {
-                        SelectionKey key = keyIterator.next();
-
-                        if (key.isReadable()) {
-                            SocketChannel clientChannel = (SocketChannel) key.channel();
-                            String clientInput = getClientInput(clientChannel);
-                            if (clientInput == null) {
-                                clientChannel.close();
-                                keyIterator.remove();
-                                continue;
-                            }
-
-                            try {
-                                executeCommand(key, clientChannel, clientInput);
-                            } catch (UserAlreadyExistsException | HttpException | IllegalArgumentException |
-                                     URISyntaxException e) {
-                                writeOutput(clientChannel, e.getMessage());
-                            } catch (CompletionException e) {
-                                ErrorLogger.logException(e);
-                                writeOutput(clientChannel,
-                                        "Please check your internet connection and try again");
-                            } catch (Exception e) {
-                                ErrorLogger.logException(e);
-                                writeOutput(clientChannel, "Something went wrong... Please try again later");
-                            }
-                        } else if (key.isAcceptable()) {
-                            accept(selector, key);
+                    watchdog.iterationStarted();
+                    try {
+                        runSelectorTasks();
+                        if (readyChannels > 0) {
+                            handleSelectedKeys();
                         }
-
-                        keyIterator.remove();
+                    } finally {
+                        watchdog.iterationFinished();
                     }
                 } catch (IOException e) {
                     ErrorLogger.logException(e);
@@ -91,6 +83,17 @@ public class Server {
             }
         } catch (IOException e) {
             ErrorLogger.logException(e);
+        } finally {
+            watchdog.close();
+        }
+    }
+
+    // The frames are encoded on the publishing thread, the selector thread only queues them for the subscribers
+    @Override
+    public void onPricesUpdated(PriceSnapshot snapshot, Collection<Asset> updatedAssets) {
+        Map<String, ByteBuffer> frames = broadcaster.encode(updatedAssets);
+        if (!frames.isEmpty()) {
+            runOnSelector(() -> pushPrices(frames));
         }
     }
 
@@ -107,59 +110,285 @@ public class Server {
         channel.register(selector, SelectionKey.OP_ACCEPT);
     }
 
-    private String getClientInput(SocketChannel clientChannel) throws IOException {
-        buffer.clear();
+    private void handleSelectedKeys() throws IOException {
+        Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+        while (keyIterator.hasNext()) {
+            SelectionKey key = keyIterator.next();
+            keyIterator.remove();
+
+            if (key.isAcceptable()) {
+                accept(selector, key);
+                continue;
+            }
+
+            try {
+                if (key.isWritable()) {
+                    flush(key);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read(key);
+                }
+            } catch (IOException e) {
+                close(key);
+            }
+        }
+    }
 
-        int readBytes = clientChannel.read(buffer);
+    private void read(SelectionKey key) throws IOException {
+        ClientSession session = (ClientSession) key.attachment();
+        int readBytes = session.readFrom((SocketChannel) key.channel());
         if (readBytes < 0) {
-            clientChannel.close();
-            return null;
+            close(key);
+            return;
         }
 
-        buffer.flip();
+        metrics.bytesRead(readBytes);
+        executeRequests(key);
+    }
 
-        byte[] clientInputBytes = new byte[buffer.remaining()];
-        buffer.get(clientInputBytes);
+    // Runs the complete requests in order, until one of them continues in the background
+    private void executeRequests(SelectionKey key) throws IOException {
+        ClientSession session = (ClientSession) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        String line;
+        while (!session.isWaiting() && (line = session.nextLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
 
-        return new String(clientInputBytes, StandardCharsets.UTF_8);
+            long startedAt = System.nanoTime();
+            Command command = CommandCreator.newCommand(line);
+            watchdog.processing(command.command(), channel);
+            try {
+                executeCommand(key, session, command, startedAt);
+            } catch (Exception e) {
+                session.queue(Frames.ERROR, errorMessage(e));
+                metrics.commandFailed(command.command(), e, System.nanoTime() - startedAt);
+            }
+        }
+        flush(key);
     }
 
-    private void executeCommand(SelectionKey key, SocketChannel channel, String input) throws IOException, HttpException, URISyntaxException,
-            NoSuchUserException, UserAlreadyExistsException, NoSuchAssetException, NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException {
-        Command command = CommandCreator.newCommand(input);
+    private void executeCommand(SelectionKey key, ClientSession session, Command command, long startedAt)
+            throws HttpException, URISyntaxException, NoSuchUserException, UserAlreadyExistsException,
+            NoSuchAssetException, NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException {
         CommandType commandType = command.command();
 
-        String output = switch (commandType) {
-            case LOGIN, REGISTER: {
-                String cmdResult = commandExecutor.execute(command);
-                User user = usersDb.getUserByUsername(command.arguments()[0]);
-                key.attach(user);
-                yield cmdResult;
+        if (commandType == CommandType.LOGIN || commandType == CommandType.REGISTER) {
+            CompletableFuture<User> authenticated = commandExecutor.authenticate(command);
+            session.setWaiting(true);
+            authenticated.whenComplete((user, error) ->
+                    runOnSelector(() -> completeAuthentication(key, command, user, error, startedAt)));
+            return;
+        }
+        if (commandType == CommandType.PLATFORM_REPORT && session.getUser() != null) {
+            CompletableFuture<String> report = commandExecutor.executeAsync(command, session.getUser());
+            session.setWaiting(true);
+            report.whenComplete((output, error) ->
+                    runOnSelector(() -> completeCommand(key, commandType, output, error, startedAt)));
+            return;
+        }
+
+        if (commandType == CommandType.SUBSCRIBE || commandType == CommandType.UNSUBSCRIBE) {
+            List<Asset> prices = commandType == CommandType.SUBSCRIBE
+                    ? commandExecutor.subscriptionAssets(command) : List.of();
+            subscribe(key, session, prices);
+            session.queue(Frames.REPLY, prices.isEmpty() ? "Unsubscribed"
+                    : "Subscribed to " + String.join(", ", session.getSubscription()));
+            metrics.commandCompleted(commandType, System.nanoTime() - startedAt);
+            return;
+        }
+
+        if (commandType != CommandType.LIST_CRYPTO && commandType != CommandType.HELP && session.getUser() == null) {
+            session.queue(Frames.ERROR, "Unregistered user cannot execute this command");
+            metrics.commandCompleted(commandType, System.nanoTime() - startedAt);
+            return;
+        }
+
+        if (commandType == CommandType.LIST_CRYPTO || commandType == CommandType.HELP) {
+            session.queue(Frames.REPLY, commandExecutor.execute(command));
+            metrics.commandCompleted(commandType, System.nanoTime() - startedAt);
+            return;
+        }
+
+        // The change of the command is applied, the reply waits until it is on the disk
+        String output = commandExecutor.execute(command, session.getUser());
+        CompletableFuture<Void> persisted = usersDb.takePersisted(session.getUser());
+        if (persisted.isDone() && !persisted.isCompletedExceptionally()) {
+            session.queue(Frames.REPLY, output);
+            metrics.commandCompleted(commandType, System.nanoTime() - startedAt);
+            return;
+        }
+        session.setWaiting(true);
+        persisted.whenComplete((ignored, error) ->
+                runOnSelector(() -> completeCommand(key, commandType, output, error, startedAt)));
+    }
+
+    // Replaces the subscription of the connection and pushes the current prices of the new one
+    private void subscribe(SelectionKey key, ClientSession session, List<Asset> prices) {
+        Set<String> assetIds = new LinkedHashSet<>();
+        for (Asset asset : prices) {
+            assetIds.add(asset.assetId());
+        }
+
+        boolean wasSubscribed = !session.getSubscription().isEmpty();
+        broadcaster.unsubscribe(key, session.getSubscription());
+        broadcaster.subscribe(key, assetIds);
+        session.setSubscription(assetIds);
+        if (!wasSubscribed && !assetIds.isEmpty()) {
+            metrics.subscribed();
+        } else if (wasSubscribed && assetIds.isEmpty()) {
+            metrics.unsubscribed();
+        }
+
+        for (Asset asset : prices) {
+            session.push(asset.assetId(), broadcaster.frameOf(asset));
+        }
+    }
+
+    private void pushPrices(Map<String, ByteBuffer> frames) {
+        Set<SelectionKey> touched = new HashSet<>();
+        long pushed = 0;
+        long coalesced = 0;
+        for (Map.Entry<String, ByteBuffer> frame : frames.entrySet()) {
+            for (SelectionKey key : broadcaster.subscribersOf(frame.getKey())) {
+                if (((ClientSession) key.attachment()).push(frame.getKey(), frame.getValue())) {
+                    coalesced++;
+                }
+                pushed++;
+                touched.add(key);
             }
-            case LIST_CRYPTO, HELP: {
-                yield commandExecutor.execute(command);
+        }
+        metrics.pricesPushed(pushed, coalesced);
+
+        for (SelectionKey key : touched) {
+            if (!key.isValid()) {
+                continue;
             }
-            default: {
-                if (key.attachment() == null) {
-                    yield "Unregistered user cannot execute this command";
-                }
+            try {
+                flush(key);
+            } catch (IOException e) {
+                close(key);
+            }
+        }
+    }
+
+    // Tasks posted before the server started run in its first iteration
+    private void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        Selector current = selector;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    private void runSelectorTasks() {
+        Runnable task;
+        while ((task = selectorTasks.poll()) != null) {
+            task.run();
+        }
+    }
 
-                User user = (User) key.attachment();
-                String cmdResult = commandExecutor.execute(command, user);
-                User newUser = usersDb.getUserByUsername(user.getUsername());
-                key.attach(newUser);
-                yield cmdResult;
+    private void completeAuthentication(SelectionKey key, Command command, User user, Throwable error,
+                                        long startedAt) {
+        if (!key.isValid()) {
+            if (user != null) {
+                usersDb.logout(user);
             }
-        };
-        writeOutput(channel, output);
+            return;
+        }
+
+        ClientSession session = (ClientSession) key.attachment();
+        if (error != null) {
+            queueError(session, command.command(), error, startedAt);
+        } else {
+            session.setUser(user);
+            session.queue(Frames.REPLY, commandExecutor.authenticationMessage(command));
+            metrics.commandCompleted(command.command(), System.nanoTime() - startedAt);
+        }
+        resume(key);
     }
 
-    private void writeOutput(SocketChannel channel, String output) throws IOException {
-        buffer.clear();
-        buffer.put(output.getBytes());
-        buffer.flip();
+    private void completeCommand(SelectionKey key, CommandType commandType, String output, Throwable error,
+                                 long startedAt) {
+        if (!key.isValid()) {
+            return;
+        }
+
+        ClientSession session = (ClientSession) key.attachment();
+        if (error != null) {
+            queueError(session, commandType, error, startedAt);
+        } else {
+            session.queue(Frames.REPLY, output);
+            metrics.commandCompleted(commandType, System.nanoTime() - startedAt);
+        }
+        resume(key);
+    }
 
-        channel.write(buffer);
+    // Continues with the requests that came while the background command ran
+    private void resume(SelectionKey key) {
+        ((ClientSession) key.attachment()).setWaiting(false);
+        try {
+            executeRequests(key);
+        } catch (IOException e) {
+            close(key);
+        }
+    }
+
+    private void queueError(ClientSession session, CommandType commandType, Throwable error, long startedAt) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+        session.queue(Frames.ERROR, errorMessage(cause instanceof Exception e ? e : new Exception(cause)));
+        metrics.commandFailed(commandType, cause, System.nanoTime() - startedAt);
+    }
+
+    private String errorMessage(Exception e) {
+        if (e instanceof UserAlreadyExistsException || e instanceof HttpException
+                || e instanceof IllegalArgumentException || e instanceof URISyntaxException) {
+            return e.getMessage();
+        }
+
+        ErrorLogger.logException(e);
+        if (e instanceof CompletionException) {
+            return "Please check your internet connection and try again";
+        }
+        return "Something went wrong... Please try again later";
+    }
+
+    // Writes what the socket takes now and waits for OP_WRITE for the rest. A connection is not read while it
+    // waits for a background command or while the client does not take its replies.
+    private void flush(SelectionKey key) throws IOException {
+        ClientSession session = (ClientSession) key.attachment();
+        if (session.hasPendingOutput()) {
+            metrics.bytesWritten(session.flushTo((SocketChannel) key.channel()));
+        }
+
+        int interestOps = session.isWaiting() || session.isOutputFull() ? 0 : SelectionKey.OP_READ;
+        if (session.hasPendingOutput()) {
+            interestOps |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(interestOps);
+    }
+
+    private void close(SelectionKey key) {
+        ClientSession session = (ClientSession) key.attachment();
+        if (!session.getSubscription().isEmpty()) {
+            broadcaster.unsubscribe(key, session.getSubscription());
+            session.setSubscription(Set.of());
+            metrics.unsubscribed();
+        }
+        if (session.getUser() != null) {
+            usersDb.logout(session.getUser());
+            session.setUser(null);
+        }
+
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            ErrorLogger.logException(e);
+        }
+        metrics.connectionClosed();
     }
 
     private void accept(Selector selector, SelectionKey key) throws IOException {
@@ -167,6 +396,7 @@ public class Server {
         SocketChannel accept = sockChannel.accept();
 
         accept.configureBlocking(false);
-        accept.register(selector, SelectionKey.OP_READ);
+        accept.register(selector, SelectionKey.OP_READ, new ClientSession());
+        metrics.connectionOpened();
     }
 }
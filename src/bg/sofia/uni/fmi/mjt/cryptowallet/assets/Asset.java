@@ -5,6 +5,8 @@ import com.google.gson.annotations.SerializedName;
 import java.io.Serializable;
 
 public class Asset implements Serializable {
+    private static final long serialVersionUID = 1521604383432583428L;
+
     @SerializedName("asset_id")
     private String assetId;
 
@@ -70,6 +72,11 @@ public class Asset implements Serializable {
         return assetId.equals(asset.assetId);
     }
 
+    @Override
+    public int hashCode() {
+        return assetId.hashCode();
+    }
+
     @Override
     public String toString() {
         return String.format("""
@@ -1,6 +1,9 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet.assets;
 
 import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.*;
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.LatencyRecorder;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.PriceRefreshEvent;
 import bg.sofia.uni.fmi.mjt.cryptowallet.restServer.ApiResponse;
 import bg.sofia.uni.fmi.mjt.cryptowallet.restServer.ServerRequest;
 
@@ -9,6 +12,11 @@ import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
 
 import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
 import static java.net.HttpURLConnection.HTTP_FORBIDDEN;
@@ -19,60 +27,138 @@ public class AssetsDatabase {
     private static final int MINUTES_TO_UPDATE = 30;
     private static final int CAPACITY = 100;
     private static final int HTTP_TOO_MANY_REQUESTS_CODE = 429;
-    private Map<String, Asset> assets;
-    private LocalDateTime timeOfLastUpdate;
+    private static final long FIRST_RETRY_MILLIS = 30_000;
+    private static final long MAX_RETRY_MILLIS = MINUTES_TO_UPDATE * 60_000L;
+    private volatile PriceSnapshot snapshot = PriceSnapshot.EMPTY;
+    private final List<PriceListener> listeners = new CopyOnWriteArrayList<>();
     private ServerRequest assetsInApi;
 
+    private final AtomicBoolean isRefreshing = new AtomicBoolean();
+    // After a failed refresh the old prices are served until this time, the delay doubles with every failure
+    private final AtomicInteger failedRefreshes = new AtomicInteger();
+    private volatile long nextRefreshMillis;
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LatencyRecorder apiLatency = new LatencyRecorder();
+
     public AssetsDatabase(ServerRequest request) {
         assetsInApi = request;
-        assets = new HashMap<>(CAPACITY);
     }
 
-    public Map<String, Asset> getAllAssets() throws HttpException, URISyntaxException {
-        if (assets.size() != CAPACITY) {
-            assets.clear();
-            timeOfLastUpdate = LocalDateTime.now();
+    AssetsDatabase(ServerRequest request, PriceSnapshot initialSnapshot) {
+        assetsInApi = request;
+        snapshot = initialSnapshot;
+    }
+
+    public PriceSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void addPriceListener(PriceListener listener) {
+        listeners.add(listener);
+    }
+
+    public long cacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long cacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    // From sending a request to the api until its response is parsed
+    public LatencyRecorder apiLatency() {
+        return apiLatency;
+    }
 
-            List<Asset> assetsFromApi = getAssetsFromApi();
-            for (Asset asset : assetsFromApi) {
-                assets.put(asset.assetId(), asset);
+    public long apiQuotaLimit() {
+        return assetsInApi.quotaLimit();
+    }
+
+    public long apiQuotaRemaining() {
+        return assetsInApi.quotaRemaining();
+    }
+
+    boolean isRefreshing() {
+        return isRefreshing.get();
+    }
+
+    public Map<String, Asset> getAllAssets() throws HttpException, URISyntaxException {
+        if (snapshot.assets().size() != CAPACITY) {
+            PriceRefreshEvent event = new PriceRefreshEvent();
+            event.begin();
+            List<Asset> assetsFromApi;
+            try {
+                assetsFromApi = getAssetsFromApi();
+            } catch (URISyntaxException | HttpException | RuntimeException e) {
+                event.finish(PriceRefreshEvent.LOAD, 0, false);
+                throw e;
             }
+            publish(current -> new PriceSnapshot(Map.of(), LocalDateTime.now()).with(assetsFromApi, CAPACITY),
+                    assetsFromApi);
+            event.finish(PriceRefreshEvent.LOAD, assetsFromApi.size(), true);
         }
 
-        if (isCachedDataOld()) {
-            updateDatabase();
-        }
+        refreshIfOld();
 
-        return Collections.unmodifiableMap(assets);
+        return snapshot.assets();
     }
 
     public Asset getAssetById(String id) throws NoSuchAssetException, HttpException, URISyntaxException {
-        if (id == null || id.isEmpty()) {
-            throw new IllegalArgumentException("Id cannot be empty or null");
+        return getAssetsByIds(List.of(checkAssetId(id))).get(id);
+    }
+
+    // Every id is resolved against the same snapshot, the missing ones are requested from the api together
+    public Map<String, Asset> getAssetsByIds(Collection<String> ids)
+            throws NoSuchAssetException, HttpException, URISyntaxException {
+        refreshIfOld();
+
+        PriceSnapshot current = snapshot;
+        Map<String, Asset> result = new HashMap<>();
+        Map<String, CompletableFuture<ApiResponse<Asset>>> misses = new LinkedHashMap<>();
+        for (String id : ids) {
+            Asset asset = current.get(checkAssetId(id));
+            if (asset != null) {
+                cacheHits.increment();
+                result.put(id, asset);
+            } else if (!misses.containsKey(id)) {
+                cacheMisses.increment();
+                misses.put(id, timed(assetsInApi.getAssetById(id)));
+            }
         }
 
-        if (isCachedDataOld()) {
-            updateDatabase();
+        if (misses.isEmpty()) {
+            return result;
         }
-        if (!assets.containsKey(id)) {
-            Asset asset = getAssetFromApiById(id);
-            putAssetInDatabase(asset);
+
+        PriceRefreshEvent event = new PriceRefreshEvent();
+        event.begin();
+        List<Asset> fetched = new ArrayList<>(misses.size());
+        try {
+            for (Map.Entry<String, CompletableFuture<ApiResponse<Asset>>> miss : misses.entrySet()) {
+                Asset asset = getAssetFromResponse(miss.getValue().join());
+                result.put(miss.getKey(), asset);
+                fetched.add(asset);
+            }
+        } catch (NoSuchAssetException | HttpException | RuntimeException e) {
+            event.finish(PriceRefreshEvent.MISSING, misses.size(), false);
+            throw e;
         }
-        return assets.get(id);
+
+        publish(latest -> latest.with(fetched, CAPACITY), fetched);
+        event.finish(PriceRefreshEvent.MISSING, fetched.size(), true);
+        return result;
     }
 
-    private void putAssetInDatabase(Asset a) {
-        Collection<Asset> list = assets.values();
-        if (list.size() == CAPACITY) {
-            Asset asset = list.stream().findFirst().orElse(null);
-            assets.remove(asset.assetId());
+    private String checkAssetId(String id) {
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Id cannot be empty or null");
         }
-
-        assets.put(a.assetId(), a);
+        return id;
     }
 
     private List<Asset> getAssetsFromApi() throws URISyntaxException, HttpException {
-        ApiResponse<List<Asset>> response = assetsInApi.getAssets().join();
+        ApiResponse<List<Asset>> response = timed(assetsInApi.getAssets()).join();
         if (response.getStatusCode() != HTTP_OK) {
             throwHttpException(response.getStatusCode(), response.getMessage());
         }
@@ -83,9 +169,7 @@ public class AssetsDatabase {
                 .toList();
     }
 
-    private Asset getAssetFromApiById(String id)
-            throws URISyntaxException, HttpException, NoSuchAssetException {
-        ApiResponse<Asset> assetResponse = assetsInApi.getAssetById(id).join();
+    private Asset getAssetFromResponse(ApiResponse<Asset> assetResponse) throws HttpException, NoSuchAssetException {
         if (assetResponse.getData() == null) {
             throw new NoSuchAssetException("Crypto with this code does not exist");
         }
@@ -112,6 +196,7 @@ public class AssetsDatabase {
     }
 
     private boolean isCachedDataOld() {
+        LocalDateTime timeOfLastUpdate = snapshot.takenAt();
         if (timeOfLastUpdate == null) {
             return true;
         }
@@ -121,21 +206,80 @@ public class AssetsDatabase {
         return differenceMin >= MINUTES_TO_UPDATE;
     }
 
-    private void updateDatabase() throws URISyntaxException, HttpException {
-        timeOfLastUpdate = LocalDateTime.now();
+    // Old prices are served while the refresh runs in the background, only the first one is waited for
+    private void refreshIfOld() throws URISyntaxException, HttpException {
+        if (!isCachedDataOld() || System.currentTimeMillis() < nextRefreshMillis) {
+            return;
+        }
+        if (snapshot.takenAt() == null) {
+            refresh();
+            return;
+        }
+
+        if (isRefreshing.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    refresh();
+                } catch (URISyntaxException | HttpException | RuntimeException e) {
+                    ErrorLogger.logException(e);
+                } finally {
+                    isRefreshing.set(false);
+                }
+            });
+        }
+    }
 
+    // Backs off after a failure, so that an outage or a burst of 429s does not start a refresh on every command
+    private void refresh() throws URISyntaxException, HttpException {
+        try {
+            updateDatabase();
+            failedRefreshes.set(0);
+        } catch (URISyntaxException | HttpException | RuntimeException e) {
+            int failures = failedRefreshes.incrementAndGet();
+            long delay = Math.min(MAX_RETRY_MILLIS, FIRST_RETRY_MILLIS << Math.min(failures - 1, Integer.SIZE));
+            nextRefreshMillis = System.currentTimeMillis() + delay;
+            throw e;
+        }
+    }
+
+    private void updateDatabase() throws URISyntaxException, HttpException {
+        PriceRefreshEvent event = new PriceRefreshEvent();
+        event.begin();
         List<CompletableFuture<ApiResponse<Asset>>> list = new ArrayList<>();
+        List<Asset> refreshed;
+        try {
+            for (String assetId : snapshot.assets().keySet()) {
+                list.add(timed(assetsInApi.getAssetById(assetId)));
+            }
 
-        for (Map.Entry<String, Asset> assetEntry : assets.entrySet()) {
-            list.add(assetsInApi.getAssetById(assetEntry.getKey()));
+            List<ApiResponse<Asset>> apiResponses = list.stream().map(CompletableFuture::join).toList();
+            refreshed = new ArrayList<>(apiResponses.size());
+            for (ApiResponse<Asset> apiResponse : apiResponses) {
+                refreshed.add(getAssetDataFromResponse(apiResponse));
+            }
+        } catch (URISyntaxException | HttpException | RuntimeException e) {
+            event.finish(PriceRefreshEvent.REFRESH, list.size(), false);
+            throw e;
         }
 
-        assets.clear();
-        List<ApiResponse<Asset>> apiResponses = list.stream().map(CompletableFuture::join).toList();
+        publish(current -> new PriceSnapshot(Map.of(), LocalDateTime.now()).with(refreshed, CAPACITY), refreshed);
+        event.finish(PriceRefreshEvent.REFRESH, refreshed.size(), true);
+    }
+
+    private <T> CompletableFuture<T> timed(CompletableFuture<T> request) {
+        long start = System.nanoTime();
+        return request.whenComplete((response, error) -> apiLatency.record(System.nanoTime() - start));
+    }
 
-        for (ApiResponse<Asset> apiResponse : apiResponses) {
-            Asset asset = getAssetDataFromResponse(apiResponse);
-            assets.put(asset.assetId(), asset);
+    // Serialized, so that a background refresh and the assets fetched on a miss do not overwrite each other
+    private void publish(UnaryOperator<PriceSnapshot> update, Collection<Asset> updatedAssets) {
+        PriceSnapshot newSnapshot;
+        synchronized (this) {
+            newSnapshot = update.apply(snapshot);
+            snapshot = newSnapshot;
+        }
+        for (PriceListener listener : listeners) {
+            listener.onPricesUpdated(newSnapshot, updatedAssets);
         }
     }
 }
@@ -0,0 +1,9 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.assets;
+
+import java.util.Collection;
+
+// Called on the thread that published the snapshot, so listeners should hand heavy work off
+@FunctionalInterface
+public interface PriceListener {
+    void onPricesUpdated(PriceSnapshot snapshot, Collection<Asset> updatedAssets);
+}
@@ -0,0 +1,36 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.assets;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Immutable view of the cached prices. Updates copy it, so readers never see a half refreshed cache.
+public record PriceSnapshot(Map<String, Asset> assets, LocalDateTime takenAt) {
+    public static final PriceSnapshot EMPTY = new PriceSnapshot(Map.of(), null);
+
+    public PriceSnapshot {
+        assets = Collections.unmodifiableMap(new LinkedHashMap<>(assets));
+    }
+
+    public Asset get(String assetId) {
+        return assets.get(assetId);
+    }
+
+    // Adds or replaces the given assets, dropping the oldest ones above the capacity
+    public PriceSnapshot with(Collection<Asset> newAssets, int capacity) {
+        LinkedHashMap<String, Asset> result = new LinkedHashMap<>(assets);
+        for (Asset asset : newAssets) {
+            result.remove(asset.assetId());
+            result.put(asset.assetId(), asset);
+        }
+
+        var iterator = result.keySet().iterator();
+        while (result.size() > capacity && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        return new PriceSnapshot(result, takenAt);
+    }
+}
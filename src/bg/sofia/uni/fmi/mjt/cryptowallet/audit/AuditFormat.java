@@ -0,0 +1,104 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.audit;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Layout of the segment files shared by the writer and the tail readers. A record is
+//   length int, type byte, asset length byte, owner length short, sequence long, timestamp long,
+//   micros long, units long, price long, owner bytes, asset bytes
+// padded to 8 bytes. The length is written last with release semantics, a zero length is a record that is not
+// written yet and SEALED ends a segment, the next records are in the segment named by the next sequence.
+final class AuditFormat {
+    static final String SEGMENT_SUFFIX = ".audit";
+    static final int SEALED = -1;
+    static final int HEADER_BYTES = 48;
+    static final int MAX_ASSET_BYTES = 0xFF;
+    static final int MAX_OWNER_BYTES = Short.MAX_VALUE;
+
+    private static final int TYPE_OFFSET = 4;
+    private static final int ASSET_LENGTH_OFFSET = 5;
+    private static final int OWNER_LENGTH_OFFSET = 6;
+    private static final int SEQUENCE_OFFSET = 8;
+    private static final int TIMESTAMP_OFFSET = 16;
+    private static final int MICROS_OFFSET = 24;
+    private static final int UNITS_OFFSET = 32;
+    private static final int PRICE_OFFSET = 40;
+    private static final int ALIGNMENT = 8;
+    private static final VarHandle LENGTH = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private AuditFormat() {
+    }
+
+    static int recordBytes(int ownerBytes, int assetBytes) {
+        int size = HEADER_BYTES + ownerBytes + assetBytes;
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    // Everything but the length, so the record stays invisible to the readers
+    static void writeBody(ByteBuffer buffer, int position, AuditType type, byte[] owner, byte[] asset,
+                          long sequence, long timestamp, long micros, long units, long price) {
+        buffer.put(position + TYPE_OFFSET, type.code);
+        buffer.put(position + ASSET_LENGTH_OFFSET, (byte) asset.length);
+        buffer.putShort(position + OWNER_LENGTH_OFFSET, (short) owner.length);
+        buffer.putLong(position + SEQUENCE_OFFSET, sequence);
+        buffer.putLong(position + TIMESTAMP_OFFSET, timestamp);
+        buffer.putLong(position + MICROS_OFFSET, micros);
+        buffer.putLong(position + UNITS_OFFSET, units);
+        buffer.putLong(position + PRICE_OFFSET, price);
+        buffer.put(position + HEADER_BYTES, owner);
+        buffer.put(position + HEADER_BYTES + owner.length, asset);
+    }
+
+    static void publish(ByteBuffer buffer, int position, int length) {
+        LENGTH.setRelease(buffer, position, length);
+    }
+
+    static int lengthAt(ByteBuffer buffer, int position) {
+        return (int) LENGTH.getAcquire(buffer, position);
+    }
+
+    static AuditRecord read(ByteBuffer buffer, int position) {
+        int assetLength = Byte.toUnsignedInt(buffer.get(position + ASSET_LENGTH_OFFSET));
+        int ownerLength = buffer.getShort(position + OWNER_LENGTH_OFFSET);
+        byte[] owner = new byte[ownerLength];
+        buffer.get(position + HEADER_BYTES, owner);
+        byte[] asset = new byte[assetLength];
+        buffer.get(position + HEADER_BYTES + ownerLength, asset);
+
+        return new AuditRecord(buffer.getLong(position + SEQUENCE_OFFSET), buffer.getLong(position + TIMESTAMP_OFFSET),
+                AuditType.valueOfCode(buffer.get(position + TYPE_OFFSET)),
+                new String(owner, StandardCharsets.UTF_8),
+                assetLength == 0 ? null : new String(asset, StandardCharsets.US_ASCII),
+                buffer.getLong(position + MICROS_OFFSET), buffer.getLong(position + UNITS_OFFSET),
+                buffer.getLong(position + PRICE_OFFSET));
+    }
+
+    static Path segmentFile(Path directory, long firstSequence) {
+        return directory.resolve(String.format("%020d%s", firstSequence, SEGMENT_SUFFIX));
+    }
+
+    // First sequences of the segments in the directory, oldest first
+    static List<Long> segments(Path directory) throws IOException {
+        List<Long> result = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return result;
+        }
+
+        try (var files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                result.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+}
@@ -0,0 +1,314 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.audit;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Append-only log of the deposits, withdrawals and trades of every wallet, for compliance. Records go to
+// memory-mapped segment files of a fixed size, named by the sequence of their first record, see AuditFormat.
+// A writer claims its place and sequence in the current segment with one compare-and-set, copies the record into
+// the mapping and publishes it by writing its length last, so appends of different users neither wait for each
+// other nor for the disk. A background thread maps and touches the next segment ahead of time and forces the
+// written pages every second. Only switching to the next segment takes a lock.
+public class AuditLog implements Closeable {
+    private static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final long FORCE_INTERVAL_MILLIS = 1000;
+    private static final int PAGE_BYTES = 4096;
+    private static final String PREPARED_FILE = "next.tmp";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final ScheduledExecutorService maintainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "audit-log");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Segment current;
+    private volatile boolean isWorking = true;
+    // Guarded by this
+    private CompletableFuture<Segment> prepared;
+
+    private final LongAdder appendedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+
+    public AuditLog(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public AuditLog(Path directory, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(PREPARED_FILE));
+
+        current = openLast();
+        synchronized (this) {
+            prepareNext();
+        }
+        maintainer.scheduleWithFixedDelay(this::force, FORCE_INTERVAL_MILLIS, FORCE_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // Never throws, a record that cannot be written is counted as dropped
+    public void append(AuditType type, String owner, String assetId, long micros, long units, long price) {
+        try {
+            byte[] ownerBytes = owner.getBytes(StandardCharsets.UTF_8);
+            byte[] assetBytes = assetId == null ? new byte[0] : assetId.getBytes(StandardCharsets.US_ASCII);
+            int size = AuditFormat.recordBytes(ownerBytes.length, assetBytes.length);
+            if (ownerBytes.length > AuditFormat.MAX_OWNER_BYTES || assetBytes.length > AuditFormat.MAX_ASSET_BYTES
+                    || size > segmentBytes - Integer.BYTES) {
+                droppedCount.increment();
+                return;
+            }
+
+            while (isWorking) {
+                Segment segment = current;
+                long claim = segment.claim(size);
+                if (claim < 0) {
+                    roll(segment);
+                    continue;
+                }
+
+                int position = Segment.positionOf(claim);
+                AuditFormat.writeBody(segment.buffer, position, type, ownerBytes, assetBytes,
+                        segment.firstSequence + Segment.countOf(claim), System.currentTimeMillis(),
+                        micros, units, price);
+                AuditFormat.publish(segment.buffer, position, size);
+                appendedCount.increment();
+                return;
+            }
+            droppedCount.increment();
+        } catch (RuntimeException e) {
+            droppedCount.increment();
+            ErrorLogger.logException(e);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long appendedCount() {
+        return appendedCount.sum();
+    }
+
+    public long droppedCount() {
+        return droppedCount.sum();
+    }
+
+    @Override
+    public synchronized void close() {
+        isWorking = false;
+        maintainer.shutdown();
+        try {
+            maintainer.awaitTermination(FORCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            current.buffer.force();
+            current.channel.close();
+            Segment next = prepared.getNow(null);
+            if (next != null) {
+                next.channel.close();
+            }
+            Files.deleteIfExists(directory.resolve(PREPARED_FILE));
+        } catch (IOException | RuntimeException e) {
+            ErrorLogger.logException(e);
+        }
+    }
+
+    // Seals the full segment and continues in the prepared one, a writer that lost the race just retries
+    private synchronized void roll(Segment full) {
+        if (current != full || !isWorking) {
+            return;
+        }
+
+        long count = full.seal();
+        Segment next;
+        try {
+            next = prepared.join().renameTo(AuditFormat.segmentFile(directory, full.firstSequence + count),
+                    full.firstSequence + count);
+        } catch (RuntimeException | IOException e) {
+            // The prepared segment failed, this is the rare case when a writer waits for the disk
+            try {
+                next = Segment.create(AuditFormat.segmentFile(directory, full.firstSequence + count),
+                        full.firstSequence + count, segmentBytes);
+            } catch (IOException createError) {
+                throw new UncheckedIOException("Audit segment cannot be created", createError);
+            }
+        }
+        current = next;
+        prepareNext();
+
+        maintainer.execute(() -> {
+            full.buffer.force();
+            try {
+                full.channel.close();
+            } catch (IOException e) {
+                ErrorLogger.logException(e);
+            }
+        });
+    }
+
+    private void prepareNext() {
+        prepared = CompletableFuture.supplyAsync(() -> {
+            try {
+                Files.deleteIfExists(directory.resolve(PREPARED_FILE));
+                Segment segment = Segment.create(directory.resolve(PREPARED_FILE), 0, segmentBytes);
+                for (int position = 0; position < segmentBytes; position += PAGE_BYTES) {
+                    segment.buffer.put(position, (byte) 0);
+                }
+                return segment;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, maintainer);
+    }
+
+    private void force() {
+        try {
+            current.buffer.force();
+        } catch (RuntimeException e) {
+            ErrorLogger.logException(e);
+        }
+    }
+
+    // Continues the last segment after its last published record, a torn record and everything after it is cleared
+    private Segment openLast() throws IOException {
+        List<Long> segments = AuditFormat.segments(directory);
+        if (segments.isEmpty()) {
+            return Segment.create(AuditFormat.segmentFile(directory, 0), 0, segmentBytes);
+        }
+
+        long firstSequence = segments.get(segments.size() - 1);
+        Segment last = Segment.open(AuditFormat.segmentFile(directory, firstSequence), firstSequence);
+        int position = 0;
+        int count = 0;
+        int capacity = last.buffer.capacity();
+        while (position <= capacity - Integer.BYTES) {
+            int length = AuditFormat.lengthAt(last.buffer, position);
+            if (length == AuditFormat.SEALED) {
+                last.channel.close();
+                return Segment.create(AuditFormat.segmentFile(directory, firstSequence + count),
+                        firstSequence + count, segmentBytes);
+            }
+            if (length <= 0) {
+                break;
+            }
+            position += length;
+            count++;
+        }
+        clearFrom(last.buffer, position);
+        last.state.set(Segment.stateOf(position, count));
+        return last;
+    }
+
+    // Records published after a torn one are lost, new records written over them must not be followed by their
+    // old bytes, a tail reader would take those for a length
+    private static void clearFrom(MappedByteBuffer buffer, int position) {
+        byte[] zeros = new byte[PAGE_BYTES];
+        boolean isDirty = false;
+        for (int start = position; start < buffer.capacity(); start += PAGE_BYTES) {
+            int length = Math.min(PAGE_BYTES, buffer.capacity() - start);
+            for (int i = start; i < start + length && !isDirty; i++) {
+                isDirty = buffer.get(i) != 0;
+            }
+            if (isDirty) {
+                buffer.put(start, zeros, 0, length);
+            }
+        }
+        if (isDirty) {
+            ErrorLogger.logMessage("Cleared the records after a torn record of the audit log from byte " + position);
+            buffer.force();
+        }
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final long firstSequence;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // Position of the next record in the high half and the count of claimed records in the low half
+        private final AtomicLong state = new AtomicLong();
+
+        private Segment(Path file, long firstSequence, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.firstSequence = firstSequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path file, long firstSequence, int bytes) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            return new Segment(file, firstSequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes));
+        }
+
+        static Segment open(Path file, long firstSequence) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(file, firstSequence, channel,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+
+        // The mapping stays valid, only the name changes
+        Segment renameTo(Path target, long sequence) throws IOException {
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            return new Segment(target, sequence, channel, buffer);
+        }
+
+        // The claimed state, or -1 when the record does not fit. The last 4 bytes are kept for the SEALED mark.
+        long claim(int size) {
+            while (true) {
+                long claimed = state.get();
+                int position = positionOf(claimed);
+                if (position > buffer.capacity() - Integer.BYTES - size) {
+                    return -1;
+                }
+                if (state.compareAndSet(claimed, stateOf(position + size, countOf(claimed) + 1))) {
+                    return claimed;
+                }
+            }
+        }
+
+        // Stops the claims and returns the count of the claimed records
+        long seal() {
+            while (true) {
+                long claimed = state.get();
+                if (state.compareAndSet(claimed, stateOf(buffer.capacity(), countOf(claimed)))) {
+                    AuditFormat.publish(buffer, positionOf(claimed), AuditFormat.SEALED);
+                    return countOf(claimed);
+                }
+            }
+        }
+
+        static long stateOf(int position, int count) {
+            return ((long) position << Integer.SIZE) | (count & 0xFFFF_FFFFL);
+        }
+
+        static int positionOf(long state) {
+            return (int) (state >>> Integer.SIZE);
+        }
+
+        static int countOf(long state) {
+            return (int) state;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.audit;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Money;
+
+import java.time.Instant;
+
+// Money in micro-USD, quantities in 1e-8 coins and prices in 1e-12 USD, see Money. The asset is null for deposits
+// and withdrawals.
+public record AuditRecord(long sequence, long timestamp, AuditType type, String owner, String assetId,
+                          long micros, long units, long price) {
+    public String line() {
+        String line = String.format("%d %s %s %s usd=%.06f", sequence, Instant.ofEpochMilli(timestamp), type, owner,
+                Money.toUsd(micros));
+        if (assetId == null) {
+            return line;
+        }
+        return line + String.format(" asset=%s quantity=%.08f price=%.012f", assetId, Money.toCoins(units),
+                (double) price / Money.PRICE_UNITS_PER_USD);
+    }
+}
@@ -0,0 +1,113 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.audit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Follows the audit log from a sequence, while the server appends to it from the same or another process. The
+// segments are mapped read only, a record is returned once its length is published.
+//   AuditTailReader <audit-directory> [from-sequence]    prints the records as they are appended
+public class AuditTailReader implements Closeable {
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final int POLL_LIMIT = 1024;
+
+    private final Path directory;
+    private long nextSequence;
+    private Path segmentFile;
+    private MappedByteBuffer segment;
+    private int position;
+
+    public AuditTailReader(Path directory, long fromSequence) {
+        this.directory = directory;
+        this.nextSequence = fromSequence;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: <audit-directory> [from-sequence]");
+            return;
+        }
+
+        long from = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        try (AuditTailReader reader = new AuditTailReader(Path.of(args[0]), from)) {
+            while (true) {
+                List<AuditRecord> records = reader.poll(POLL_LIMIT);
+                for (AuditRecord record : records) {
+                    System.out.println(record.line());
+                }
+                if (records.isEmpty()) {
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error occurred while reading the audit log: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The published records after the last returned one, empty when there are none yet
+    public List<AuditRecord> poll(int limit) throws IOException {
+        List<AuditRecord> result = new ArrayList<>();
+        if (segment == null && !openSegmentOf(nextSequence)) {
+            return result;
+        }
+
+        while (result.size() < limit && position <= segment.capacity() - Integer.BYTES) {
+            int length = AuditFormat.lengthAt(segment, position);
+            if (length == AuditFormat.SEALED) {
+                if (!openSegmentOf(nextSequence)) {
+                    break;
+                }
+                continue;
+            }
+            if (length == 0) {
+                break;
+            }
+
+            AuditRecord record = AuditFormat.read(segment, position);
+            position += length;
+            if (record.sequence() >= nextSequence) {
+                result.add(record);
+                nextSequence = record.sequence() + 1;
+            }
+        }
+        return result;
+    }
+
+    public long nextSequence() {
+        return nextSequence;
+    }
+
+    @Override
+    public void close() {
+        segment = null;
+        segmentFile = null;
+    }
+
+    // Maps the segment that has the sequence, the newest one for a sequence that is not written yet
+    private boolean openSegmentOf(long sequence) throws IOException {
+        long first = -1;
+        for (long segmentFirst : AuditFormat.segments(directory)) {
+            if (segmentFirst <= sequence) {
+                first = segmentFirst;
+            }
+        }
+        Path file = AuditFormat.segmentFile(directory, first);
+        if (first < 0 || file.equals(segmentFile)) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        segmentFile = file;
+        position = 0;
+        return true;
+    }
+}
@@ -0,0 +1,23 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.audit;
+
+public enum AuditType {
+    DEPOSIT((byte) 'D'),
+    WITHDRAWAL((byte) 'W'),
+    BUY((byte) 'B'),
+    SELL((byte) 'S');
+
+    final byte code;
+
+    AuditType(byte code) {
+        this.code = code;
+    }
+
+    static AuditType valueOfCode(byte code) {
+        for (AuditType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown audit record type " + (char) code);
+    }
+}
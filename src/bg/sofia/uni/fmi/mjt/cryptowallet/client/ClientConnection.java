@@ -0,0 +1,231 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.client;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.CommandFailedException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.protocol.Frame;
+import bg.sofia.uni.fmi.mjt.cryptowallet.protocol.FrameReader;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// One connection of the pool. Requests are handed over through the submitted queue, the rest is only used by the
+// io thread of the client. The waiting requests are written in batches without waiting for the replies, and the
+// sent ones wait in the order the server answers them.
+final class ClientConnection {
+    private static final int OUTPUT_BATCH_BYTES = 64 * 1024;
+    private static final int INITIAL_INPUT_BYTES = 16 * 1024;
+    private static final long MIN_RECONNECT_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_RECONNECT_DELAY_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    final Queue<PendingRequest> submitted = new ConcurrentLinkedQueue<>();
+    // Submitted and not completed, to pick the least busy connection
+    final AtomicInteger outstanding = new AtomicInteger();
+
+    private final ClientMetrics metrics;
+    private final Consumer<String> pushes;
+    private final Deque<PendingRequest> waiting = new ArrayDeque<>();
+    private final Deque<PendingRequest> inFlight = new ArrayDeque<>();
+    private final FrameReader reader = new FrameReader(INITIAL_INPUT_BYTES);
+    private ByteBuffer output = ByteBuffer.allocate(OUTPUT_BATCH_BYTES).flip();
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean isConnected;
+    private boolean hasConnected;
+    private long reconnectAt;
+    private long reconnectDelayNanos = MIN_RECONNECT_DELAY_NANOS;
+
+    ClientConnection(ClientMetrics metrics, Consumer<String> pushes) {
+        this.metrics = metrics;
+        this.pushes = pushes;
+    }
+
+    boolean shouldConnect(long now) {
+        return channel == null && now >= reconnectAt;
+    }
+
+    void connect(Selector selector, InetSocketAddress address, long now) {
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(address);
+            key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+        } catch (IOException e) {
+            failed(e, now);
+        }
+    }
+
+    // A connection that was lost logs in and subscribes again before the requests that waited for it
+    void finishConnect(Supplier<List<PendingRequest>> restore) throws IOException {
+        channel.finishConnect();
+        isConnected = true;
+        reconnectDelayNanos = MIN_RECONNECT_DELAY_NANOS;
+        if (hasConnected) {
+            metrics.reconnected();
+            List<PendingRequest> requests = restore.get();
+            for (int i = requests.size() - 1; i >= 0; i--) {
+                waiting.addFirst(requests.get(i));
+            }
+        }
+        hasConnected = true;
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    void write() throws IOException {
+        PendingRequest request;
+        while ((request = submitted.poll()) != null) {
+            waiting.add(request);
+        }
+        if (!isConnected) {
+            return;
+        }
+
+        while (true) {
+            if (output.hasRemaining()) {
+                channel.write(output);
+                if (output.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            if (waiting.isEmpty()) {
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            fillOutput();
+        }
+    }
+
+    void read() throws IOException {
+        if (reader.readFrom(channel) < 0) {
+            throw new IOException("Connection was closed by the server");
+        }
+
+        long now = System.nanoTime();
+        Frame frame;
+        while ((frame = reader.next()) != null) {
+            if (frame.isPush()) {
+                pushes.accept(frame.payload());
+                continue;
+            }
+
+            PendingRequest request = inFlight.poll();
+            if (request == null) {
+                throw new ProtocolException("Reply without a request");
+            }
+
+            metrics.replied(request.commandName, now - request.submittedAt, frame.isError());
+            if (frame.isError()) {
+                request.reply.completeExceptionally(new CommandFailedException(frame.payload()));
+            } else {
+                request.reply.complete(frame.payload());
+            }
+        }
+    }
+
+    // The timed out requests are completed, the sent ones stay until their replies arrive to keep the order
+    void checkTimeouts(long now) {
+        for (PendingRequest request : inFlight) {
+            if (request.deadline > now) {
+                break;
+            }
+            timeOut(request);
+        }
+
+        // Not in the order of the deadlines after a login was put first
+        Iterator<PendingRequest> unsent = waiting.iterator();
+        while (unsent.hasNext()) {
+            PendingRequest request = unsent.next();
+            if (request.deadline <= now) {
+                timeOut(request);
+                unsent.remove();
+            }
+        }
+    }
+
+    // The sent requests fail, since a trade cannot be repeated safely, the waiting ones are sent after reconnecting
+    void failed(IOException error, long now) {
+        closeChannel();
+        metrics.connectionLost();
+        reconnectAt = now + reconnectDelayNanos;
+        reconnectDelayNanos = Math.min(reconnectDelayNanos * 2, MAX_RECONNECT_DELAY_NANOS);
+
+        PendingRequest request;
+        while ((request = inFlight.poll()) != null) {
+            request.reply.completeExceptionally(error);
+        }
+    }
+
+    void close() {
+        closeChannel();
+        IOException closed = new IOException("Client is closed");
+        for (Queue<PendingRequest> requests : List.of(inFlight, waiting, submitted)) {
+            PendingRequest request;
+            while ((request = requests.poll()) != null) {
+                request.reply.completeExceptionally(closed);
+            }
+        }
+    }
+
+    private void fillOutput() {
+        output.clear();
+        while (!waiting.isEmpty()) {
+            PendingRequest request = waiting.peek();
+            if (request.reply.isDone()) {
+                waiting.poll();
+                continue;
+            }
+            if (output.remaining() < request.bytes.length) {
+                if (output.position() > 0) {
+                    break;
+                }
+                output = ByteBuffer.allocate(request.bytes.length);
+            }
+
+            output.put(request.bytes);
+            inFlight.add(waiting.poll());
+            metrics.sent();
+        }
+        output.flip();
+    }
+
+    private void timeOut(PendingRequest request) {
+        if (!request.reply.isDone()) {
+            metrics.timedOut();
+            request.reply.completeExceptionally(new TimeoutException("No reply to " + request.commandName));
+        }
+    }
+
+    private void closeChannel() {
+        isConnected = false;
+        reader.clear();
+        output.clear().flip();
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ErrorLogger.logException(e);
+            }
+            channel = null;
+        }
+    }
+}
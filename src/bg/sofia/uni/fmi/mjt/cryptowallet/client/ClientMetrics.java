@@ -0,0 +1,107 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.client;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.LatencyHistogram;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.LatencyRecorder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency of the commands as the client sees it, from the call to the reply, so the time a request waited for its
+// connection is included
+public class ClientMetrics {
+    private static final double P99 = 99;
+    private static final double P999 = 99.9;
+
+    private final Map<String, LatencyRecorder> commands = new ConcurrentHashMap<>();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder connectionsLost = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+
+    void replied(String commandName, long nanos, boolean isError) {
+        commands.computeIfAbsent(commandName, name -> new LatencyRecorder()).record(nanos);
+        if (isError) {
+            failed.increment();
+        }
+    }
+
+    void sent() {
+        sent.increment();
+    }
+
+    void timedOut() {
+        timedOut.increment();
+    }
+
+    void connectionLost() {
+        connectionsLost.increment();
+    }
+
+    void reconnected() {
+        reconnects.increment();
+    }
+
+    public LatencyRecorder latencyOf(String commandName) {
+        return commands.computeIfAbsent(commandName, name -> new LatencyRecorder());
+    }
+
+    public long sentCount() {
+        return sent.sum();
+    }
+
+    public long failedCount() {
+        return failed.sum();
+    }
+
+    public long timedOutCount() {
+        return timedOut.sum();
+    }
+
+    public long connectionsLostCount() {
+        return connectionsLost.sum();
+    }
+
+    public long reconnectsCount() {
+        return reconnects.sum();
+    }
+
+    public String report() {
+        StringBuilder result = new StringBuilder(String.format("""
+                Client {
+                    sent: '%d',
+                    failed: '%d',
+                    timedOut: '%d',
+                    connectionsLost: '%d',
+                    reconnects: '%d'
+                }
+                """, sentCount(), failedCount(), timedOutCount(), connectionsLostCount(), reconnectsCount()));
+
+        for (Map.Entry<String, LatencyRecorder> command : new TreeMap<>(commands).entrySet()) {
+            LatencyHistogram latency = command.getValue().snapshot();
+            if (latency.count() == 0) {
+                continue;
+            }
+
+            result.append(String.format("""
+                    %s {
+                        count: '%d',
+                        p50: '%d us',
+                        p99: '%d us',
+                        p999: '%d us',
+                        max: '%d us'
+                    }
+                    """, command.getKey(), latency.count(), micros(latency.valueAtPercentile(50)),
+                    micros(latency.valueAtPercentile(P99)), micros(latency.valueAtPercentile(P999)),
+                    micros(latency.max())));
+        }
+        return result.toString().trim();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,21 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.client;
+
+import java.util.concurrent.CompletableFuture;
+
+final class PendingRequest {
+    final String line;
+    final String commandName;
+    final byte[] bytes;
+    final long submittedAt;
+    final long deadline;
+    final CompletableFuture<String> reply = new CompletableFuture<>();
+
+    PendingRequest(String line, byte[] bytes, long submittedAt, long timeoutNanos) {
+        this.line = line;
+        int space = line.indexOf(' ');
+        this.commandName = space < 0 ? line : line.substring(0, space);
+        this.bytes = bytes;
+        this.submittedAt = submittedAt;
+        this.deadline = submittedAt + timeoutNanos;
+    }
+}
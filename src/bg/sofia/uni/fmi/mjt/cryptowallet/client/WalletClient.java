@@ -0,0 +1,303 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.client;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.protocol.Frames;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+// Asynchronous client of the wallet server for other services. The requests are spread over a pool of connections
+// that one selector thread drives, and every connection sends them without waiting for the earlier replies.
+// A command completes with the reply of the server, or with CommandFailedException when the server reports an
+// error, TimeoutException after the timeout and IOException when its connection was lost after it was sent.
+// A lost connection is opened again and logged in as the user of the last login or register of the client.
+// The prices of subscribe come on the first connection and are given to the push listener as
+// "<asset_id> <price_usd>", the subscription is also renewed after a reconnect.
+// The futures are completed and the pushes handled by the io thread, so a callback that blocks should use the
+// async variants.
+public class WalletClient implements Closeable {
+    private static final long CHECK_INTERVAL_MILLIS = 10;
+
+    private final InetSocketAddress address;
+    private final long timeoutNanos;
+    private final ClientConnection[] connections;
+    private final ClientMetrics metrics = new ClientMetrics();
+    private final Selector selector;
+    private final Thread ioThread;
+    private final AtomicBoolean isWakeupPending = new AtomicBoolean();
+    private volatile boolean isWorking = true;
+    private volatile Credentials credentials;
+    private volatile String subscription;
+    private volatile Consumer<String> pushListener = push -> { };
+
+    public WalletClient(InetSocketAddress address, int connectionsCount, long timeoutMillis) throws IOException {
+        if (connectionsCount <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Connections count and timeout must be positive");
+        }
+
+        this.address = address;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        connections = new ClientConnection[connectionsCount];
+        for (int i = 0; i < connectionsCount; i++) {
+            connections[i] = new ClientConnection(metrics, push -> pushListener.accept(push));
+        }
+
+        selector = Selector.open();
+        ioThread = new Thread(this::run, "wallet-client-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    public CompletableFuture<String> execute(String line) {
+        return submit(leastBusyConnection(), line);
+    }
+
+    // Registers on one connection and logs in as the new user on the others
+    public CompletableFuture<String> register(String username, String password) {
+        return submit(connections[0], "register " + username + " " + password).thenCompose(reply -> {
+            credentials = new Credentials(username, password);
+            return onOtherConnections("login " + username + " " + password).thenApply(ignored -> reply);
+        });
+    }
+
+    public CompletableFuture<String> login(String username, String password) {
+        credentials = new Credentials(username, password);
+        String line = "login " + username + " " + password;
+        return submit(connections[0], line).thenCombine(onOtherConnections(line), (reply, ignored) -> reply);
+    }
+
+    public CompletableFuture<String> logout() {
+        credentials = null;
+        return submit(connections[0], "logout").thenCombine(onOtherConnections("logout"), (reply, ignored) -> reply);
+    }
+
+    public void setPushListener(Consumer<String> listener) {
+        pushListener = listener;
+    }
+
+    // Replaces the offerings whose prices are pushed, their current prices follow the reply
+    public CompletableFuture<String> subscribe(String... offerings) {
+        String line = "subscribe --offering=" + String.join(",", offerings);
+        subscription = line;
+        return submit(connections[0], line);
+    }
+
+    public CompletableFuture<String> unsubscribe() {
+        subscription = null;
+        return submit(connections[0], "unsubscribe");
+    }
+
+    public CompletableFuture<String> listOfferings() {
+        return execute("list-offerings");
+    }
+
+    public CompletableFuture<String> deposit(double amount) {
+        return execute("deposit-money " + format(amount));
+    }
+
+    public CompletableFuture<String> withdraw(double amount) {
+        return execute("withdraw-money " + format(amount));
+    }
+
+    public CompletableFuture<String> buy(String offering, double money) {
+        return execute("buy --offering=" + offering + " --money=" + format(money));
+    }
+
+    public CompletableFuture<String> sell(String offering) {
+        return execute("sell --offering=" + offering);
+    }
+
+    public CompletableFuture<String> sell(String offering, double quantity) {
+        return execute("sell --offering=" + offering + " --quantity=" + format(quantity));
+    }
+
+    public CompletableFuture<String> buyLimit(String offering, double price, double money) {
+        return execute("buy-limit --offering=" + offering + " --price=" + format(price) + " --money=" + format(money));
+    }
+
+    public CompletableFuture<String> sellLimit(String offering, double price, double quantity) {
+        return execute("sell-limit --offering=" + offering + " --price=" + format(price)
+                + " --quantity=" + format(quantity));
+    }
+
+    public CompletableFuture<String> orders() {
+        return execute("orders");
+    }
+
+    public CompletableFuture<String> cancelOrder(long orderId) {
+        return execute("cancel-order --id=" + orderId);
+    }
+
+    public CompletableFuture<String> summary() {
+        return execute("get-wallet-summary");
+    }
+
+    public CompletableFuture<String> overallSummary() {
+        return execute("get-wallet-overall-summary");
+    }
+
+    public CompletableFuture<String> history(int limit) {
+        return execute("history --limit=" + limit);
+    }
+
+    public CompletableFuture<String> profitAndLoss() {
+        return execute("pnl");
+    }
+
+    public CompletableFuture<String> leaderboard(int top) {
+        return execute("leaderboard --top=" + top);
+    }
+
+    public ClientMetrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        isWorking = false;
+        selector.wakeup();
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<String> submit(ClientConnection connection, String line) {
+        if (!isWorking) {
+            return CompletableFuture.failedFuture(new IOException("Client is closed"));
+        }
+
+        PendingRequest request = new PendingRequest(line, Frames.request(line), System.nanoTime(), timeoutNanos);
+        connection.outstanding.incrementAndGet();
+        request.reply.whenComplete((reply, error) -> connection.outstanding.decrementAndGet());
+        connection.submitted.add(request);
+        if (isWakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+        return request.reply;
+    }
+
+    private CompletableFuture<Void> onOtherConnections(String line) {
+        List<CompletableFuture<String>> replies = new ArrayList<>(connections.length - 1);
+        for (int i = 1; i < connections.length; i++) {
+            replies.add(submit(connections[i], line));
+        }
+        return CompletableFuture.allOf(replies.toArray(CompletableFuture[]::new));
+    }
+
+    // The less busy of two random connections, which spreads the load almost as well as checking all of them
+    private ClientConnection leastBusyConnection() {
+        if (connections.length == 1) {
+            return connections[0];
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ClientConnection first = connections[random.nextInt(connections.length)];
+        ClientConnection second = connections[random.nextInt(connections.length)];
+        return first.outstanding.get() <= second.outstanding.get() ? first : second;
+    }
+
+    private void run() {
+        try {
+            while (isWorking) {
+                long now = System.nanoTime();
+                for (ClientConnection connection : connections) {
+                    if (connection.shouldConnect(now)) {
+                        connection.connect(selector, address, now);
+                    }
+                }
+
+                selector.select(CHECK_INTERVAL_MILLIS);
+                isWakeupPending.set(false);
+                now = System.nanoTime();
+                handleSelectedKeys(now);
+                for (ClientConnection connection : connections) {
+                    try {
+                        connection.write();
+                    } catch (IOException e) {
+                        connection.failed(e, now);
+                    }
+                    connection.checkTimeouts(now);
+                }
+            }
+        } catch (IOException e) {
+            ErrorLogger.logException(e);
+        } finally {
+            for (ClientConnection connection : connections) {
+                connection.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                ErrorLogger.logException(e);
+            }
+        }
+    }
+
+    private void handleSelectedKeys(long now) {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            ClientConnection connection = (ClientConnection) key.attachment();
+            try {
+                if (key.isConnectable()) {
+                    connection.finishConnect(() -> restore(connection));
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.write();
+                }
+            } catch (IOException e) {
+                connection.failed(e, now);
+            }
+        }
+    }
+
+    // The login and subscription that a new connection in place of a lost one needs
+    private List<PendingRequest> restore(ClientConnection connection) {
+        List<PendingRequest> requests = new ArrayList<>();
+        Credentials user = credentials;
+        if (user != null) {
+            requests.add(internalRequest("login " + user.username() + " " + user.password()));
+        }
+        String subscribed = subscription;
+        if (subscribed != null && connection == connections[0]) {
+            requests.add(internalRequest(subscribed));
+        }
+        return requests;
+    }
+
+    private PendingRequest internalRequest(String line) {
+        PendingRequest request = new PendingRequest(line, Frames.request(line), System.nanoTime(), timeoutNanos);
+        request.reply.whenComplete((reply, error) -> {
+            if (error != null) {
+                ErrorLogger.logMessage("Could not restore " + request.commandName + " after a reconnect: "
+                        + error.getMessage());
+            }
+        });
+        return request;
+    }
+
+    private static String format(double amount) {
+        return BigDecimal.valueOf(amount).toPlainString();
+    }
+
+    private record Credentials(String username, String password) {
+    }
+}
@@ -2,29 +2,104 @@ package bg.sofia.uni.fmi.mjt.cryptowallet.command;
 
 import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
 import bg.sofia.uni.fmi.mjt.cryptowallet.assets.AssetsDatabase;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.PriceSnapshot;
 import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.*;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.CommandEvent;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.ServerMetrics;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.LimitOrder;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.OrderMatcher;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.OrderSide;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.RecurringBuy;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.RecurringBuyScheduler;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.Trigger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.TriggerEngine;
 import bg.sofia.uni.fmi.mjt.cryptowallet.users.User;
 import bg.sofia.uni.fmi.mjt.cryptowallet.users.UsersDatabase;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.CostBasis;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Leaderboard;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.PlatformExposure;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.Transaction;
 
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
 
 public class CommandExecutor {
     private static final String UNKNOWN_COMMAND = "Unknown command";
     private static final String OFFERING = "--offering";
     private static final String MONEY = "--money";
+    private static final String PRICE = "--price";
+    private static final String QUANTITY = "--quantity";
+    private static final String ID = "--id";
+    private static final String STOP_LOSS = "--stop-loss";
+    private static final String TAKE_PROFIT = "--take-profit";
+    private static final String EVERY = "--every";
+    private static final Map<Character, Long> INTERVAL_UNITS_MILLIS = Map.of(
+            'm', 60 * 1000L, 'h', 60 * 60 * 1000L, 'd', 24 * 60 * 60 * 1000L, 'w', 7 * 24 * 60 * 60 * 1000L);
+    private static final String LIMIT = "--limit";
+    private static final String BEFORE = "--before";
+    private static final String METHOD = "--method";
+    private static final String TOP = "--top";
+    private static final int DEFAULT_HISTORY_LIMIT = 10;
+    private static final int TOP_HOLDERS_COUNT = 10;
+    private static final int DEFAULT_LEADERBOARD_SIZE = 10;
+    private static final int MAX_LEADERBOARD_SIZE = 100;
+    private static final int MAX_SUBSCRIBED_ASSETS = 100;
+    private static final String LIST_SEPARATOR = ",";
     private static final String SEPARATOR = "=";
     private static final int TWO = 2;
 
     private AssetsDatabase assets;
     private UsersDatabase users;
+    private OrderMatcher orders;
+    private TriggerEngine triggers;
+    private RecurringBuyScheduler schedules;
+    private Leaderboard leaderboard;
+    private ServerMetrics metrics;
+    // Usernames allowed to run the admin commands, from -Dcryptowallet.admins=name1,name2
+    private final Set<String> admins = parseAdmins(System.getProperty("cryptowallet.admins", ""));
 
     public CommandExecutor(AssetsDatabase assetsDb, UsersDatabase usersDb) {
+        this(assetsDb, usersDb, null, null, null, null, null);
+    }
+
+    public CommandExecutor(AssetsDatabase assetsDb, UsersDatabase usersDb, OrderMatcher orderMatcher,
+                           TriggerEngine triggerEngine, RecurringBuyScheduler scheduler, Leaderboard ranking,
+                           ServerMetrics serverMetrics) {
         assets = assetsDb;
         users = usersDb;
+        orders = orderMatcher;
+        triggers = triggerEngine;
+        schedules = scheduler;
+        leaderboard = ranking;
+        metrics = serverMetrics;
     }
 
     public String execute(Command command) throws HttpException, URISyntaxException, UserAlreadyExistsException, NoSuchUserException {
+        CommandEvent event = new CommandEvent();
+        event.begin();
+        String outcome = CommandEvent.OK;
+        try {
+            return executeWithoutUser(command);
+        } catch (Exception e) {
+            outcome = outcomeOf(e);
+            throw e;
+        } finally {
+            event.finish(command.command().name, null, outcome);
+        }
+    }
+
+    private String executeWithoutUser(Command command) throws HttpException, URISyntaxException,
+            UserAlreadyExistsException, NoSuchUserException {
         return switch (command.command()) {
             case LOGIN -> login(command);
             case REGISTER -> register(command);
@@ -34,51 +109,216 @@ public class CommandExecutor {
         };
     }
 
+    public CompletableFuture<User> authenticate(Command command) {
+        CommandEvent event = new CommandEvent();
+        event.begin();
+        String username = command.arguments().length > 0 ? command.arguments()[0] : null;
+        CompletableFuture<User> authenticated;
+        try {
+            authenticated = startAuthentication(command);
+        } catch (RuntimeException e) {
+            event.finish(command.command().name, username, outcomeOf(e));
+            throw e;
+        }
+        return authenticated.whenComplete((user, error) ->
+                event.finish(command.command().name, username, outcomeOf(error)));
+    }
+
+    private CompletableFuture<User> startAuthentication(Command command) {
+        String[] args = command.arguments();
+        return switch (command.command()) {
+            case LOGIN -> {
+                checkCredentialsArguments(args, "You need two arguments to log in!");
+                yield users.loginAsync(args[0], args[1]);
+            }
+            case REGISTER -> {
+                checkCredentialsArguments(args, "You need two arguments to register");
+                yield users.registerAsync(args[0], args[1]);
+            }
+            default -> throw new IllegalArgumentException("Only login and register can authenticate a user");
+        };
+    }
+
+    // Commands that scan the whole platform run on the common pool instead of the server thread
+    public CompletableFuture<String> executeAsync(Command command, User user) throws UnauthorizedException {
+        if (command.command() != CommandType.PLATFORM_REPORT) {
+            throw new IllegalArgumentException("Only platform-report runs asynchronously");
+        }
+
+        CommandEvent event = new CommandEvent();
+        event.begin();
+        try {
+            checkAdmin(user);
+        } catch (UnauthorizedException e) {
+            event.finish(command.command().name, usernameOf(user), outcomeOf(e));
+            throw e;
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return platformReport();
+            } catch (HttpException | URISyntaxException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((output, error) ->
+                event.finish(command.command().name, usernameOf(user), outcomeOf(error)));
+    }
+
+    // The offerings of subscribe with their current prices, the server keeps the subscription of the connection
+    public List<Asset> subscriptionAssets(Command command) throws NoSuchAssetException, HttpException,
+            URISyntaxException {
+        CommandEvent event = new CommandEvent();
+        event.begin();
+        String outcome = CommandEvent.OK;
+        try {
+            if (command.arguments().length != 1) {
+                throw new IllegalArgumentException("You need to pass the offerings to subscribe to");
+            }
+
+            Set<String> ids = new LinkedHashSet<>();
+            for (String id : getAssetId(command.arguments()[0]).split(LIST_SEPARATOR)) {
+                if (!id.isBlank()) {
+                    ids.add(id.trim());
+                }
+            }
+            if (ids.isEmpty() || ids.size() > MAX_SUBSCRIBED_ASSETS) {
+                throw new IllegalArgumentException("You can subscribe to 1 to " + MAX_SUBSCRIBED_ASSETS + " offerings");
+            }
+
+            Map<String, Asset> prices = assets.getAssetsByIds(ids);
+            return ids.stream().map(prices::get).toList();
+        } catch (Exception e) {
+            outcome = outcomeOf(e);
+            throw e;
+        } finally {
+            event.finish(command.command().name, null, outcome);
+        }
+    }
+
+    public String authenticationMessage(Command command) {
+        String username = command.arguments()[0];
+        return command.command() == CommandType.REGISTER
+                ? "Registered successfully! Welcome " + username
+                : "Logged in successfully as " + username;
+    }
+
     public String execute(Command command, User user) throws HttpException, URISyntaxException, NotEnoughMoneyInWalletException, NoSuchAssetException, CryptoCurrencyNotInWalletException, NoSuchUserException {
+        CommandEvent event = new CommandEvent();
+        event.begin();
+        String outcome = CommandEvent.OK;
+        try {
+            return executeForUser(command, user);
+        } catch (Exception e) {
+            outcome = outcomeOf(e);
+            throw e;
+        } finally {
+            event.finish(command.command().name, usernameOf(user), outcome);
+        }
+    }
+
+    private String executeForUser(Command command, User user) throws HttpException, URISyntaxException,
+            NotEnoughMoneyInWalletException, NoSuchAssetException, CryptoCurrencyNotInWalletException,
+            NoSuchUserException {
         return switch (command.command()) {
             case LOGOUT -> logout(user);
             case DEPOSIT -> deposit(command, user);
             case WITHDRAW -> withdraw(command, user);
             case BUY_CRYPTO -> buyCrypto(command, user);
             case SELL_CRYPTO -> sellCrypto(command, user);
+            case REBALANCE -> rebalance(command, user);
+            case BUY_LIMIT -> placeOrder(command, user, OrderSide.BUY);
+            case SELL_LIMIT -> placeOrder(command, user, OrderSide.SELL);
+            case LIST_ORDERS -> listOrders(user);
+            case CANCEL_ORDER -> cancelOrder(command, user);
+            case PROTECT -> protect(command, user);
+            case LIST_TRIGGERS -> listTriggers(user);
+            case CANCEL_TRIGGER -> cancelTrigger(command, user);
+            case SCHEDULE_BUY -> scheduleBuy(command, user);
+            case LIST_SCHEDULES -> listSchedules(user);
+            case CANCEL_SCHEDULE -> cancelSchedule(command, user);
             case WALLET_SUMMARY -> getWalletSummary(user);
             case WALLET_OVERALL_SUMMARY -> getWalletOverallSummary(user);
+            case HISTORY -> getHistory(command, user);
+            case PROFIT_AND_LOSS -> user.getProfitAndLoss(assets);
+            case COST_BASIS -> setCostBasis(command, user);
+            case LEADERBOARD -> getLeaderboard(command);
+            case PLATFORM_REPORT -> {
+                checkAdmin(user);
+                yield platformReport();
+            }
+            case STATS -> {
+                checkAdmin(user);
+                yield stats();
+            }
             default -> UNKNOWN_COMMAND;
         };
     }
 
+    // The outcome recorded by the command events, the cause of a failed future is reported instead of its wrapper
+    private static String outcomeOf(Throwable error) {
+        if (error == null) {
+            return CommandEvent.OK;
+        }
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause.getClass().getSimpleName();
+    }
+
+    private static String usernameOf(User user) {
+        return user == null ? null : user.getUsername();
+    }
+
     private String help() {
         return """
                 Supported commands:
-                login <username> <password> 
+                login <username> <password>
                 register <username> <password>
                 logout
                 list-offerings - Shows 50 cryptos from the api
+                subscribe --offering=<offering_code>,... - Sends the new prices of the offerings as they change
+                unsubscribe
                 deposit <amount>
                 withdraw <amount>
                 buy --offering=<offering_code> --money=<amount>
-                sell --offering=<offering_code>
+                sell --offering=<offering_code> [--quantity=<amount>]
+                rebalance <offering_code>=<percent> ... - Sells and buys to reach the target weights, the rest stays as money
+                buy-limit --offering=<offering_code> --price=<limit_price> --money=<amount>
+                sell-limit --offering=<offering_code> --price=<limit_price> --quantity=<amount>
+                orders
+                cancel-order --id=<order_id>
+                protect --offering=<offering_code> [--stop-loss=<price>] [--take-profit=<price>] [--quantity=<amount>]
+                triggers
+                cancel-trigger --id=<trigger_id>
+                schedule-buy --offering=<offering_code> --money=<amount> --every=<count><m|h|d|w>
+                schedules
+                cancel-schedule --id=<schedule_id>
                 get-wallet-summary
-                get-wallet-overall-summary""";
+                get-wallet-overall-summary
+                history [--limit=<count up to 100>] [--before=<cursor>]
+                pnl
+                cost-basis --method=<fifo|average>
+                leaderboard [--top=<count>] - Users with the best portfolio return
+                platform-report - Admins only
+                stats - Admins only""";
     }
 
-    private String login(Command cmd) throws NoSuchUserException, UnauthorizedException {
+    private String login(Command cmd) throws NoSuchUserException, HttpException {
         String[] args = cmd.arguments();
-        if (args.length != TWO) {
-            throw new IllegalArgumentException("You need two arguments to log in!");
-        }
+        checkCredentialsArguments(args, "You need two arguments to log in!");
 
         users.login(args[0], args[1]);
-        return "Logged in successfully as " + args[0];
+        return authenticationMessage(cmd);
     }
 
     private String register(Command cmd) throws UserAlreadyExistsException {
         String[] args = cmd.arguments();
+        checkCredentialsArguments(args, "You need two arguments to register");
+        users.register(args[0], args[1]);
+        return authenticationMessage(cmd);
+    }
+
+    private void checkCredentialsArguments(String[] args, String message) {
         if (args.length != TWO) {
-            throw new IllegalArgumentException("You need two arguments to register");
+            throw new IllegalArgumentException(message);
         }
-        users.register(args[0], args[1]);
-        return "Registered successfully! Welcome " + args[0];
     }
 
     private String listCrypto() throws HttpException, URISyntaxException {
@@ -120,16 +360,255 @@ public class CommandExecutor {
     private String sellCrypto(Command cmd, User user) throws NoSuchAssetException, HttpException,
             URISyntaxException, CryptoCurrencyNotInWalletException, NoSuchUserException {
         String[] args = cmd.arguments();
-        if (args.length != 1) {
+        if (args.length != 1 && args.length != TWO) {
             throw new IllegalArgumentException("Invalid arguments for sell command");
         }
 
         String assetId = getAssetId(args[0]);
+        if (args.length == TWO) {
+            Map<String, String> options = getOptions(args, "sell");
+            if (!options.containsKey(QUANTITY)) {
+                throw new IllegalArgumentException("Invalid arguments for sell command");
+            }
+
+            double quantity = parseMoneyInput(options.get(QUANTITY));
+            users.sellCrypto(user, assets.getAssetById(assetId), quantity);
+            return quantity + " " + assetId + " was successfully sold";
+        }
+
         Asset asset = assets.getAssetById(assetId);
         users.sellCrypto(user, asset);
         return assetId + " was successfully sold";
     }
 
+    private String rebalance(Command cmd, User user) throws NoSuchAssetException, HttpException,
+            URISyntaxException, NoSuchUserException, UnauthorizedException {
+        String[] args = cmd.arguments();
+        if (args.length == 0) {
+            throw new IllegalArgumentException("Invalid arguments for rebalance command");
+        }
+
+        Map<String, Double> targetPercents = new LinkedHashMap<>();
+        for (String arg : args) {
+            String[] target = arg.split(SEPARATOR);
+            if (target.length != TWO || targetPercents.put(target[0], parsePercent(target[1])) != null) {
+                throw new IllegalArgumentException("Invalid arguments for rebalance command");
+            }
+        }
+
+        // One snapshot for the targets and for everything already held
+        Set<String> assetIds = new LinkedHashSet<>(targetPercents.keySet());
+        assetIds.addAll(user.getWallet().getSpentMoney().keySet());
+        List<Transaction> trades = users.rebalance(user, targetPercents, assets.getAssetsByIds(assetIds));
+        if (trades.isEmpty()) {
+            return "Wallet is already balanced";
+        }
+
+        StringBuilder sb = new StringBuilder("Rebalanced with " + trades.size() + " trades:");
+        for (Transaction trade : trades) {
+            sb.append(System.lineSeparator()).append(trade.transactionString());
+        }
+        return sb.toString();
+    }
+
+    private double parsePercent(String s) {
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Percent not in the correct format");
+        }
+    }
+
+    private String placeOrder(Command cmd, User user, OrderSide side) throws NoSuchAssetException, HttpException,
+            URISyntaxException, NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException,
+            NoSuchUserException {
+        checkOrdersAvailable();
+        String commandName = cmd.command().name;
+        Map<String, String> options = getOptions(cmd.arguments(), commandName);
+        String amountOption = side == OrderSide.BUY ? MONEY : QUANTITY;
+        if (options.size() != 3 || !options.containsKey(OFFERING) || !options.containsKey(PRICE)
+                || !options.containsKey(amountOption)) {
+            throw new IllegalArgumentException("Invalid arguments for " + commandName + " command");
+        }
+
+        Asset asset = assets.getAssetById(options.get(OFFERING));
+        LimitOrder order = orders.place(user, side, asset, parseMoneyInput(options.get(PRICE)),
+                parseMoneyInput(options.get(amountOption)));
+        return "Order placed: " + order.describe();
+    }
+
+    private String listOrders(User user) throws NoSuchUserException {
+        checkOrdersAvailable();
+        List<LimitOrder> openOrders = orders.openOrders(user);
+        if (openOrders.isEmpty()) {
+            return "There is no info";
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (LimitOrder order : openOrders) {
+            sb.append(order.describe()).append(System.lineSeparator());
+        }
+        return sb.toString().trim();
+    }
+
+    private String cancelOrder(Command cmd, User user) throws UnauthorizedException, NoSuchUserException {
+        checkOrdersAvailable();
+        Map<String, String> options = getOptions(cmd.arguments(), "cancel-order");
+        if (options.size() != 1 || !options.containsKey(ID)) {
+            throw new IllegalArgumentException("Invalid arguments for cancel-order command");
+        }
+
+        long orderId;
+        try {
+            orderId = Long.parseLong(options.get(ID));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Order id not in the correct format");
+        }
+        return "Order cancelled: " + orders.cancel(user, orderId).describe();
+    }
+
+    private String protect(Command cmd, User user) throws NoSuchAssetException, HttpException, URISyntaxException,
+            CryptoCurrencyNotInWalletException, NoSuchUserException {
+        checkTriggersAvailable();
+        Map<String, String> options = getOptions(cmd.arguments(), "protect");
+        if (!options.containsKey(OFFERING) || !(options.containsKey(STOP_LOSS) || options.containsKey(TAKE_PROFIT))
+                || !List.of(OFFERING, STOP_LOSS, TAKE_PROFIT, QUANTITY).containsAll(options.keySet())) {
+            throw new IllegalArgumentException("Invalid arguments for protect command");
+        }
+
+        Asset asset = assets.getAssetById(options.get(OFFERING));
+        Trigger trigger = triggers.protect(user, asset, parseOptionalMoney(options, STOP_LOSS),
+                parseOptionalMoney(options, TAKE_PROFIT), parseOptionalMoney(options, QUANTITY));
+        return "Trigger set: " + trigger.describe();
+    }
+
+    private String listTriggers(User user) throws NoSuchUserException {
+        checkTriggersAvailable();
+        List<Trigger> activeTriggers = triggers.triggersOf(user);
+        if (activeTriggers.isEmpty()) {
+            return "There is no info";
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Trigger trigger : activeTriggers) {
+            sb.append(trigger.describe()).append(System.lineSeparator());
+        }
+        return sb.toString().trim();
+    }
+
+    private String cancelTrigger(Command cmd, User user) throws UnauthorizedException, NoSuchUserException {
+        checkTriggersAvailable();
+        Map<String, String> options = getOptions(cmd.arguments(), "cancel-trigger");
+        if (options.size() != 1 || !options.containsKey(ID)) {
+            throw new IllegalArgumentException("Invalid arguments for cancel-trigger command");
+        }
+
+        long triggerId;
+        try {
+            triggerId = Long.parseLong(options.get(ID));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Trigger id not in the correct format");
+        }
+        return "Trigger cancelled: " + triggers.cancel(user, triggerId).describe();
+    }
+
+    private String scheduleBuy(Command cmd, User user) throws NoSuchAssetException, HttpException,
+            URISyntaxException, NoSuchUserException {
+        checkSchedulesAvailable();
+        Map<String, String> options = getOptions(cmd.arguments(), "schedule-buy");
+        if (options.size() != 3 || !options.containsKey(OFFERING) || !options.containsKey(MONEY)
+                || !options.containsKey(EVERY)) {
+            throw new IllegalArgumentException("Invalid arguments for schedule-buy command");
+        }
+
+        Asset asset = assets.getAssetById(options.get(OFFERING));
+        RecurringBuy plan = schedules.schedule(user, asset, parseMoneyInput(options.get(MONEY)),
+                parseInterval(options.get(EVERY)));
+        return "Recurring buy scheduled: " + plan.describe();
+    }
+
+    private String listSchedules(User user) throws NoSuchUserException {
+        checkSchedulesAvailable();
+        List<RecurringBuy> plans = schedules.plansOf(user);
+        if (plans.isEmpty()) {
+            return "There is no info";
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (RecurringBuy plan : plans) {
+            sb.append(plan.describe()).append(System.lineSeparator());
+        }
+        return sb.toString().trim();
+    }
+
+    private String cancelSchedule(Command cmd, User user) throws UnauthorizedException, NoSuchUserException {
+        checkSchedulesAvailable();
+        Map<String, String> options = getOptions(cmd.arguments(), "cancel-schedule");
+        if (options.size() != 1 || !options.containsKey(ID)) {
+            throw new IllegalArgumentException("Invalid arguments for cancel-schedule command");
+        }
+
+        long planId;
+        try {
+            planId = Long.parseLong(options.get(ID));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Schedule id not in the correct format");
+        }
+        return "Recurring buy cancelled: " + schedules.cancel(user, planId).describe();
+    }
+
+    private void checkSchedulesAvailable() {
+        if (schedules == null) {
+            throw new IllegalArgumentException("Recurring buys are not available");
+        }
+    }
+
+    // A positive count followed by m, h, d or w
+    private long parseInterval(String interval) {
+        Long unitMillis = interval.isEmpty() ? null : INTERVAL_UNITS_MILLIS.get(interval.charAt(interval.length() - 1));
+        if (unitMillis == null) {
+            throw new IllegalArgumentException("Interval not in the correct format");
+        }
+
+        try {
+            long count = Long.parseLong(interval.substring(0, interval.length() - 1));
+            if (count <= 0) {
+                throw new IllegalArgumentException("Interval must be positive");
+            }
+            return Math.multiplyExact(count, unitMillis);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Interval not in the correct format");
+        }
+    }
+
+    private void checkTriggersAvailable() {
+        if (triggers == null) {
+            throw new IllegalArgumentException("Triggers are not available");
+        }
+    }
+
+    private double parseOptionalMoney(Map<String, String> options, String name) {
+        return options.containsKey(name) ? parseMoneyInput(options.get(name)) : 0;
+    }
+
+    private void checkOrdersAvailable() {
+        if (orders == null) {
+            throw new IllegalArgumentException("Limit orders are not available");
+        }
+    }
+
+    // Arguments in the form --name=value
+    private Map<String, String> getOptions(String[] args, String commandName) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.split(SEPARATOR);
+            if (option.length != TWO || options.put(option[0], option[1]) != null) {
+                throw new IllegalArgumentException("Invalid arguments for " + commandName + " command");
+            }
+        }
+        return options;
+    }
+
     private String buyCrypto(Command cmd, User user) throws NotEnoughMoneyInWalletException, NoSuchAssetException, HttpException, URISyntaxException, NoSuchUserException {
         String[] args = cmd.arguments();
         if (args.length != TWO) {
@@ -162,6 +641,108 @@ public class CommandExecutor {
         return user.getWalletOverallSummary(assets);
     }
 
+    private String platformReport() throws HttpException, URISyntaxException {
+        long start = System.currentTimeMillis();
+        assets.getAllAssets();
+        PriceSnapshot snapshot = assets.getSnapshot();
+        PlatformExposure exposure = users.platformExposure(snapshot.assets(), TOP_HOLDERS_COUNT);
+        return exposure.report() + System.lineSeparator()
+                + String.format("Prices of %s, scanned in %d ms", snapshot.takenAt(), System.currentTimeMillis() - start);
+    }
+
+    private String stats() {
+        if (metrics == null) {
+            throw new IllegalArgumentException("The server metrics are not available");
+        }
+        return metrics.report();
+    }
+
+    // Names are trimmed, empty and repeated names are ignored
+    static Set<String> parseAdmins(String names) {
+        return Arrays.stream(names.strip().split("\\s*" + LIST_SEPARATOR + "\\s*"))
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    private void checkAdmin(User user) throws UnauthorizedException {
+        if (!admins.contains(user.getUsername())) {
+            throw new UnauthorizedException("Only admins can use this command");
+        }
+    }
+
+    private String setCostBasis(Command cmd, User user) throws UnauthorizedException, NoSuchUserException {
+        Map<String, String> options = getOptions(cmd.arguments(), "cost-basis");
+        if (options.size() != 1 || !options.containsKey(METHOD)) {
+            throw new IllegalArgumentException("Invalid arguments for cost-basis command");
+        }
+
+        CostBasis costBasis = CostBasis.valueOfName(options.get(METHOD));
+        users.setCostBasis(user, costBasis);
+        return "Sold coins will be taken by " + costBasis.name + " cost basis";
+    }
+
+    private String getLeaderboard(Command cmd) {
+        if (leaderboard == null) {
+            throw new IllegalArgumentException("The leaderboard is not available");
+        }
+
+        Map<String, String> options = getOptions(cmd.arguments(), "leaderboard");
+        if (!List.of(TOP).containsAll(options.keySet())) {
+            throw new IllegalArgumentException("Invalid arguments for leaderboard command");
+        }
+
+        int count = DEFAULT_LEADERBOARD_SIZE;
+        if (options.containsKey(TOP)) {
+            try {
+                count = Integer.parseInt(options.get(TOP));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Count must be a whole number");
+            }
+            if (count <= 0 || count > MAX_LEADERBOARD_SIZE) {
+                throw new IllegalArgumentException("Count must be between 1 and " + MAX_LEADERBOARD_SIZE);
+            }
+        }
+
+        List<Leaderboard.Rank> ranks = leaderboard.top(count);
+        if (ranks.isEmpty()) {
+            return "There is no info";
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ranks.size(); i++) {
+            Leaderboard.Rank rank = ranks.get(i);
+            sb.append(String.format("#%d %s return %.02f%%, profit %.02f%n", i + 1, rank.username(),
+                    rank.returnPercent(), rank.profit()));
+        }
+        if (leaderboard.isLoading()) {
+            sb.append("Stored wallets are still being ranked");
+        }
+        return sb.toString().trim();
+    }
+
+    private String getHistory(Command cmd, User user) {
+        int limit = DEFAULT_HISTORY_LIMIT;
+        long before = Long.MAX_VALUE;
+        for (String arg : cmd.arguments()) {
+            String[] option = arg.split(SEPARATOR);
+            if (option.length != TWO) {
+                throw new IllegalArgumentException("Invalid arguments for history command");
+            }
+
+            try {
+                switch (option[0]) {
+                    case LIMIT -> limit = Integer.parseInt(option[1]);
+                    case BEFORE -> before = Long.parseLong(option[1]);
+                    default -> throw new IllegalArgumentException("Invalid arguments for history command");
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Limit and cursor must be whole numbers");
+            }
+        }
+
+        return user.getHistory(limit, before);
+    }
+
     private String getAssetId(String offeringCode) {
         String[] offeringCodeArgument = offeringCode.split(SEPARATOR);
         if (offeringCodeArgument.length != TWO) {
@@ -181,6 +762,9 @@ public class CommandExecutor {
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException("Money not in the correct format");
         }
+        if (!Double.isFinite(money)) {
+            throw new IllegalArgumentException("Money not in the correct format");
+        }
         return money;
     }
 }
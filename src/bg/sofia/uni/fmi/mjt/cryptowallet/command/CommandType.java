@@ -8,9 +8,28 @@ public enum CommandType {
     WITHDRAW("withdraw-money"),
     BUY_CRYPTO("buy"),
     SELL_CRYPTO("sell"),
+    REBALANCE("rebalance"),
+    BUY_LIMIT("buy-limit"),
+    SELL_LIMIT("sell-limit"),
+    LIST_ORDERS("orders"),
+    CANCEL_ORDER("cancel-order"),
+    PROTECT("protect"),
+    LIST_TRIGGERS("triggers"),
+    CANCEL_TRIGGER("cancel-trigger"),
+    SCHEDULE_BUY("schedule-buy"),
+    LIST_SCHEDULES("schedules"),
+    CANCEL_SCHEDULE("cancel-schedule"),
     LIST_CRYPTO("list-offerings"),
+    SUBSCRIBE("subscribe"),
+    UNSUBSCRIBE("unsubscribe"),
     WALLET_SUMMARY("get-wallet-summary"),
     WALLET_OVERALL_SUMMARY("get-wallet-overall-summary"),
+    HISTORY("history"),
+    PROFIT_AND_LOSS("pnl"),
+    COST_BASIS("cost-basis"),
+    LEADERBOARD("leaderboard"),
+    PLATFORM_REPORT("platform-report"),
+    STATS("stats"),
     HELP("help"),
     UNKNOWN("");
 
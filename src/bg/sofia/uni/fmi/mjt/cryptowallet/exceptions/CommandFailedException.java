@@ -0,0 +1,9 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.exceptions;
+
+public class CommandFailedException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public CommandFailedException(String message) {
+        super(message);
+    }
+}
@@ -1,6 +1,8 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet.exceptions;
 
 public class NoSuchUserException extends Exception {
+    private static final long serialVersionUID = 1L;
+
     public NoSuchUserException(String message) {
         super(message);
     }
@@ -1,6 +1,8 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet.exceptions;
 
 public class TooManyRequestsException extends HttpException {
+    private static final long serialVersionUID = 1L;
+
     public TooManyRequestsException(String message) {
         super(message);
     }
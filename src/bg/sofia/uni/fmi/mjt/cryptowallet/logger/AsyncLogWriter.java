@@ -0,0 +1,279 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Log file written by a background thread. Callers only put the record into a ring buffer, a full buffer drops
+// the record and counts it, so logging never waits for the disk. The writer appends the queued records in
+// batches and moves the file to <file>.1 .. <file>.<maxFiles> once it grows too big or too old. The same stack
+// trace is written once per duplicate window, the repeats in the window are only counted.
+public class AsyncLogWriter implements Closeable {
+    private static final int MAX_BATCH_SIZE = 512;
+    private static final long IDLE_PARK_NANOS = 100_000_000;
+    private static final int MAX_TRACKED_TRACES = 1024;
+
+    private final Path file;
+    private final long maxFileBytes;
+    private final long maxFileAgeMillis;
+    private final int maxFiles;
+    private final long duplicateWindowMillis;
+
+    private final RingBuffer<Record> records;
+    private final ConcurrentMap<String, DuplicateWindow> recentTraces = new ConcurrentHashMap<>();
+    private final Thread writerThread;
+    private volatile boolean isWorking = true;
+    private volatile boolean isIdle;
+
+    // Only used by the writer thread
+    private Writer writer;
+    private long fileBytes;
+    private long fileStartedAt;
+
+    private final LongAdder writtenCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder suppressedCount = new LongAdder();
+    private final LongAdder rotationsCount = new LongAdder();
+
+    public AsyncLogWriter(Path file, int capacity, long maxFileBytes, long maxFileAgeMillis, int maxFiles,
+                          long duplicateWindowMillis) {
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFileAgeMillis = maxFileAgeMillis;
+        this.maxFiles = maxFiles;
+        this.duplicateWindowMillis = duplicateWindowMillis;
+        records = new RingBuffer<>(capacity);
+
+        writerThread = new Thread(this::writeLoop, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public void log(String message) {
+        enqueue(new Record(message, null, 0));
+    }
+
+    public void log(Throwable error) {
+        long suppressed = 0;
+        if (duplicateWindowMillis > 0) {
+            suppressed = passDuplicateWindow(error);
+            if (suppressed < 0) {
+                suppressedCount.increment();
+                return;
+            }
+        }
+        enqueue(new Record(error.getMessage(), error, suppressed));
+    }
+
+    public long writtenCount() {
+        return writtenCount.sum();
+    }
+
+    public long droppedCount() {
+        return droppedCount.sum();
+    }
+
+    public long suppressedCount() {
+        return suppressedCount.sum();
+    }
+
+    public long rotationsCount() {
+        return rotationsCount.sum();
+    }
+
+    // Writes the queued records before returning
+    @Override
+    public void close() {
+        isWorking = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(Record record) {
+        if (!isWorking || !records.offer(record)) {
+            droppedCount.increment();
+            return;
+        }
+        if (isIdle) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    // -1 when the trace was already written in the current window, else the repeats of the last window
+    private long passDuplicateWindow(Throwable error) {
+        String trace = error.getClass().getName() + '@' + Arrays.hashCode(error.getStackTrace());
+        if (recentTraces.size() >= MAX_TRACKED_TRACES) {
+            recentTraces.clear();
+        }
+
+        DuplicateWindow window = recentTraces.computeIfAbsent(trace, ignored -> new DuplicateWindow());
+        long now = System.currentTimeMillis();
+        long startedAt = window.startedAt.get();
+        if (now - startedAt >= duplicateWindowMillis && window.startedAt.compareAndSet(startedAt, now)) {
+            return window.repeats.sumThenReset();
+        }
+        window.repeats.increment();
+        return -1;
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            Record record;
+            while (batch.size() < MAX_BATCH_SIZE && (record = records.poll()) != null) {
+                batch.add(record);
+            }
+
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            } else if (!isWorking) {
+                break;
+            } else {
+                // A record queued just before this is written after the park at the latest
+                isIdle = true;
+                if (isWorking) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                isIdle = false;
+            }
+        }
+        closeWriter();
+    }
+
+    private void writeBatch(List<Record> batch) {
+        try {
+            if (writer == null) {
+                open();
+            }
+            for (Record record : batch) {
+                if (fileBytes >= maxFileBytes || System.currentTimeMillis() - fileStartedAt >= maxFileAgeMillis) {
+                    rotate();
+                }
+
+                String text = record.format();
+                writer.write(text);
+                fileBytes += text.getBytes(StandardCharsets.UTF_8).length;
+                writtenCount.increment();
+            }
+            writer.flush();
+        } catch (IOException e) {
+            droppedCount.add(batch.size());
+            closeWriter();
+            System.out.println("Failed to log exception");
+        }
+    }
+
+    private void open() throws IOException {
+        if (Files.exists(file)) {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            fileBytes = attributes.size();
+            fileStartedAt = attributes.creationTime().toMillis();
+        } else {
+            fileBytes = 0;
+            fileStartedAt = System.currentTimeMillis();
+        }
+        writer = openWriter();
+    }
+
+    private void rotate() throws IOException {
+        writer.close();
+        writer = null;
+
+        Files.deleteIfExists(rotatedFile(maxFiles));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            if (Files.exists(rotatedFile(i))) {
+                Files.move(rotatedFile(i), rotatedFile(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file, rotatedFile(1), StandardCopyOption.REPLACE_EXISTING);
+        rotationsCount.increment();
+
+        writer = openWriter();
+        fileBytes = 0;
+        fileStartedAt = System.currentTimeMillis();
+    }
+
+    private Writer openWriter() throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        return Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+    }
+
+    private Path rotatedFile(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close the log file");
+        }
+        writer = null;
+    }
+
+    private static class DuplicateWindow {
+        private final AtomicLong startedAt = new AtomicLong();
+        private final LongAdder repeats = new LongAdder();
+    }
+
+    private static final class Record {
+        private final long createdAt = System.currentTimeMillis();
+        private final String threadName = Thread.currentThread().getName();
+        private final String message;
+        private final Throwable error;
+        private final long repeats;
+
+        Record(String message, Throwable error, long repeats) {
+            this.message = message;
+            this.error = error;
+            this.repeats = repeats;
+        }
+
+        // Formatted by the writer thread, so the caller does not pay for the stack trace text
+        String format() {
+            StringBuilder text = new StringBuilder()
+                    .append(Instant.ofEpochMilli(createdAt)).append(" [").append(threadName).append("] ")
+                    .append(message).append(System.lineSeparator());
+            if (error != null) {
+                StringWriter trace = new StringWriter();
+                error.printStackTrace(new PrintWriter(trace));
+                text.append(trace);
+            }
+            if (repeats > 0) {
+                text.append("Repeated ").append(repeats).append(" more times since last written")
+                        .append(System.lineSeparator());
+            }
+            return text.toString();
+        }
+    }
+}
@@ -1,27 +1,39 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet.logger;
 
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
 
+// The errors file can be moved with -Dcryptowallet.errors.file, for example to a temporary directory in tests
 public class ErrorLogger {
-    private static final String ERRORS_FILE = "resources/errorsLog.txt";
+    private static final String ERRORS_FILE = System.getProperty("cryptowallet.errors.file", "resources/errorsLog.txt");
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final long MAX_FILE_BYTES = 10L * 1024 * 1024;
+    private static final long MAX_FILE_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int MAX_FILES = 5;
+    private static final long DUPLICATE_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(10);
 
+    private static final AsyncLogWriter WRITER = new AsyncLogWriter(Path.of(ERRORS_FILE), QUEUE_CAPACITY,
+            MAX_FILE_BYTES, MAX_FILE_AGE_MILLIS, MAX_FILES, DUPLICATE_WINDOW_MILLIS);
+
+    // Returns at once, the exception is written to the errors file in the background
     public static void logException(Exception e) {
-        try (var fileWriter = new FileWriter(ERRORS_FILE)) {
-            Logger logger = new Logger(fileWriter);
-            logger.logMessage((e.getMessage() + System.lineSeparator() + getStacktraceOfException(e)) + System.lineSeparator());
-        } catch (IOException exception) {
-            System.out.println("Failed to log exception");
-        }
+        WRITER.log(e);
+    }
+
+    public static void logMessage(String message) {
+        WRITER.log(message);
     }
 
-    private static String getStacktraceOfException(Exception e) {
-        StringWriter sw = new StringWriter();
-        PrintWriter pw = new PrintWriter(sw);
-        e.printStackTrace(pw);
+    public static long droppedCount() {
+        return WRITER.droppedCount();
+    }
+
+    public static long suppressedCount() {
+        return WRITER.suppressedCount();
+    }
 
-        return sw.toString();
+    // Writes the queued exceptions, called when the server shuts down
+    public static void close() {
+        WRITER.close();
     }
 }
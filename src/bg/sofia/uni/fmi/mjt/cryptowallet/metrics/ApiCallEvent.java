@@ -0,0 +1,44 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.nio.charset.StandardCharsets;
+
+@Name("bg.sofia.uni.fmi.mjt.cryptowallet.ApiCall")
+@Label("CoinAPI Call")
+@Category({"Crypto Wallet", "CoinAPI"})
+@Description("Request to CoinAPI, from sending it to receiving the whole response")
+@StackTrace(false)
+public class ApiCallEvent extends Event {
+    @Label("Endpoint")
+    private String endpoint;
+
+    @Label("Status")
+    @Description("HTTP status of the response, -1 when the request failed")
+    private int status;
+
+    @Label("Response Size")
+    @DataAmount(DataAmount.BYTES)
+    private long responseSize;
+
+    @Label("Failure")
+    private String failure;
+
+    // The body is only measured when the event is recorded
+    public void finish(String path, int statusCode, String body, Throwable error) {
+        end();
+        if (shouldCommit()) {
+            endpoint = path;
+            status = statusCode;
+            responseSize = body == null ? 0 : body.getBytes(StandardCharsets.UTF_8).length;
+            failure = error == null ? null : error.getClass().getSimpleName();
+            commit();
+        }
+    }
+}
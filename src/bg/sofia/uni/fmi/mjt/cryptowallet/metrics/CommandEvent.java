@@ -0,0 +1,39 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Flight Recorder event of one executed command. The fields are only filled when the event is recorded, so without
+// a recording it costs two timestamps.
+@Name("bg.sofia.uni.fmi.mjt.cryptowallet.Command")
+@Label("Command")
+@Category({"Crypto Wallet", "Server"})
+@Description("Execution of a client command, from parsing to the output")
+@StackTrace(false)
+public class CommandEvent extends Event {
+    public static final String OK = "ok";
+
+    @Label("Command")
+    private String command;
+
+    @Label("User")
+    private String user;
+
+    @Label("Outcome")
+    @Description("ok, or the simple name of the exception that failed the command")
+    private String outcome;
+
+    public void finish(String commandName, String username, String result) {
+        end();
+        if (shouldCommit()) {
+            command = commandName;
+            user = username;
+            outcome = result;
+            commit();
+        }
+    }
+}
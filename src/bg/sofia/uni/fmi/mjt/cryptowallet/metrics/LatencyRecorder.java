@@ -0,0 +1,54 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Thread safe counterpart of LatencyHistogram, recorded without locks from any thread. A snapshot is taken while
+// values are still recorded, so its totals may be a few values apart from its buckets.
+public class LatencyRecorder {
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Recorded values cannot be negative");
+        }
+
+        counts.incrementAndGet(LatencyHistogram.indexOf(value));
+        totalCount.increment();
+        sum.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        return totalCount.sum();
+    }
+
+    public double mean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public LatencyHistogram snapshot() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < LatencyHistogram.BUCKETS_COUNT; i++) {
+            long count = counts.get(i);
+            if (count > 0) {
+                histogram.addBucket(i, count);
+            }
+        }
+        if (histogram.count() > 0) {
+            histogram.addTotals(sum.sum(), min.get(), max.get());
+        }
+        return histogram;
+    }
+}
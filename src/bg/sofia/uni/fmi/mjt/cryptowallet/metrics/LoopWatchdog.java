@@ -0,0 +1,238 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.metrics;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.command.CommandType;
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Watches the selector loop from its own thread. The loop marks the start and the end of every iteration and the
+// command it is running, which costs a few volatile writes. An iteration that runs longer than the threshold is
+// reported once as a stall, with the stack of the loop thread, the command and the connection at that moment.
+public class LoopWatchdog implements Closeable {
+    private static final int MAX_RECENT_STALLS = 20;
+    private static final int REPORTED_STALLS = 5;
+    private static final String PROJECT_PACKAGE = "bg.sofia.uni.fmi.mjt.cryptowallet";
+
+    private final long thresholdNanos;
+    private final Consumer<String> stallLog;
+    private final LatencyRecorder iterations = new LatencyRecorder();
+    private final LongAdder stallsCount = new LongAdder();
+    private final Deque<Stall> recentStalls = new ArrayDeque<>();
+    private final ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "loop-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Thread loopThread;
+    // Zero while the loop waits for ready channels
+    private volatile long iterationStartedAt;
+    private volatile long iteration;
+    private volatile CommandType command;
+    private volatile SocketChannel connection;
+    private volatile Stall lastStall;
+    // Only used by the checker
+    private long reportedIteration = -1;
+
+    public LoopWatchdog(long thresholdMillis) {
+        this(thresholdMillis, ErrorLogger::logMessage);
+    }
+
+    // The stalls are described to the log as they are detected
+    public LoopWatchdog(long thresholdMillis, Consumer<String> stallLog) {
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.stallLog = stallLog;
+    }
+
+    // Called by the loop thread before its first iteration
+    public void start() {
+        loopThread = Thread.currentThread();
+        long interval = Math.max(thresholdNanos / 2, 1);
+        checker.scheduleAtFixedRate(this::check, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    public void iterationStarted() {
+        command = null;
+        connection = null;
+        iteration++;
+        iterationStartedAt = System.nanoTime();
+    }
+
+    public void processing(CommandType type, SocketChannel channel) {
+        command = type;
+        connection = channel;
+    }
+
+    public void iterationFinished() {
+        long duration = System.nanoTime() - iterationStartedAt;
+        iterationStartedAt = 0;
+        iterations.record(duration);
+
+        Stall stall = lastStall;
+        if (stall != null && stall.iteration == iteration) {
+            stall.durationNanos = duration;
+        }
+    }
+
+    public LatencyRecorder iterations() {
+        return iterations;
+    }
+
+    public long stallsCount() {
+        return stallsCount.sum();
+    }
+
+    // Newest first
+    public List<Stall> recentStalls() {
+        synchronized (recentStalls) {
+            return new ArrayList<>(recentStalls);
+        }
+    }
+
+    public String report() {
+        LatencyHistogram loop = iterations.snapshot();
+        StringBuilder result = new StringBuilder(String.format("""
+                Loop {
+                    iterations: '%d',
+                    p50: '%d us',
+                    p99: '%d us',
+                    max: '%d us',
+                    stalls: '%d'
+                }
+                """, loop.count(), micros(loop.valueAtPercentile(50)), micros(loop.valueAtPercentile(99)),
+                micros(loop.max()), stallsCount()));
+
+        for (Stall stall : recentStalls().stream().limit(REPORTED_STALLS).toList()) {
+            result.append(String.format("""
+                    Stall {
+                        at: '%s',
+                        command: '%s',
+                        connection: '%s',
+                        duration: '%d ms',
+                        blockedIn: '%s',
+                        calledFrom: '%s'
+                    }
+                    """, stall.at, stall.commandName(), stall.connection,
+                    TimeUnit.NANOSECONDS.toMillis(stall.durationNanos), stall.topFrame(), stall.projectFrame()));
+        }
+        return result.toString();
+    }
+
+    @Override
+    public void close() {
+        checker.shutdownNow();
+    }
+
+    private void check() {
+        long startedAt = iterationStartedAt;
+        long current = iteration;
+        if (startedAt == 0 || current == reportedIteration || System.nanoTime() - startedAt < thresholdNanos) {
+            return;
+        }
+
+        reportedIteration = current;
+        Stall stall = new Stall(current, Instant.now(), command, describe(connection), loopThread.getStackTrace(),
+                System.nanoTime() - startedAt);
+        lastStall = stall;
+        stallsCount.increment();
+        synchronized (recentStalls) {
+            recentStalls.addFirst(stall);
+            if (recentStalls.size() > MAX_RECENT_STALLS) {
+                recentStalls.removeLast();
+            }
+        }
+        stallLog.accept(stall.describe());
+    }
+
+    private static String describe(SocketChannel channel) {
+        if (channel == null) {
+            return "none";
+        }
+
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "closed";
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    public static final class Stall {
+        private final long iteration;
+        private final Instant at;
+        private final CommandType command;
+        private final String connection;
+        private final StackTraceElement[] stack;
+        // Grows to the whole iteration once the loop finishes it
+        private volatile long durationNanos;
+
+        private Stall(long iteration, Instant at, CommandType command, String connection, StackTraceElement[] stack,
+                      long durationNanos) {
+            this.iteration = iteration;
+            this.at = at;
+            this.command = command;
+            this.connection = connection;
+            this.stack = stack;
+            this.durationNanos = durationNanos;
+        }
+
+        public CommandType command() {
+            return command;
+        }
+
+        public String connection() {
+            return connection;
+        }
+
+        public StackTraceElement[] stack() {
+            return stack.clone();
+        }
+
+        public long durationNanos() {
+            return durationNanos;
+        }
+
+        // None while the loop runs the completions of async commands or accepts connections
+        String commandName() {
+            return command == null ? "none" : command.name;
+        }
+
+        String topFrame() {
+            return stack.length == 0 ? "unknown" : stack[0].toString();
+        }
+
+        // The last call of the server code, below it is the library call that blocked
+        String projectFrame() {
+            for (StackTraceElement frame : stack) {
+                if (frame.getClassName().startsWith(PROJECT_PACKAGE)) {
+                    return frame.toString();
+                }
+            }
+            return "unknown";
+        }
+
+        String describe() {
+            StringBuilder text = new StringBuilder(String.format("Selector loop stalled for %d ms running %s for %s",
+                    TimeUnit.NANOSECONDS.toMillis(durationNanos), commandName(), connection));
+            for (StackTraceElement frame : stack) {
+                text.append(System.lineSeparator()).append("\tat ").append(frame);
+            }
+            return text.toString();
+        }
+    }
+}
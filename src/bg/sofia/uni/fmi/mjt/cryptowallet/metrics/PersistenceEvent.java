@@ -0,0 +1,44 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("bg.sofia.uni.fmi.mjt.cryptowallet.Persistence")
+@Label("Users Write")
+@Category({"Crypto Wallet", "Persistence"})
+@Description("Write of a batch of changed users to their shards, including forcing the shards")
+@StackTrace(false)
+public class PersistenceEvent extends Event {
+    @Label("Mode")
+    private String mode;
+
+    @Label("Users")
+    private int usersCount;
+
+    @Label("Shards")
+    private int shardsCount;
+
+    @Label("Written")
+    @DataAmount(DataAmount.BYTES)
+    private long bytes;
+
+    @Label("Succeeded")
+    private boolean succeeded;
+
+    public void finish(String persistenceMode, int users, int shards, long writtenBytes, boolean isSuccessful) {
+        end();
+        if (shouldCommit()) {
+            mode = persistenceMode;
+            usersCount = users;
+            shardsCount = shards;
+            bytes = writtenBytes;
+            succeeded = isSuccessful;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("bg.sofia.uni.fmi.mjt.cryptowallet.PriceRefresh")
+@Label("Price Refresh")
+@Category({"Crypto Wallet", "Assets"})
+@Description("Replacement of the cached prices with new ones from CoinAPI")
+@StackTrace(false)
+public class PriceRefreshEvent extends Event {
+    public static final String LOAD = "load";
+    public static final String REFRESH = "refresh";
+    public static final String MISSING = "missing";
+
+    @Label("Kind")
+    @Description("load of all offerings, refresh of the old cached prices, or fetch of the missing ones")
+    private String kind;
+
+    @Label("Assets")
+    private int assetsCount;
+
+    @Label("Succeeded")
+    private boolean succeeded;
+
+    public void finish(String refreshKind, int assets, boolean isSuccessful) {
+        end();
+        if (shouldCommit()) {
+            kind = refreshKind;
+            assetsCount = assets;
+            succeeded = isSuccessful;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.metrics;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.AssetsDatabase;
+import bg.sofia.uni.fmi.mjt.cryptowallet.command.CommandType;
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.UserPersister;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters of the server, recorded without locks by the selector thread and the threads that complete async
+// commands. Every command is timed from reading its input to writing its output.
+public class ServerMetrics implements ServerMetricsMXBean {
+    private static final double P99 = 99;
+    private static final double P999 = 99.9;
+
+    private final AssetsDatabase assets;
+    private final UserPersister persister;
+    private final LoopWatchdog watchdog;
+
+    // Filled once, so the recorders are read without locks
+    private final Map<CommandType, LatencyRecorder> commands = new EnumMap<>(CommandType.class);
+    private final Map<CommandType, LongAdder> commandErrors = new EnumMap<>(CommandType.class);
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder acceptedConnections = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder subscribers = new LongAdder();
+    private final LongAdder pricesPushed = new LongAdder();
+    private final LongAdder pricesCoalesced = new LongAdder();
+
+    public ServerMetrics(AssetsDatabase assetsDb, UserPersister userPersister, LoopWatchdog loopWatchdog) {
+        assets = assetsDb;
+        persister = userPersister;
+        watchdog = loopWatchdog;
+        for (CommandType type : CommandType.values()) {
+            commands.put(type, new LatencyRecorder());
+            commandErrors.put(type, new LongAdder());
+        }
+    }
+
+    public LoopWatchdog loopWatchdog() {
+        return watchdog;
+    }
+
+    public void commandCompleted(CommandType type, long nanos) {
+        commands.get(type).record(nanos);
+    }
+
+    public void commandFailed(CommandType type, Throwable error, long nanos) {
+        commands.get(type).record(nanos);
+        commandErrors.get(type).increment();
+        errors.computeIfAbsent(error.getClass().getSimpleName(), ignored -> new LongAdder()).increment();
+    }
+
+    public void connectionOpened() {
+        activeConnections.increment();
+        acceptedConnections.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    public void bytesRead(long count) {
+        bytesIn.add(count);
+    }
+
+    public void bytesWritten(long count) {
+        bytesOut.add(count);
+    }
+
+    public void subscribed() {
+        subscribers.increment();
+    }
+
+    public void unsubscribed() {
+        subscribers.decrement();
+    }
+
+    // Coalesced prices replaced an older one that the connection had not taken yet
+    public void pricesPushed(long pushed, long coalesced) {
+        pricesPushed.add(pushed);
+        pricesCoalesced.add(coalesced);
+    }
+
+    public String report() {
+        StringBuilder result = new StringBuilder(String.format("""
+                Connections {
+                    active: '%d',
+                    accepted: '%d',
+                    bytesIn: '%d',
+                    bytesOut: '%d'
+                }
+                """, getActiveConnections(), getAcceptedConnections(), getBytesIn(), getBytesOut()));
+        result.append(String.format("""
+                Subscriptions {
+                    subscribers: '%d',
+                    pricesPushed: '%d',
+                    pricesCoalesced: '%d'
+                }
+                """, getSubscribers(), getPricesPushed(), getPricesCoalesced()));
+        result.append(watchdog.report());
+
+        for (Map.Entry<CommandType, LatencyRecorder> command : commands.entrySet()) {
+            if (command.getValue().count() == 0) {
+                continue;
+            }
+
+            LatencyHistogram latency = command.getValue().snapshot();
+            result.append(String.format("""
+                    %s {
+                        count: '%d',
+                        errors: '%d',
+                        p50: '%d us',
+                        p99: '%d us',
+                        p999: '%d us',
+                        max: '%d us'
+                    }
+                    """, nameOf(command.getKey()), latency.count(), commandErrors.get(command.getKey()).sum(),
+                    micros(latency.valueAtPercentile(50)), micros(latency.valueAtPercentile(P99)),
+                    micros(latency.valueAtPercentile(P999)), micros(latency.max())));
+        }
+
+        result.append("Errors {\n");
+        for (Map.Entry<String, Long> error : getErrorCounts().entrySet()) {
+            result.append(String.format("    %s: '%d'%n", error.getKey(), error.getValue()));
+        }
+        result.append(String.format("""
+                }
+                Log {
+                    dropped: '%d',
+                    suppressedDuplicates: '%d'
+                }
+                """, getLogDropped(), getLogSuppressed()));
+
+        LatencyHistogram api = assets.apiLatency().snapshot();
+        LatencyHistogram flushes = persister.flushLatency().snapshot();
+        result.append(String.format("""
+                Assets {
+                    cacheHits: '%d',
+                    cacheMisses: '%d',
+                    cacheHitRatio: '%.02f%%',
+                    apiCalls: '%d',
+                    apiP50: '%d us',
+                    apiP99: '%d us',
+                    apiQuota: '%s'
+                }
+                Persistence {
+                    mode: '%s',
+                    writes: '%d',
+                    batches: '%d',
+                    flushP50: '%d us',
+                    flushP99: '%d us',
+                    pendingWrites: '%d',
+                    failures: '%d'
+                }""", assets.cacheHits(), assets.cacheMisses(), getAssetCacheHitRatio() * 100, api.count(),
+                micros(api.valueAtPercentile(50)), micros(api.valueAtPercentile(P99)), quota(),
+                persister.getMode(), persister.writesCount(), flushes.count(), micros(flushes.valueAtPercentile(50)),
+                micros(flushes.valueAtPercentile(P99)), persister.pendingWrites(), persister.failuresCount()));
+        return result.toString();
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return acceptedConnections.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getSubscribers() {
+        return subscribers.sum();
+    }
+
+    @Override
+    public long getPricesPushed() {
+        return pricesPushed.sum();
+    }
+
+    @Override
+    public long getPricesCoalesced() {
+        return pricesCoalesced.sum();
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        commands.forEach((type, latency) -> {
+            if (latency.count() > 0) {
+                result.put(nameOf(type), latency.count());
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCommandP99Micros() {
+        Map<String, Long> result = new TreeMap<>();
+        commands.forEach((type, latency) -> {
+            if (latency.count() > 0) {
+                result.put(nameOf(type), micros(latency.snapshot().valueAtPercentile(P99)));
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        errors.forEach((type, count) -> result.put(type, count.sum()));
+        return result;
+    }
+
+    @Override
+    public long getLoopStalls() {
+        return watchdog.stallsCount();
+    }
+
+    @Override
+    public long getLoopP99Micros() {
+        return micros(watchdog.iterations().snapshot().valueAtPercentile(P99));
+    }
+
+    @Override
+    public long getLoopMaxMicros() {
+        return micros(watchdog.iterations().max());
+    }
+
+    @Override
+    public long getLogDropped() {
+        return ErrorLogger.droppedCount();
+    }
+
+    @Override
+    public long getLogSuppressed() {
+        return ErrorLogger.suppressedCount();
+    }
+
+    @Override
+    public double getAssetCacheHitRatio() {
+        long hits = assets.cacheHits();
+        long lookups = hits + assets.cacheMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getApiCalls() {
+        return assets.apiLatency().count();
+    }
+
+    @Override
+    public double getApiMeanMicros() {
+        return assets.apiLatency().mean() / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    @Override
+    public long getApiP99Micros() {
+        return micros(assets.apiLatency().snapshot().valueAtPercentile(P99));
+    }
+
+    @Override
+    public long getApiQuotaLimit() {
+        return assets.apiQuotaLimit();
+    }
+
+    @Override
+    public long getApiQuotaRemaining() {
+        return assets.apiQuotaRemaining();
+    }
+
+    @Override
+    public long getPersistenceWrites() {
+        return persister.writesCount();
+    }
+
+    @Override
+    public long getPersistenceP99Micros() {
+        return micros(persister.flushLatency().snapshot().valueAtPercentile(P99));
+    }
+
+    @Override
+    public int getPendingWrites() {
+        return persister.pendingWrites();
+    }
+
+    private String quota() {
+        long limit = assets.apiQuotaLimit();
+        return limit < 0 ? "unknown" : assets.apiQuotaRemaining() + " of " + limit;
+    }
+
+    private static String nameOf(CommandType type) {
+        return type == CommandType.UNKNOWN ? "unknown" : type.name;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
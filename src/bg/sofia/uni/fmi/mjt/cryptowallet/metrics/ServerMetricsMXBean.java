@@ -0,0 +1,54 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.metrics;
+
+import java.util.Map;
+
+// The server metrics as seen over JMX, latencies are in microseconds
+public interface ServerMetricsMXBean {
+    long getActiveConnections();
+
+    long getAcceptedConnections();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getSubscribers();
+
+    long getPricesPushed();
+
+    long getPricesCoalesced();
+
+    Map<String, Long> getCommandCounts();
+
+    Map<String, Long> getCommandP99Micros();
+
+    Map<String, Long> getErrorCounts();
+
+    long getLoopStalls();
+
+    long getLoopP99Micros();
+
+    long getLoopMaxMicros();
+
+    long getLogDropped();
+
+    long getLogSuppressed();
+
+    double getAssetCacheHitRatio();
+
+    long getApiCalls();
+
+    double getApiMeanMicros();
+
+    long getApiP99Micros();
+
+    long getApiQuotaLimit();
+
+    long getApiQuotaRemaining();
+
+    long getPersistenceWrites();
+
+    long getPersistenceP99Micros();
+
+    int getPendingWrites();
+}
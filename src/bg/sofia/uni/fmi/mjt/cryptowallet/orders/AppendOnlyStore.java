@@ -0,0 +1,116 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Append-only log of added and finished entries, used to rebuild the in-memory indexes on start.
+// The wallets are the source of truth, an entry in the log that its wallet no longer has is ignored.
+abstract class AppendOnlyStore<T> implements Closeable {
+    private static final byte ADDED = 'P';
+    private static final byte FINISHED = 'F';
+
+    private final Path file;
+    private FileChannel channel;
+
+    AppendOnlyStore(Path file) {
+        this.file = file;
+    }
+
+    abstract long idOf(T entry);
+
+    abstract void writeEntry(DataOutputStream output, T entry) throws IOException;
+
+    abstract T readEntry(DataInputStream input) throws IOException;
+
+    // Replays the log and rewrites it with only the open entries, which also drops a torn last record
+    public synchronized List<T> load() throws IOException {
+        Map<Long, T> entries = new LinkedHashMap<>();
+        if (Files.exists(file)) {
+            try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                readRecords(input, entries);
+            }
+        }
+
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compacted)))) {
+            for (T entry : entries.values()) {
+                output.writeByte(ADDED);
+                writeEntry(output, entry);
+            }
+        }
+        try (FileChannel compactedChannel = FileChannel.open(compacted, StandardOpenOption.WRITE)) {
+            compactedChannel.force(true);
+        }
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new ArrayList<>(entries.values());
+    }
+
+    public synchronized void added(T entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (var output = new DataOutputStream(bytes)) {
+            output.writeByte(ADDED);
+            writeEntry(output, entry);
+        }
+        write(bytes.toByteArray());
+        channel.force(false);
+    }
+
+    // Not forced, a finished entry that is replayed is dropped when its wallet does not have it
+    public synchronized void finished(long id) throws IOException {
+        write(ByteBuffer.allocate(1 + Long.BYTES).put(FINISHED).putLong(id).array());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void write(byte[] record) throws IOException {
+        if (channel == null) {
+            throw new IllegalStateException("Store " + file + " is not loaded");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void readRecords(DataInputStream input, Map<Long, T> entries) throws IOException {
+        try {
+            while (true) {
+                byte type = input.readByte();
+                if (type == ADDED) {
+                    T entry = readEntry(input);
+                    entries.put(idOf(entry), entry);
+                } else if (type == FINISHED) {
+                    entries.remove(input.readLong());
+                } else {
+                    throw new IOException("Unknown record type " + type + " in " + file);
+                }
+            }
+        } catch (EOFException e) {
+            // end of the log, possibly in the middle of a record that was never completed
+        }
+    }
+}
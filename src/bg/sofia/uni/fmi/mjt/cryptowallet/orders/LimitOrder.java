@@ -0,0 +1,24 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Money;
+
+import java.io.Serializable;
+
+// limitPrice is in micro-USD. amount is the money to spend in micro-USD for BUY and the coins to sell
+// in 1e-8 units for SELL.
+public record LimitOrder(long id, String username, String assetId, OrderSide side, long limitPrice, long amount)
+        implements Serializable {
+
+    public boolean isCrossedBy(long priceMicros) {
+        return side == OrderSide.BUY ? priceMicros <= limitPrice : priceMicros >= limitPrice;
+    }
+
+    public String describe() {
+        if (side == OrderSide.BUY) {
+            return String.format("#%d buy %s for %.02f USD at or below %s USD", id, assetId,
+                    Money.toUsd(amount), Money.toUsd(limitPrice));
+        }
+        return String.format("#%d sell %s %s at or above %s USD", id, Money.toCoins(amount), assetId,
+                Money.toUsd(limitPrice));
+    }
+}
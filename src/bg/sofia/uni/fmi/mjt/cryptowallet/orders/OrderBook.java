@@ -0,0 +1,91 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Resting orders per asset, grouped in price levels. Within a level orders keep their arrival order.
+// Taking the orders crossed by a new price only walks the crossed levels.
+public class OrderBook {
+    private final Map<String, AssetOrders> books = new HashMap<>();
+    private final Map<Long, LimitOrder> ordersById = new HashMap<>();
+
+    public synchronized void add(LimitOrder order) {
+        if (ordersById.putIfAbsent(order.id(), order) != null) {
+            throw new IllegalArgumentException("Order " + order.id() + " is already in the book");
+        }
+
+        books.computeIfAbsent(order.assetId(), assetId -> new AssetOrders())
+                .levels(order.side())
+                .computeIfAbsent(order.limitPrice(), price -> new LinkedHashMap<>())
+                .put(order.id(), order);
+    }
+
+    public synchronized LimitOrder remove(long orderId) {
+        LimitOrder order = ordersById.remove(orderId);
+        if (order == null) {
+            return null;
+        }
+
+        AssetOrders assetOrders = books.get(order.assetId());
+        NavigableMap<Long, Map<Long, LimitOrder>> levels = assetOrders.levels(order.side());
+        Map<Long, LimitOrder> level = levels.get(order.limitPrice());
+        level.remove(orderId);
+        if (level.isEmpty()) {
+            levels.remove(order.limitPrice());
+        }
+        if (assetOrders.isEmpty()) {
+            books.remove(order.assetId());
+        }
+        return order;
+    }
+
+    // Removes and returns the orders of the asset crossed by the price, best limit price first
+    public synchronized List<LimitOrder> takeCrossed(String assetId, long priceMicros) {
+        AssetOrders assetOrders = books.get(assetId);
+        if (assetOrders == null) {
+            return List.of();
+        }
+
+        List<LimitOrder> crossed = new ArrayList<>();
+        takeLevels(assetOrders.bids.tailMap(priceMicros, true).descendingMap(), crossed);
+        takeLevels(assetOrders.asks.headMap(priceMicros, true), crossed);
+        if (assetOrders.isEmpty()) {
+            books.remove(assetId);
+        }
+        return crossed;
+    }
+
+    public synchronized int size() {
+        return ordersById.size();
+    }
+
+    private void takeLevels(NavigableMap<Long, Map<Long, LimitOrder>> crossedLevels, List<LimitOrder> crossed) {
+        Iterator<Map<Long, LimitOrder>> levels = crossedLevels.values().iterator();
+        while (levels.hasNext()) {
+            for (LimitOrder order : levels.next().values()) {
+                ordersById.remove(order.id());
+                crossed.add(order);
+            }
+            levels.remove();
+        }
+    }
+
+    private static class AssetOrders {
+        private final NavigableMap<Long, Map<Long, LimitOrder>> bids = new TreeMap<>();
+        private final NavigableMap<Long, Map<Long, LimitOrder>> asks = new TreeMap<>();
+
+        NavigableMap<Long, Map<Long, LimitOrder>> levels(OrderSide side) {
+            return side == OrderSide.BUY ? bids : asks;
+        }
+
+        boolean isEmpty() {
+            return bids.isEmpty() && asks.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.PriceListener;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.PriceSnapshot;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.CryptoCurrencyNotInWalletException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.NoSuchUserException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.NotEnoughMoneyInWalletException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.UnauthorizedException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.User;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.UsersDatabase;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Money;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keeps the resting limit orders and fills the crossed ones on its own thread whenever prices are published
+public class OrderMatcher implements PriceListener, Closeable {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final UsersDatabase usersDb;
+    private final OrderBook book = new OrderBook();
+    private final OrderStore store;
+    private final AtomicLong nextOrderId;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "order-matcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder filledCount = new LongAdder();
+
+    public OrderMatcher(UsersDatabase usersDb, Path storeFile) throws IOException {
+        this.usersDb = usersDb;
+        store = new OrderStore(storeFile);
+
+        long maxOrderId = 0;
+        for (LimitOrder order : store.load()) {
+            book.add(order);
+            maxOrderId = Math.max(maxOrderId, order.id());
+        }
+        // Ids of orders whose placement never reached the log must not be reused either
+        nextOrderId = new AtomicLong(Math.max(maxOrderId + 1, System.currentTimeMillis()));
+    }
+
+    // The order is logged before the wallet reserves for it, so a crash in between leaves only a log entry
+    // that is dropped when the wallet turns out not to have the order
+    public LimitOrder place(User user, OrderSide side, Asset asset, double limitPrice, double amount)
+            throws NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException, UnauthorizedException,
+            NoSuchUserException {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Order amount cannot be zero or negative");
+        }
+
+        long currentPrice = Money.toMicros(asset.priceUsd());
+        long orderAmount = side == OrderSide.BUY ? Money.toMicros(amount) : Money.toUnits(amount);
+        LimitOrder order = new LimitOrder(nextOrderId.getAndIncrement(), user.getUsername(), asset.assetId(),
+                side, Money.priceMicros(limitPrice), orderAmount);
+        try {
+            store.added(order);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Problem occurred while saving order of " + user.getUsername(), e);
+        }
+
+        try {
+            usersDb.placeOrder(user, order);
+        } catch (Exception e) {
+            finished(order.id());
+            throw e;
+        }
+        book.add(order);
+
+        if (currentPrice > 0 && order.isCrossedBy(currentPrice)) {
+            executor.execute(() -> match(asset));
+        }
+        return order;
+    }
+
+    public LimitOrder cancel(User user, long orderId) throws UnauthorizedException, NoSuchUserException {
+        LimitOrder order = usersDb.cancelOrder(user, orderId);
+        book.remove(orderId);
+        finished(orderId);
+        return order;
+    }
+
+    public List<LimitOrder> openOrders(User user) throws NoSuchUserException {
+        return usersDb.getUserByUsername(user.getUsername()).getOpenOrders();
+    }
+
+    @Override
+    public void onPricesUpdated(PriceSnapshot snapshot, Collection<Asset> updatedAssets) {
+        executor.execute(() -> {
+            for (Asset asset : updatedAssets) {
+                match(asset);
+            }
+        });
+    }
+
+    public int restingOrdersCount() {
+        return book.size();
+    }
+
+    public long filledCount() {
+        return filledCount.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        store.close();
+    }
+
+    private void match(Asset asset) {
+        long price = Money.toMicros(asset.priceUsd());
+        if (price <= 0) {
+            return;
+        }
+
+        for (LimitOrder order : book.takeCrossed(asset.assetId(), price)) {
+            try {
+                if (usersDb.fillOrder(order.username(), order.id(), asset)) {
+                    filledCount.increment();
+                }
+            } catch (NoSuchUserException | RuntimeException e) {
+                ErrorLogger.logException(e);
+            }
+            finished(order.id());
+        }
+    }
+
+    private void finished(long orderId) {
+        try {
+            store.finished(orderId);
+        } catch (IOException e) {
+            ErrorLogger.logException(e);
+        }
+    }
+}
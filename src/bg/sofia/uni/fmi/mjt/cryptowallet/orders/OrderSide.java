@@ -0,0 +1,6 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+public enum OrderSide {
+    BUY,
+    SELL
+}
@@ -0,0 +1,33 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class OrderStore extends AppendOnlyStore<LimitOrder> {
+    public OrderStore(Path file) {
+        super(file);
+    }
+
+    @Override
+    long idOf(LimitOrder order) {
+        return order.id();
+    }
+
+    @Override
+    void writeEntry(DataOutputStream output, LimitOrder order) throws IOException {
+        output.writeLong(order.id());
+        output.writeUTF(order.username());
+        output.writeUTF(order.assetId());
+        output.writeByte(order.side().ordinal());
+        output.writeLong(order.limitPrice());
+        output.writeLong(order.amount());
+    }
+
+    @Override
+    LimitOrder readEntry(DataInputStream input) throws IOException {
+        return new LimitOrder(input.readLong(), input.readUTF(), input.readUTF(),
+                OrderSide.values()[input.readByte()], input.readLong(), input.readLong());
+    }
+}
@@ -0,0 +1,24 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Money;
+
+import java.io.Serializable;
+import java.time.Duration;
+
+// Buys for amount micro-USD every intervalMillis, starting at firstRunAt (epoch millis)
+public record RecurringBuy(long id, String username, String assetId, long amount, long intervalMillis,
+                           long firstRunAt) implements Serializable {
+
+    // First run strictly after the given time, runs missed while the server was down are skipped
+    public long nextRunAfter(long time) {
+        if (time < firstRunAt) {
+            return firstRunAt;
+        }
+        return firstRunAt + ((time - firstRunAt) / intervalMillis + 1) * intervalMillis;
+    }
+
+    public String describe() {
+        return "#" + id + " buy " + assetId + " for " + Money.toUsd(amount) + " USD every "
+                + Duration.ofMillis(intervalMillis).toString().substring(2).toLowerCase();
+    }
+}
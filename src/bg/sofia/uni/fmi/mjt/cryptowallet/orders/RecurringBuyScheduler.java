@@ -0,0 +1,224 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.AssetsDatabase;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.HttpException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.NoSuchAssetException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.NoSuchUserException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.UnauthorizedException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.User;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.UsersDatabase;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Money;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runs every recurring buy from one timing wheel on one thread. The plans due in the same tick are bought
+// with one price snapshot and persisted together.
+public class RecurringBuyScheduler implements Closeable {
+    private static final long DEFAULT_TICK_MILLIS = 1000;
+    private static final long MIN_INTERVAL_MILLIS = 60 * 1000;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final UsersDatabase usersDb;
+    private final AssetsDatabase assetsDb;
+    private final RecurringBuyStore store;
+    private final TimingWheel<RecurringBuy> wheel;
+    // Cancelled plans stay in the wheel until they are due and are dropped then
+    private final Map<Long, RecurringBuy> activePlans = new ConcurrentHashMap<>();
+    private final AtomicLong nextPlanId;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "recurring-buys");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder executedCount = new LongAdder();
+    private final LongAdder skippedCount = new LongAdder();
+    private final LongAdder batchesCount = new LongAdder();
+
+    public RecurringBuyScheduler(UsersDatabase usersDb, AssetsDatabase assetsDb, Path storeFile) throws IOException {
+        this(usersDb, assetsDb, storeFile, Long.getLong("cryptowallet.schedule.tick.millis", DEFAULT_TICK_MILLIS));
+    }
+
+    public RecurringBuyScheduler(UsersDatabase usersDb, AssetsDatabase assetsDb, Path storeFile, long tickMillis)
+            throws IOException {
+        this.usersDb = usersDb;
+        this.assetsDb = assetsDb;
+        store = new RecurringBuyStore(storeFile);
+
+        long now = System.currentTimeMillis();
+        wheel = new TimingWheel<>(tickMillis, now);
+        long maxPlanId = 0;
+        for (RecurringBuy plan : store.load()) {
+            activePlans.put(plan.id(), plan);
+            wheel.add(plan, plan.nextRunAfter(now));
+            maxPlanId = Math.max(maxPlanId, plan.id());
+        }
+        nextPlanId = new AtomicLong(Math.max(maxPlanId + 1, now));
+        executor.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // The first purchase is made on the next tick
+    public RecurringBuy schedule(User user, Asset asset, double money, long intervalMillis)
+            throws UnauthorizedException, NoSuchUserException {
+        if (money <= 0) {
+            throw new IllegalArgumentException("Money amount cannot be zero or negative ");
+        }
+        if (intervalMillis < MIN_INTERVAL_MILLIS) {
+            throw new IllegalArgumentException("Recurring buys cannot run more often than every minute");
+        }
+
+        RecurringBuy plan = new RecurringBuy(nextPlanId.getAndIncrement(), user.getUsername(), asset.assetId(),
+                Money.toMicros(money), intervalMillis, System.currentTimeMillis());
+        try {
+            store.added(plan);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Problem occurred while saving recurring buy of " + user.getUsername(), e);
+        }
+
+        try {
+            usersDb.addRecurringBuy(user, plan);
+        } catch (Exception e) {
+            finished(plan.id());
+            throw e;
+        }
+        activePlans.put(plan.id(), plan);
+        executor.execute(() -> wheel.add(plan, plan.firstRunAt()));
+        return plan;
+    }
+
+    public RecurringBuy cancel(User user, long planId) throws UnauthorizedException, NoSuchUserException {
+        RecurringBuy plan = usersDb.removeRecurringBuy(user, planId);
+        activePlans.remove(planId);
+        finished(planId);
+        return plan;
+    }
+
+    public List<RecurringBuy> plansOf(User user) throws NoSuchUserException {
+        return usersDb.getUserByUsername(user.getUsername()).getRecurringBuys();
+    }
+
+    public int activePlansCount() {
+        return activePlans.size();
+    }
+
+    public long executedCount() {
+        return executedCount.sum();
+    }
+
+    // Runs without enough money in the wallet or without a price
+    public long skippedCount() {
+        return skippedCount.sum();
+    }
+
+    public long batchesCount() {
+        return batchesCount.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        store.close();
+    }
+
+    // A failing tick must not throw, it would cancel all the next ones
+    private void tick() {
+        long now = System.currentTimeMillis();
+        List<RecurringBuy> due = new ArrayList<>();
+        for (RecurringBuy plan : wheel.advance(now)) {
+            if (activePlans.containsKey(plan.id())) {
+                due.add(plan);
+            }
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+
+        try {
+            runBatch(due);
+        } catch (RuntimeException e) {
+            ErrorLogger.logException(e);
+        }
+        for (RecurringBuy plan : due) {
+            if (activePlans.containsKey(plan.id())) {
+                wheel.add(plan, plan.nextRunAfter(now));
+            }
+        }
+    }
+
+    private void runBatch(List<RecurringBuy> due) {
+        Set<String> assetIds = new LinkedHashSet<>();
+        for (RecurringBuy plan : due) {
+            assetIds.add(plan.assetId());
+        }
+
+        Map<String, Asset> prices = pricesOf(assetIds);
+
+        // Plans logged right before a crash may have never reached their wallet, or even an existing owner
+        List<RecurringBuy> abandoned = new ArrayList<>();
+        int executed = usersDb.updateAll(due, RecurringBuy::username, (dbUser, plan) -> {
+            if (!dbUser.hasRecurringBuy(plan.id())) {
+                abandoned.add(plan);
+                return false;
+            }
+            Asset asset = prices.get(plan.assetId());
+            return asset != null && dbUser.runRecurringBuy(plan.id(), asset);
+        }, abandoned::add);
+        for (RecurringBuy plan : abandoned) {
+            activePlans.remove(plan.id());
+            finished(plan.id());
+        }
+
+        executedCount.add(executed);
+        skippedCount.add(due.size() - executed - abandoned.size());
+        batchesCount.increment();
+    }
+
+    // One lookup for the whole tick and, only if it fails, one per asset, so that an asset that cannot be priced
+    // skips only its own plans
+    private Map<String, Asset> pricesOf(Set<String> assetIds) {
+        try {
+            return assetsDb.getAssetsByIds(assetIds);
+        } catch (NoSuchAssetException | HttpException | URISyntaxException e) {
+            Map<String, Asset> prices = new HashMap<>();
+            for (String assetId : assetIds) {
+                try {
+                    prices.put(assetId, assetsDb.getAssetById(assetId));
+                } catch (NoSuchAssetException | HttpException | URISyntaxException assetError) {
+                    ErrorLogger.logException(assetError);
+                }
+            }
+            return prices;
+        }
+    }
+
+    private void finished(long planId) {
+        try {
+            store.finished(planId);
+        } catch (IOException e) {
+            ErrorLogger.logException(e);
+        }
+    }
+}
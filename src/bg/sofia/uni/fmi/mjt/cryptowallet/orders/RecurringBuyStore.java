@@ -0,0 +1,33 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class RecurringBuyStore extends AppendOnlyStore<RecurringBuy> {
+    public RecurringBuyStore(Path file) {
+        super(file);
+    }
+
+    @Override
+    long idOf(RecurringBuy plan) {
+        return plan.id();
+    }
+
+    @Override
+    void writeEntry(DataOutputStream output, RecurringBuy plan) throws IOException {
+        output.writeLong(plan.id());
+        output.writeUTF(plan.username());
+        output.writeUTF(plan.assetId());
+        output.writeLong(plan.amount());
+        output.writeLong(plan.intervalMillis());
+        output.writeLong(plan.firstRunAt());
+    }
+
+    @Override
+    RecurringBuy readEntry(DataInputStream input) throws IOException {
+        return new RecurringBuy(input.readLong(), input.readUTF(), input.readUTF(), input.readLong(),
+                input.readLong(), input.readLong());
+    }
+}
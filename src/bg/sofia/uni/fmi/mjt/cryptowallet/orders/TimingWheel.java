@@ -0,0 +1,106 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Hierarchical timing wheel: LEVELS wheels of SLOTS slots, a slot of level l spans SLOTS^l ticks.
+// Adding and expiring an entry is O(1) apart from moving it down one level each time its slot comes round.
+// Entries further than the wheels reach wait in an overflow list. Not thread-safe, it is driven by one thread.
+public class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long RANGE = 1L << (SLOT_BITS * LEVELS);
+
+    private final long tickMillis;
+    private final List<List<Entry<T>>> slots = new ArrayList<>(LEVELS * SLOTS);
+    private List<Entry<T>> overflow = new ArrayList<>();
+    private long currentTick;
+    private int size;
+
+    public TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+
+        this.tickMillis = tickMillis;
+        currentTick = startMillis / tickMillis;
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(new ArrayList<>());
+        }
+    }
+
+    // Entries due before the current tick expire on the next advance
+    public void add(T item, long dueMillis) {
+        long dueTick = Math.max(Math.floorDiv(dueMillis + tickMillis - 1, tickMillis), currentTick + 1);
+        place(new Entry<>(item, dueTick));
+        size++;
+    }
+
+    // Moves the wheel to the given time and returns the entries that became due, in tick order
+    public List<T> advance(long nowMillis) {
+        long targetTick = nowMillis / tickMillis;
+        List<T> due = new ArrayList<>();
+        while (currentTick < targetTick) {
+            if (size == 0) {
+                currentTick = targetTick;
+                break;
+            }
+
+            currentTick++;
+            cascade();
+            List<Entry<T>> slot = slots.get((int) (currentTick & SLOT_MASK));
+            for (Entry<T> entry : slot) {
+                due.add(entry.item);
+            }
+            size -= slot.size();
+            slot.clear();
+        }
+        return due;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void place(Entry<T> entry) {
+        long delta = entry.dueTick - currentTick;
+        if (delta >= RANGE) {
+            overflow.add(entry);
+            return;
+        }
+
+        int level = 0;
+        while (delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int index = (int) ((entry.dueTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        slots.get(level * SLOTS + index).add(entry);
+    }
+
+    // Entries of the higher level slots that now fall within the reach of the lower levels are moved down,
+    // highest level first so that they can keep moving down within the same tick
+    private void cascade() {
+        if ((currentTick & (RANGE / SLOTS - 1)) == 0 && !overflow.isEmpty()) {
+            List<Entry<T>> waiting = overflow;
+            overflow = new ArrayList<>();
+            waiting.forEach(this::place);
+        }
+
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                continue;
+            }
+
+            int index = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            List<Entry<T>> slot = slots.get(level * SLOTS + index);
+            List<Entry<T>> moved = new ArrayList<>(slot);
+            slot.clear();
+            moved.forEach(this::place);
+        }
+    }
+
+    private record Entry<T>(T item, long dueTick) {
+    }
+}
@@ -0,0 +1,31 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Money;
+
+import java.io.Serializable;
+
+// Sells a position when the price drops to stopLoss or rises to takeProfit, whichever comes first.
+// Prices are in micro-USD and 0 means the threshold is not set. quantity is in 1e-8 coins, 0 sells the
+// whole position at the time the trigger fires.
+public record Trigger(long id, String username, String assetId, long stopLoss, long takeProfit, long quantity)
+        implements Serializable {
+
+    public boolean isFiredBy(long priceMicros) {
+        return (stopLoss > 0 && priceMicros <= stopLoss) || (takeProfit > 0 && priceMicros >= takeProfit);
+    }
+
+    public String describe() {
+        StringBuilder result = new StringBuilder();
+        result.append('#').append(id).append(" sell ")
+                .append(quantity == 0 ? "all" : String.valueOf(Money.toCoins(quantity)))
+                .append(' ').append(assetId);
+        if (stopLoss > 0) {
+            result.append(" at or below ").append(Money.toUsd(stopLoss)).append(" USD");
+        }
+        if (takeProfit > 0) {
+            result.append(stopLoss > 0 ? " or" : "").append(" at or above ").append(Money.toUsd(takeProfit))
+                    .append(" USD");
+        }
+        return result.toString();
+    }
+}
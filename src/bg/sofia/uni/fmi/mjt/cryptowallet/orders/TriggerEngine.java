@@ -0,0 +1,181 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.PriceListener;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.PriceSnapshot;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.CryptoCurrencyNotInWalletException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.NoSuchUserException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.UnauthorizedException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.User;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.UsersDatabase;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Money;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keeps the stop-loss and take-profit triggers and fires all triggers crossed by one price update as a batch
+public class TriggerEngine implements PriceListener, Closeable {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final UsersDatabase usersDb;
+    private final TriggerIndex index = new TriggerIndex();
+    private final TriggerStore store;
+    private final AtomicLong nextTriggerId;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "trigger-engine");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder firedCount = new LongAdder();
+    private final LongAdder batchesCount = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public TriggerEngine(UsersDatabase usersDb, Path storeFile) throws IOException {
+        this.usersDb = usersDb;
+        store = new TriggerStore(storeFile);
+
+        long maxTriggerId = 0;
+        for (Trigger trigger : store.load()) {
+            index.add(trigger);
+            maxTriggerId = Math.max(maxTriggerId, trigger.id());
+        }
+        nextTriggerId = new AtomicLong(Math.max(maxTriggerId + 1, System.currentTimeMillis()));
+    }
+
+    // Logged before the wallet accepts it, like the limit orders in OrderMatcher
+    public Trigger protect(User user, Asset asset, double stopLoss, double takeProfit, double quantity)
+            throws CryptoCurrencyNotInWalletException, UnauthorizedException, NoSuchUserException {
+        if (stopLoss < 0 || takeProfit < 0 || quantity < 0) {
+            throw new IllegalArgumentException("Trigger prices and quantity cannot be negative");
+        }
+
+        Trigger trigger = new Trigger(nextTriggerId.getAndIncrement(), user.getUsername(), asset.assetId(),
+                Money.toMicros(stopLoss), Money.toMicros(takeProfit), Money.toUnits(quantity));
+        try {
+            store.added(trigger);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Problem occurred while saving trigger of " + user.getUsername(), e);
+        }
+
+        try {
+            usersDb.addTrigger(user, trigger);
+        } catch (Exception e) {
+            finished(trigger.id());
+            throw e;
+        }
+        index.add(trigger);
+
+        long currentPrice = Money.toMicros(asset.priceUsd());
+        if (currentPrice > 0 && trigger.isFiredBy(currentPrice)) {
+            executor.execute(() -> fire(List.of(asset), System.nanoTime()));
+        }
+        return trigger;
+    }
+
+    public Trigger cancel(User user, long triggerId) throws UnauthorizedException, NoSuchUserException {
+        Trigger trigger = usersDb.removeTrigger(user, triggerId);
+        index.remove(triggerId);
+        finished(triggerId);
+        return trigger;
+    }
+
+    public List<Trigger> triggersOf(User user) throws NoSuchUserException {
+        return usersDb.getUserByUsername(user.getUsername()).getTriggers();
+    }
+
+    @Override
+    public void onPricesUpdated(PriceSnapshot snapshot, Collection<Asset> updatedAssets) {
+        long publishedAt = System.nanoTime();
+        executor.execute(() -> fire(updatedAssets, publishedAt));
+    }
+
+    public int activeTriggersCount() {
+        return index.size();
+    }
+
+    public long firedCount() {
+        return firedCount.sum();
+    }
+
+    public long batchesCount() {
+        return batchesCount.sum();
+    }
+
+    // From the price update to the persisted sale of the batch
+    public double averageLatencyMillis() {
+        long batches = batchesCount.sum();
+        return batches == 0 ? 0 : latencyNanos.sum() / (batches * 1_000_000.0);
+    }
+
+    public double maxLatencyMillis() {
+        return maxLatencyNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        store.close();
+    }
+
+    private void fire(Collection<Asset> assets, long publishedAt) {
+        List<Trigger> fired = new ArrayList<>();
+        Map<String, Asset> firingAssets = new HashMap<>();
+        for (Asset asset : assets) {
+            long price = Money.toMicros(asset.priceUsd());
+            if (price <= 0) {
+                continue;
+            }
+
+            List<Trigger> assetFired = index.takeFired(asset.assetId(), price);
+            if (!assetFired.isEmpty()) {
+                fired.addAll(assetFired);
+                firingAssets.put(asset.assetId(), asset);
+            }
+        }
+        if (fired.isEmpty()) {
+            return;
+        }
+
+        try {
+            firedCount.add(usersDb.fireTriggers(fired, firingAssets));
+        } catch (RuntimeException e) {
+            ErrorLogger.logException(e);
+        }
+        for (Trigger trigger : fired) {
+            finished(trigger.id());
+        }
+
+        long latency = System.nanoTime() - publishedAt;
+        batchesCount.increment();
+        latencyNanos.add(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    private void finished(long triggerId) {
+        try {
+            store.finished(triggerId);
+        } catch (IOException e) {
+            ErrorLogger.logException(e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Stop-loss and take-profit thresholds per asset, sorted by price. A trigger with both thresholds is in
+// both indexes and leaves both when either of them fires.
+public class TriggerIndex {
+    private final Map<String, AssetTriggers> indexes = new HashMap<>();
+    private final Map<Long, Trigger> triggersById = new HashMap<>();
+
+    public synchronized void add(Trigger trigger) {
+        if (triggersById.putIfAbsent(trigger.id(), trigger) != null) {
+            throw new IllegalArgumentException("Trigger " + trigger.id() + " is already indexed");
+        }
+
+        AssetTriggers assetTriggers = indexes.computeIfAbsent(trigger.assetId(), assetId -> new AssetTriggers());
+        if (trigger.stopLoss() > 0) {
+            assetTriggers.stopLosses.computeIfAbsent(trigger.stopLoss(), price -> new LinkedHashMap<>())
+                    .put(trigger.id(), trigger);
+        }
+        if (trigger.takeProfit() > 0) {
+            assetTriggers.takeProfits.computeIfAbsent(trigger.takeProfit(), price -> new LinkedHashMap<>())
+                    .put(trigger.id(), trigger);
+        }
+    }
+
+    public synchronized Trigger remove(long triggerId) {
+        Trigger trigger = triggersById.remove(triggerId);
+        if (trigger != null) {
+            unindex(trigger);
+        }
+        return trigger;
+    }
+
+    // Removes and returns the triggers of the asset fired by the price
+    public synchronized List<Trigger> takeFired(String assetId, long priceMicros) {
+        AssetTriggers assetTriggers = indexes.get(assetId);
+        if (assetTriggers == null) {
+            return List.of();
+        }
+
+        List<Trigger> fired = new ArrayList<>();
+        collect(assetTriggers.stopLosses.tailMap(priceMicros, true), fired);
+        collect(assetTriggers.takeProfits.headMap(priceMicros, true), fired);
+        for (Trigger trigger : fired) {
+            unindex(trigger);
+        }
+        return fired;
+    }
+
+    public synchronized int size() {
+        return triggersById.size();
+    }
+
+    private void collect(NavigableMap<Long, Map<Long, Trigger>> firedLevels, List<Trigger> fired) {
+        for (Map<Long, Trigger> level : firedLevels.values()) {
+            for (Trigger trigger : level.values()) {
+                if (triggersById.remove(trigger.id()) != null) {
+                    fired.add(trigger);
+                }
+            }
+        }
+    }
+
+    private void unindex(Trigger trigger) {
+        AssetTriggers assetTriggers = indexes.get(trigger.assetId());
+        removeFromLevel(assetTriggers.stopLosses, trigger.stopLoss(), trigger.id());
+        removeFromLevel(assetTriggers.takeProfits, trigger.takeProfit(), trigger.id());
+        if (assetTriggers.stopLosses.isEmpty() && assetTriggers.takeProfits.isEmpty()) {
+            indexes.remove(trigger.assetId());
+        }
+    }
+
+    private static void removeFromLevel(NavigableMap<Long, Map<Long, Trigger>> levels, long price, long id) {
+        Map<Long, Trigger> level = levels.get(price);
+        if (level != null) {
+            level.remove(id);
+            if (level.isEmpty()) {
+                levels.remove(price);
+            }
+        }
+    }
+
+    private static class AssetTriggers {
+        private final NavigableMap<Long, Map<Long, Trigger>> stopLosses = new TreeMap<>();
+        private final NavigableMap<Long, Map<Long, Trigger>> takeProfits = new TreeMap<>();
+    }
+}
@@ -0,0 +1,33 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class TriggerStore extends AppendOnlyStore<Trigger> {
+    public TriggerStore(Path file) {
+        super(file);
+    }
+
+    @Override
+    long idOf(Trigger trigger) {
+        return trigger.id();
+    }
+
+    @Override
+    void writeEntry(DataOutputStream output, Trigger trigger) throws IOException {
+        output.writeLong(trigger.id());
+        output.writeUTF(trigger.username());
+        output.writeUTF(trigger.assetId());
+        output.writeLong(trigger.stopLoss());
+        output.writeLong(trigger.takeProfit());
+        output.writeLong(trigger.quantity());
+    }
+
+    @Override
+    Trigger readEntry(DataInputStream input) throws IOException {
+        return new Trigger(input.readLong(), input.readUTF(), input.readUTF(), input.readLong(), input.readLong(),
+                input.readLong());
+    }
+}
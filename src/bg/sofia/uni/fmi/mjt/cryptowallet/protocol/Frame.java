@@ -0,0 +1,11 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.protocol;
+
+public record Frame(byte type, String payload) {
+    public boolean isError() {
+        return type == Frames.ERROR;
+    }
+
+    public boolean isPush() {
+        return type == Frames.PUSH;
+    }
+}
@@ -0,0 +1,61 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.protocol;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+// Splits the bytes of a connection into frames, whatever the reads that brought them. Frames are decoded in place
+// and the buffer is compacted only before the next read, so a read with many pipelined replies is not copied once
+// per reply. It grows when a frame does not fit.
+public class FrameReader {
+    private ByteBuffer buffer;
+    private int neededBytes;
+
+    public FrameReader(int initialCapacity) {
+        buffer = ByteBuffer.allocate(initialCapacity).flip();
+    }
+
+    // The count of read bytes, -1 at the end of the stream
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        buffer.compact();
+        if (buffer.capacity() < neededBytes || !buffer.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(neededBytes, buffer.capacity() * 2));
+            larger.put(buffer.flip());
+            buffer = larger;
+        }
+
+        int read = channel.read(buffer);
+        buffer.flip();
+        return read;
+    }
+
+    // The next whole frame, null when its bytes have not arrived yet
+    public Frame next() throws ProtocolException {
+        if (buffer.remaining() < Frames.HEADER_BYTES) {
+            return null;
+        }
+
+        int start = buffer.position();
+        byte type = buffer.get(start);
+        int length = buffer.getInt(start + 1);
+        if (length < 0 || length > Frames.MAX_PAYLOAD_BYTES) {
+            throw new ProtocolException("Frame of " + length + " bytes is not valid");
+        }
+        if (buffer.remaining() < Frames.HEADER_BYTES + length) {
+            neededBytes = Frames.HEADER_BYTES + length;
+            return null;
+        }
+
+        String payload = new String(buffer.array(), start + Frames.HEADER_BYTES, length, StandardCharsets.UTF_8);
+        buffer.position(start + Frames.HEADER_BYTES + length);
+        neededBytes = 0;
+        return new Frame(type, payload);
+    }
+
+    public void clear() {
+        buffer.clear().flip();
+        neededBytes = 0;
+    }
+}
@@ -0,0 +1,39 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Wire format of the server. A request is one line that ends with '\n', so a client can send the next ones
+// without waiting for the replies. Every reply is a frame of a type byte, the length of the payload as an int
+// and the UTF-8 payload, and the replies of one connection come in the order of its requests. Price pushes of
+// subscribe are frames of their own type between the replies, "<asset_id> <price_usd>".
+public final class Frames {
+    public static final byte REPLY = 'R';
+    public static final byte ERROR = 'E';
+    public static final byte PUSH = 'P';
+    public static final int HEADER_BYTES = 1 + Integer.BYTES;
+    public static final int MAX_PAYLOAD_BYTES = 16 * 1024 * 1024;
+    public static final byte REQUEST_END = '\n';
+
+    private Frames() {
+    }
+
+    public static ByteBuffer encode(byte type, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + bytes.length);
+        frame.put(type).putInt(bytes.length).put(bytes);
+        return frame.flip();
+    }
+
+    public static byte[] request(String line) {
+        if (line.indexOf(REQUEST_END) >= 0) {
+            throw new IllegalArgumentException("A request cannot contain a new line");
+        }
+
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        byte[] request = new byte[bytes.length + 1];
+        System.arraycopy(bytes, 0, request, 0, bytes.length);
+        request[bytes.length] = REQUEST_END;
+        return request;
+    }
+}
@@ -1,6 +1,7 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet.restServer;
 
 import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.ApiCallEvent;
 import com.google.gson.Gson;
 
 import com.google.gson.reflect.TypeToken;
@@ -20,8 +21,13 @@ import static java.net.HttpURLConnection.HTTP_OK;
 public class ServerRequest {
     private static final String QUERY_URL = "https://rest.coinapi.io/v1/assets";
     private static final String API_KEY_NAME = "X-CoinAPI-Key";
+    private static final String QUOTA_LIMIT_HEADER = "X-RateLimit-Limit";
+    private static final String QUOTA_REMAINING_HEADER = "X-RateLimit-Remaining";
     private final Gson gson;
     private final HttpClient client;
+    // From the headers of the last response, -1 until the api reports them
+    private volatile long quotaLimit = -1;
+    private volatile long quotaRemaining = -1;
 
     public ServerRequest() {
         client = HttpClient.newBuilder().build();
@@ -34,8 +40,7 @@ public class ServerRequest {
                 .header(API_KEY_NAME, System.getenv("API_KEY"))
                 .build();
 
-        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                .thenApply(this::responseToStatusCodeAssets);
+        return send(request).thenApply(this::responseToStatusCodeAssets);
     }
 
     public CompletableFuture<ApiResponse<Asset>> getAssetById(String assetId) throws URISyntaxException {
@@ -46,11 +51,33 @@ public class ServerRequest {
                 .header(API_KEY_NAME, System.getenv("API_KEY"))
                 .build();
 
+        return send(request).thenApply(this::responseToStatusCodeAsset);
+    }
+
+    public long quotaLimit() {
+        return quotaLimit;
+    }
+
+    public long quotaRemaining() {
+        return quotaRemaining;
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest request) {
+        ApiCallEvent event = new ApiCallEvent();
+        event.begin();
         return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                .thenApply(this::responseToStatusCodeAsset);
+                .whenComplete((response, error) -> event.finish(request.uri().getPath(),
+                        response == null ? -1 : response.statusCode(),
+                        response == null ? null : response.body(), error));
+    }
+
+    private void readQuota(HttpResponse<String> response) {
+        response.headers().firstValueAsLong(QUOTA_LIMIT_HEADER).ifPresent(limit -> quotaLimit = limit);
+        response.headers().firstValueAsLong(QUOTA_REMAINING_HEADER).ifPresent(remaining -> quotaRemaining = remaining);
     }
 
     private ApiResponse<Asset> responseToStatusCodeAsset(HttpResponse<String> response) {
+        readQuota(response);
         if (response.statusCode() != HTTP_OK) {
             String message = gson.fromJson(response.body(), ResponseError.class).getMessage();
             return new ApiResponse<>(null, response.statusCode(), message);
@@ -64,6 +91,7 @@ public class ServerRequest {
     }
 
     private ApiResponse<List<Asset>> responseToStatusCodeAssets(HttpResponse<String> response) {
+        readQuota(response);
         if (response.statusCode() != HTTP_OK) {
             String message = gson.fromJson(response.body(), ResponseError.class).getMessage();
             return new ApiResponse<>(null, response.statusCode(), message);
@@ -0,0 +1,74 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.users;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class LoginRateLimiter {
+    private static final int DEFAULT_ATTEMPTS = 5;
+    private static final long DEFAULT_REFILL_MILLIS = 12_000;
+    private static final int MAX_TRACKED_USERNAMES = 100_000;
+
+    private final int maxAttempts;
+    private final long refillMillis;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public LoginRateLimiter() {
+        this(DEFAULT_ATTEMPTS, DEFAULT_REFILL_MILLIS);
+    }
+
+    public LoginRateLimiter(int maxAttempts, long refillMillis) {
+        if (maxAttempts <= 0 || refillMillis <= 0) {
+            throw new IllegalArgumentException("Attempts and refill interval must be positive");
+        }
+
+        this.maxAttempts = maxAttempts;
+        this.refillMillis = refillMillis;
+    }
+
+    public boolean tryAcquire(String username) {
+        if (buckets.size() > MAX_TRACKED_USERNAMES) {
+            long now = System.currentTimeMillis();
+            buckets.values().removeIf(bucket -> bucket.isFull(now));
+        }
+
+        return buckets.computeIfAbsent(username, name -> new Bucket()).tryTake(System.currentTimeMillis());
+    }
+
+    // Gives back an attempt taken by tryAcquire, once it turned out not to count
+    public void release(String username) {
+        Bucket bucket = buckets.get(username);
+        if (bucket != null) {
+            bucket.giveBack(System.currentTimeMillis());
+        }
+    }
+
+    private class Bucket {
+        private double tokens = maxAttempts;
+        private long lastRefill = System.currentTimeMillis();
+
+        synchronized boolean tryTake(long now) {
+            refill(now);
+            if (tokens < 1) {
+                return false;
+            }
+
+            tokens--;
+            return true;
+        }
+
+        synchronized void giveBack(long now) {
+            refill(now);
+            tokens = Math.min(maxAttempts, tokens + 1);
+        }
+
+        synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= maxAttempts;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(maxAttempts, tokens + (double) (now - lastRefill) / refillMillis);
+            lastRefill = now;
+        }
+    }
+}
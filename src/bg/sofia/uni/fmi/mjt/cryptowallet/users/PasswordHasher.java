@@ -0,0 +1,201 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.users;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.TooManyRequestsException;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class PasswordHasher implements AutoCloseable {
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2";
+    private static final String SEPARATOR = "$";
+    private static final int HASH_PARTS = 4;
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+    private static final int DEFAULT_ITERATIONS = 100_000;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder hashesCount = new LongAdder();
+    private final LongAdder hashesTimeNanos = new LongAdder();
+    private final AtomicLong maxHashTimeNanos = new AtomicLong();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    public PasswordHasher() {
+        this(configuredIterations(),
+                Integer.getInteger("cryptowallet.hash.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("cryptowallet.hash.queue", DEFAULT_QUEUE_CAPACITY));
+    }
+
+    public PasswordHasher(int iterations, int threads, int queueCapacity) {
+        if (iterations <= 0 || threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Iterations, threads and queue capacity must be positive");
+        }
+
+        this.iterations = iterations;
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public static int configuredIterations() {
+        return Integer.getInteger("cryptowallet.hash.iterations", DEFAULT_ITERATIONS);
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(task.call());
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            result.completeExceptionally(
+                    new TooManyRequestsException("Too many login requests at the moment, please try again later"));
+        }
+        return result;
+    }
+
+    public String hash(String password) {
+        byte[] salt = newSalt();
+        return encode(iterations, salt, pbkdf2(password, salt, iterations));
+    }
+
+    // Hashes on the calling thread without a pool or statistics, for the offline tools
+    public static String hash(String password, int iterations) {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("Iterations must be positive");
+        }
+
+        byte[] salt = newSalt();
+        return encode(iterations, salt, derive(password, salt, iterations));
+    }
+
+    public boolean matches(String password, String storedCredential) {
+        if (!isHashed(storedCredential)) {
+            return MessageDigest.isEqual(password.getBytes(), storedCredential.getBytes());
+        }
+
+        if (!isWellFormed(storedCredential)) {
+            return false;
+        }
+
+        String[] parts = storedCredential.split("\\" + SEPARATOR);
+        Base64.Decoder decoder = Base64.getDecoder();
+        byte[] expected = decoder.decode(parts[3]);
+        byte[] actual = pbkdf2(password, decoder.decode(parts[2]), Integer.parseInt(parts[1]));
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    public boolean needsRehash(String storedCredential) {
+        if (!isWellFormed(storedCredential)) {
+            return true;
+        }
+
+        String[] parts = storedCredential.split("\\" + SEPARATOR);
+        return Integer.parseInt(parts[1]) < iterations;
+    }
+
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long hashesCount() {
+        return hashesCount.sum();
+    }
+
+    public double averageHashTimeMillis() {
+        long count = hashesCount.sum();
+        return count == 0 ? 0 : hashesTimeNanos.sum() / (count * 1_000_000.0);
+    }
+
+    public double maxHashTimeMillis() {
+        return maxHashTimeNanos.get() / 1_000_000.0;
+    }
+
+    public long rejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private byte[] pbkdf2(String password, byte[] salt, int rounds) {
+        long start = System.nanoTime();
+        try {
+            return derive(password, salt, rounds);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            hashesCount.increment();
+            hashesTimeNanos.add(elapsed);
+            maxHashTimeNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    private static byte[] derive(String password, byte[] salt, int rounds) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, rounds, KEY_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Password hashing is not supported by this JVM", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static byte[] newSalt() {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    private static String encode(int rounds, byte[] salt, byte[] hash) {
+        Base64.Encoder encoder = Base64.getEncoder();
+        return String.join(SEPARATOR, PREFIX, String.valueOf(rounds),
+                encoder.encodeToString(salt), encoder.encodeToString(hash));
+    }
+
+    static boolean isHashed(String storedCredential) {
+        return storedCredential.startsWith(PREFIX + SEPARATOR);
+    }
+
+    // pbkdf2$<iterations>$<salt>$<hash> with positive iterations and a Base64 salt and hash
+    static boolean isWellFormed(String storedCredential) {
+        String[] parts = storedCredential.split("\\" + SEPARATOR, -1);
+        if (parts.length != HASH_PARTS || !parts[0].equals(PREFIX)) {
+            return false;
+        }
+
+        try {
+            Base64.Decoder decoder = Base64.getDecoder();
+            return Integer.parseInt(parts[1]) > 0 && decoder.decode(parts[2]).length > 0
+                    && decoder.decode(parts[3]).length > 0;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.users;
+
+public enum PersistenceMode {
+    // acknowledged after the record is written and fsynced, it is flushed without a delay
+    SYNC(0),
+    // acknowledged after the batch the record joined within the delay is written and fsynced
+    GROUP(2),
+    // acknowledged after the in-memory change, flushed in the background within the delay
+    ASYNC(100);
+
+    public final long defaultDelayMillis;
+
+    PersistenceMode(long defaultDelayMillis) {
+        this.defaultDelayMillis = defaultDelayMillis;
+    }
+
+    public static PersistenceMode fromSystemProperties() {
+        String mode = System.getProperty("cryptowallet.persistence.mode", SYNC.name());
+        return valueOf(mode.toUpperCase());
+    }
+}
@@ -3,20 +3,25 @@ package bg.sofia.uni.fmi.mjt.cryptowallet.users;
 import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
 import bg.sofia.uni.fmi.mjt.cryptowallet.assets.AssetsDatabase;
 import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.*;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.LimitOrder;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.RecurringBuy;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.Trigger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.CostBasis;
 import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Wallet;
 import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.Transaction;
 
 import java.io.Serializable;
 import java.net.URISyntaxException;
 import java.util.List;
+import java.util.Map;
 
 public class User implements Serializable {
 
     private static final long serialVersionUID = 1357924680L;
     private final String username;
-    private final String password;
+    private String password;
     private final Wallet wallet;
-    private boolean isLoggedIn;
+    private transient volatile boolean isLoggedIn;
 
     public User(String username, String password, double money) {
         this.username = username;
@@ -37,8 +42,16 @@ public class User implements Serializable {
         return wallet;
     }
 
-    public boolean matchPasswords(String pass) {
-        return password.equals(pass);
+    String getPassword() {
+        return password;
+    }
+
+    void changePassword(String newPassword) {
+        password = newPassword;
+    }
+
+    public boolean isLoggedIn() {
+        return isLoggedIn;
     }
 
     public void login() {
@@ -59,6 +72,79 @@ public class User implements Serializable {
         return wallet.sellCrypto(asset);
     }
 
+    public double sellCrypto(Asset asset, double quantity) throws CryptoCurrencyNotInWalletException, UnauthorizedException {
+        isAuthorizedForTransactions();
+        return wallet.sellCrypto(asset, quantity);
+    }
+
+    public void placeOrder(LimitOrder order)
+            throws NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException, UnauthorizedException {
+        isAuthorizedForTransactions();
+        wallet.placeOrder(order);
+    }
+
+    public LimitOrder cancelOrder(long orderId) throws UnauthorizedException {
+        isAuthorizedForTransactions();
+        return wallet.cancelOrder(orderId);
+    }
+
+    // Orders are filled while their owner may be logged out
+    public boolean fillOrder(long orderId, Asset asset) {
+        return wallet.fillOrder(orderId, asset);
+    }
+
+    public List<LimitOrder> getOpenOrders() {
+        return wallet.getOpenOrders();
+    }
+
+    public void addTrigger(Trigger trigger) throws CryptoCurrencyNotInWalletException, UnauthorizedException {
+        isAuthorizedForTransactions();
+        wallet.addTrigger(trigger);
+    }
+
+    public Trigger removeTrigger(long triggerId) throws UnauthorizedException {
+        isAuthorizedForTransactions();
+        return wallet.removeTrigger(triggerId);
+    }
+
+    // Triggers fire while their owner may be logged out
+    public boolean fireTrigger(long triggerId, Asset asset) {
+        return wallet.fireTrigger(triggerId, asset);
+    }
+
+    public List<Trigger> getTriggers() {
+        return wallet.getTriggers();
+    }
+
+    public void addRecurringBuy(RecurringBuy plan) throws UnauthorizedException {
+        isAuthorizedForTransactions();
+        wallet.addRecurringBuy(plan);
+    }
+
+    public RecurringBuy removeRecurringBuy(long planId) throws UnauthorizedException {
+        isAuthorizedForTransactions();
+        return wallet.removeRecurringBuy(planId);
+    }
+
+    public boolean hasRecurringBuy(long planId) {
+        return wallet.hasRecurringBuy(planId);
+    }
+
+    // Recurring buys run while their owner may be logged out
+    public boolean runRecurringBuy(long planId, Asset asset) {
+        return wallet.runRecurringBuy(planId, asset);
+    }
+
+    public List<RecurringBuy> getRecurringBuys() {
+        return wallet.getRecurringBuys();
+    }
+
+    public List<Transaction> rebalance(Map<String, Double> targetPercents, Map<String, Asset> prices)
+            throws UnauthorizedException {
+        isAuthorizedForTransactions();
+        return wallet.rebalance(targetPercents, prices);
+    }
+
     public void depositMoney(double money) throws UnauthorizedException {
         isAuthorizedForTransactions();
         wallet.deposit(money);
@@ -68,10 +154,23 @@ public class User implements Serializable {
         return wallet.getWalletSummary();
     }
 
+    public String getHistory(int limit, long before) {
+        return wallet.getHistory(limit, before);
+    }
+
     public String getWalletOverallSummary(AssetsDatabase db) throws NoSuchAssetException, HttpException, URISyntaxException {
         return wallet.getWalletOverallSummary(db);
     }
 
+    public String getProfitAndLoss(AssetsDatabase db) throws NoSuchAssetException, HttpException, URISyntaxException {
+        return wallet.getProfitAndLoss(db);
+    }
+
+    public void setCostBasis(CostBasis costBasis) throws UnauthorizedException {
+        isAuthorizedForTransactions();
+        wallet.setCostBasis(costBasis);
+    }
+
     public void withdrawMoney(double money) throws NotEnoughMoneyInWalletException, UnauthorizedException {
         isAuthorizedForTransactions();
         wallet.withdraw(money);
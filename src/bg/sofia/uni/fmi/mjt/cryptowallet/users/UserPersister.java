@@ -0,0 +1,372 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.users;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.LatencyRecorder;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.PersistenceEvent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// Writes are flushed by one background thread in every mode, SYNC is flushed without a delay, so that no command
+// thread waits for the disk. Only the newest unflushed write of a user is kept, and the queue has one entry per
+// user with unflushed writes. The queue is bounded by the count of users, so queueing never blocks the caller
+// while it holds the user's lock, and a user that is evicted and read again is read from its unflushed write.
+public class UserPersister implements Closeable {
+    private static final int MAX_BATCH_SIZE = 4096;
+    private static final int MAX_CLOSING_RETRIES = 3;
+    private static final PendingWrite STOP = new PendingWrite(null, null, 0);
+
+    private final PersistenceMode mode;
+    private final long delayMillis;
+    private final Function<String, UserShard> shardOf;
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final ConcurrentMap<String, PendingWrite> unflushed = new ConcurrentHashMap<>();
+    private final List<PendingWrite> failedBatch = new ArrayList<>();
+    private final Thread flusher;
+    // Orders the writes of a user, a shard ignores a write older than the one it has
+    private final AtomicLong versions = new AtomicLong();
+    private volatile boolean isWorking = true;
+    private int closingRetries;
+
+    private final LongAdder writesCount = new LongAdder();
+    private final LongAdder batchesCount = new LongAdder();
+    private final LongAdder failuresCount = new LongAdder();
+    private final LatencyRecorder flushLatency = new LatencyRecorder();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+    private final AtomicReference<String> lastFailure = new AtomicReference<>();
+
+    UserPersister(PersistenceMode mode, long delayMillis, Function<String, UserShard> shardOf) {
+        this.mode = mode;
+        this.delayMillis = delayMillis;
+        this.shardOf = shardOf;
+
+        flusher = new Thread(this::flushLoop, "users-persister");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Must be called while the user's lock is held, so that writes of one user are queued in order. Completes when
+    // the write is on the disk, right away in the ASYNC mode.
+    CompletableFuture<Void> persist(User user) {
+        PendingWrite write;
+        try {
+            write = newWrite(user);
+        } catch (IOException e) {
+            return failed(e);
+        }
+
+        enqueue(write);
+        return mode == PersistenceMode.ASYNC ? CompletableFuture.completedFuture(null) : write.flushed;
+    }
+
+    Batch newBatch() {
+        return new Batch();
+    }
+
+    static void await(CompletableFuture<Void> persisted) {
+        Throwable failure = persisted.handle((ignored, error) -> error).join();
+        if (failure != null) {
+            Throwable cause = failure.getCause() != null ? failure.getCause() : failure;
+            throw new UncheckedIOException("Problem occurred while writing on file",
+                    cause instanceof IOException e ? e : new IOException(cause));
+        }
+    }
+
+    public PersistenceMode getMode() {
+        return mode;
+    }
+
+    public int pendingWrites() {
+        return unflushed.size();
+    }
+
+    // The newest write of the user that is not on the disk yet, or null
+    byte[] unflushedPayload(String username) {
+        PendingWrite write = unflushed.get(username);
+        return write == null ? null : write.payload;
+    }
+
+    public long lagMillis() {
+        PendingWrite oldest = queue.peek();
+        return oldest == null ? 0 : System.currentTimeMillis() - oldest.createdAt;
+    }
+
+    public long maxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    public long writesCount() {
+        return writesCount.sum();
+    }
+
+    public long batchesCount() {
+        return batchesCount.sum();
+    }
+
+    public double averageFlushMillis() {
+        return flushLatency.mean() / 1_000_000.0;
+    }
+
+    // Writing and forcing one batch, in nanoseconds
+    public LatencyRecorder flushLatency() {
+        return flushLatency;
+    }
+
+    public long failuresCount() {
+        return failuresCount.sum();
+    }
+
+    public String lastFailure() {
+        return lastFailure.get();
+    }
+
+    @Override
+    public void close() {
+        // The flusher is not interrupted, an interrupt inside a write would close the channel of the shard
+        isWorking = false;
+        queue.add(STOP);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private PendingWrite newWrite(User user) throws IOException {
+        return new PendingWrite(user.getUsername(), UserShard.serialize(user), versions.incrementAndGet());
+    }
+
+    // Must be called while the user's lock is held. A write that replaces one the flusher has not taken yet is
+    // flushed in its place, the replaced write completes with it. Decided in the map, atomically with the flusher
+    // taking the newest write, so that a write is never left without a queue entry.
+    private void enqueue(PendingWrite write) {
+        unflushed.compute(write.username, (username, replaced) -> {
+            if (replaced == null || replaced.isTaken) {
+                queue.add(write);
+            } else {
+                completeWith(replaced, write);
+            }
+            return write;
+        });
+    }
+
+    private static void completeWith(PendingWrite replaced, PendingWrite write) {
+        write.flushed.whenComplete((ignored, error) -> {
+            if (error == null) {
+                replaced.flushed.complete(null);
+            } else {
+                replaced.flushed.completeExceptionally(error);
+            }
+        });
+    }
+
+    // Runs until it is closed and every queued and failed write is flushed
+    private void flushLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (isWorking || !queue.isEmpty() || !failedBatch.isEmpty()) {
+            try {
+                collectBatch(batch);
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            List<PendingWrite> newest = newestWrites(batch);
+            if (!newest.isEmpty()) {
+                flushBatch(newest);
+            }
+            batch.clear();
+        }
+    }
+
+    private void collectBatch(List<PendingWrite> batch) throws InterruptedException {
+        batch.addAll(failedBatch);
+        failedBatch.clear();
+
+        PendingWrite first = batch.isEmpty() ? queue.take() : queue.poll();
+        if (first != null && first != STOP) {
+            batch.add(first);
+        }
+        if (batch.isEmpty() || !isWorking) {
+            queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+            batch.remove(STOP);
+            return;
+        }
+
+        long deadline = batch.get(0).createdAt + delayMillis;
+        while (batch.size() < MAX_BATCH_SIZE) {
+            long remaining = deadline - System.currentTimeMillis();
+            PendingWrite next = remaining > 0 ? queue.poll(remaining, TimeUnit.MILLISECONDS) : queue.poll();
+            if (next == null || next == STOP) {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    // The queued entries are taken, and the newest write of each of their users is flushed instead of them. A
+    // newer write that was queued because it saw its entry taken completes the entry too.
+    private List<PendingWrite> newestWrites(List<PendingWrite> batch) {
+        Map<String, PendingWrite> newest = new LinkedHashMap<>();
+        for (PendingWrite write : batch) {
+            write.isTaken = true;
+            unflushed.computeIfPresent(write.username, (username, latest) -> {
+                latest.isTaken = true;
+                newest.put(username, latest);
+                if (latest != write) {
+                    completeWith(write, latest);
+                }
+                return latest;
+            });
+        }
+        return new ArrayList<>(newest.values());
+    }
+
+    private void flushBatch(List<PendingWrite> batch) {
+        try {
+            flush(batch);
+            complete(batch, null);
+        } catch (IOException e) {
+            ErrorLogger.logException(e);
+            if (mode != PersistenceMode.ASYNC) {
+                complete(batch, e);
+            } else if (!isWorking && ++closingRetries > MAX_CLOSING_RETRIES) {
+                ErrorLogger.logMessage("The writes of " + batch.size() + " users are lost on closing");
+                complete(batch, e);
+            } else {
+                failedBatch.addAll(batch);
+                sleepBeforeRetry();
+            }
+        }
+    }
+
+    private void complete(List<PendingWrite> batch, IOException error) {
+        for (PendingWrite write : batch) {
+            unflushed.remove(write.username, write);
+            if (error == null) {
+                write.flushed.complete(null);
+            } else {
+                write.flushed.completeExceptionally(error);
+            }
+        }
+    }
+
+    private void flush(Collection<PendingWrite> writes) throws IOException {
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Map<String, PendingWrite> latestWrites = new LinkedHashMap<>();
+        for (PendingWrite write : writes) {
+            latestWrites.remove(write.username);
+            latestWrites.put(write.username, write);
+        }
+
+        Set<UserShard> touchedShards = new HashSet<>();
+        long writtenBytes = 0;
+        try {
+            for (PendingWrite write : latestWrites.values()) {
+                UserShard shard = shardOf.apply(write.username);
+                if (shard.write(write.username, write.payload, write.version)) {
+                    touchedShards.add(shard);
+                    writtenBytes += write.payload.length;
+                }
+            }
+            for (UserShard shard : touchedShards) {
+                shard.force();
+            }
+        } catch (IOException e) {
+            failuresCount.increment();
+            lastFailure.set(e.getMessage());
+            event.finish(mode.name(), latestWrites.size(), touchedShards.size(), writtenBytes, false);
+            throw e;
+        }
+        event.finish(mode.name(), latestWrites.size(), touchedShards.size(), writtenBytes, true);
+
+        long now = System.currentTimeMillis();
+        for (PendingWrite write : writes) {
+            maxLagMillis.accumulateAndGet(now - write.createdAt, Math::max);
+        }
+        writesCount.add(latestWrites.size());
+        batchesCount.increment();
+        flushLatency.record(System.nanoTime() - start);
+    }
+
+    private void sleepBeforeRetry() {
+        try {
+            Thread.sleep(Math.max(delayMillis, 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static CompletableFuture<Void> failed(IOException e) {
+        return CompletableFuture.failedFuture(e);
+    }
+
+    // Writes of several users that are waited for together. Each user is queued while its lock is held, and the
+    // batch is waited for once after the locks are released, so that no lock is held while the shards are written.
+    final class Batch {
+        private final List<PendingWrite> writes = new ArrayList<>();
+        private IOException failure;
+
+        private Batch() {
+        }
+
+        // Must be called while the user's lock is held
+        void add(User user) {
+            PendingWrite write;
+            try {
+                write = newWrite(user);
+            } catch (IOException e) {
+                failure = e;
+                return;
+            }
+
+            enqueue(write);
+            writes.add(write);
+        }
+
+        // Completes when every write of the batch is on the disk, the users that could not be serialized fail it
+        CompletableFuture<Void> flush() {
+            CompletableFuture<Void> flushed = CompletableFuture.completedFuture(null);
+            if (mode != PersistenceMode.ASYNC) {
+                flushed = CompletableFuture.allOf(writes.stream().map(write -> write.flushed)
+                        .toArray(CompletableFuture[]::new));
+            }
+            return failure == null ? flushed : flushed.thenCompose(ignored -> failed(failure));
+        }
+    }
+
+    private static class PendingWrite {
+        private final String username;
+        private final byte[] payload;
+        private final long version;
+        private final long createdAt = System.currentTimeMillis();
+        private final CompletableFuture<Void> flushed = new CompletableFuture<>();
+        // Set by the flusher when it takes the write, a newer write of the user is queued again
+        private volatile boolean isTaken;
+
+        PendingWrite(String username, byte[] payload, long version) {
+            this.username = username;
+            this.payload = payload;
+            this.version = version;
+        }
+    }
+}
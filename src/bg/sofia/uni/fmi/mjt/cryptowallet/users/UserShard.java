@@ -0,0 +1,256 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.users;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Append-only file of user records: username (modified UTF-8), payload length, serialized User.
+// Only the offset of the latest record of every user is kept in memory.
+class UserShard implements Closeable {
+    private static final int COMPACTION_THRESHOLD_BYTES = 1024 * 1024;
+
+    private final Path path;
+    private final Map<String, Long> offsets = new ConcurrentHashMap<>();
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    private FileChannel channel;
+    private long liveBytes;
+
+    UserShard(Path path) throws IOException {
+        this.path = path;
+        channel = open(path);
+        buildIndex();
+    }
+
+    Set<String> usernames() {
+        return offsets.keySet();
+    }
+
+    boolean contains(String username) {
+        return offsets.containsKey(username);
+    }
+
+    // Only the file read holds the shard lock, the user is deserialized outside of it
+    User read(String username) throws IOException, ClassNotFoundException {
+        byte[] payload = readPayload(username);
+        return payload == null ? null : deserialize(payload);
+    }
+
+    static User deserialize(byte[] payload) throws IOException, ClassNotFoundException {
+        try (var objectInputStream = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            return (User) objectInputStream.readObject();
+        }
+    }
+
+    private synchronized byte[] readPayload(String username) throws IOException {
+        Long offset = offsets.get(username);
+        if (offset == null) {
+            return null;
+        }
+
+        int headerLength = headerLength(username);
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+        readFully(lengthBuffer, offset + headerLength - Integer.BYTES);
+        ByteBuffer payload = ByteBuffer.allocate(lengthBuffer.flip().getInt());
+        readFully(payload, offset + headerLength);
+        return payload.array();
+    }
+
+    boolean writeIfAbsent(User user) throws IOException {
+        return writeIfAbsent(user.getUsername(), serialize(user));
+    }
+
+    synchronized boolean writeIfAbsent(String username, byte[] payload) throws IOException {
+        if (offsets.containsKey(username)) {
+            return false;
+        }
+
+        write(username, payload);
+        return true;
+    }
+
+    void write(User user) throws IOException {
+        write(user.getUsername(), serialize(user));
+    }
+
+    // Returns false and keeps the stored user when it was written from a newer version
+    synchronized boolean write(String username, byte[] payload, long version) throws IOException {
+        Long written = versions.get(username);
+        if (written != null && written > version) {
+            return false;
+        }
+
+        write(username, payload);
+        versions.put(username, version);
+        return true;
+    }
+
+    synchronized void write(String username, byte[] payload) throws IOException {
+        byte[] record = toRecord(username, payload);
+        Long previous = offsets.put(username, append(record));
+        if (previous != null) {
+            liveBytes -= recordLength(previous, username);
+        }
+        liveBytes += record.length;
+
+        long size = channel.size();
+        if (size > COMPACTION_THRESHOLD_BYTES && size - liveBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    synchronized long exportTo(WritableByteChannel target) throws IOException {
+        long exported = 0;
+        for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+            int length = recordLength(entry.getValue(), entry.getKey());
+            long transferred = 0;
+            while (transferred < length) {
+                transferred += channel.transferTo(entry.getValue() + transferred, length - transferred, target);
+            }
+            exported++;
+        }
+        return exported;
+    }
+
+    synchronized void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private long append(byte[] record) throws IOException {
+        long position = channel.size();
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        long writePosition = position;
+        while (buffer.hasRemaining()) {
+            writePosition += channel.write(buffer, writePosition);
+        }
+        return position;
+    }
+
+    // A record cut off by a crash in the middle of an append ends the log, the file is truncated after the last
+    // complete record so that the next append does not follow the partial one
+    private void buildIndex() throws IOException {
+        long position = 0;
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                String username;
+                int payloadLength;
+                try {
+                    username = input.readUTF();
+                    payloadLength = input.readInt();
+                    input.skipNBytes(payloadLength);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                Long previous = offsets.put(username, position);
+                if (previous != null) {
+                    liveBytes -= recordLength(previous, username);
+                }
+                int recordLength = headerLength(username) + payloadLength;
+                liveBytes += recordLength;
+                position += recordLength;
+            }
+        }
+
+        if (position < channel.size()) {
+            ErrorLogger.logMessage("Dropped the partial last record of users shard " + path + " at " + position);
+            channel.truncate(position);
+            channel.force(false);
+        }
+    }
+
+    private void compact() throws IOException {
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        Map<String, Long> compactedOffsets = new HashMap<>();
+        try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = 0;
+            for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+                int length = recordLength(entry.getValue(), entry.getKey());
+                long transferred = 0;
+                while (transferred < length) {
+                    transferred += channel.transferTo(entry.getValue() + transferred, length - transferred, target);
+                }
+                compactedOffsets.put(entry.getKey(), position);
+                position += length;
+            }
+            target.force(true);
+            liveBytes = position;
+        }
+
+        channel.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = open(path);
+        offsets.putAll(compactedOffsets);
+    }
+
+    private int recordLength(long offset, String username) throws IOException {
+        int headerLength = headerLength(username);
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+        readFully(lengthBuffer, offset + headerLength - Integer.BYTES);
+        return headerLength + lengthBuffer.flip().getInt();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long readPosition = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, readPosition);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of users shard " + path);
+            }
+            readPosition += read;
+        }
+    }
+
+    private static int headerLength(String username) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(username);
+        return bytes.size() + Integer.BYTES;
+    }
+
+    private static byte[] toRecord(String username, byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + username.length() + 8);
+        try (var output = new DataOutputStream(bytes)) {
+            output.writeUTF(username);
+            output.writeInt(payload.length);
+            output.write(payload);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] serialize(User user) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (var outputStream = new ObjectOutputStream(bytes)) {
+            outputStream.writeObject(user);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+}
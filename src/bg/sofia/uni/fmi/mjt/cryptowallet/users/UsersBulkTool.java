@@ -0,0 +1,156 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.users;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Offline import/export of the users store. The server must not be running on the same files.
+//   import-csv <users-file> <csv-file> [hash-iterations]   lines: username,password[,balance]
+//   export <users-file> <dump-file>                        binary dump of every stored user, archived
+//                                                          transactions are copied to <dump-file>.history
+//   import <users-file> <dump-file>
+public class UsersBulkTool {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int TASK_THRESHOLD = 256;
+    private static final int MAX_REPORTED_ERRORS = 20;
+    private static final String SEPARATOR = ",";
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: import-csv|import|export <users-file> <input-or-output-file> [hash-iterations]");
+            return;
+        }
+
+        Path usersFile = Path.of(args[1]);
+        Path dataFile = Path.of(args[2]);
+        long start = System.currentTimeMillis();
+        try (UsersDatabase usersDb = new UsersDatabase(usersFile)) {
+            String result = switch (args[0]) {
+                case "import-csv" -> {
+                    int iterations = args.length > 3 ? Integer.parseInt(args[3]) : PasswordHasher.configuredIterations();
+                    yield importCsv(usersDb, dataFile, iterations);
+                }
+                case "import" -> "Imported " + usersDb.importDump(dataFile) + " users";
+                case "export" -> "Exported " + usersDb.exportDump(dataFile) + " users";
+                default -> "Unknown operation " + args[0];
+            };
+            System.out.println(result + " in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException | ClassNotFoundException e) {
+            System.out.println("Error occurred while processing users: " + e.getMessage());
+        }
+    }
+
+    public static String importCsv(UsersDatabase usersDb, Path csvFile, int iterations) throws IOException {
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+        long imported = 0;
+        long lines = 0;
+
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("Hash iterations must be positive");
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(csvFile)) {
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                chunk.add(line);
+                if (chunk.size() == CHUNK_SIZE) {
+                    imported += usersDb.importUsers(
+                            pool.invoke(new ParseUsersTask(chunk, lines, iterations, errors)));
+                    lines += chunk.size();
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            imported += usersDb.importUsers(pool.invoke(new ParseUsersTask(chunk, lines, iterations, errors)));
+            lines += chunk.size();
+        }
+
+        errors.stream().limit(MAX_REPORTED_ERRORS).forEach(System.out::println);
+        return String.format("Imported %d of %d lines (%d invalid, %d already existing)",
+                imported, lines, errors.size(), lines - errors.size() - imported);
+    }
+
+    private static class ParseUsersTask extends RecursiveTask<List<User>> {
+        private static final long serialVersionUID = 1L;
+        private final List<String> lines;
+        private final long firstLineNumber;
+        private final int iterations;
+        private final Queue<String> errors;
+
+        ParseUsersTask(List<String> lines, long firstLineNumber, int iterations, Queue<String> errors) {
+            this.lines = lines;
+            this.firstLineNumber = firstLineNumber;
+            this.iterations = iterations;
+            this.errors = errors;
+        }
+
+        @Override
+        protected List<User> compute() {
+            if (lines.size() > TASK_THRESHOLD) {
+                int middle = lines.size() / 2;
+                ParseUsersTask left = new ParseUsersTask(lines.subList(0, middle), firstLineNumber, iterations, errors);
+                ParseUsersTask right = new ParseUsersTask(lines.subList(middle, lines.size()),
+                        firstLineNumber + middle, iterations, errors);
+                left.fork();
+                List<User> users = new ArrayList<>(right.compute());
+                users.addAll(left.join());
+                return users;
+            }
+
+            List<User> users = new ArrayList<>(lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                try {
+                    users.add(parseUser(lines.get(i)));
+                } catch (IllegalArgumentException e) {
+                    errors.add("Line " + (firstLineNumber + i + 1) + ": " + e.getMessage());
+                }
+            }
+            return users;
+        }
+
+        private User parseUser(String line) {
+            String[] fields = line.split(SEPARATOR);
+            if (fields.length < 2 || fields.length > 3) {
+                throw new IllegalArgumentException("Expected username,password[,balance]");
+            }
+
+            String username = fields[0].strip();
+            String password = fields[1].strip();
+            if (username.isEmpty() || password.isEmpty()) {
+                throw new IllegalArgumentException("Username and password cannot be empty");
+            }
+            // Commands are split on whitespace, such a user could never log in
+            if (username.chars().anyMatch(Character::isWhitespace)) {
+                throw new IllegalArgumentException("Username cannot contain whitespace");
+            }
+
+            double balance = 0;
+            if (fields.length == 3) {
+                try {
+                    balance = Double.parseDouble(fields[2].strip());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Balance not in the correct format");
+                }
+                if (balance < 0 || Double.isNaN(balance) || Double.isInfinite(balance)) {
+                    throw new IllegalArgumentException("Balance cannot be negative");
+                }
+            }
+
+            if (PasswordHasher.isHashed(password) && !PasswordHasher.isWellFormed(password)) {
+                throw new IllegalArgumentException("Hashed password not in the correct format");
+            }
+            String storedPassword = PasswordHasher.isHashed(password)
+                    ? password
+                    : PasswordHasher.hash(password, iterations);
+            return new User(username, storedPassword, balance);
+        }
+    }
+}
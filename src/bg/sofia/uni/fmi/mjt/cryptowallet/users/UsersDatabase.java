@@ -1,34 +1,135 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet.users;
 
 import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.audit.AuditLog;
 import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.*;
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.PersistenceEvent;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.LimitOrder;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.RecurringBuy;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.Trigger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.CostBasis;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.HistoryStore;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.PlatformExposure;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Wallet;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.WalletListener;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.Transaction;
 
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+public class UsersDatabase implements Closeable {
+    private static final int SHARDS_COUNT = 16;
+    private static final long IDLE_TIMEOUT_MILLIS = 15 * 60 * 1000;
+    private static final long EVICTION_INTERVAL_MILLIS = 60 * 1000;
+    private static final int LOCK_STRIPES = 256;
 
-public class UsersDatabase {
     private final Path usersDbPath;
-    private Map<String, User> users = new HashMap<>();
+    private final UserShard[] shards = new UserShard[SHARDS_COUNT];
+    private final HistoryStore historyStore;
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+    private final Map<String, User> loadedUsers = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastAccess = new ConcurrentHashMap<>();
+    // The writes of the users that are not acknowledged yet, a failed one stays until it is taken
+    private final Map<String, CompletableFuture<Void>> unacknowledged = new ConcurrentHashMap<>();
+    // Evicts the idle users in the background, so that no command pays for scanning the loaded users
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "users-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final PasswordHasher passwordHasher;
+    private final LoginRateLimiter loginRateLimiter;
+    private final UserPersister persister;
+    private final List<WalletListener> walletListeners = new CopyOnWriteArrayList<>();
+    private volatile AuditLog auditLog;
 
     public UsersDatabase(Path dbFile) throws IOException, ClassNotFoundException {
+        this(dbFile, new PasswordHasher(), new LoginRateLimiter(), PersistenceMode.fromSystemProperties());
+    }
+
+    public UsersDatabase(Path dbFile, PasswordHasher hasher, LoginRateLimiter rateLimiter, PersistenceMode mode)
+            throws IOException, ClassNotFoundException {
+        this(dbFile, hasher, rateLimiter, mode,
+                Long.getLong("cryptowallet.persistence.delay.millis", mode.defaultDelayMillis));
+    }
+
+    public UsersDatabase(Path dbFile, PasswordHasher hasher, LoginRateLimiter rateLimiter, PersistenceMode mode,
+                         long persistenceDelayMillis) throws IOException, ClassNotFoundException {
         usersDbPath = dbFile;
-        loadUsersFromFile();
+        passwordHasher = hasher;
+        loginRateLimiter = rateLimiter;
+        persister = new UserPersister(mode, persistenceDelayMillis, this::shardOf);
+        historyStore = historyStoreOf(dbFile);
+        for (int i = 0; i < SHARDS_COUNT; i++) {
+            shards[i] = new UserShard(dbFile.resolveSibling(dbFile.getFileName() + ".shard" + i));
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        migrateUsersFromFile();
+        evictor.scheduleWithFixedDelay(this::evictIdleUsersQuietly, EVICTION_INTERVAL_MILLIS,
+                EVICTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
     }
 
-    private void loadUsersFromFile() throws ClassNotFoundException, IOException {
+    private void migrateUsersFromFile() throws ClassNotFoundException, IOException {
         File file = usersDbPath.toFile();
         if (file.exists() && file.length() > 0) {
+            Object stored;
             try (var fileInputStream = Files.newInputStream(usersDbPath);
                  var objectInputStream = new ObjectInputStream(fileInputStream)
             ) {
-                users = (Map<String, User>) objectInputStream.readObject();
+                stored = objectInputStream.readObject();
+            }
+            if (!(stored instanceof Map<?, ?> users)) {
+                throw new IOException("The users file does not hold the map of the users");
+            }
+
+            // The old file is emptied only after the users are on the disk in the shards
+            Set<UserShard> touchedShards = new HashSet<>();
+            for (Object value : users.values()) {
+                User user = (User) value;
+                UserShard shard = shardOf(user.getUsername());
+                shard.writeIfAbsent(user);
+                touchedShards.add(shard);
+            }
+            for (UserShard shard : touchedShards) {
+                shard.force();
             }
+            Files.write(usersDbPath, new byte[0]);
         }
     }
 
@@ -38,78 +139,618 @@ public class UsersDatabase {
         }
         checkIfUserExists(name);
 
-        return users.get(name);
+        return loadUser(name);
     }
 
     public void register(String username, String password) throws UserAlreadyExistsException {
-        if (checkStringEmptyOrNull(username)) {
-            throw new IllegalArgumentException("Username cannot be null or empty");
+        validateCredentials(username, password);
+        registerUser(username, password);
+    }
+
+    public CompletableFuture<User> registerAsync(String username, String password) {
+        validateCredentials(username, password);
+        return passwordHasher.submit(() -> registerUser(username, password));
+    }
+
+    public void login(String username, String password) throws NoSuchUserException, HttpException {
+        validateCredentials(username, password);
+        loginUser(username, password);
+    }
+
+    public CompletableFuture<User> loginAsync(String username, String password) {
+        validateCredentials(username, password);
+        return passwordHasher.submit(() -> loginUser(username, password));
+    }
+
+    public void logout(User user) {
+        Lock lock = lockFor(user.getUsername());
+        lock.lock();
+        try {
+            User loaded = loadedUsers.get(user.getUsername());
+            if (loaded != null) {
+                loaded.logout();
+            }
+        } finally {
+            lock.unlock();
         }
+    }
 
-        if (checkStringEmptyOrNull(password)) {
-            throw new IllegalArgumentException("Password cannot be null or empty");
+    public void deposit(User user, double amount) throws UnauthorizedException, NoSuchUserException {
+        update(user, dbUser -> {
+            dbUser.depositMoney(amount);
+            return null;
+        });
+    }
+
+    public void setCostBasis(User user, CostBasis costBasis) throws UnauthorizedException, NoSuchUserException {
+        update(user, dbUser -> {
+            dbUser.setCostBasis(costBasis);
+            return null;
+        });
+    }
+
+    public void withdraw(User user, double amount) throws NotEnoughMoneyInWalletException, UnauthorizedException, NoSuchUserException {
+        update(user, dbUser -> {
+            dbUser.withdrawMoney(amount);
+            return null;
+        });
+    }
+
+    public void sellCrypto(User user, Asset asset) throws CryptoCurrencyNotInWalletException, UnauthorizedException, NoSuchUserException {
+        update(user, dbUser -> dbUser.sellCrypto(asset));
+    }
+
+    public void sellCrypto(User user, Asset asset, double quantity) throws CryptoCurrencyNotInWalletException, UnauthorizedException, NoSuchUserException {
+        update(user, dbUser -> dbUser.sellCrypto(asset, quantity));
+    }
+
+    public void placeOrder(User user, LimitOrder order) throws NotEnoughMoneyInWalletException,
+            CryptoCurrencyNotInWalletException, UnauthorizedException, NoSuchUserException {
+        // A buy needs the money and a sell the coins, so the change throws both
+        this.<Void, NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException>update(user, dbUser -> {
+            dbUser.placeOrder(order);
+            return null;
+        });
+    }
+
+    public LimitOrder cancelOrder(User user, long orderId) throws UnauthorizedException, NoSuchUserException {
+        return update(user, dbUser -> dbUser.cancelOrder(orderId));
+    }
+
+    public boolean fillOrder(String username, long orderId, Asset asset) throws NoSuchUserException {
+        try {
+            return update(username, dbUser -> dbUser.fillOrder(orderId, asset), isFilled -> isFilled);
+        } catch (UnauthorizedException e) {
+            throw new IllegalStateException("Filling an order does not need the owner to be logged in", e);
         }
+    }
 
-        if (users.containsKey(username)) {
+    public void addTrigger(User user, Trigger trigger) throws CryptoCurrencyNotInWalletException,
+            UnauthorizedException, NoSuchUserException {
+        update(user, dbUser -> {
+            dbUser.addTrigger(trigger);
+            return null;
+        });
+    }
+
+    public Trigger removeTrigger(User user, long triggerId) throws UnauthorizedException, NoSuchUserException {
+        return update(user, dbUser -> dbUser.removeTrigger(triggerId));
+    }
+
+    // All trades of the rebalance are made under one lock and persisted with one write
+    public List<Transaction> rebalance(User user, Map<String, Double> targetPercents, Map<String, Asset> prices)
+            throws UnauthorizedException, NoSuchUserException {
+        return update(user.getUsername(), dbUser -> dbUser.rebalance(targetPercents, prices),
+                trades -> !trades.isEmpty());
+    }
+
+    public void addRecurringBuy(User user, RecurringBuy plan) throws UnauthorizedException, NoSuchUserException {
+        update(user, dbUser -> {
+            dbUser.addRecurringBuy(plan);
+            return null;
+        });
+    }
+
+    public RecurringBuy removeRecurringBuy(User user, long planId) throws UnauthorizedException,
+            NoSuchUserException {
+        return update(user, dbUser -> dbUser.removeRecurringBuy(planId));
+    }
+
+    // Fires a batch of triggers, each owner under its own lock, and persists the changed users together.
+    // Returns the number of triggers that sold coins.
+    public int fireTriggers(Collection<Trigger> fired, Map<String, Asset> assets) {
+        return updateAll(fired, Trigger::username,
+                (dbUser, trigger) -> dbUser.fireTrigger(trigger.id(), assets.get(trigger.assetId())));
+    }
+
+    public <T> int updateAll(Collection<T> items, Function<T, String> ownerOf, BiPredicate<User, T> update) {
+        return updateAll(items, ownerOf, update,
+                item -> ErrorLogger.logMessage("Owner " + ownerOf.apply(item) + " does not exist in the database"));
+    }
+
+    // Applies the update to the owner of each item, one owner at a time under its lock. The owners are loaded
+    // before their locks are taken and the changed users are flushed together once all locks are released, so
+    // the commands on those stripes never wait for the disk. The items whose owner does not exist are passed to
+    // ownerMissing. Returns the number of items the update returned true for.
+    public <T> int updateAll(Collection<T> items, Function<T, String> ownerOf, BiPredicate<User, T> update,
+                             Consumer<T> ownerMissing) {
+        Map<String, List<T>> itemsByOwner = new LinkedHashMap<>();
+        for (T item : items) {
+            itemsByOwner.computeIfAbsent(ownerOf.apply(item), owner -> new ArrayList<>()).add(item);
+        }
+
+        int updatedCount = 0;
+        UserPersister.Batch batch = persister.newBatch();
+        for (Map.Entry<String, List<T>> entry : itemsByOwner.entrySet()) {
+            String owner = entry.getKey();
+            try {
+                // Reads an evicted owner from its shard without holding the lock
+                getUserByUsername(owner);
+            } catch (NoSuchUserException e) {
+                entry.getValue().forEach(ownerMissing);
+                continue;
+            } catch (RuntimeException e) {
+                ErrorLogger.logException(e);
+                continue;
+            }
+
+            Lock lock = lockFor(owner);
+            lock.lock();
+            try {
+                User dbUser = getUserByUsername(owner);
+                boolean isChanged = false;
+                for (T item : entry.getValue()) {
+                    try {
+                        if (update.test(dbUser, item)) {
+                            isChanged = true;
+                            updatedCount++;
+                        }
+                    } catch (RuntimeException e) {
+                        ErrorLogger.logException(e);
+                    }
+                }
+                if (isChanged) {
+                    walletChanged(dbUser);
+                    batch.add(dbUser);
+                }
+            } catch (NoSuchUserException | RuntimeException e) {
+                ErrorLogger.logException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+        UserPersister.await(batch.flush());
+        return updatedCount;
+    }
+
+    public void buyCrypto(User user, Asset asset, double amount) throws NotEnoughMoneyInWalletException, UnauthorizedException, NoSuchUserException {
+        update(user, dbUser -> {
+            dbUser.buyCrypto(asset, amount);
+            return null;
+        });
+    }
+
+    // Completes when the changes of the user made so far are on the disk, right away in the ASYNC mode. The server
+    // sends the reply of a command when it completes, so that no command thread waits for the disk. A failed
+    // write is reported once, to the first caller that takes it.
+    public CompletableFuture<Void> takePersisted(User user) {
+        CompletableFuture<Void> persisted = unacknowledged.remove(user.getUsername());
+        return persisted == null ? CompletableFuture.completedFuture(null) : persisted;
+    }
+
+    public void addWalletListener(WalletListener listener) {
+        walletListeners.add(listener);
+    }
+
+    // Must be set before users log in, the wallets loaded earlier are not audited
+    public void setAuditLog(AuditLog log) {
+        auditLog = log;
+    }
+
+    public UserPersister getPersister() {
+        return persister;
+    }
+
+    public PasswordHasher getPasswordHasher() {
+        return passwordHasher;
+    }
+
+    public long importUsers(Collection<User> newUsers) throws IOException {
+        long imported = newUsers.parallelStream()
+                .filter(this::writeIfAbsentWithoutSync)
+                .count();
+        forceShards();
+        return imported;
+    }
+
+    public long importDump(Path dumpFile) throws IOException {
+        long imported = 0;
+        HistoryStore dumpHistory = historyStoreOf(dumpFile);
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(dumpFile)))) {
+            while (true) {
+                String username;
+                try {
+                    username = input.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] payload = input.readNBytes(input.readInt());
+                if (shardOf(username).writeIfAbsent(username, payload)) {
+                    dumpHistory.copyTo(historyStore, username);
+                    imported++;
+                }
+            }
+        }
+        forceShards();
+        return imported;
+    }
+
+    public long exportDump(Path dumpFile) throws IOException {
+        long exported = 0;
+        try (FileChannel target = FileChannel.open(dumpFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (UserShard shard : shards) {
+                exported += shard.exportTo(target);
+            }
+            target.force(true);
+        }
+
+        HistoryStore dumpHistory = historyStoreOf(dumpFile);
+        for (UserShard shard : shards) {
+            for (String username : shard.usernames()) {
+                historyStore.copyTo(dumpHistory, username);
+            }
+        }
+        return exported;
+    }
+
+    // Scans every stored wallet in parallel. Loaded users are read from memory, since their latest state may
+    // not be written yet, the others are read from their shard without being cached.
+    public PlatformExposure platformExposure(Map<String, Asset> prices, int topHoldersCount) {
+        List<ExposureTask> tasks = new ArrayList<>(SHARDS_COUNT);
+        for (UserShard shard : shards) {
+            tasks.add(new ExposureTask(shard, List.copyOf(shard.usernames()), prices, topHoldersCount));
+        }
+
+        PlatformExposure exposure = new PlatformExposure(prices, topHoldersCount);
+        for (ExposureTask task : ForkJoinTask.invokeAll(tasks)) {
+            exposure.merge(task.join());
+        }
+        return exposure;
+    }
+
+    // Passes every stored wallet to the action from several threads, read the same way as in platformExposure
+    public void forEachWallet(BiConsumer<String, Wallet> action) {
+        List<WalletScanTask> tasks = new ArrayList<>(SHARDS_COUNT);
+        for (UserShard shard : shards) {
+            tasks.add(new WalletScanTask(shard, List.copyOf(shard.usernames()), action));
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    public int loadedUsersCount() {
+        return loadedUsers.size();
+    }
+
+    public void evictIdleUsers() {
+        long now = System.currentTimeMillis();
+
+        for (String username : loadedUsers.keySet()) {
+            Lock lock = lockFor(username);
+            if (!lock.tryLock()) {
+                continue;
+            }
+
+            try {
+                User user = loadedUsers.get(username);
+                boolean isIdle = now - lastAccess.getOrDefault(username, 0L) >= IDLE_TIMEOUT_MILLIS;
+                if (user != null && isIdle && !user.isLoggedIn()) {
+                    loadedUsers.remove(username);
+                    lastAccess.remove(username);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // A failed run must not cancel the next ones
+    private void evictIdleUsersQuietly() {
+        try {
+            evictIdleUsers();
+        } catch (RuntimeException e) {
+            ErrorLogger.logException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        evictor.shutdownNow();
+        passwordHasher.close();
+        historyStore.close();
+        persister.close();
+        for (UserShard shard : shards) {
+            shard.close();
+        }
+    }
+
+    private User registerUser(String username, String password) throws UserAlreadyExistsException {
+        if (shardOf(username).contains(username)) {
             throw new UserAlreadyExistsException("The given username is already used");
         }
 
-        User user = new User(username, password);
-        users.put(username, user);
-        updateFile();
+        User user = new User(username, passwordHasher.hash(password));
+        user.getWallet().attachHistory(historyStore, username);
+        user.getWallet().attachAudit(auditLog, username);
+        Lock lock = lockFor(username);
+        lock.lock();
+        try {
+            if (!writeIfAbsent(user)) {
+                throw new UserAlreadyExistsException("The given username is already used");
+            }
+            loadedUsers.put(username, user);
+            lastAccess.put(username, System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+        return user;
     }
 
-    public void login(String username, String password) throws NoSuchUserException, UnauthorizedException {
-        User user = getUserByUsername(username);
-        if (!user.matchPasswords(password)) {
+    // Only failed attempts on existing users are charged, a successful one gives its attempt back
+    private User loginUser(String username, String password) throws NoSuchUserException, HttpException {
+        checkIfUserExists(username);
+        if (!loginRateLimiter.tryAcquire(username)) {
+            throw new TooManyRequestsException("Too many login attempts, please try again later");
+        }
+
+        String storedPassword = getUserByUsername(username).getPassword();
+        if (!passwordHasher.matches(password, storedPassword)) {
             throw new UnauthorizedException("Invalid username or password");
         }
-        user.login();
+        loginRateLimiter.release(username);
+        String upgradedPassword = passwordHasher.needsRehash(storedPassword) ? passwordHasher.hash(password) : null;
+
+        User user;
+        CompletableFuture<Void> persisted = CompletableFuture.completedFuture(null);
+        Lock lock = lockFor(username);
+        lock.lock();
+        try {
+            user = getUserByUsername(username);
+            if (upgradedPassword != null && storedPassword.equals(user.getPassword())) {
+                user.changePassword(upgradedPassword);
+                persisted = persister.persist(user);
+            }
+            user.login();
+        } finally {
+            lock.unlock();
+        }
+        UserPersister.await(persisted);
+        return user;
     }
 
-    public void logout(User user) {
-        users.get(user.getUsername()).logout();
+    private <T, E1 extends Exception, E2 extends Exception> T update(User user, UserChange<T, E1, E2> change)
+            throws E1, E2, UnauthorizedException, NoSuchUserException {
+        return update(user.getUsername(), change, result -> true);
     }
 
-    public void deposit(User user, double amount) throws UnauthorizedException, NoSuchUserException {
-        checkIfUserExists(user.getUsername());
-        users.get(user.getUsername()).depositMoney(amount);
-        updateFile();
+    // Applies the change to the loaded user under its lock and persists the user if isChanged accepts the result.
+    // The user is looked up under the lock, a handle of a user that was evicted before it logged in again is not
+    // the loaded one. The write is not waited for, see takePersisted.
+    private <T, E1 extends Exception, E2 extends Exception> T update(String username, UserChange<T, E1, E2> change,
+                                                                     Predicate<T> isChanged)
+            throws E1, E2, UnauthorizedException, NoSuchUserException {
+        Lock lock = lockFor(username);
+        lock.lock();
+        try {
+            User dbUser = getUserByUsername(username);
+            T result = change.apply(dbUser);
+            if (isChanged.test(result)) {
+                CompletableFuture<Void> persisted = persist(dbUser);
+                unacknowledged.put(username, persisted);
+                persisted.thenRun(() -> unacknowledged.remove(username, persisted));
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public void withdraw(User user, double amount) throws NotEnoughMoneyInWalletException, UnauthorizedException, NoSuchUserException {
-        checkIfUserExists(user.getUsername());
-        users.get(user.getUsername()).withdrawMoney(amount);
-        updateFile();
+    // Must be called while the user's lock is held, so that the listeners see the changes of one user in order
+    private CompletableFuture<Void> persist(User user) {
+        walletChanged(user);
+        return persister.persist(user);
     }
 
-    public void sellCrypto(User user, Asset asset) throws CryptoCurrencyNotInWalletException, UnauthorizedException, NoSuchUserException {
-        checkIfUserExists(user.getUsername());
-        users.get(user.getUsername()).sellCrypto(asset);
-        updateFile();
+    private void walletChanged(User user) {
+        for (WalletListener listener : walletListeners) {
+            try {
+                listener.onWalletChanged(user.getUsername(), user.getWallet());
+            } catch (RuntimeException e) {
+                ErrorLogger.logException(e);
+            }
+        }
     }
 
-    public void buyCrypto(User user, Asset asset, double amount) throws NotEnoughMoneyInWalletException, UnauthorizedException, NoSuchUserException {
-        checkIfUserExists(user.getUsername());
-        users.get(user.getUsername()).buyCrypto(asset, amount);
-        updateFile();
+    // The loaded user if there is one, since its latest state may not be written yet
+    private User storedUser(UserShard shard, String username) throws IOException, ClassNotFoundException {
+        User user = loadedUsers.get(username);
+        return user != null ? user : shard.read(username);
+    }
+
+    private boolean writeIfAbsentWithoutSync(User user) {
+        try {
+            return shardOf(user.getUsername()).writeIfAbsent(user);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Problem occurred while importing user " + user.getUsername(), e);
+        }
+    }
+
+    private void forceShards() throws IOException {
+        for (UserShard shard : shards) {
+            shard.force();
+        }
+    }
+
+    private void validateCredentials(String username, String password) {
+        if (checkStringEmptyOrNull(username)) {
+            throw new IllegalArgumentException("Username cannot be null or empty");
+        }
+
+        if (checkStringEmptyOrNull(password)) {
+            throw new IllegalArgumentException("Password cannot be null or empty");
+        }
+    }
+
+    private User loadUser(String username) {
+        lastAccess.put(username, System.currentTimeMillis());
+
+        return loadedUsers.computeIfAbsent(username, this::readUser);
     }
 
-    private void updateFile() {
-        try (var outputStream = new ObjectOutputStream(Files.newOutputStream(usersDbPath))) {
-            outputStream.writeObject(users);
+    private User readUser(String username) {
+        try {
+            // A write that is still queued is newer than the stored user
+            byte[] unflushed = persister.unflushedPayload(username);
+            User user = unflushed != null ? UserShard.deserialize(unflushed) : shardOf(username).read(username);
+            user.getWallet().attachHistory(historyStore, username);
+            user.getWallet().attachAudit(auditLog, username);
+            return user;
         } catch (IOException e) {
-            System.out.println("Problem occurred while writing on file");
+            throw new UncheckedIOException("Problem occurred while reading user " + username, e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Stored user " + username + " cannot be deserialized", e);
         }
     }
 
+    // Registrations are written here instead of through the persister, the event has no size since the shard
+    // serializes the user itself
+    private boolean writeIfAbsent(User user) {
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        try {
+            UserShard shard = shardOf(user.getUsername());
+            boolean isWritten = shard.writeIfAbsent(user);
+            if (isWritten && persister.getMode() != PersistenceMode.ASYNC) {
+                shard.force();
+            }
+            event.finish(persister.getMode().name(), isWritten ? 1 : 0, 1, 0, true);
+            return isWritten;
+        } catch (IOException e) {
+            event.finish(persister.getMode().name(), 0, 1, 0, false);
+            throw new UncheckedIOException("Problem occurred while registering user " + user.getUsername(), e);
+        }
+    }
+
+    private Lock lockFor(String username) {
+        return locks[stripeOf(username)];
+    }
+
+    private static int stripeOf(String username) {
+        return Math.floorMod(username.hashCode(), LOCK_STRIPES);
+    }
+
+    private UserShard shardOf(String username) {
+        return shards[Math.floorMod(username.hashCode(), SHARDS_COUNT)];
+    }
+
+    // Older transactions are kept next to the shards, one file per user under <users-file>.history
+    private static HistoryStore historyStoreOf(Path dbFile) {
+        return new HistoryStore(dbFile.resolveSibling(dbFile.getFileName() + ".history"));
+    }
+
     private boolean checkStringEmptyOrNull(String str) {
         return (str == null || str.isEmpty());
     }
 
     private void checkIfUserExists(String username) throws NoSuchUserException {
-        if (!users.containsKey(username)) {
+        if (!shardOf(username).contains(username)) {
             throw new NoSuchUserException("User with the given username does not exist in the database");
         }
     }
+
+    private class ExposureTask extends RecursiveTask<PlatformExposure> {
+        private static final long serialVersionUID = 1L;
+        private static final int TASK_THRESHOLD = 1024;
+
+        private final UserShard shard;
+        private final List<String> usernames;
+        private final Map<String, Asset> prices;
+        private final int topHoldersCount;
+
+        ExposureTask(UserShard shard, List<String> usernames, Map<String, Asset> prices, int topHoldersCount) {
+            this.shard = shard;
+            this.usernames = usernames;
+            this.prices = prices;
+            this.topHoldersCount = topHoldersCount;
+        }
+
+        @Override
+        protected PlatformExposure compute() {
+            if (usernames.size() > TASK_THRESHOLD) {
+                int middle = usernames.size() / 2;
+                ExposureTask left = new ExposureTask(shard, usernames.subList(0, middle), prices, topHoldersCount);
+                ExposureTask right = new ExposureTask(shard, usernames.subList(middle, usernames.size()), prices,
+                        topHoldersCount);
+                left.fork();
+                PlatformExposure exposure = right.compute();
+                exposure.merge(left.join());
+                return exposure;
+            }
+
+            PlatformExposure exposure = new PlatformExposure(prices, topHoldersCount);
+            for (String username : usernames) {
+                try {
+                    User user = storedUser(shard, username);
+                    if (user != null) {
+                        exposure.add(username, user.getWallet());
+                    }
+                } catch (IOException | ClassNotFoundException e) {
+                    ErrorLogger.logException(e);
+                }
+            }
+            return exposure;
+        }
+    }
+
+    private class WalletScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int TASK_THRESHOLD = 1024;
+
+        private final UserShard shard;
+        private final List<String> usernames;
+        private final BiConsumer<String, Wallet> action;
+
+        WalletScanTask(UserShard shard, List<String> usernames, BiConsumer<String, Wallet> action) {
+            this.shard = shard;
+            this.usernames = usernames;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (usernames.size() > TASK_THRESHOLD) {
+                int middle = usernames.size() / 2;
+                invokeAll(new WalletScanTask(shard, usernames.subList(0, middle), action),
+                        new WalletScanTask(shard, usernames.subList(middle, usernames.size()), action));
+                return;
+            }
+
+            for (String username : usernames) {
+                try {
+                    User user = storedUser(shard, username);
+                    if (user != null) {
+                        action.accept(username, user.getWallet());
+                    }
+                } catch (IOException | ClassNotFoundException e) {
+                    ErrorLogger.logException(e);
+                }
+            }
+        }
+    }
+
+    // A change of one user. Every wallet command checks the login, the other exceptions are the command's own.
+    @FunctionalInterface
+    private interface UserChange<T, E1 extends Exception, E2 extends Exception> {
+        T apply(User user) throws E1, E2, UnauthorizedException;
+    }
 }
@@ -0,0 +1,39 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.wallet;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Interns asset codes as small ints for the holdings. The ints are only valid inside this process,
+// so everything that is stored writes the codes themselves.
+final class AssetIds {
+    private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static volatile String[] codes = new String[64];
+    private static int count;
+
+    private AssetIds() {
+    }
+
+    static int idOf(String assetCode) {
+        Integer id = IDS.get(assetCode);
+        return id != null ? id : register(assetCode);
+    }
+
+    static String codeOf(int id) {
+        return codes[id];
+    }
+
+    private static synchronized int register(String assetCode) {
+        Integer id = IDS.get(assetCode);
+        if (id != null) {
+            return id;
+        }
+
+        if (count == codes.length) {
+            codes = Arrays.copyOf(codes, count * 2);
+        }
+        codes[count] = assetCode;
+        IDS.put(assetCode, count);
+        return count++;
+    }
+}
@@ -0,0 +1,22 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.wallet;
+
+// How the cost of sold coins is taken from a position: from the oldest lots first or at the average price
+public enum CostBasis {
+    FIFO("fifo"),
+    AVERAGE("average");
+
+    public final String name;
+
+    CostBasis(String name) {
+        this.name = name;
+    }
+
+    public static CostBasis valueOfName(String name) {
+        for (CostBasis costBasis : values()) {
+            if (costBasis.name.equals(name)) {
+                return costBasis;
+            }
+        }
+        throw new IllegalArgumentException("Unknown cost basis method " + name);
+    }
+}
@@ -0,0 +1,140 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.wallet;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.Transaction;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Sealed history segments, one append-only file per wallet owner: [segment length][serialized transactions]...
+public class HistoryStore implements Closeable {
+    private static final int DIRECTORY_BUCKETS = 256;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final Path directory;
+    // Segments are sealed here and not on the thread that trades while holding the owner's lock. The thread
+    // is only started by the first sealed segment.
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "history-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public HistoryStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Completes with the offset of the segment once it is on the disk
+    public CompletableFuture<Long> appendAsync(String owner, List<Transaction> segment) {
+        List<Transaction> copy = List.copyOf(segment);
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return append(owner, copy);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Problem occurred while archiving transactions of " + owner, e);
+                }
+            }, writer);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public long append(String owner, List<Transaction> segment) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (var outputStream = new ObjectOutputStream(bytes)) {
+            outputStream.writeObject(new ArrayList<>(segment));
+        }
+
+        Path file = fileOf(owner);
+        Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long offset = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + bytes.size());
+            buffer.putInt(bytes.size()).put(bytes.toByteArray()).flip();
+
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+            return offset;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Transaction> read(String owner, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(fileOf(owner), StandardOpenOption.READ)) {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            readFully(channel, length, offset);
+            ByteBuffer payload = ByteBuffer.allocate(length.flip().getInt());
+            readFully(channel, payload, offset + Integer.BYTES);
+
+            try (var inputStream = new ObjectInputStream(new ByteArrayInputStream(payload.array()))) {
+                return (List<Transaction>) inputStream.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("History segment of " + owner + " cannot be deserialized", e);
+            }
+        }
+    }
+
+    public void copyTo(HistoryStore target, String owner) throws IOException {
+        Path source = fileOf(owner);
+        if (Files.exists(source)) {
+            Path destination = target.fileOf(owner);
+            Files.createDirectories(destination.getParent());
+            Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Path fileOf(String owner) {
+        String bucket = String.format("%02x", Math.floorMod(owner.hashCode(), DIRECTORY_BUCKETS));
+        String name = HexFormat.of().formatHex(owner.getBytes(StandardCharsets.UTF_8));
+        return directory.resolve(bucket).resolve(name + ".history");
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long readPosition = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, readPosition);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of history segment");
+            }
+            readPosition += read;
+        }
+    }
+}
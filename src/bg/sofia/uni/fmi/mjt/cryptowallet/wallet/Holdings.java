@@ -0,0 +1,175 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.wallet;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+// Quantity and cost basis per asset in parallel primitive arrays. Wallets hold few assets,
+// so a linear scan over the interned ids is cheaper than hashing.
+class Holdings implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int INITIAL_CAPACITY = 4;
+    private static final int PRICED_LOTS_FORMAT = 1;
+    private static final int LOTS_FORMAT = 2;
+
+    // 0 in holdings stored before the lots were kept, 1 when the lots were kept with their buy price
+    private int lotsFormat = LOTS_FORMAT;
+    private transient int size;
+    private transient int[] assets = new int[INITIAL_CAPACITY];
+    private transient long[] quantities = new long[INITIAL_CAPACITY];
+    private transient long[] costs = new long[INITIAL_CAPACITY];
+    private transient Lots[] lots = new Lots[INITIAL_CAPACITY];
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int indexOf(int asset) {
+        for (int i = 0; i < size; i++) {
+            if (assets[i] == asset) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int assetAt(int index) {
+        return assets[index];
+    }
+
+    long quantityAt(int index) {
+        return quantities[index];
+    }
+
+    long costAt(int index) {
+        return costs[index];
+    }
+
+    Lots lotsAt(int index) {
+        return lots[index];
+    }
+
+    // Adds a lot bought for the cost, time is in epoch millis
+    void add(int asset, long quantity, long cost, long time) {
+        int index = indexOf(asset);
+        if (index < 0) {
+            if (size == assets.length) {
+                grow();
+            }
+            index = size++;
+            assets[index] = asset;
+            quantities[index] = 0;
+            costs[index] = 0;
+            lots[index] = new Lots();
+        }
+        quantities[index] += quantity;
+        costs[index] += cost;
+        lots[index].add(quantity, cost, time);
+    }
+
+    // Positions without known lots are kept as one lot
+    void add(int asset, long quantity, long cost) {
+        add(asset, quantity, cost, 0);
+    }
+
+    // Removes part of the quantity with its cost by the given method, returns the removed cost
+    long reduceAt(int index, long quantity, CostBasis costBasis) {
+        if (quantity >= quantities[index]) {
+            long cost = costs[index];
+            removeAt(index);
+            return cost;
+        }
+
+        // The lots keep what was spent on them, they only differ from the position's cost after average sells
+        long lotsCost = lots[index].consume(quantity);
+        long cost = costBasis == CostBasis.FIFO
+                ? Math.min(lotsCost, costs[index])
+                : Money.multiplyDivide(costs[index], quantity, quantities[index]);
+        quantities[index] -= quantity;
+        costs[index] -= cost;
+        return cost;
+    }
+
+    void removeAt(int index) {
+        size--;
+        assets[index] = assets[size];
+        quantities[index] = quantities[size];
+        costs[index] = costs[size];
+        lots[index] = lots[size];
+        lots[size] = null;
+    }
+
+    long totalCost() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += costs[i];
+        }
+        return total;
+    }
+
+    private void grow() {
+        assets = Arrays.copyOf(assets, size * 2);
+        quantities = Arrays.copyOf(quantities, size * 2);
+        costs = Arrays.copyOf(costs, size * 2);
+        lots = Arrays.copyOf(lots, size * 2);
+    }
+
+    private void writeObject(ObjectOutputStream outputStream) throws IOException {
+        outputStream.defaultWriteObject();
+        outputStream.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            outputStream.writeUTF(AssetIds.codeOf(assets[i]));
+            outputStream.writeLong(quantities[i]);
+            outputStream.writeLong(costs[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            outputStream.writeInt(lots[i].size());
+            for (int lot = 0; lot < lots[i].size(); lot++) {
+                outputStream.writeLong(lots[i].quantityAt(lot));
+                outputStream.writeLong(lots[i].costAt(lot));
+                outputStream.writeLong(lots[i].timeAt(lot));
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+        inputStream.defaultReadObject();
+        int storedSize = inputStream.readInt();
+        int capacity = Math.max(INITIAL_CAPACITY, storedSize);
+        assets = new int[capacity];
+        quantities = new long[capacity];
+        costs = new long[capacity];
+        lots = new Lots[capacity];
+        for (int i = 0; i < storedSize; i++) {
+            assets[i] = AssetIds.idOf(inputStream.readUTF());
+            quantities[i] = inputStream.readLong();
+            costs[i] = inputStream.readLong();
+            lots[i] = new Lots();
+        }
+        size = storedSize;
+
+        for (int i = 0; i < size; i++) {
+            if (lotsFormat < PRICED_LOTS_FORMAT) {
+                lots[i].add(quantities[i], costs[i], 0);
+                continue;
+            }
+
+            int lotsCount = inputStream.readInt();
+            for (int lot = 0; lot < lotsCount; lot++) {
+                long quantity = inputStream.readLong();
+                long costOrPrice = inputStream.readLong();
+                long cost = lotsFormat == PRICED_LOTS_FORMAT
+                        ? Money.multiplyDivide(quantity, costOrPrice, Money.UNITS_PER_COIN)
+                        : costOrPrice;
+                lots[i].add(quantity, cost, inputStream.readLong());
+            }
+        }
+        lotsFormat = LOTS_FORMAT;
+    }
+}
@@ -0,0 +1,244 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.wallet;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.PriceListener;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.PriceSnapshot;
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.UsersDatabase;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Users ranked by the return of their portfolio: the realized profit plus the unrealized profit of the held coins,
+// over the money they deposited. Every ranked wallet is kept as its coins and their cost per asset. A change of
+// the wallet replaces that vector, a price update revalues only the holders of the updated assets, so a query
+// just walks the top of the ranking. Coins without a known price are valued at their cost.
+public class Leaderboard implements WalletListener, PriceListener, Closeable {
+    private static final int REVALUE_CHUNK_SIZE = 1024;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+    private static final double PERCENT = 100.0;
+    private static final Comparator<Entry> BY_RETURN = Comparator.comparingDouble((Entry entry) -> entry.returnRate)
+            .reversed()
+            .thenComparing(entry -> entry.username);
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> ranking = new TreeSet<>(BY_RETURN);
+    private final Map<Integer, Set<Entry>> holders = new HashMap<>();
+    private final Map<Integer, Long> prices = new HashMap<>();
+    // Owners of the wallets changed while the stored ones are loaded, the stored state of those may be old
+    private Set<String> changedWhileLoading;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "leaderboard");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder revaluedCount = new LongAdder();
+
+    // Ranks the stored wallets in the background, must be called after the leaderboard listens to the wallets
+    public void load(UsersDatabase usersDb) {
+        synchronized (this) {
+            changedWhileLoading = new HashSet<>();
+        }
+
+        executor.execute(() -> {
+            try {
+                usersDb.forEachWallet(this::addStored);
+            } catch (RuntimeException e) {
+                ErrorLogger.logException(e);
+            } finally {
+                finishLoading();
+            }
+        });
+    }
+
+    @Override
+    public void onWalletChanged(String owner, Wallet wallet) {
+        Entry entry = Entry.of(owner, wallet);
+        synchronized (this) {
+            if (changedWhileLoading != null) {
+                changedWhileLoading.add(owner);
+            }
+            replace(owner, entry);
+        }
+    }
+
+    @Override
+    public void onPricesUpdated(PriceSnapshot snapshot, Collection<Asset> updatedAssets) {
+        executor.execute(() -> revalue(updatedAssets));
+    }
+
+    // Best return first
+    public synchronized List<Rank> top(int count) {
+        List<Rank> result = new ArrayList<>(Math.min(count, ranking.size()));
+        for (Entry entry : ranking) {
+            if (result.size() == count) {
+                break;
+            }
+            result.add(new Rank(entry.username, entry.returnRate * PERCENT, Money.toUsd(entry.profit)));
+        }
+        return result;
+    }
+
+    public synchronized int rankedCount() {
+        return ranking.size();
+    }
+
+    public synchronized boolean isLoading() {
+        return changedWhileLoading != null;
+    }
+
+    public long revaluedCount() {
+        return revaluedCount.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void addStored(String owner, Wallet wallet) {
+        Entry entry = Entry.of(owner, wallet);
+        synchronized (this) {
+            if (!changedWhileLoading.contains(owner)) {
+                replace(owner, entry);
+            }
+        }
+    }
+
+    private synchronized void finishLoading() {
+        changedWhileLoading = null;
+    }
+
+    private void replace(String owner, Entry entry) {
+        Entry previous = entries.remove(owner);
+        if (previous != null) {
+            ranking.remove(previous);
+            for (int asset : previous.assets) {
+                Set<Entry> assetHolders = holders.get(asset);
+                assetHolders.remove(previous);
+                if (assetHolders.isEmpty()) {
+                    holders.remove(asset);
+                }
+            }
+        }
+
+        if (entry == null) {
+            return;
+        }
+        entry.revalue(prices);
+        entries.put(owner, entry);
+        ranking.add(entry);
+        for (int asset : entry.assets) {
+            holders.computeIfAbsent(asset, ignored -> new HashSet<>()).add(entry);
+        }
+    }
+
+    // The holders are revalued in chunks, so that trades do not wait for every holder of a popular asset
+    private void revalue(Collection<Asset> updatedAssets) {
+        Set<Entry> affected = new LinkedHashSet<>();
+        synchronized (this) {
+            for (Asset asset : updatedAssets) {
+                long price = Money.priceOrZero(asset.priceUsd());
+                if (price == 0) {
+                    continue;
+                }
+
+                int id = AssetIds.idOf(asset.assetId());
+                Long previous = prices.put(id, price);
+                if (previous == null || previous != price) {
+                    affected.addAll(holders.getOrDefault(id, Set.of()));
+                }
+            }
+        }
+
+        List<Entry> toRevalue = new ArrayList<>(affected);
+        for (int from = 0; from < toRevalue.size(); from += REVALUE_CHUNK_SIZE) {
+            synchronized (this) {
+                for (Entry entry : toRevalue.subList(from, Math.min(from + REVALUE_CHUNK_SIZE, toRevalue.size()))) {
+                    // Replaced by a newer state of the wallet in the meantime, which is valued with the new prices
+                    if (entries.get(entry.username) != entry) {
+                        continue;
+                    }
+                    ranking.remove(entry);
+                    entry.revalue(prices);
+                    ranking.add(entry);
+                }
+            }
+        }
+        revaluedCount.add(toRevalue.size());
+    }
+
+    public record Rank(String username, double returnPercent, double profit) {
+    }
+
+    private static final class Entry {
+        private final String username;
+        private final long deposited;
+        private final long realized;
+        private final int[] assets;
+        private final long[] quantities;
+        private final long[] costs;
+        private long profit;
+        private double returnRate;
+
+        private Entry(String username, long deposited, long realized, int[] assets, long[] quantities, long[] costs) {
+            this.username = username;
+            this.deposited = deposited;
+            this.realized = realized;
+            this.assets = assets;
+            this.quantities = quantities;
+            this.costs = costs;
+        }
+
+        // Null for wallets without deposits, which have no return to rank
+        static Entry of(String owner, Wallet wallet) {
+            synchronized (wallet) {
+                if (wallet.depositedMicros() <= 0) {
+                    return null;
+                }
+
+                Holdings holdings = wallet.holdings();
+                int[] assets = new int[holdings.size()];
+                long[] quantities = new long[holdings.size()];
+                long[] costs = new long[holdings.size()];
+                for (int i = 0; i < holdings.size(); i++) {
+                    assets[i] = holdings.assetAt(i);
+                    quantities[i] = holdings.quantityAt(i);
+                    costs[i] = holdings.costAt(i);
+                }
+                return new Entry(owner, wallet.depositedMicros(), wallet.realizedMicros(), assets, quantities, costs);
+            }
+        }
+
+        void revalue(Map<Integer, Long> prices) {
+            long total = realized;
+            for (int i = 0; i < assets.length; i++) {
+                Long price = prices.get(assets[i]);
+                if (price != null) {
+                    total += Money.valueOf(quantities[i], price) - costs[i];
+                }
+            }
+            profit = total;
+            returnRate = (double) total / deposited;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.wallet;
+
+import java.util.Arrays;
+
+// Open lots of one asset in the order they were bought: quantity in 1e-8 coins, the micro-USD actually spent on
+// it and buy time in epoch millis. Lots before head are fully sold and are dropped when the arrays grow.
+class Lots {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private long[] quantities = new long[INITIAL_CAPACITY];
+    private long[] costs = new long[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int head;
+    private int tail;
+
+    int size() {
+        return tail - head;
+    }
+
+    long quantityAt(int index) {
+        return quantities[head + index];
+    }
+
+    long costAt(int index) {
+        return costs[head + index];
+    }
+
+    long timeAt(int index) {
+        return times[head + index];
+    }
+
+    void add(long quantity, long cost, long time) {
+        if (tail == quantities.length) {
+            grow();
+        }
+        quantities[tail] = quantity;
+        costs[tail] = cost;
+        times[tail] = time;
+        tail++;
+    }
+
+    // Takes the quantity from the oldest lots, returns the part of their cost it was bought for. A partly sold lot
+    // keeps the rest of its cost, so the cost of a whole lot is exactly what was spent on it.
+    long consume(long quantity) {
+        long remaining = quantity;
+        long cost = 0;
+        while (remaining > 0 && head < tail) {
+            long taken = Math.min(remaining, quantities[head]);
+            long takenCost = taken == quantities[head]
+                    ? costs[head]
+                    : Money.multiplyDivide(costs[head], taken, quantities[head]);
+            cost += takenCost;
+            costs[head] -= takenCost;
+            quantities[head] -= taken;
+            remaining -= taken;
+            if (quantities[head] == 0) {
+                head++;
+            }
+        }
+        return cost;
+    }
+
+    Lots copy() {
+        Lots copy = new Lots();
+        for (int i = 0; i < size(); i++) {
+            copy.add(quantityAt(i), costAt(i), timeAt(i));
+        }
+        return copy;
+    }
+
+    private void grow() {
+        int size = size();
+        int capacity = size * 2 > quantities.length ? size * 2 : quantities.length;
+        quantities = Arrays.copyOfRange(quantities, head, head + capacity);
+        costs = Arrays.copyOfRange(costs, head, head + capacity);
+        times = Arrays.copyOfRange(times, head, head + capacity);
+        head = 0;
+        tail = size;
+    }
+}
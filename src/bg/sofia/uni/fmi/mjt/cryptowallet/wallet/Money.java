@@ -0,0 +1,84 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.wallet;
+
+import java.math.BigInteger;
+
+// Money is kept in micro-USD and crypto quantities in units of 1e-8 coins, both as longs. The prices that trades
+// and valuations use are kept in 1e-12 USD, so coins cheaper than a micro-USD keep their precision. The highest
+// price that fits is about 9.2 million USD per coin.
+public final class Money {
+    public static final long MICROS_PER_USD = 1_000_000L;
+    public static final long UNITS_PER_COIN = 100_000_000L;
+    public static final long PRICE_UNITS_PER_USD = 1_000_000_000_000L;
+    private static final long PRICE_SCALE = UNITS_PER_COIN * (PRICE_UNITS_PER_USD / MICROS_PER_USD);
+    private static final double MAX_PRICE_USD = (double) Long.MAX_VALUE / PRICE_UNITS_PER_USD;
+    // Highest amount of USD or coins a single command can give. Thousands of such amounts fit in a total, a total
+    // that would still overflow fails the command.
+    public static final double MAX_AMOUNT = 1_000_000_000.0;
+
+    private Money() {
+    }
+
+    public static long toMicros(double usd) {
+        return Math.round(usd * MICROS_PER_USD);
+    }
+
+    public static double toUsd(long micros) {
+        return (double) micros / MICROS_PER_USD;
+    }
+
+    public static long toUnits(double coins) {
+        return Math.round(coins * UNITS_PER_COIN);
+    }
+
+    public static double toCoins(long units) {
+        return (double) units / UNITS_PER_COIN;
+    }
+
+    // Limit and trigger prices, which are given by the users, are kept in micro-USD
+    public static long priceMicros(double priceUsd) {
+        long price = toMicros(priceUsd);
+        if (price <= 0) {
+            throw new IllegalArgumentException("Price of the crypto is not available at the moment");
+        }
+        return price;
+    }
+
+    // The price per coin in 1e-12 USD, for unitsFor and valueOf
+    public static long price(double priceUsd) {
+        if (priceUsd >= MAX_PRICE_USD) {
+            throw new IllegalArgumentException("Price of the crypto is too high to be traded");
+        }
+        long price = Math.round(priceUsd * PRICE_UNITS_PER_USD);
+        if (price <= 0) {
+            throw new IllegalArgumentException("Price of the crypto is not available at the moment");
+        }
+        return price;
+    }
+
+    // For valuations, which value the coins without a usable price at 0
+    public static long priceOrZero(double priceUsd) {
+        return priceUsd > 0 && priceUsd < MAX_PRICE_USD ? Math.round(priceUsd * PRICE_UNITS_PER_USD) : 0;
+    }
+
+    // Coins that can be bought with the given money, rounded down
+    public static long unitsFor(long micros, long price) {
+        return multiplyDivide(micros, PRICE_SCALE, price);
+    }
+
+    // Money received for the given coins, rounded down
+    public static long valueOf(long units, long price) {
+        return multiplyDivide(units, price, PRICE_SCALE);
+    }
+
+    // a * b / divisor without overflowing the intermediate product in the common case
+    public static long multiplyDivide(long a, long b, long divisor) {
+        long high = Math.multiplyHigh(a, b);
+        long low = a * b;
+        if ((high == 0 && low >= 0) || (high == -1 && low < 0)) {
+            return low / divisor;
+        }
+        return BigInteger.valueOf(a).multiply(BigInteger.valueOf(b))
+                .divide(BigInteger.valueOf(divisor))
+                .longValueExact();
+    }
+}
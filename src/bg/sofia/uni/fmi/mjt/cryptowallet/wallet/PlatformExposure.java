@@ -0,0 +1,179 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.wallet;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// Money, coins per asset and the richest wallets of a part of the platform, valued with one set of prices.
+// Coins are summed in arrays indexed by the interned asset ids. One instance is filled by one thread,
+// the parts are merged at the end.
+public class PlatformExposure {
+    private static final long UNRESOLVED = -1;
+    private static final Comparator<Holder> BY_VALUE = Comparator.comparingLong(Holder::value);
+
+    private final Map<String, Asset> prices;
+    private final int topHoldersCount;
+    private long[] priceByAsset = new long[0];
+    private long[] quantities = new long[0];
+    private long[] costs = new long[0];
+    private long walletsCount;
+    private long walletsWithCrypto;
+    private long money;
+    // Smallest of the kept holders on top
+    private final PriorityQueue<Holder> topHolders;
+
+    public PlatformExposure(Map<String, Asset> prices, int topHoldersCount) {
+        this.prices = prices;
+        this.topHoldersCount = topHoldersCount;
+        topHolders = new PriorityQueue<>(topHoldersCount + 1, BY_VALUE);
+    }
+
+    public void add(String owner, Wallet wallet) {
+        long walletValue;
+        synchronized (wallet) {
+            Holdings holdings = wallet.holdings();
+            walletValue = wallet.balanceMicros();
+            for (int i = 0; i < holdings.size(); i++) {
+                int asset = holdings.assetAt(i);
+                ensureCapacity(asset);
+                quantities[asset] += holdings.quantityAt(i);
+                costs[asset] += holdings.costAt(i);
+                walletValue += Money.valueOf(holdings.quantityAt(i), priceOf(asset));
+            }
+            walletsWithCrypto += holdings.isEmpty() ? 0 : 1;
+            money += wallet.balanceMicros();
+        }
+
+        walletsCount++;
+        offerHolder(new Holder(owner, walletValue));
+    }
+
+    public void merge(PlatformExposure other) {
+        ensureCapacity(other.quantities.length - 1);
+        for (int asset = 0; asset < other.quantities.length; asset++) {
+            quantities[asset] += other.quantities[asset];
+            costs[asset] += other.costs[asset];
+        }
+        walletsCount += other.walletsCount;
+        walletsWithCrypto += other.walletsWithCrypto;
+        money += other.money;
+        other.topHolders.forEach(this::offerHolder);
+    }
+
+    public long walletsCount() {
+        return walletsCount;
+    }
+
+    public double money() {
+        return Money.toUsd(money);
+    }
+
+    public double cryptoValue() {
+        long value = 0;
+        for (int asset = 0; asset < quantities.length; asset++) {
+            if (quantities[asset] > 0) {
+                value += Money.valueOf(quantities[asset], priceOf(asset));
+            }
+        }
+        return Money.toUsd(value);
+    }
+
+    public double quantityOf(String assetId) {
+        int asset = AssetIds.idOf(assetId);
+        return asset < quantities.length ? Money.toCoins(quantities[asset]) : 0;
+    }
+
+    // Richest first
+    public List<Holder> topHolders() {
+        List<Holder> result = new ArrayList<>(topHolders);
+        result.sort(BY_VALUE.reversed());
+        return result;
+    }
+
+    public String report() {
+        double cryptoValue = cryptoValue();
+        StringBuilder result = new StringBuilder(String.format("""
+                Total {
+                    wallets: '%d',
+                    walletsWithCrypto: '%d',
+                    assetsUnderManagement: '%.02f',
+                    money: '%.02f',
+                    crypto: '%.02f'
+                }
+                """, walletsCount, walletsWithCrypto, money() + cryptoValue, money(), cryptoValue));
+
+        Integer[] held = heldAssetsByValue();
+        for (int asset : held) {
+            long value = Money.valueOf(quantities[asset], priceOf(asset));
+            result.append(String.format("""
+                    %s {
+                        quantity: '%.08f',
+                        cost: '%.02f',
+                        value: '%s',
+                        share: '%.02f%%'
+                    }
+                    """, AssetIds.codeOf(asset), Money.toCoins(quantities[asset]), Money.toUsd(costs[asset]),
+                    priceOf(asset) == 0 ? "no price" : String.format("%.02f", Money.toUsd(value)),
+                    cryptoValue == 0 ? 0 : Money.toUsd(value) * 100 / cryptoValue));
+        }
+
+        result.append("Top holders {\n");
+        for (Holder holder : topHolders()) {
+            result.append(String.format("    %s: '%.02f'%n", holder.username(), Money.toUsd(holder.value())));
+        }
+        return result.append("}").toString();
+    }
+
+    private Integer[] heldAssetsByValue() {
+        List<Integer> held = new ArrayList<>();
+        for (int asset = 0; asset < quantities.length; asset++) {
+            if (quantities[asset] > 0) {
+                held.add(asset);
+            }
+        }
+        held.sort(Comparator.comparingLong((Integer asset) -> Money.valueOf(quantities[asset], priceOf(asset)))
+                .reversed());
+        return held.toArray(Integer[]::new);
+    }
+
+    private void offerHolder(Holder holder) {
+        if (topHoldersCount <= 0) {
+            return;
+        }
+
+        topHolders.add(holder);
+        if (topHolders.size() > topHoldersCount) {
+            topHolders.poll();
+        }
+    }
+
+    // Prices are resolved once per asset and instance, assets without a price are valued at 0
+    private long priceOf(int asset) {
+        if (priceByAsset[asset] == UNRESOLVED) {
+            Asset price = prices.get(AssetIds.codeOf(asset));
+            priceByAsset[asset] = price == null ? 0 : Money.priceOrZero(price.priceUsd());
+        }
+        return priceByAsset[asset];
+    }
+
+    private void ensureCapacity(int asset) {
+        if (asset < quantities.length) {
+            return;
+        }
+
+        int previousLength = quantities.length;
+        int length = Math.max(asset + 1, previousLength * 2);
+        quantities = Arrays.copyOf(quantities, length);
+        costs = Arrays.copyOf(costs, length);
+        priceByAsset = Arrays.copyOf(priceByAsset, length);
+        Arrays.fill(priceByAsset, previousLength, length, UNRESOLVED);
+    }
+
+    public record Holder(String username, long value) {
+    }
+}
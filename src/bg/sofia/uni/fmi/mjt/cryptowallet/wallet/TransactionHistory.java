@@ -0,0 +1,130 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.wallet;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.logger.ErrorLogger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.Transaction;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Transactions are numbered from 0 in the order they happened. Full segments of the oldest ones are
+// moved to the HistoryStore, only their offsets and the recent tail stay in the wallet.
+public class TransactionHistory implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int SEGMENT_SIZE = 64;
+
+    private final List<Transaction> tail = new ArrayList<>();
+    private long[] segmentOffsets = new long[0];
+    private transient HistoryStore store;
+    private transient String owner;
+    // The oldest segment of the tail while the store writes it
+    private transient CompletableFuture<Long> sealing;
+
+    public TransactionHistory() {
+    }
+
+    public TransactionHistory(List<Transaction> transactions) {
+        tail.addAll(transactions);
+    }
+
+    public void attach(HistoryStore historyStore, String historyOwner) {
+        store = historyStore;
+        owner = historyOwner;
+        sealFullSegments();
+    }
+
+    public void add(Transaction transaction) {
+        tail.add(transaction);
+        sealFullSegments();
+    }
+
+    public long size() {
+        return sealedCount() + tail.size();
+    }
+
+    public List<Transaction> recent(int limit) {
+        List<Transaction> result = new ArrayList<>(page(limit, size()));
+        Collections.reverse(result);
+        return result;
+    }
+
+    // Newest first: transactions with sequence numbers in [before - limit, before)
+    public List<Transaction> page(int limit, long before) {
+        long end = Math.min(before, size());
+        long start = Math.max(0, end - limit);
+        List<Transaction> result = new ArrayList<>((int) Math.max(0, end - start));
+
+        List<Transaction> segment = null;
+        int loadedSegment = -1;
+        for (long sequence = end - 1; sequence >= start; sequence--) {
+            if (sequence >= sealedCount()) {
+                result.add(tail.get((int) (sequence - sealedCount())));
+                continue;
+            }
+
+            int segmentIndex = (int) (sequence / SEGMENT_SIZE);
+            if (segmentIndex != loadedSegment) {
+                segment = readSegment(segmentIndex);
+                loadedSegment = segmentIndex;
+            }
+            result.add(segment.get((int) (sequence % SEGMENT_SIZE)));
+        }
+        return result;
+    }
+
+    public List<Transaction> all() {
+        List<Transaction> result = new ArrayList<>((int) size());
+        for (int i = 0; i < segmentOffsets.length; i++) {
+            result.addAll(readSegment(i));
+        }
+        result.addAll(tail);
+        return result;
+    }
+
+    private long sealedCount() {
+        return (long) segmentOffsets.length * SEGMENT_SIZE;
+    }
+
+    // Keeps at least one segment worth of recent transactions in memory for the summaries. A segment stays in
+    // the tail until the store has written it, so a wallet persisted meanwhile still has all its transactions.
+    private void sealFullSegments() {
+        if (store == null) {
+            return;
+        }
+
+        if (sealing != null && sealing.isDone()) {
+            try {
+                long offset = sealing.join();
+                segmentOffsets = Arrays.copyOf(segmentOffsets, segmentOffsets.length + 1);
+                segmentOffsets[segmentOffsets.length - 1] = offset;
+                tail.subList(0, SEGMENT_SIZE).clear();
+            } catch (CompletionException e) {
+                // The segment is sealed again with the next transaction
+                ErrorLogger.logException(e);
+            }
+            sealing = null;
+        }
+
+        if (sealing == null && tail.size() >= 2 * SEGMENT_SIZE) {
+            sealing = store.appendAsync(owner, tail.subList(0, SEGMENT_SIZE));
+        }
+    }
+
+    private List<Transaction> readSegment(int index) {
+        if (store == null) {
+            throw new IllegalStateException("Transaction history is not attached to a history store");
+        }
+
+        try {
+            return store.read(owner, segmentOffsets[index]);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Problem occurred while reading transactions of " + owner, e);
+        }
+    }
+}
@@ -1,96 +1,445 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet.wallet;
 
 import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.audit.AuditLog;
+import bg.sofia.uni.fmi.mjt.cryptowallet.audit.AuditType;
 import bg.sofia.uni.fmi.mjt.cryptowallet.assets.AssetsDatabase;
 import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.CryptoCurrencyNotInWalletException;
 import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.HttpException;
 import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.NoSuchAssetException;
 import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.NotEnoughMoneyInWalletException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.LimitOrder;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.OrderSide;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.RecurringBuy;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.Trigger;
 import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.BoughtCryptoTransaction;
 import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.DepositMoneyTransaction;
 import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.SoldCryptoTransaction;
 import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.Transaction;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.net.URISyntaxException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
 
 public class Wallet implements Serializable {
-    private double moneyInAccount;
-    private final Map<Asset, Double> moneyInCrypto;
-    private final Map<Asset, Double> spentMoney;
-    private final List<Transaction> transactions;
+    private static final long serialVersionUID = -306384608107976031L;
+    private static final int SUMMARY_TRANSACTIONS = 10;
+    public static final int MAX_HISTORY_LIMIT = 100;
+    private static final double MAX_PERCENT = 100.0;
+    private static final double PERCENT_TOLERANCE = 1e-9;
+    // Differences from the target smaller than a cent are not traded
+    private static final long MIN_TRADE_MICROS = 10_000;
+    // Amounts are in micro-USD and quantities in 1e-8 coins, see Money
+    private long balance;
+    private Holdings holdings;
+    private TransactionHistory history;
+    // Running totals, kept so that balance == deposited - withdrawn - cost of holdings + realized
+    private long deposited;
+    private long withdrawn;
+    private long realized;
+    private Map<String, Long> realizedByAsset;
+    private CostBasis costBasis;
+    // Money of buy orders and coins of sell orders stay in the wallet but cannot be used until the order is done
+    private Map<Long, LimitOrder> openOrders;
+    // Stop-loss and take-profit triggers do not reserve coins, they sell what is available when they fire
+    private Map<Long, Trigger> triggers;
+    // Recurring buys spend what is available at each run, a run without enough money is skipped
+    private Map<Long, RecurringBuy> recurringBuys;
+    private transient String summary;
+    private transient AuditLog audit;
+    private transient String owner;
 
 
     public Wallet(double money) {
         //  this.db = db;
-        moneyInCrypto = new HashMap<>();
-        spentMoney = new HashMap<>();
-        transactions = new ArrayList<>();
-        moneyInAccount = money;
+        if (money != 0) {
+            checkForInvalidAmountOfMoney(money);
+        }
+        holdings = new Holdings();
+        history = new TransactionHistory();
+        openOrders = new LinkedHashMap<>();
+        triggers = new LinkedHashMap<>();
+        recurringBuys = new LinkedHashMap<>();
+        realizedByAsset = new LinkedHashMap<>();
+        costBasis = CostBasis.AVERAGE;
+        balance = Money.toMicros(money);
+        deposited = balance;
+    }
+
+    public synchronized void attachHistory(HistoryStore store, String owner) {
+        history.attach(store, owner);
+    }
+
+    // Deposits, withdrawals and trades are also appended to the audit log from now on
+    public synchronized void attachAudit(AuditLog auditLog, String walletOwner) {
+        audit = auditLog;
+        owner = walletOwner;
     }
 
     public synchronized void deposit(double money) {
         checkForInvalidAmountOfMoney(money);
 
-        moneyInAccount += money;
-        transactions.add(new DepositMoneyTransaction(money));
+        long micros = Money.toMicros(money);
+        long newBalance = addExact(balance, micros);
+        deposited = addExact(deposited, micros);
+        balance = newBalance;
+        history.add(new DepositMoneyTransaction(money));
+        audit(AuditType.DEPOSIT, null, micros, 0, 0);
+        summary = null;
         // have to update the files ?
     }
 
     public synchronized void buyCrypto(Asset asset, double amount) throws NotEnoughMoneyInWalletException {
         checkForInvalidAmountOfMoney(amount);
 
-        if (amount > moneyInAccount) {
+        long micros = Money.toMicros(amount);
+        if (micros > availableMoney()) {
             throw new NotEnoughMoneyInWalletException("There's not enough money in your wallet. Sum available: " + amount);
         }
+        buy(asset, micros);
+    }
+
+    public synchronized double sellCrypto(Asset asset) throws CryptoCurrencyNotInWalletException {
+        int index = holdings.indexOf(AssetIds.idOf(asset.assetId()));
+        long available = index < 0 ? 0 : holdings.quantityAt(index) - reservedUnits(asset.assetId());
+        if (available <= 0) {
+            throw new CryptoCurrencyNotInWalletException("There aren't money in that currency in your wallet.");
+        }
+        return Money.toUsd(sell(asset, available));
+    }
 
-        double cryptoBought = amount / asset.priceUsd();
-        double moneySpend = amount;
-        moneyInAccount -= cryptoBought * asset.priceUsd();
-        transactions.add(new BoughtCryptoTransaction(amount, cryptoBought, asset.assetId(), asset.priceUsd()));
+    public synchronized double sellCrypto(Asset asset, double quantity) throws CryptoCurrencyNotInWalletException {
+        checkForInvalidAmountOfMoney(quantity);
 
-        if (checkIfHasCertainCryptoInWallet(asset)) {
-            cryptoBought += moneyInCrypto.get(asset);
-            moneySpend += spentMoney.get(asset);
+        long units = Money.toUnits(quantity);
+        int index = holdings.indexOf(AssetIds.idOf(asset.assetId()));
+        if (index < 0 || units > holdings.quantityAt(index) - reservedUnits(asset.assetId())) {
+            throw new CryptoCurrencyNotInWalletException("There aren't enough coins of that currency in your wallet.");
         }
-        moneyInCrypto.put(asset, cryptoBought);
-        spentMoney.put(asset, moneySpend);
+        return Money.toUsd(sell(asset, units));
     }
 
-    public synchronized double sellCrypto(Asset asset) throws CryptoCurrencyNotInWalletException {
+    public synchronized void placeOrder(LimitOrder order)
+            throws NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException {
+        if (order.amount() <= 0 || order.limitPrice() <= 0) {
+            throw new IllegalArgumentException("Order amount and price must be positive");
+        }
+        // A fill is at or below the limit price, so it buys at least the coins bought at the limit price
+        if (order.side() == OrderSide.BUY
+                && Money.unitsFor(order.amount(), Money.price(Money.toUsd(order.limitPrice()))) == 0) {
+            throw new IllegalArgumentException("The amount is too small to buy any coins at the limit price");
+        }
 
-        if (!checkIfHasCertainCryptoInWallet(asset)) {
-            throw new CryptoCurrencyNotInWalletException("There aren't money in that currency in your wallet.");
+        if (order.side() == OrderSide.BUY && order.amount() > availableMoney()) {
+            throw new NotEnoughMoneyInWalletException("There's not enough money in your wallet. Sum available: "
+                    + Money.toUsd(availableMoney()));
+        }
+        if (order.side() == OrderSide.SELL) {
+            int index = holdings.indexOf(AssetIds.idOf(order.assetId()));
+            long available = index < 0 ? 0 : holdings.quantityAt(index) - reservedUnits(order.assetId());
+            if (order.amount() > available) {
+                throw new CryptoCurrencyNotInWalletException("There aren't enough coins of that currency in your wallet.");
+            }
+        }
+        openOrders.put(order.id(), order);
+        summary = null;
+    }
+
+    public synchronized LimitOrder cancelOrder(long orderId) {
+        LimitOrder order = openOrders.remove(orderId);
+        if (order == null) {
+            throw new IllegalArgumentException("There is no open order with id " + orderId);
+        }
+        summary = null;
+        return order;
+    }
+
+    // Executes an open order at the given price, returns false if the order is no longer open
+    public synchronized boolean fillOrder(long orderId, Asset asset) {
+        LimitOrder order = openOrders.remove(orderId);
+        if (order == null) {
+            return false;
         }
 
-        double cryptoSold = asset.priceUsd() * moneyInCrypto.get(asset);
-        transactions.add(new SoldCryptoTransaction(cryptoSold, moneyInCrypto.get(asset), asset.assetId(), asset.priceUsd()));
-        moneyInCrypto.remove(asset);
-        spentMoney.remove(asset);
-        moneyInAccount += cryptoSold;
+        if (order.side() == OrderSide.BUY) {
+            buy(asset, order.amount());
+        } else {
+            sell(asset, order.amount());
+        }
+        return true;
+    }
+
+    public synchronized List<LimitOrder> getOpenOrders() {
+        return List.copyOf(openOrders.values());
+    }
+
+    public synchronized void addTrigger(Trigger trigger) throws CryptoCurrencyNotInWalletException {
+        if (trigger.stopLoss() <= 0 && trigger.takeProfit() <= 0) {
+            throw new IllegalArgumentException("Stop-loss or take-profit price must be given");
+        }
+        if (trigger.stopLoss() > 0 && trigger.takeProfit() > 0 && trigger.stopLoss() >= trigger.takeProfit()) {
+            throw new IllegalArgumentException("Stop-loss price must be lower than the take-profit price");
+        }
+        if (trigger.quantity() < 0) {
+            throw new IllegalArgumentException("Trigger quantity cannot be negative");
+        }
+
+        int index = holdings.indexOf(AssetIds.idOf(trigger.assetId()));
+        if (index < 0 || trigger.quantity() > holdings.quantityAt(index)) {
+            throw new CryptoCurrencyNotInWalletException("There aren't enough coins of that currency in your wallet.");
+        }
+        triggers.put(trigger.id(), trigger);
+    }
+
+    public synchronized Trigger removeTrigger(long triggerId) {
+        Trigger trigger = triggers.remove(triggerId);
+        if (trigger == null) {
+            throw new IllegalArgumentException("There is no trigger with id " + triggerId);
+        }
+        return trigger;
+    }
+
+    // Sells the protected coins at the given price, returns false if the trigger is gone or there is nothing to sell
+    public synchronized boolean fireTrigger(long triggerId, Asset asset) {
+        Trigger trigger = triggers.remove(triggerId);
+        if (trigger == null) {
+            return false;
+        }
+
+        int index = holdings.indexOf(AssetIds.idOf(asset.assetId()));
+        long available = index < 0 ? 0 : holdings.quantityAt(index) - reservedUnits(asset.assetId());
+        long units = trigger.quantity() == 0 ? available : Math.min(trigger.quantity(), available);
+        if (units <= 0) {
+            return false;
+        }
+        sell(asset, units);
+        return true;
+    }
+
+    public synchronized List<Trigger> getTriggers() {
+        return List.copyOf(triggers.values());
+    }
+
+    public synchronized void addRecurringBuy(RecurringBuy plan) {
+        if (plan.amount() <= 0 || plan.intervalMillis() <= 0) {
+            throw new IllegalArgumentException("Amount and interval of a recurring buy must be positive");
+        }
+        recurringBuys.put(plan.id(), plan);
+    }
+
+    public synchronized RecurringBuy removeRecurringBuy(long planId) {
+        RecurringBuy plan = recurringBuys.remove(planId);
+        if (plan == null) {
+            throw new IllegalArgumentException("There is no recurring buy with id " + planId);
+        }
+        return plan;
+    }
+
+    public synchronized boolean hasRecurringBuy(long planId) {
+        return recurringBuys.containsKey(planId);
+    }
+
+    // Buys at the given price, returns false if the plan is gone or there is not enough money for this run or the
+    // amount is too small to buy any coins at this price
+    public synchronized boolean runRecurringBuy(long planId, Asset asset) {
+        RecurringBuy plan = recurringBuys.get(planId);
+        if (plan == null || plan.amount() > availableMoney() || unitsFor(asset, plan.amount()) == 0) {
+            return false;
+        }
+        buy(asset, plan.amount());
+        return true;
+    }
+
+    public synchronized List<RecurringBuy> getRecurringBuys() {
+        return List.copyOf(recurringBuys.values());
+    }
+
+    // Sells and buys the available coins so that each asset takes its percent of the available money and coins,
+    // valued with the given prices. Held assets without a target are sold. Either every trade is made or none.
+    public synchronized List<Transaction> rebalance(Map<String, Double> targetPercents, Map<String, Asset> prices) {
+        double percentsSum = 0;
+        for (double percent : targetPercents.values()) {
+            if (percent < 0 || Double.isNaN(percent)) {
+                throw new IllegalArgumentException("Target percents cannot be negative");
+            }
+            percentsSum += percent;
+        }
+        if (percentsSum > MAX_PERCENT + PERCENT_TOLERANCE) {
+            throw new IllegalArgumentException("Target percents cannot add up to more than 100");
+        }
+
+        Set<String> assetIds = new LinkedHashSet<>(targetPercents.keySet());
+        for (int i = 0; i < holdings.size(); i++) {
+            assetIds.add(AssetIds.codeOf(holdings.assetAt(i)));
+        }
+
+        Map<String, Long> currentValues = new HashMap<>();
+        long total = availableMoney();
+        for (String assetId : assetIds) {
+            Asset asset = prices.get(assetId);
+            if (asset == null || asset.priceUsd() <= 0) {
+                throw new IllegalArgumentException("There is no price for " + assetId + ", please try again");
+            }
+            long value = Money.valueOf(availableUnits(assetId), Money.price(asset.priceUsd()));
+            currentValues.put(assetId, value);
+            total += value;
+        }
+
+        long historySize = history.size();
+        List<String> buys = new ArrayList<>();
+        for (String assetId : assetIds) {
+            long target = (long) (total * (targetPercents.getOrDefault(assetId, 0.0) / MAX_PERCENT));
+            long current = currentValues.get(assetId);
+            if (current - target >= MIN_TRADE_MICROS) {
+                long price = Money.price(prices.get(assetId).priceUsd());
+                long available = availableUnits(assetId);
+                long units = target == 0 ? available : Math.min(available, Money.unitsFor(current - target, price));
+                if (units > 0) {
+                    sell(prices.get(assetId), units);
+                }
+            } else if (target - current >= MIN_TRADE_MICROS) {
+                buys.add(assetId);
+            }
+        }
+
+        // After the sells, so that their money can be spent
+        for (String assetId : buys) {
+            long target = (long) (total * (targetPercents.get(assetId) / MAX_PERCENT));
+            long micros = Math.min(target - currentValues.get(assetId), availableMoney());
+            if (micros >= MIN_TRADE_MICROS && unitsFor(prices.get(assetId), micros) > 0) {
+                buy(prices.get(assetId), micros);
+            }
+        }
+        return history.recent((int) (history.size() - historySize));
+    }
+
+    private void buy(Asset asset, long micros) {
+        long cryptoBought = unitsFor(asset, micros);
+        if (cryptoBought == 0) {
+            throw new IllegalArgumentException("The amount is too small to buy any " + asset.assetId());
+        }
+        balance -= micros;
+        holdings.add(AssetIds.idOf(asset.assetId()), cryptoBought, micros, System.currentTimeMillis());
+        history.add(new BoughtCryptoTransaction(Money.toUsd(micros), Money.toCoins(cryptoBought), asset.assetId(),
+                asset.priceUsd()));
+        audit(AuditType.BUY, asset.assetId(), micros, cryptoBought, Money.price(asset.priceUsd()));
+        summary = null;
+    }
+
+    private long sell(Asset asset, long units) {
+        int index = holdings.indexOf(AssetIds.idOf(asset.assetId()));
+        long price = Money.price(asset.priceUsd());
+        long cryptoSold = Money.valueOf(units, price);
+        // Checked before the holdings change, the cost only lowers the realized profit
+        long newBalance = addExact(balance, cryptoSold);
+        addExact(realized, cryptoSold);
+        long cost = holdings.reduceAt(index, units, costBasis);
+        realized = addExact(realized, cryptoSold - cost);
+        realizedByAsset.merge(asset.assetId(), cryptoSold - cost, Wallet::addExact);
+        balance = newBalance;
+        history.add(new SoldCryptoTransaction(Money.toUsd(cryptoSold), Money.toCoins(units), asset.assetId(),
+                asset.priceUsd()));
+        audit(AuditType.SELL, asset.assetId(), cryptoSold, units, price);
+        summary = null;
         return cryptoSold;
     }
 
-    public String getWalletSummary() {
+    private static long unitsFor(Asset asset, long micros) {
+        return Money.unitsFor(micros, Money.price(asset.priceUsd()));
+    }
+
+    private void audit(AuditType type, String assetId, long micros, long units, long price) {
+        if (audit != null) {
+            audit.append(type, owner, assetId, micros, units, price);
+        }
+    }
+
+    private long availableMoney() {
+        long reserved = 0;
+        for (LimitOrder order : openOrders.values()) {
+            if (order.side() == OrderSide.BUY) {
+                reserved += order.amount();
+            }
+        }
+        return balance - reserved;
+    }
+
+    private long availableUnits(String assetId) {
+        int index = holdings.indexOf(AssetIds.idOf(assetId));
+        return index < 0 ? 0 : holdings.quantityAt(index) - reservedUnits(assetId);
+    }
+
+    private long reservedUnits(String assetId) {
+        long reserved = 0;
+        for (LimitOrder order : openOrders.values()) {
+            if (order.side() == OrderSide.SELL && order.assetId().equals(assetId)) {
+                reserved += order.amount();
+            }
+        }
+        return reserved;
+    }
+
+    public synchronized String getWalletSummary() {
+        if (summary == null) {
+            summary = buildWalletSummary();
+        }
+        return summary;
+    }
+
+    private String buildWalletSummary() {
         StringBuilder result = new StringBuilder();
-        result.append(String.format("Wallet balance: %.02f\n", moneyInAccount));
-        for (Transaction transaction : transactions) {
+        result.append(String.format("Wallet balance: %.02f\n", Money.toUsd(balance)));
+        for (Transaction transaction : history.recent(SUMMARY_TRANSACTIONS)) {
             result.append(transaction.transactionString());
             result.append(System.lineSeparator());
         }
+        if (history.size() > SUMMARY_TRANSACTIONS) {
+            result.append(String.format("Showing the last %d of %d transactions, use history to see older ones",
+                    SUMMARY_TRANSACTIONS, history.size()));
+        }
         return result.toString().trim();
     }
 
-    public String getWalletOverallSummary(AssetsDatabase db) throws NoSuchAssetException, HttpException, URISyntaxException {
+    // Newest first, the cursor of a page is the sequence number of its oldest transaction
+    public synchronized String getHistory(int limit, long before) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be a positive number");
+        }
+        if (limit > MAX_HISTORY_LIMIT) {
+            throw new IllegalArgumentException("Limit cannot be more than " + MAX_HISTORY_LIMIT);
+        }
+
+        long end = Math.min(before, history.size());
+        List<Transaction> page = history.page(limit, end);
+        if (page.isEmpty()) {
+            return "There is no info";
+        }
+
         StringBuilder result = new StringBuilder();
+        long sequence = end;
+        for (Transaction transaction : page) {
+            result.append(String.format("#%d %s%n", --sequence, transaction.transactionString()));
+        }
+        if (sequence > 0) {
+            result.append(String.format("Older transactions: history --limit=%d --before=%d", limit, sequence));
+        }
+        return result.toString().trim();
+    }
 
-        for (Map.Entry<Asset, Double> entrySet : spentMoney.entrySet()) {
-            double moneySpend = entrySet.getValue();
-            double numOfCoins = moneyInCrypto.get(entrySet.getKey());
-            Asset asset = db.getAssetById(entrySet.getKey().assetId());
-            double currentPrice = numOfCoins * asset.priceUsd();
-            double difference = moneySpend - currentPrice;
+    public String getWalletOverallSummary(AssetsDatabase db) throws NoSuchAssetException, HttpException, URISyntaxException {
+        WalletValuation valuation = valuate(db);
+        if (valuation.holdings().isEmpty()) {
+            return "There is no info";
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (WalletValuation.Holding holding : valuation.holdings()) {
+            double difference = -holding.profit();
             double gained = 0.0;
             double lost = 0.0;
 
@@ -106,45 +455,310 @@ public class Wallet implements Serializable {
                         sellValue: '%.02f',
                         gained: '%.02f',
                         lost: '%.02f'
-                    }""", asset.name(), moneySpend, currentPrice, gained, lost));
+                    }""", holding.asset().name(), holding.spentMoney(), holding.currentValue(), gained, lost));
             result.append("\n");
         }
 
-        if (result.isEmpty()) {
+        result.append(String.format("""
+                Total {
+                    deposited: '%.02f',
+                    withdrawn: '%.02f',
+                    realizedProfit: '%.02f',
+                    unrealizedProfit: '%.02f'
+                }""", valuation.totalDeposited(), valuation.totalWithdrawn(), valuation.realizedProfit(),
+                valuation.unrealizedProfit()));
+        return result.toString();
+    }
+
+    // Holdings and totals are copied under the wallet lock, the prices are resolved outside of it in one batch
+    public WalletValuation valuate(AssetsDatabase db) throws NoSuchAssetException, HttpException, URISyntaxException {
+        String[] assetIds;
+        long[] quantities;
+        long[] costs;
+        WalletValuation totals;
+        synchronized (this) {
+            assetIds = new String[holdings.size()];
+            quantities = new long[holdings.size()];
+            costs = new long[holdings.size()];
+            for (int i = 0; i < holdings.size(); i++) {
+                assetIds[i] = AssetIds.codeOf(holdings.assetAt(i));
+                quantities[i] = holdings.quantityAt(i);
+                costs[i] = holdings.costAt(i);
+            }
+            totals = new WalletValuation(Money.toUsd(balance), List.of(), Money.toUsd(deposited),
+                    Money.toUsd(withdrawn), Money.toUsd(realized));
+        }
+
+        if (assetIds.length == 0) {
+            return totals;
+        }
+
+        Map<String, Asset> prices = db.getAssetsByIds(Arrays.asList(assetIds));
+        List<WalletValuation.Holding> valuedHoldings = new ArrayList<>(assetIds.length);
+        for (int i = 0; i < assetIds.length; i++) {
+            valuedHoldings.add(new WalletValuation.Holding(prices.get(assetIds[i]), Money.toCoins(quantities[i]),
+                    Money.toUsd(costs[i])));
+        }
+
+        return new WalletValuation(totals.moneyInAccount(), valuedHoldings, totals.totalDeposited(),
+                totals.totalWithdrawn(), totals.realizedProfit());
+    }
+
+    public synchronized CostBasis getCostBasis() {
+        return costBasis;
+    }
+
+    // Applies to the sells from now on, costs already realized are not recomputed
+    public synchronized void setCostBasis(CostBasis method) {
+        costBasis = method;
+    }
+
+    // Realized profit is kept per asset as the coins are sold, the open lots are valued with one price snapshot
+    public String getProfitAndLoss(AssetsDatabase db) throws NoSuchAssetException, HttpException,
+            URISyntaxException {
+        String[] assetIds;
+        long[] quantities;
+        long[] costs;
+        Lots[] openLots;
+        Map<String, Long> realizedProfits;
+        long totalRealized;
+        CostBasis method;
+        synchronized (this) {
+            assetIds = new String[holdings.size()];
+            quantities = new long[holdings.size()];
+            costs = new long[holdings.size()];
+            openLots = new Lots[holdings.size()];
+            for (int i = 0; i < holdings.size(); i++) {
+                assetIds[i] = AssetIds.codeOf(holdings.assetAt(i));
+                quantities[i] = holdings.quantityAt(i);
+                costs[i] = holdings.costAt(i);
+                openLots[i] = holdings.lotsAt(i).copy();
+            }
+            realizedProfits = new LinkedHashMap<>(realizedByAsset);
+            totalRealized = realized;
+            method = costBasis;
+        }
+
+        if (assetIds.length == 0 && realizedProfits.isEmpty()) {
             return "There is no info";
         }
 
-        return result.toString().trim();
+        Map<String, Asset> prices = assetIds.length == 0 ? Map.of() : db.getAssetsByIds(Arrays.asList(assetIds));
+        StringBuilder result = new StringBuilder();
+        result.append("Cost basis: ").append(method.name).append("\n");
+        long totalUnrealized = 0;
+        for (int i = 0; i < assetIds.length; i++) {
+            // Assets without a price are valued at 0, like in the platform report
+            Asset asset = prices.get(assetIds[i]);
+            long price = asset == null ? 0 : Money.priceOrZero(asset.priceUsd());
+            long value = Money.valueOf(quantities[i], price);
+            totalUnrealized += value - costs[i];
+            result.append(String.format("""
+                    %s {
+                        quantity: '%.08f',
+                        cost: '%.02f',
+                        value: '%.02f',
+                        realizedProfit: '%.02f',
+                        unrealizedProfit: '%.02f',
+                        lots: [
+                    """, assetIds[i], Money.toCoins(quantities[i]), Money.toUsd(costs[i]), Money.toUsd(value),
+                    Money.toUsd(realizedProfits.getOrDefault(assetIds[i], 0L)), Money.toUsd(value - costs[i])));
+            appendLots(result, openLots[i], price);
+            result.append("    ]\n}\n");
+            realizedProfits.remove(assetIds[i]);
+        }
+
+        for (Map.Entry<String, Long> closedPosition : realizedProfits.entrySet()) {
+            result.append(String.format("""
+                    %s {
+                        realizedProfit: '%.02f'
+                    }
+                    """, closedPosition.getKey(), Money.toUsd(closedPosition.getValue())));
+        }
+
+        result.append(String.format("""
+                Total {
+                    realizedProfit: '%.02f',
+                    unrealizedProfit: '%.02f'
+                }""", Money.toUsd(totalRealized), Money.toUsd(totalUnrealized)));
+        return result.toString();
+    }
+
+    private static void appendLots(StringBuilder result, Lots lots, long price) {
+        for (int lot = 0; lot < lots.size(); lot++) {
+            long quantity = lots.quantityAt(lot);
+            long cost = lots.costAt(lot);
+            String bought = lots.timeAt(lot) == 0
+                    ? "before lots were kept"
+                    : LocalDate.ofInstant(Instant.ofEpochMilli(lots.timeAt(lot)), ZoneId.systemDefault()).toString();
+            double lotPrice = quantity == 0 ? 0 : Money.toUsd(cost) / Money.toCoins(quantity);
+            double lotReturn = cost == 0 ? 0 : (Money.valueOf(quantity, price) - cost) * 100.0 / cost;
+            result.append(String.format("        %.08f at %.02f, bought %s, return %.02f%%\n",
+                    Money.toCoins(quantity), lotPrice, bought, lotReturn));
+        }
     }
 
-    public void withdraw(double money) throws NotEnoughMoneyInWalletException {
+    public synchronized void withdraw(double money) throws NotEnoughMoneyInWalletException {
         checkForInvalidAmountOfMoney(money);
 
-        if (money > moneyInAccount) {
+        long micros = Money.toMicros(money);
+        if (micros > availableMoney()) {
             throw new NotEnoughMoneyInWalletException("There's not enough money in your wallet. Sum available: " + money);
         }
-        moneyInAccount -= money;
+        withdrawn = addExact(withdrawn, micros);
+        balance -= micros;
+        audit(AuditType.WITHDRAWAL, null, micros, 0, 0);
+        summary = null;
+    }
+
+    public synchronized List<Transaction> getTransactions() {
+        return history.all();
+    }
+
+    // For PlatformExposure and Leaderboard, which hold the wallet lock while reading these
+    long balanceMicros() {
+        return balance;
+    }
+
+    long depositedMicros() {
+        return deposited;
     }
 
-    private boolean checkIfHasCertainCryptoInWallet(Asset a) {
-        return moneyInCrypto.containsKey(a);
+    long realizedMicros() {
+        return realized;
     }
 
-    public List<Transaction> getTransactions() {
-        return transactions;
+    Holdings holdings() {
+        return holdings;
     }
 
-    public double getMoneyInAccount() {
-        return moneyInAccount;
+    public synchronized double getMoneyInAccount() {
+        return Money.toUsd(balance);
+    }
+
+    public synchronized double getTotalDeposited() {
+        return Money.toUsd(deposited);
+    }
+
+    public synchronized double getTotalWithdrawn() {
+        return Money.toUsd(withdrawn);
+    }
+
+    public synchronized double getRealizedProfit() {
+        return Money.toUsd(realized);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = inputStream.readFields();
+        history = (TransactionHistory) fields.get("history", null);
+        holdings = (Holdings) fields.get("holdings", null);
+        openOrders = (Map<Long, LimitOrder>) fields.get("openOrders", null);
+        if (openOrders == null) {
+            openOrders = new LinkedHashMap<>();
+        }
+        triggers = (Map<Long, Trigger>) fields.get("triggers", null);
+        if (triggers == null) {
+            triggers = new LinkedHashMap<>();
+        }
+        recurringBuys = (Map<Long, RecurringBuy>) fields.get("recurringBuys", null);
+        if (recurringBuys == null) {
+            recurringBuys = new LinkedHashMap<>();
+        }
+        costBasis = (CostBasis) fields.get("costBasis", CostBasis.AVERAGE);
+        if (costBasis == null) {
+            costBasis = CostBasis.AVERAGE;
+        }
+        // Wallets stored before it only have the realized total, sells from then on are split by asset
+        realizedByAsset = (Map<String, Long>) fields.get("realizedByAsset", null);
+        if (realizedByAsset == null) {
+            realizedByAsset = new LinkedHashMap<>();
+        }
+        if (holdings != null) {
+            balance = fields.get("balance", 0L);
+            deposited = fields.get("deposited", 0L);
+            withdrawn = fields.get("withdrawn", 0L);
+            realized = fields.get("realized", 0L);
+            return;
+        }
+
+        readLegacyFields(fields);
+    }
+
+    // Wallets stored before the fixed point amounts kept doubles, with holdings in maps keyed by Asset
+    @SuppressWarnings("unchecked")
+    private void readLegacyFields(ObjectInputStream.GetField fields) throws IOException {
+        balance = Money.toMicros(fields.get("moneyInAccount", 0.0));
+        holdings = new Holdings();
+        Map<Asset, Double> moneyInCrypto = (Map<Asset, Double>) fields.get("moneyInCrypto", null);
+        Map<Asset, Double> spentMoney = (Map<Asset, Double>) fields.get("spentMoney", null);
+        if (moneyInCrypto != null && spentMoney != null) {
+            for (Map.Entry<Asset, Double> entry : moneyInCrypto.entrySet()) {
+                holdings.add(AssetIds.idOf(entry.getKey().assetId()), Money.toUnits(entry.getValue()),
+                        Money.toMicros(spentMoney.getOrDefault(entry.getKey(), 0.0)));
+            }
+        }
+
+        if (history != null) {
+            deposited = Money.toMicros(fields.get("totalDeposited", 0.0));
+            withdrawn = Money.toMicros(fields.get("totalWithdrawn", 0.0));
+            realized = Money.toMicros(fields.get("realizedProfit", 0.0));
+            return;
+        }
+
+        // Before the history was segmented, the transactions were a plain list and there were no totals
+        List<Transaction> legacyTransactions = (List<Transaction>) fields.get("transactions", null);
+        if (legacyTransactions == null) {
+            legacyTransactions = List.of();
+        }
+        history = new TransactionHistory(legacyTransactions);
+        restoreTotals(legacyTransactions);
+    }
+
+    // Deposits and sells are replayed from the transactions, withdrawals were not recorded,
+    // so they are whatever is missing from the balance (those wallets always started empty).
+    private void restoreTotals(List<Transaction> legacyTransactions) {
+        Map<String, Long> spentByAsset = new HashMap<>();
+        for (Transaction transaction : legacyTransactions) {
+            if (transaction instanceof DepositMoneyTransaction deposit) {
+                deposited += Money.toMicros(deposit.getMoney());
+            } else if (transaction instanceof BoughtCryptoTransaction bought) {
+                spentByAsset.merge(bought.getCryptoAsset(), Money.toMicros(bought.getMoneyInDollars()), Long::sum);
+            } else if (transaction instanceof SoldCryptoTransaction sold) {
+                Long spent = spentByAsset.remove(sold.getCryptoAsset());
+                long profit = Money.toMicros(sold.getMoneyInDollars()) - (spent == null ? 0 : spent);
+                realized += profit;
+                realizedByAsset.merge(sold.getCryptoAsset(), profit, Long::sum);
+            }
+        }
+
+        withdrawn = Math.max(0, deposited + realized - holdings.totalCost() - balance);
     }
 
     private void checkForInvalidAmountOfMoney(double money) {
-        if (money <= 0) {
+        if (Double.isNaN(money) || money <= 0) {
             throw new IllegalArgumentException("Money amount cannot be zero or negative ");
         }
+        if (money > Money.MAX_AMOUNT) {
+            throw new IllegalArgumentException(String.format("Amount cannot be more than %.0f", Money.MAX_AMOUNT));
+        }
     }
 
-    public Map<Asset, Double> getSpentMoney() {
-        return Collections.unmodifiableMap(spentMoney);
+    // A total that would overflow fails the command instead of wrapping around
+    private static long addExact(long total, long amount) {
+        try {
+            return Math.addExact(total, amount);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("The wallet cannot hold that much money", e);
+        }
+    }
+
+    // Money spent on each held crypto, keyed by its asset id
+    public synchronized Map<String, Double> getSpentMoney() {
+        Map<String, Double> result = new HashMap<>(holdings.size());
+        for (int i = 0; i < holdings.size(); i++) {
+            result.put(AssetIds.codeOf(holdings.assetAt(i)), Money.toUsd(holdings.costAt(i)));
+        }
+        return Collections.unmodifiableMap(result);
     }
 }
@@ -0,0 +1,7 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.wallet;
+
+// Called after every change of a stored wallet while the owner's lock is held, so it must return quickly
+@FunctionalInterface
+public interface WalletListener {
+    void onWalletChanged(String owner, Wallet wallet);
+}
@@ -0,0 +1,28 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.wallet;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+
+import java.util.List;
+
+// Holdings of a wallet valued with the prices of a single snapshot
+public record WalletValuation(double moneyInAccount, List<Holding> holdings, double totalDeposited,
+                              double totalWithdrawn, double realizedProfit) {
+
+    public record Holding(Asset asset, double quantity, double spentMoney) {
+        public double currentValue() {
+            return quantity * asset.priceUsd();
+        }
+
+        public double profit() {
+            return currentValue() - spentMoney;
+        }
+    }
+
+    public double holdingsValue() {
+        return holdings.stream().mapToDouble(Holding::currentValue).sum();
+    }
+
+    public double unrealizedProfit() {
+        return holdings.stream().mapToDouble(Holding::profit).sum();
+    }
+}
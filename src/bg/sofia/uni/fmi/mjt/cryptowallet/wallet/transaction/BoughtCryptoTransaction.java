@@ -1,6 +1,7 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction;
 
 public class BoughtCryptoTransaction extends CryptoTransaction {
+    private static final long serialVersionUID = -4512756817925968760L;
 
     public BoughtCryptoTransaction(double dollars, double crypto, String asset, double price) {
         super(dollars, crypto, asset, price);
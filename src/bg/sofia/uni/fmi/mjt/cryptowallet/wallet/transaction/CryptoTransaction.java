@@ -1,6 +1,7 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction;
 
 public abstract class CryptoTransaction extends Transaction {
+    private static final long serialVersionUID = -4864854936120602594L;
     private double moneyInDollars;
     private double moneyInCrypto;
     private String cryptoAsset;
@@ -1,12 +1,17 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction;
 
 public class DepositMoneyTransaction extends Transaction {
+    private static final long serialVersionUID = -4671799070174942081L;
     private double money;
 
     public DepositMoneyTransaction(double m) {
         money = m;
     }
 
+    public double getMoney() {
+        return money;
+    }
+
     @Override
     public String transactionString() {
         return "Deposited " + money + " USD.";
@@ -1,6 +1,7 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction;
 
 public class SoldCryptoTransaction extends CryptoTransaction {
+    private static final long serialVersionUID = 1742836766664606638L;
 
     public SoldCryptoTransaction(double dollars, double crypto, String asset, double price) {
         super(dollars, crypto, asset, price);
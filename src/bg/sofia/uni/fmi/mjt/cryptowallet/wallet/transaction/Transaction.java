@@ -3,5 +3,7 @@ package bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction;
 import java.io.Serializable;
 
 public abstract class Transaction implements Serializable {
+    private static final long serialVersionUID = 2589743394047291096L;
+
     public abstract String transactionString();
 }
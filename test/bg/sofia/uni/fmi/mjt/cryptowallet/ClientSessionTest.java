@@ -0,0 +1,74 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.protocol.Frame;
+import bg.sofia.uni.fmi.mjt.cryptowallet.protocol.FrameReader;
+import bg.sofia.uni.fmi.mjt.cryptowallet.protocol.Frames;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClientSessionTest {
+    private Pipe pipe;
+    private final ClientSession session = new ClientSession();
+
+    @BeforeEach
+    void setup() throws IOException {
+        pipe = Pipe.open();
+    }
+
+    @AfterEach
+    void teardown() throws IOException {
+        pipe.sink().close();
+        pipe.source().close();
+    }
+
+    @Test
+    public void testPipelinedRequestsAreSplitAtLineEnds() throws IOException {
+        pipe.sink().write(ByteBuffer.wrap("help\r\nlist-offer".getBytes()));
+        session.readFrom(pipe.source());
+        assertEquals("help", session.nextLine(), "Request should end at its line end");
+        assertNull(session.nextLine(), "Request without its line end should wait");
+
+        pipe.sink().write(ByteBuffer.wrap("ings\nlogout\n".getBytes()));
+        session.readFrom(pipe.source());
+        assertEquals("list-offerings", session.nextLine(), "Request should be joined from both reads");
+        assertEquals("logout", session.nextLine(), "Next request should follow");
+    }
+
+    @Test
+    public void testOnlyNewestUnsentPriceOfAnAssetIsPushedAfterTheReplies() throws IOException {
+        ByteBuffer sharedPrice = Frames.encode(Frames.PUSH, "ETH 3").asReadOnlyBuffer();
+        assertFalse(session.push("BTC", Frames.encode(Frames.PUSH, "BTC 1")), "First price should not replace anything");
+        assertTrue(session.push("BTC", Frames.encode(Frames.PUSH, "BTC 2")), "Newer price should replace it");
+        session.push("ETH", sharedPrice);
+        session.queue(Frames.REPLY, "Subscribed");
+
+        session.flushTo(pipe.sink());
+        pipe.sink().close();
+
+        assertEquals(List.of(new Frame(Frames.REPLY, "Subscribed"), new Frame(Frames.PUSH, "BTC 2"),
+                new Frame(Frames.PUSH, "ETH 3")), readAll(), "Reply should come first, then the newest prices");
+        assertFalse(session.hasPendingOutput(), "Everything should be written");
+        assertEquals(0, sharedPrice.position(), "Shared frame should not be consumed by a subscriber");
+    }
+
+    private List<Frame> readAll() throws IOException {
+        FrameReader reader = new FrameReader(64);
+        List<Frame> frames = new ArrayList<>();
+        while (reader.readFrom(pipe.source()) >= 0) {
+            Frame frame;
+            while ((frame = reader.next()) != null) {
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+}
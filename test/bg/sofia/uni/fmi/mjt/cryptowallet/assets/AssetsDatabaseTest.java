@@ -2,14 +2,24 @@ package bg.sofia.uni.fmi.mjt.cryptowallet.assets;
 
 import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.HttpException;
 import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.NoSuchAssetException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.PriceRefreshEvent;
 import bg.sofia.uni.fmi.mjt.cryptowallet.restServer.ApiResponse;
 import bg.sofia.uni.fmi.mjt.cryptowallet.restServer.ServerRequest;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
@@ -17,10 +27,13 @@ import static java.net.HttpURLConnection.HTTP_OK;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 
 public class AssetsDatabaseTest {
+    private static final Path RECORDING_PATH = Path.of("resources/test_assets.jfr");
 
     @Mock
     private ServerRequest assetsInApi = mock(ServerRequest.class);
@@ -28,6 +41,11 @@ public class AssetsDatabaseTest {
     @InjectMocks
     private AssetsDatabase assetsDb = new AssetsDatabase(assetsInApi);
 
+    @AfterEach
+    void teardown() throws IOException {
+        Files.deleteIfExists(RECORDING_PATH);
+    }
+
     @Test
     public void testGetAssetByIdWithEmptyIdThrowsIllegalArgumentException() {
         assertThrows(IllegalArgumentException.class, () -> assetsDb.getAssetById(""));
@@ -122,4 +140,70 @@ public class AssetsDatabaseTest {
 
         assertIterableEquals(listData, assetsDb.getAllAssets().values(), "Invalid list result");
     }
+
+    @Test
+    public void testGetAssetsByIdsFetchesOnlyMissingAssets() throws URISyntaxException, HttpException,
+            NoSuchAssetException {
+        Asset cached = new Asset("BTC", "Bitcoin", 1, 100.0, "", "");
+        Asset missing = new Asset("ETH", "Ethereum", 1, 10.0, "", "");
+        when(assetsInApi.getAssetById("BTC")).thenReturn(
+                CompletableFuture.completedFuture(new ApiResponse<>(cached, HTTP_OK, null)));
+        when(assetsInApi.getAssetById("ETH")).thenReturn(
+                CompletableFuture.completedFuture(new ApiResponse<>(missing, HTTP_OK, null)));
+        assetsDb.getAssetById("BTC");
+
+        Map<String, Asset> result = assetsDb.getAssetsByIds(List.of("BTC", "ETH", "ETH"));
+
+        assertEquals(Map.of("BTC", cached, "ETH", missing), result, "Invalid assets returned from database");
+        verify(assetsInApi, times(1)).getAssetById("BTC");
+        verify(assetsInApi, times(1)).getAssetById("ETH");
+    }
+
+    @Test
+    public void testFetchesOfMissingAssetsAreRecordedAsFlightRecorderEvents() throws URISyntaxException,
+            HttpException, NoSuchAssetException, IOException {
+        when(assetsInApi.getAssetById("BTC")).thenReturn(CompletableFuture.completedFuture(
+                new ApiResponse<>(new Asset("BTC", "Bitcoin", 1, 100.0, "", ""), HTTP_OK, null)));
+        when(assetsInApi.getAssetById("ETH")).thenReturn(CompletableFuture.completedFuture(
+                new ApiResponse<>(null, HTTP_OK, null)));
+
+        try (Recording recording = new Recording()) {
+            recording.enable(PriceRefreshEvent.class).withoutThreshold();
+            recording.start();
+            assetsDb.getAssetsByIds(List.of("BTC"));
+            assetsDb.getAssetsByIds(List.of("BTC"));
+            assertThrows(NoSuchAssetException.class, () -> assetsDb.getAssetsByIds(List.of("ETH")));
+            recording.stop();
+            recording.dump(RECORDING_PATH);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(RECORDING_PATH).stream()
+                .filter(event -> event.getEventType().getName().equals("bg.sofia.uni.fmi.mjt.cryptowallet.PriceRefresh"))
+                .filter(event -> event.getString("kind").equals(PriceRefreshEvent.MISSING))
+                .toList();
+        assertEquals(2, events.size(), "Only the fetches of missing assets should be recorded");
+        assertEquals(1, events.get(0).getInt("assetsCount"), "Invalid count of fetched assets recorded");
+        assertTrue(events.get(0).getBoolean("succeeded"), "Fetch should be recorded as successful");
+        assertFalse(events.get(1).getBoolean("succeeded"), "Failed fetch should be recorded as failed");
+    }
+
+    @Test
+    public void testFailedRefreshIsNotRetriedOnTheNextCommands() throws URISyntaxException, HttpException,
+            NoSuchAssetException {
+        Asset cached = new Asset("BTC", "Bitcoin", 1, 100.0, "", "");
+        PriceSnapshot oldSnapshot = new PriceSnapshot(Map.of("BTC", cached), LocalDateTime.now().minusHours(1));
+        AssetsDatabase outageDb = new AssetsDatabase(assetsInApi, oldSnapshot);
+        when(assetsInApi.getAssetById("BTC")).thenReturn(CompletableFuture.completedFuture(
+                new ApiResponse<>(null, 429, "Too many requests")));
+
+        assertEquals(cached, outageDb.getAssetById("BTC"), "Old price should be served while refreshing");
+        while (outageDb.isRefreshing()) {
+            Thread.onSpinWait();
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(cached, outageDb.getAssetById("BTC"), "Old price should be served after a failed refresh");
+        }
+
+        verify(assetsInApi, times(1)).getAssetById("BTC");
+    }
 }
@@ -0,0 +1,142 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.audit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuditLogTest {
+    private static final Path DIRECTORY = Path.of("resources/test_audit");
+    private static final int SEGMENT_BYTES = 4096;
+    private static final int THREADS_COUNT = 4;
+    private static final int RECORDS_PER_THREAD = 1000;
+
+    @AfterEach
+    void teardown() throws IOException {
+        if (Files.exists(DIRECTORY)) {
+            try (var files = Files.walk(DIRECTORY)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentAppendsAreReadInSequenceAcrossSegments() throws IOException, InterruptedException {
+        AuditLog auditLog = new AuditLog(DIRECTORY, SEGMENT_BYTES);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS_COUNT; i++) {
+            String owner = "user" + i;
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < RECORDS_PER_THREAD; j++) {
+                    auditLog.append(AuditType.BUY, owner, "BTC", j, j * 2L, 3);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        auditLog.close();
+
+        List<AuditRecord> records = readAll(0);
+        assertEquals(THREADS_COUNT * RECORDS_PER_THREAD, auditLog.appendedCount(), "No record should be dropped");
+        assertEquals(THREADS_COUNT * RECORDS_PER_THREAD, records.size(), "Every record should be read");
+        assertTrue(AuditFormat.segments(DIRECTORY).size() > 1, "Records should span several segments");
+
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < records.size(); i++) {
+            AuditRecord record = records.get(i);
+            assertEquals(i, record.sequence(), "Sequences should have no gaps");
+            assertEquals(record.micros() * 2, record.units(), "Record should be read as it was written");
+            assertTrue(seen.add(record.owner() + record.micros()), "Record should be read once");
+        }
+    }
+
+    @Test
+    public void testSequenceContinuesAfterRestart() throws IOException {
+        AuditLog auditLog = new AuditLog(DIRECTORY, SEGMENT_BYTES);
+        auditLog.append(AuditType.DEPOSIT, "alice", null, 100, 0, 0);
+        auditLog.close();
+        auditLog = new AuditLog(DIRECTORY, SEGMENT_BYTES);
+        auditLog.append(AuditType.WITHDRAWAL, "alice", null, 40, 0, 0);
+        auditLog.close();
+
+        List<AuditRecord> records = readAll(0);
+        assertEquals(2, records.size(), "Records of both runs should be read");
+        assertEquals(AuditType.DEPOSIT, records.get(0).type(), "Records should be read in order");
+        assertNull(records.get(0).assetId(), "Money movements should have no asset");
+        assertEquals(1, records.get(1).sequence(), "Sequence should continue after the restart");
+    }
+
+    @Test
+    public void testRecordsAfterATornRecordAreNotReadAfterRestart() throws IOException {
+        AuditLog auditLog = new AuditLog(DIRECTORY, SEGMENT_BYTES);
+        for (int i = 0; i < 3; i++) {
+            auditLog.append(AuditType.DEPOSIT, "alice", null, i, 0, 0);
+        }
+        auditLog.close();
+        Path segment = AuditFormat.segmentFile(DIRECTORY, 0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES), AuditFormat.recordBytes("alice".length(), 0));
+        }
+
+        auditLog = new AuditLog(DIRECTORY, SEGMENT_BYTES);
+        auditLog.append(AuditType.WITHDRAWAL, "bob", null, 40, 0, 0);
+        auditLog.close();
+
+        List<AuditRecord> records = readAll(0);
+        assertEquals(List.of(AuditType.DEPOSIT, AuditType.WITHDRAWAL), records.stream().map(AuditRecord::type).toList(),
+                "Records published after the torn one should not be read");
+        assertEquals(1, records.get(1).sequence(), "New record should take the place of the torn one");
+    }
+
+    @Test
+    public void testTailReaderFollowsAppends() throws IOException {
+        AuditLog auditLog = new AuditLog(DIRECTORY, SEGMENT_BYTES);
+        AuditTailReader reader = new AuditTailReader(DIRECTORY, 0);
+        assertTrue(reader.poll(10).isEmpty(), "Empty log should have no records");
+
+        auditLog.append(AuditType.SELL, "bob", "ETH", 5, 6, 7);
+        List<AuditRecord> first = reader.poll(10);
+        for (int i = 0; i < 100; i++) {
+            auditLog.append(AuditType.BUY, "bob", "ETH", i, i, i);
+        }
+        List<AuditRecord> rest = new ArrayList<>();
+        List<AuditRecord> polled;
+        while (!(polled = reader.poll(10)).isEmpty()) {
+            rest.addAll(polled);
+        }
+        auditLog.close();
+
+        assertEquals(List.of(new AuditRecord(0, first.get(0).timestamp(), AuditType.SELL, "bob", "ETH", 5, 6, 7)),
+                first, "Published record should be read");
+        assertEquals(100, rest.size(), "Reader should continue after the last returned record");
+        assertEquals(101, reader.nextSequence(), "Reader should be after the last record");
+    }
+
+    private static List<AuditRecord> readAll(long from) throws IOException {
+        List<AuditRecord> result = new ArrayList<>();
+        try (AuditTailReader reader = new AuditTailReader(DIRECTORY, from)) {
+            List<AuditRecord> records;
+            while (!(records = reader.poll(100)).isEmpty()) {
+                result.addAll(records);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.client;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.CommandFailedException;
+import bg.sofia.uni.fmi.mjt.cryptowallet.protocol.Frames;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WalletClientTest {
+    private static final long TIMEOUT_MILLIS = 200;
+
+    private ServerSocket serverSocket;
+    private final List<String> receivedLines = new CopyOnWriteArrayList<>();
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private WalletClient client;
+
+    // Echoes every line, does not answer "silent", fails "error", drops the connection on "drop" and pushes a price
+    // after "subscribe"
+    @BeforeEach
+    void setup() throws IOException {
+        serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    sockets.add(socket);
+                    new Thread(() -> serve(socket)).start();
+                }
+            } catch (IOException e) {
+                // The test is over
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    void teardown() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testPipelinedRepliesCompleteTheirOwnRequests() throws IOException {
+        client = new WalletClient(address(), 2, TIMEOUT_MILLIS * 10);
+        List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            replies.add(client.execute("echo " + i));
+        }
+
+        for (int i = 0; i < replies.size(); i++) {
+            assertEquals("echo " + i, replies.get(i).join(), "Every request should get its own reply");
+        }
+        assertEquals(1000, client.metrics().latencyOf("echo").count(), "Every reply should be measured");
+    }
+
+    @Test
+    public void testErrorReplyAndMissingReplyFailTheCommand() throws IOException {
+        client = new WalletClient(address(), 1, TIMEOUT_MILLIS);
+
+        CompletionException failed = assertThrows(CompletionException.class, () -> client.execute("error").join());
+        assertTrue(failed.getCause() instanceof CommandFailedException, "Error reply should fail the command");
+        CompletionException timedOut = assertThrows(CompletionException.class, () -> client.execute("silent").join());
+        assertTrue(timedOut.getCause() instanceof TimeoutException, "Command without a reply should time out");
+        assertEquals(1, client.metrics().timedOutCount(), "Timeout should be counted");
+    }
+
+    @Test
+    public void testLostConnectionIsOpenedAndLoggedInAgain() throws IOException, InterruptedException {
+        client = new WalletClient(address(), 1, TIMEOUT_MILLIS * 10);
+        assertEquals("login user pass", client.login("user", "pass").join(), "Login should be answered");
+
+        assertThrows(CompletionException.class, () -> client.execute("drop").join(),
+                "Command on the lost connection should fail");
+        assertEquals("after", client.execute("after").join(), "Client should connect again");
+        assertEquals(List.of("login user pass", "drop", "login user pass", "after"), receivedLines,
+                "Client should log in again before the next command");
+        assertEquals(1, client.metrics().reconnectsCount(), "Reconnect should be counted");
+    }
+
+    @Test
+    public void testPushedPricesDoNotTakeTheRepliesOfRequests() throws IOException, InterruptedException {
+        client = new WalletClient(address(), 1, TIMEOUT_MILLIS * 10);
+        BlockingQueue<String> prices = new LinkedBlockingQueue<>();
+        client.setPushListener(prices::add);
+
+        assertEquals("Subscribed to BTC", client.subscribe("BTC").join(), "Subscribe should get its reply");
+        assertEquals("after", client.execute("after").join(), "Next request should get its own reply");
+        assertEquals("BTC 100", prices.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), "Price should be pushed");
+    }
+
+    private InetSocketAddress address() {
+        return new InetSocketAddress("localhost", serverSocket.getLocalPort());
+    }
+
+    private void serve(Socket socket) {
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            OutputStream out = socket.getOutputStream();
+            String line;
+            while ((line = in.readLine()) != null) {
+                receivedLines.add(line);
+                switch (line) {
+                    case "silent" -> { }
+                    case "drop" -> {
+                        socket.close();
+                        return;
+                    }
+                    case "error" -> write(out, Frames.encode(Frames.ERROR, "failed"));
+                    case "subscribe --offering=BTC" -> {
+                        write(out, Frames.encode(Frames.REPLY, "Subscribed to BTC"));
+                        write(out, Frames.encode(Frames.PUSH, "BTC 100"));
+                    }
+                    default -> write(out, Frames.encode(Frames.REPLY, line));
+                }
+            }
+        } catch (IOException e) {
+            // The connection is closed
+        }
+    }
+
+    private static void write(OutputStream out, ByteBuffer frame) throws IOException {
+        out.write(frame.array(), frame.position(), frame.remaining());
+        out.flush();
+    }
+}
@@ -8,6 +8,11 @@ import bg.sofia.uni.fmi.mjt.cryptowallet.users.UsersDatabase;
 import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.BoughtCryptoTransaction;
 import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.SoldCryptoTransaction;
 import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.Transaction;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.CommandEvent;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -15,17 +20,24 @@ import org.mockito.Mock;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 public class CommandExecutorTest {
+    private static final Path RECORDING_PATH = Path.of("resources/test_commands.jfr");
+
     @Mock
     private UsersDatabase usersDb = mock(UsersDatabase.class);
 
@@ -40,6 +52,11 @@ public class CommandExecutorTest {
     void setup() {
         test = test = new User("test", "test", 100);
     }
+
+    @AfterEach
+    void teardown() throws IOException {
+        Files.deleteIfExists(RECORDING_PATH);
+    }
     @Test
     public void testExecuteReturnsUnknownCommand() throws NoSuchUserException, HttpException, URISyntaxException, UserAlreadyExistsException, NoSuchAssetException, NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException {
         assertEquals("Unknown command", commandExecutor.execute(CommandCreator.newCommand("test")),
@@ -94,16 +111,35 @@ public class CommandExecutorTest {
         String actual = commandExecutor.execute(CommandCreator.newCommand("help"));
         String expected = """
                 Supported commands:
-                login <username> <password> 
+                login <username> <password>
                 register <username> <password>
                 logout
                 list-offerings - Shows 50 cryptos from the api
+                subscribe --offering=<offering_code>,... - Sends the new prices of the offerings as they change
+                unsubscribe
                 deposit <amount>
                 withdraw <amount>
                 buy --offering=<offering_code> --money=<amount>
-                sell --offering=<offering_code>
+                sell --offering=<offering_code> [--quantity=<amount>]
+                rebalance <offering_code>=<percent> ... - Sells and buys to reach the target weights, the rest stays as money
+                buy-limit --offering=<offering_code> --price=<limit_price> --money=<amount>
+                sell-limit --offering=<offering_code> --price=<limit_price> --quantity=<amount>
+                orders
+                cancel-order --id=<order_id>
+                protect --offering=<offering_code> [--stop-loss=<price>] [--take-profit=<price>] [--quantity=<amount>]
+                triggers
+                cancel-trigger --id=<trigger_id>
+                schedule-buy --offering=<offering_code> --money=<amount> --every=<count><m|h|d|w>
+                schedules
+                cancel-schedule --id=<schedule_id>
                 get-wallet-summary
-                get-wallet-overall-summary""";
+                get-wallet-overall-summary
+                history [--limit=<count up to 100>] [--before=<cursor>]
+                pnl
+                cost-basis --method=<fifo|average>
+                leaderboard [--top=<count>] - Users with the best portfolio return
+                platform-report - Admins only
+                stats - Admins only""";
         assertEquals(expected, actual, "Incorrect help result");
     }
 
@@ -289,12 +325,9 @@ public class CommandExecutorTest {
         test.buyCrypto(test1, 100);
         test.buyCrypto(test2, 200);
 
-        when(assetsDb.getAssetById("test")).thenReturn(new Asset("test", "test",
-                1, 150.0, "test", "test"));
-        when(assetsDb.getAssetById("test2")).thenReturn(new Asset("test2", "test2",
-                1, 170.0,
-                "test2",
-                "test2"));
+        when(assetsDb.getAssetsByIds(anyCollection())).thenReturn(Map.of(
+                "test", new Asset("test", "test", 1, 150.0, "test", "test"),
+                "test2", new Asset("test2", "test2", 1, 170.0, "test2", "test2")));
 
         String expected = """
             test {
@@ -308,10 +341,49 @@ public class CommandExecutorTest {
                 sellValue: '170.00',
                 gained: '0.00',
                 lost: '30.00'
+            }
+            Total {
+                deposited: '400.00',
+                withdrawn: '0.00',
+                realizedProfit: '0.00',
+                unrealizedProfit: '20.00'
             }""";
         String actual = commandExecutor.execute(CommandCreator.newCommand("get-wallet-overall-summary"),
                 test);
 
         assertEquals(expected, actual, "Invalid overall summary");
     }
+
+    @Test
+    public void testAdminNamesAreTrimmedAndRepeatedOnesIgnored() {
+        assertEquals(Set.of("alice", "bob"), CommandExecutor.parseAdmins(" alice, bob ,alice,,"),
+                "Admin names should be trimmed and deduplicated");
+        assertEquals(Set.of(), CommandExecutor.parseAdmins(""), "No admins should be configured by default");
+    }
+
+    @Test
+    public void testCommandsAreRecordedAsFlightRecorderEvents() throws IOException, NoSuchUserException,
+            HttpException, URISyntaxException, NoSuchAssetException, NotEnoughMoneyInWalletException,
+            CryptoCurrencyNotInWalletException {
+        try (Recording recording = new Recording()) {
+            recording.enable(CommandEvent.class).withoutThreshold();
+            recording.start();
+            commandExecutor.execute(CommandCreator.newCommand("test"), null);
+            assertThrows(IllegalArgumentException.class,
+                    () -> commandExecutor.execute(CommandCreator.newCommand("deposit-money"), test));
+            recording.stop();
+            recording.dump(RECORDING_PATH);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(RECORDING_PATH).stream()
+                .filter(event -> event.getEventType().getName().equals("bg.sofia.uni.fmi.mjt.cryptowallet.Command"))
+                .toList();
+        assertEquals(2, events.size(), "Every executed command should be recorded");
+        assertNull(events.get(0).getString("user"), "Command without a user should be recorded without one");
+        assertEquals(CommandEvent.OK, events.get(0).getString("outcome"), "Unknown command does not fail");
+        assertEquals("deposit-money", events.get(1).getString("command"), "Invalid command name recorded");
+        assertEquals("test", events.get(1).getString("user"), "Invalid user recorded");
+        assertEquals("IllegalArgumentException", events.get(1).getString("outcome"),
+                "Failure should be recorded with its exception");
+    }
 }
@@ -0,0 +1,89 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncLogWriterTest {
+    private static final long NO_ROTATION = Long.MAX_VALUE;
+    private static final long DUPLICATE_WINDOW_MILLIS = 60_000;
+
+    private static final Path FILE_PATH = Path.of("resources/test_errors.txt");
+
+    @AfterEach
+    void teardown() throws IOException {
+        Files.deleteIfExists(FILE_PATH);
+        try (var rotated = Files.newDirectoryStream(FILE_PATH.getParent(), FILE_PATH.getFileName() + ".*")) {
+            for (Path file : rotated) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testRecordsAreAppendedAcrossRestarts() throws IOException {
+        for (String message : new String[] {"first", "second"}) {
+            AsyncLogWriter writer = new AsyncLogWriter(FILE_PATH, 16, NO_ROTATION, NO_ROTATION, 2, 0);
+            writer.log(message);
+            writer.close();
+        }
+
+        String content = Files.readString(FILE_PATH);
+        assertTrue(content.contains("first") && content.contains("second"),
+                "Records of an earlier run should not be truncated");
+    }
+
+    @Test
+    public void testFileIsRotatedWhenTooBig() throws IOException {
+        AsyncLogWriter writer = new AsyncLogWriter(FILE_PATH, 1024, 100, NO_ROTATION, 2, 0);
+        for (int i = 0; i < 50; i++) {
+            writer.log("message number " + i);
+        }
+        writer.close();
+
+        assertEquals(50, writer.writtenCount(), "Every record should be written");
+        assertTrue(writer.rotationsCount() > 2, "File should be rotated every few records");
+        assertTrue(Files.exists(FILE_PATH.resolveSibling("test_errors.txt.1")), "Newest rotated file should exist");
+        assertTrue(Files.exists(FILE_PATH.resolveSibling("test_errors.txt.2")), "Older rotated file should be kept");
+        assertFalse(Files.exists(FILE_PATH.resolveSibling("test_errors.txt.3")), "Only the configured number of files should be kept");
+        assertTrue(Files.readString(FILE_PATH).contains("message number 49"), "Current file should have the last record");
+    }
+
+    @Test
+    public void testDuplicateTracesAreSuppressed() throws IOException {
+        AsyncLogWriter writer = new AsyncLogWriter(FILE_PATH, 1024, NO_ROTATION, NO_ROTATION, 2, DUPLICATE_WINDOW_MILLIS);
+        for (int i = 0; i < 100; i++) {
+            writer.log(new IllegalStateException("api is down"));
+        }
+        writer.log(new IllegalArgumentException("other"));
+        writer.close();
+
+        assertEquals(2, writer.writtenCount(), "Same trace should be written once per window");
+        assertEquals(99, writer.suppressedCount(), "Repeats should be counted");
+        assertTrue(Files.readString(FILE_PATH).contains("IllegalArgumentException"),
+                "Different trace should not be suppressed");
+    }
+
+    @Test
+    public void testRingBufferRejectsWhenFull() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(5);
+        int capacity = buffer.capacity();
+
+        for (int i = 0; i < capacity; i++) {
+            assertTrue(buffer.offer(i), "Buffer should accept items up to its capacity");
+        }
+        assertFalse(buffer.offer(capacity), "Full buffer should reject the item");
+
+        assertEquals(0, buffer.poll(), "Items should be taken in order");
+        assertTrue(buffer.offer(capacity), "Taken slot should be reused");
+        for (int i = 1; i <= capacity; i++) {
+            assertEquals(i, buffer.poll(), "Items should be taken in order");
+        }
+        assertNull(buffer.poll(), "Empty buffer should have no items");
+    }
+}
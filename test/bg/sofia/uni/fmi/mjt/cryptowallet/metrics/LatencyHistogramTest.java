@@ -0,0 +1,66 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+    private static final double MAX_RELATIVE_ERROR = 0.01;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void testSmallValuesAreExact() {
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(50, histogram.valueAtPercentile(50), "Median of 1..100 should be exact");
+        assertEquals(99, histogram.valueAtPercentile(99), "99th percentile of 1..100 should be exact");
+        assertEquals(100, histogram.valueAtPercentile(100), "100th percentile should be the max");
+        assertEquals(1, histogram.min(), "Min should be the smallest recorded value");
+        assertEquals(50.5, histogram.mean(), 1e-9, "Mean should be exact");
+    }
+
+    @Test
+    public void testLargeValuesAreWithinOnePercent() {
+        for (long value = 1; value <= 1_000_000; value++) {
+            histogram.record(value * 1_000);
+        }
+
+        double[] percentiles = {50, 99, 99.9};
+        for (double percentile : percentiles) {
+            double expected = percentile / 100 * 1_000_000_000;
+            double actual = histogram.valueAtPercentile(percentile);
+            assertEquals(expected, actual, expected * MAX_RELATIVE_ERROR,
+                    "Percentile " + percentile + " should be within one percent");
+        }
+        assertEquals(1_000_000_000, histogram.max(), "Max should be exact");
+    }
+
+    @Test
+    public void testBucketsCoverEveryLongValue() {
+        long[] values = {0, 127, 128, 129, 255, 256, 1L << 40, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(LatencyHistogram.highestValueAt(index) >= value, "Bucket of " + value + " should contain it");
+            assertTrue(index == 0 || LatencyHistogram.highestValueAt(index - 1) < value,
+                    "Previous bucket of " + value + " should be below it");
+        }
+    }
+
+    @Test
+    public void testMergeAddsCounts() {
+        LatencyHistogram other = new LatencyHistogram();
+        histogram.record(10);
+        other.record(1_000);
+        other.record(2_000);
+
+        histogram.merge(other);
+        assertEquals(3, histogram.count(), "Counts should be added");
+        assertEquals(10, histogram.min(), "Min should be the smaller one");
+        assertEquals(2_000, histogram.max(), "Max should be the larger one");
+        assertEquals(1_000, histogram.valueAtPercentile(50), 1_000 * MAX_RELATIVE_ERROR,
+                "Median should come from the merged values");
+    }
+}
@@ -0,0 +1,63 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyRecorderTest {
+    private static final int THREADS_COUNT = 8;
+    private static final int VALUES_PER_THREAD = 100_000;
+
+    private final LatencyRecorder recorder = new LatencyRecorder();
+
+    @Test
+    public void testConcurrentRecordsAreNotLost() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS_COUNT; i++) {
+            Thread thread = new Thread(() -> {
+                for (long value = 1; value <= VALUES_PER_THREAD; value++) {
+                    recorder.record(value);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LatencyHistogram snapshot = recorder.snapshot();
+        assertEquals((long) THREADS_COUNT * VALUES_PER_THREAD, recorder.count(), "No record should be lost");
+        assertEquals(recorder.count(), snapshot.count(), "Snapshot should have every record");
+        assertEquals(VALUES_PER_THREAD, snapshot.max(), "Max should be exact");
+        assertEquals(1, snapshot.min(), "Min should be exact");
+        assertEquals((VALUES_PER_THREAD + 1) / 2.0, snapshot.mean(), 1e-9, "Mean should be exact");
+    }
+
+    @Test
+    public void testSnapshotMatchesHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1_000_000; value += 7) {
+            recorder.record(value * 1_000);
+            histogram.record(value * 1_000);
+        }
+
+        LatencyHistogram snapshot = recorder.snapshot();
+        for (double percentile : new double[] {50, 99, 99.9, 100}) {
+            assertEquals(histogram.valueAtPercentile(percentile), snapshot.valueAtPercentile(percentile),
+                    "Percentile " + percentile + " should match a histogram of the same values");
+        }
+    }
+
+    @Test
+    public void testEmptySnapshot() {
+        LatencyHistogram snapshot = recorder.snapshot();
+
+        assertEquals(0, snapshot.count(), "Empty recorder should have no values");
+        assertEquals(0, snapshot.min(), "Min of no values should be zero");
+        assertEquals(0, snapshot.valueAtPercentile(99), "Percentile of no values should be zero");
+    }
+}
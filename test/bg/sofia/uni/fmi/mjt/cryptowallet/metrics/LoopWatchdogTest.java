@@ -0,0 +1,58 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.metrics;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.command.CommandType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoopWatchdogTest {
+    private static final long THRESHOLD_MILLIS = 20;
+    private static final long STALL_MILLIS = 200;
+
+    private final List<String> loggedStalls = new CopyOnWriteArrayList<>();
+    private final LoopWatchdog watchdog = new LoopWatchdog(THRESHOLD_MILLIS, loggedStalls::add);
+
+    @AfterEach
+    void teardown() {
+        watchdog.close();
+    }
+
+    @Test
+    public void testLongIterationIsReportedOnceWithItsStack() throws InterruptedException {
+        watchdog.start();
+        watchdog.iterationStarted();
+        watchdog.processing(CommandType.BUY_CRYPTO, null);
+        Thread.sleep(STALL_MILLIS);
+        watchdog.iterationFinished();
+
+        List<LoopWatchdog.Stall> stalls = watchdog.recentStalls();
+        assertEquals(1, watchdog.stallsCount(), "Stalled iteration should be reported once");
+        assertEquals(1, loggedStalls.size(), "Stalled iteration should be logged once");
+        assertEquals(CommandType.BUY_CRYPTO, stalls.get(0).command(), "Stall should have the running command");
+        assertTrue(Arrays.stream(stalls.get(0).stack()).anyMatch(frame -> frame.getMethodName().equals("sleep")),
+                "Stall should have the stack of the loop thread");
+        assertTrue(stalls.get(0).durationNanos() >= TimeUnit.MILLISECONDS.toNanos(STALL_MILLIS),
+                "Stall should last the whole iteration once it is finished");
+    }
+
+    @Test
+    public void testShortIterationsAreOnlyMeasured() throws InterruptedException {
+        watchdog.start();
+        for (int i = 0; i < 100; i++) {
+            watchdog.iterationStarted();
+            watchdog.processing(CommandType.HELP, null);
+            watchdog.iterationFinished();
+        }
+        Thread.sleep(THRESHOLD_MILLIS * 3);
+
+        assertEquals(0, watchdog.stallsCount(), "Short iterations should not be reported");
+        assertTrue(loggedStalls.isEmpty(), "Short iterations should not be logged");
+        assertEquals(100, watchdog.iterations().count(), "Every iteration should be measured");
+    }
+}
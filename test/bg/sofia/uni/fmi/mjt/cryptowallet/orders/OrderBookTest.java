@@ -0,0 +1,68 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OrderBookTest {
+    private static final String ASSET = "BTC";
+
+    private final OrderBook orderBook = new OrderBook();
+
+    private static LimitOrder order(long id, OrderSide side, long limitPrice) {
+        return new LimitOrder(id, "user" + id, ASSET, side, limitPrice, 1);
+    }
+
+    @Test
+    public void testTakeCrossedReturnsOnlyCrossedOrders() {
+        orderBook.add(order(1, OrderSide.BUY, 100));
+        orderBook.add(order(2, OrderSide.BUY, 90));
+        orderBook.add(order(3, OrderSide.SELL, 120));
+        orderBook.add(order(4, OrderSide.SELL, 130));
+
+        List<Long> crossedBuys = orderBook.takeCrossed(ASSET, 95).stream().map(LimitOrder::id).toList();
+        assertEquals(List.of(1L), crossedBuys, "Only buy orders with limit at or above the price should be crossed");
+
+        List<Long> crossedSells = orderBook.takeCrossed(ASSET, 125).stream().map(LimitOrder::id).toList();
+        assertEquals(List.of(3L), crossedSells, "Only sell orders with limit at or below the price should be crossed");
+        assertEquals(2, orderBook.size(), "Crossed orders should be removed from the book");
+    }
+
+    @Test
+    public void testTakeCrossedKeepsPriceAndTimePriority() {
+        orderBook.add(order(1, OrderSide.BUY, 100));
+        orderBook.add(order(2, OrderSide.BUY, 110));
+        orderBook.add(order(3, OrderSide.BUY, 100));
+
+        List<Long> crossed = orderBook.takeCrossed(ASSET, 100).stream().map(LimitOrder::id).toList();
+
+        assertEquals(List.of(2L, 1L, 3L), crossed, "Best price should go first, then arrival order");
+    }
+
+    @Test
+    public void testRemovedOrderIsNotCrossed() {
+        orderBook.add(order(1, OrderSide.SELL, 100));
+
+        assertEquals(1L, orderBook.remove(1).id(), "Removed order should be returned");
+        assertNull(orderBook.remove(1), "Order cannot be removed twice");
+        assertTrue(orderBook.takeCrossed(ASSET, 200).isEmpty(), "Removed order should not be crossed");
+    }
+
+    @Test
+    public void testOtherAssetsAreNotTouched() {
+        orderBook.add(new LimitOrder(1, "user", "ETH", OrderSide.BUY, 100, 1));
+
+        assertTrue(orderBook.takeCrossed(ASSET, 50).isEmpty(), "Orders of other assets should not be crossed");
+        assertEquals(1, orderBook.size(), "Orders of other assets should stay in the book");
+    }
+
+    @Test
+    public void testAddingSameOrderTwiceThrowsIllegalArgumentException() {
+        orderBook.add(order(1, OrderSide.BUY, 100));
+
+        assertThrows(IllegalArgumentException.class, () -> orderBook.add(order(1, OrderSide.BUY, 100)),
+                "Order ids should be unique in the book");
+    }
+}
@@ -0,0 +1,86 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.AssetsDatabase;
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.*;
+import bg.sofia.uni.fmi.mjt.cryptowallet.restServer.ApiResponse;
+import bg.sofia.uni.fmi.mjt.cryptowallet.restServer.ServerRequest;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.User;
+import bg.sofia.uni.fmi.mjt.cryptowallet.users.UsersDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RecurringBuySchedulerTest {
+    private static final Path DIRECTORY = Path.of("resources");
+    private static final String FILES_PREFIX = "test_recurring_";
+    private static final Path USERS_PATH = DIRECTORY.resolve(FILES_PREFIX + "users.txt");
+    private static final Path STORE_PATH = DIRECTORY.resolve(FILES_PREFIX + "plans.log");
+    private static final long TICK_MILLIS = 10;
+    private static final long TIMEOUT_MILLIS = 5_000;
+
+    private final ServerRequest assetsInApi = mock(ServerRequest.class);
+    private UsersDatabase usersDb;
+    private RecurringBuyScheduler scheduler;
+
+    @BeforeEach
+    void setup() throws IOException, ClassNotFoundException {
+        Files.createFile(USERS_PATH);
+        usersDb = new UsersDatabase(USERS_PATH);
+        scheduler = new RecurringBuyScheduler(usersDb, new AssetsDatabase(assetsInApi), STORE_PATH, TICK_MILLIS);
+    }
+
+    @AfterEach
+    void teardown() throws IOException {
+        scheduler.close();
+        usersDb.close();
+        try (var files = Files.newDirectoryStream(DIRECTORY, FILES_PREFIX + "*")) {
+            for (Path file : files) {
+                try (var nested = Files.walk(file)) {
+                    for (Path path : nested.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.delete(path);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAssetWithoutPriceSkipsOnlyItsOwnPlans() throws URISyntaxException, UserAlreadyExistsException,
+            NoSuchUserException, HttpException, UnauthorizedException, InterruptedException {
+        Asset bitcoin = new Asset("BTC", "Bitcoin", 1, 50.0, "", "");
+        when(assetsInApi.getAssetById("BTC")).thenReturn(
+                CompletableFuture.completedFuture(new ApiResponse<>(bitcoin, HTTP_OK, null)));
+        when(assetsInApi.getAssetById("DEAD")).thenReturn(
+                CompletableFuture.completedFuture(new ApiResponse<>(null, HTTP_OK, null)));
+
+        usersDb.register("alice", "alicePass");
+        usersDb.login("alice", "alicePass");
+        User alice = usersDb.getUserByUsername("alice");
+        usersDb.deposit(alice, 100);
+        scheduler.schedule(alice, bitcoin, 10, 60_000);
+        scheduler.schedule(alice, new Asset("DEAD", "Delisted", 1, 1.0, "", ""), 10, 60_000);
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (scheduler.executedCount() + scheduler.skippedCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(TICK_MILLIS);
+        }
+
+        assertEquals(1, scheduler.executedCount(), "Plan of the priced asset should run");
+        assertEquals(1, scheduler.skippedCount(), "Plan of the asset without a price should be skipped");
+        assertEquals(90, usersDb.getUserByUsername("alice").getWallet().getMoneyInAccount(),
+                "Only the priced plan should spend money");
+    }
+}
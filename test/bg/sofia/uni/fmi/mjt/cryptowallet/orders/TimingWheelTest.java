@@ -0,0 +1,56 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingWheelTest {
+    private static final long TICK_MILLIS = 1000;
+    private static final long START = 1_000_000 * TICK_MILLIS;
+
+    private final TimingWheel<String> wheel = new TimingWheel<>(TICK_MILLIS, START);
+
+    @Test
+    public void testEntriesExpireAtTheirTick() {
+        wheel.add("late", START + 5 * TICK_MILLIS);
+        wheel.add("early", START + 2 * TICK_MILLIS);
+
+        assertTrue(wheel.advance(START + TICK_MILLIS).isEmpty(), "Nothing should be due yet");
+        assertEquals(List.of("early"), wheel.advance(START + 4 * TICK_MILLIS), "Only the early entry should be due");
+        assertEquals(List.of("late"), wheel.advance(START + 5 * TICK_MILLIS), "Late entry should be due");
+        assertEquals(0, wheel.size(), "Wheel should be empty");
+    }
+
+    @Test
+    public void testEntriesOnHigherLevelsCascadeDown() {
+        long[] delays = {63, 64, 65, 4095, 4096, 300_000};
+        for (long delay : delays) {
+            wheel.add(String.valueOf(delay), START + delay * TICK_MILLIS);
+        }
+
+        for (long delay : delays) {
+            assertTrue(wheel.advance(START + (delay - 1) * TICK_MILLIS).isEmpty(),
+                    "Entry " + delay + " should not expire early");
+            assertEquals(List.of(String.valueOf(delay)), wheel.advance(START + delay * TICK_MILLIS),
+                    "Entry " + delay + " should expire at its tick");
+        }
+    }
+
+    @Test
+    public void testEntriesBeyondTheWheelsAreKeptInOverflow() {
+        long delay = (1L << 24) + 10;
+        wheel.add("far", START + delay * TICK_MILLIS);
+
+        assertTrue(wheel.advance(START + (delay - 1) * TICK_MILLIS).isEmpty(), "Far entry should not expire early");
+        assertEquals(List.of("far"), wheel.advance(START + delay * TICK_MILLIS), "Far entry should expire");
+    }
+
+    @Test
+    public void testPastEntriesExpireOnNextTick() {
+        wheel.add("past", START - 10 * TICK_MILLIS);
+
+        assertEquals(List.of("past"), wheel.advance(START + TICK_MILLIS), "Past entry should expire on next tick");
+    }
+}
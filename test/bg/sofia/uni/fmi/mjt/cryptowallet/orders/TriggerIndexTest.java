@@ -0,0 +1,67 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.orders;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TriggerIndexTest {
+    private static final String ASSET = "BTC";
+
+    private final TriggerIndex index = new TriggerIndex();
+
+    private static Trigger trigger(long id, long stopLoss, long takeProfit) {
+        return new Trigger(id, "user" + id, ASSET, stopLoss, takeProfit, 0);
+    }
+
+    private List<Long> takeFired(long price) {
+        return index.takeFired(ASSET, price).stream().map(Trigger::id).toList();
+    }
+
+    @Test
+    public void testTakeFiredReturnsStopLossesAtOrAbovePrice() {
+        index.add(trigger(1, 90, 0));
+        index.add(trigger(2, 80, 0));
+        index.add(trigger(3, 70, 0));
+
+        assertEquals(List.of(2L, 1L), takeFired(80), "Stop-losses at or above the price should fire");
+        assertEquals(1, index.size(), "Fired triggers should be removed");
+    }
+
+    @Test
+    public void testTakeFiredReturnsTakeProfitsAtOrBelowPrice() {
+        index.add(trigger(1, 0, 110));
+        index.add(trigger(2, 0, 120));
+        index.add(trigger(3, 0, 130));
+
+        assertEquals(List.of(1L, 2L), takeFired(120), "Take-profits at or below the price should fire");
+        assertEquals(List.of(3L), takeFired(200), "Remaining take-profit should fire on a higher price");
+    }
+
+    @Test
+    public void testFiredThresholdRemovesTheOtherOne() {
+        index.add(trigger(1, 90, 110));
+
+        assertEquals(List.of(1L), takeFired(85), "Stop-loss should fire");
+        assertTrue(takeFired(115).isEmpty(), "Take-profit of a fired trigger should not fire again");
+        assertEquals(0, index.size(), "Index should be empty");
+    }
+
+    @Test
+    public void testPriceBetweenThresholdsFiresNothing() {
+        index.add(trigger(1, 90, 110));
+
+        assertTrue(takeFired(100).isEmpty(), "Price between the thresholds should not fire");
+        assertTrue(index.takeFired("ETH", 1).isEmpty(), "Other assets should not fire");
+    }
+
+    @Test
+    public void testRemovedTriggerDoesNotFire() {
+        index.add(trigger(1, 90, 110));
+
+        assertEquals(1L, index.remove(1).id(), "Removed trigger should be returned");
+        assertNull(index.remove(1), "Trigger cannot be removed twice");
+        assertTrue(takeFired(50).isEmpty(), "Removed trigger should not fire");
+    }
+}
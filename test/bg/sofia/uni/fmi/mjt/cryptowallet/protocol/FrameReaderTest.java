@@ -0,0 +1,83 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameReaderTest {
+    @Test
+    public void testFramesOfOneReadAreReturnedInOrder() throws IOException {
+        FrameReader reader = new FrameReader(64);
+        reader.readFrom(channelOf(Frames.encode(Frames.REPLY, "first"), Frames.encode(Frames.ERROR, "second")));
+
+        assertEquals(new Frame(Frames.REPLY, "first"), reader.next(), "First frame should be returned first");
+        Frame second = reader.next();
+        assertEquals("second", second.payload(), "Second frame should follow");
+        assertTrue(second.isError(), "Type of the frame should be kept");
+        assertNull(reader.next(), "There should be no more frames");
+    }
+
+    @Test
+    public void testFrameLargerThanTheBufferIsReadInParts() throws IOException {
+        String payload = "\u044a".repeat(1000);
+        ReadableByteChannel channel = new OneByteAtATimeChannel(Frames.encode(Frames.REPLY, payload));
+        FrameReader reader = new FrameReader(16);
+
+        Frame frame = null;
+        while (frame == null) {
+            assertTrue(reader.readFrom(channel) >= 0, "Frame should be whole before the end of the stream");
+            frame = reader.next();
+        }
+        assertEquals(payload, frame.payload(), "Frame should be put together from all reads");
+    }
+
+    @Test
+    public void testNegativeLengthIsRejected() throws IOException {
+        FrameReader reader = new FrameReader(16);
+        reader.readFrom(channelOf(ByteBuffer.allocate(Frames.HEADER_BYTES).put(Frames.REPLY).putInt(-1).flip()));
+
+        assertThrows(ProtocolException.class, reader::next, "Frame with a negative length should be rejected");
+    }
+
+    private static ReadableByteChannel channelOf(ByteBuffer... frames) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (ByteBuffer frame : frames) {
+            bytes.write(frame.array(), frame.position(), frame.remaining());
+        }
+        return Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private static class OneByteAtATimeChannel implements ReadableByteChannel {
+        private final ByteBuffer source;
+
+        OneByteAtATimeChannel(ByteBuffer source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read(ByteBuffer target) {
+            if (!source.hasRemaining()) {
+                return -1;
+            }
+            target.put(source.get());
+            return 1;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package bg.sofia.uni.fmi.mjt.cryptowallet.users;
+
+import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UsersBulkToolTest {
+    private static final Path DIRECTORY = Path.of("resources");
+    private static final String FILES_PREFIX = "test_bulk_";
+    private static final Path USERS_PATH = DIRECTORY.resolve(FILES_PREFIX + "users.txt");
+    private static final Path TARGET_PATH = DIRECTORY.resolve(FILES_PREFIX + "target.txt");
+    private static final Path CSV_PATH = DIRECTORY.resolve(FILES_PREFIX + "users.csv");
+    private static final Path DUMP_PATH = DIRECTORY.resolve(FILES_PREFIX + "users.dump");
+    private static final int HASH_ITERATIONS = 1_000;
+    private static UsersDatabase usersDb;
+
+    @BeforeEach
+    void setup() throws IOException, ClassNotFoundException {
+        Files.createFile(USERS_PATH);
+        usersDb = new UsersDatabase(USERS_PATH);
+    }
+
+    @AfterEach
+    void teardown() throws IOException {
+        usersDb.close();
+        try (var files = Files.newDirectoryStream(DIRECTORY, FILES_PREFIX + "*")) {
+            for (Path file : files) {
+                try (var nested = Files.walk(file)) {
+                    for (Path path : nested.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.delete(path);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testImportCsvStoresValidRowsAndReportsRejectedOnes() throws IOException, NoSuchUserException,
+            UserAlreadyExistsException, HttpException {
+        usersDb.register("existing", "secret");
+        Files.write(CSV_PATH, List.of(
+                "alice,alicePass,150.5",
+                "bob,bobPass",
+                "existing,otherPass",
+                "john doe,johnPass",
+                "carol,carolPass,-5",
+                "dave,davePass,many",
+                "erin,",
+                "frank,frankPass,1,2"));
+
+        String result = UsersBulkTool.importCsv(usersDb, CSV_PATH, HASH_ITERATIONS);
+
+        assertEquals("Imported 2 of 8 lines (5 invalid, 1 already existing)", result,
+                "Rows should be counted as imported, invalid or existing");
+        assertEquals(150.5, usersDb.getUserByUsername("alice").getWallet().getMoneyInAccount(),
+                "Balance from the row should be stored");
+        assertEquals(0, usersDb.getUserByUsername("bob").getWallet().getMoneyInAccount(),
+                "Row without a balance should start empty");
+        assertDoesNotThrow(() -> usersDb.login("alice", "alicePass"), "Imported user should log in");
+        assertThrows(UnauthorizedException.class, () -> usersDb.login("existing", "otherPass"),
+                "Existing user should not be overwritten");
+        for (String rejected : List.of("john doe", "carol", "dave", "erin", "frank")) {
+            assertThrows(NoSuchUserException.class, () -> usersDb.getUserByUsername(rejected),
+                    "Rejected row should not be stored: " + rejected);
+        }
+    }
+
+    @Test
+    public void testImportCsvKeepsAlreadyHashedPasswords() throws IOException, HttpException, NoSuchUserException {
+        String hashed = PasswordHasher.hash("hashedPass", HASH_ITERATIONS);
+        Files.write(CSV_PATH, List.of("alice," + hashed));
+
+        assertEquals("Imported 1 of 1 lines (0 invalid, 0 already existing)",
+                UsersBulkTool.importCsv(usersDb, CSV_PATH, HASH_ITERATIONS), "Hashed password should be accepted");
+        usersDb.login("alice", "hashedPass");
+    }
+
+    @Test
+    public void testImportCsvRejectsMalformedHashedPasswords() throws IOException {
+        List<String> malformed = List.of("pbkdf2$", "pbkdf2$1000$c2FsdA==", "pbkdf2$many$c2FsdA==$aGFzaA==",
+                "pbkdf2$0$c2FsdA==$aGFzaA==", "pbkdf2$1000$not base64$aGFzaA==", "pbkdf2$1000$c2FsdA==$aGFzaA==$");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < malformed.size(); i++) {
+            lines.add("user" + i + "," + malformed.get(i));
+        }
+        Files.write(CSV_PATH, lines);
+
+        assertEquals("Imported 0 of 6 lines (6 invalid, 0 already existing)",
+                UsersBulkTool.importCsv(usersDb, CSV_PATH, HASH_ITERATIONS), "Malformed hash should be rejected");
+        try (PasswordHasher hasher = new PasswordHasher(HASH_ITERATIONS, 1, 1)) {
+            for (String stored : malformed) {
+                assertFalse(hasher.matches("password", stored), "Malformed hash should match nothing: " + stored);
+                assertTrue(hasher.needsRehash(stored), "Malformed hash should be replaced: " + stored);
+            }
+        }
+    }
+
+    @Test
+    public void testExportedUsersAreImportedWithTheirWallets() throws IOException, ClassNotFoundException,
+            UserAlreadyExistsException, NoSuchUserException, UnauthorizedException, HttpException {
+        usersDb.register("alice", "alicePass");
+        usersDb.register("bob", "bobPass");
+        for (int i = 1; i <= 300; i++) {
+            usersDb.deposit(usersDb.getUserByUsername("alice"), 1);
+        }
+        usersDb.deposit(usersDb.getUserByUsername("bob"), 40);
+
+        assertEquals(2, usersDb.exportDump(DUMP_PATH), "Every stored user should be exported");
+        usersDb.close();
+
+        Files.createFile(TARGET_PATH);
+        usersDb = new UsersDatabase(TARGET_PATH);
+        usersDb.register("bob", "otherPass");
+        assertEquals(1, usersDb.importDump(DUMP_PATH), "Existing users should not be imported again");
+
+        User alice = usersDb.getUserByUsername("alice");
+        assertEquals(300, alice.getWallet().getMoneyInAccount(), "Wallet should be imported");
+        assertEquals(300, alice.getTransactions().size(), "Archived transactions should be imported");
+        usersDb.login("alice", "alicePass");
+        assertEquals(0, usersDb.getUserByUsername("bob").getWallet().getMoneyInAccount(),
+                "Existing user should not be overwritten");
+    }
+}
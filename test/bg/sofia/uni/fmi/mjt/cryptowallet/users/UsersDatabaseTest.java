@@ -1,20 +1,54 @@
 package bg.sofia.uni.fmi.mjt.cryptowallet.users;
 
 import bg.sofia.uni.fmi.mjt.cryptowallet.assets.Asset;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.AssetsDatabase;
+import bg.sofia.uni.fmi.mjt.cryptowallet.assets.PriceSnapshot;
+import bg.sofia.uni.fmi.mjt.cryptowallet.audit.AuditLog;
+import bg.sofia.uni.fmi.mjt.cryptowallet.audit.AuditRecord;
+import bg.sofia.uni.fmi.mjt.cryptowallet.audit.AuditTailReader;
+import bg.sofia.uni.fmi.mjt.cryptowallet.audit.AuditType;
 import bg.sofia.uni.fmi.mjt.cryptowallet.exceptions.*;
+import bg.sofia.uni.fmi.mjt.cryptowallet.metrics.PersistenceEvent;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.LimitOrder;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.OrderSide;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.RecurringBuy;
+import bg.sofia.uni.fmi.mjt.cryptowallet.orders.Trigger;
+import bg.sofia.uni.fmi.mjt.cryptowallet.restServer.ApiResponse;
+import bg.sofia.uni.fmi.mjt.cryptowallet.restServer.ServerRequest;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.CostBasis;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Leaderboard;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Money;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.PlatformExposure;
+import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.Wallet;
 import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.BoughtCryptoTransaction;
 import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.DepositMoneyTransaction;
 import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.SoldCryptoTransaction;
 import bg.sofia.uni.fmi.mjt.cryptowallet.wallet.transaction.Transaction;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.net.HttpURLConnection.HTTP_OK;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class UsersDatabaseTest {
@@ -22,6 +56,7 @@ public class UsersDatabaseTest {
     private static final String TEST_USERNAME = "ami566";
     private static final String TEST_PASSWORD = "12345";
     private static final Path FILE_PATH = Path.of(TEST_FILE_NAME);
+    private static final Path RECORDING_PATH = Path.of("resources/test_users.jfr");
     private static UsersDatabase userRepository;
 
     @BeforeEach
@@ -35,7 +70,25 @@ public class UsersDatabaseTest {
 
     @AfterEach
     void teardown() throws IOException {
+        userRepository.close();
         Files.deleteIfExists(FILE_PATH);
+        Files.deleteIfExists(RECORDING_PATH);
+        try (var shards = Files.newDirectoryStream(FILE_PATH.getParent(), FILE_PATH.getFileName() + ".shard*")) {
+            for (Path shard : shards) {
+                Files.delete(shard);
+            }
+        }
+
+        for (String suffix : new String[] {".history", ".audit"}) {
+            Path directory = FILE_PATH.resolveSibling(FILE_PATH.getFileName() + suffix);
+            if (Files.exists(directory)) {
+                try (var files = Files.walk(directory)) {
+                    for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
     }
 
     @Test
@@ -117,6 +170,36 @@ public class UsersDatabaseTest {
         assertEquals(600, dbUser.getWallet().getMoneyInAccount(), "Invalid wallet balance after deposit");
     }
 
+    @Test
+    public void testAmountsThatAreNotFiniteOrTooLargeAreRejected() throws UserAlreadyExistsException,
+            NoSuchUserException, UnauthorizedException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+        for (double amount : new double[] {Double.NaN, Double.POSITIVE_INFINITY, Money.MAX_AMOUNT * 2}) {
+            assertThrows(IllegalArgumentException.class, () -> userRepository.deposit(dbUser, amount),
+                    "Deposit of " + amount + " should be rejected");
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> dbUser.getWallet().sellCrypto(new Asset("BTC", "Bitcoin", 1, 10.0, "", ""), Double.NaN),
+                "Sell of NaN coins should be rejected");
+        assertEquals(0, dbUser.getWallet().getMoneyInAccount(), "Rejected deposits should not change the balance");
+        assertEquals(0, dbUser.getTransactions().size(), "Rejected deposits should not be recorded");
+    }
+
+    @Test
+    public void testDepositThatWouldOverflowTheBalanceIsRejected() {
+        User user = new User(TEST_USERNAME, TEST_PASSWORD, 0);
+        double balance = 0;
+        while (balance + Money.MAX_AMOUNT <= Money.toUsd(Long.MAX_VALUE)) {
+            user.getWallet().deposit(Money.MAX_AMOUNT);
+            balance += Money.MAX_AMOUNT;
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> user.getWallet().deposit(Money.MAX_AMOUNT),
+                "Deposit above the highest balance should be rejected");
+        assertEquals(balance, user.getWallet().getMoneyInAccount(), "Rejected deposit should not change the balance");
+    }
+
     @Test
     public void testDepositMoneyCorrect() throws UserAlreadyExistsException, NoSuchUserException, UnauthorizedException {
         userRepository.register(TEST_USERNAME, TEST_PASSWORD);
@@ -167,7 +250,7 @@ public class UsersDatabaseTest {
         User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
         List<String> s = transactions.stream().map(Transaction::transactionString).toList();
         List<String> result = dbUser.getTransactions().stream().map(Transaction::transactionString).toList();
-        assertEquals(150, dbUser.getWallet().getSpentMoney().get(testAsset), "Invalid money spend on crypto");
+        assertEquals(150, dbUser.getWallet().getSpentMoney().get(testAsset.assetId()), "Invalid money spend on crypto");
         assertEquals(s, result, "Invalid transactions generated");
     }
 
@@ -222,12 +305,622 @@ public class UsersDatabaseTest {
     }
 
     @Test
-    public void testLoginCorrect() throws UserAlreadyExistsException, NoSuchUserException, UnauthorizedException {
+    public void testWalletTotalsAreKeptAfterEachOperation() throws UserAlreadyExistsException, NoSuchUserException,
+            UnauthorizedException, NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+        userRepository.deposit(dbUser, 500);
+        userRepository.buyCrypto(dbUser, new Asset("BTC", "Bitcoin", 1, 100.0, "", ""), 200);
+        userRepository.sellCrypto(dbUser, new Asset("BTC", "Bitcoin", 1, 150.0, "", ""));
+        userRepository.withdraw(dbUser, 50);
+
+        assertEquals(500, dbUser.getWallet().getTotalDeposited(), "Invalid total deposited money");
+        assertEquals(50, dbUser.getWallet().getTotalWithdrawn(), "Invalid total withdrawn money");
+        assertEquals(100, dbUser.getWallet().getRealizedProfit(), "Invalid realized profit");
+        assertEquals(550, dbUser.getWallet().getMoneyInAccount(), "Invalid wallet balance");
+    }
+
+    @Test
+    public void testPartialSellKeepsRestOfPositionAndItsCost() throws UserAlreadyExistsException,
+            NoSuchUserException, UnauthorizedException, NotEnoughMoneyInWalletException,
+            CryptoCurrencyNotInWalletException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+        userRepository.deposit(dbUser, 400);
+        userRepository.buyCrypto(dbUser, new Asset("BTC", "Bitcoin", 1, 100.0, "", ""), 400);
+        userRepository.sellCrypto(dbUser, new Asset("BTC", "Bitcoin", 1, 200.0, "", ""), 1);
+
+        assertEquals(200, dbUser.getWallet().getMoneyInAccount(), "Invalid wallet balance after partial sell");
+        assertEquals(300, dbUser.getWallet().getSpentMoney().get("BTC"), "Cost of the rest should be kept");
+        assertEquals(100, dbUser.getWallet().getRealizedProfit(), "Invalid realized profit of partial sell");
+    }
+
+    @Test
+    public void testFifoSellTakesCostOfOldestLotsAfterRestart() throws UserAlreadyExistsException,
+            NoSuchUserException, UnauthorizedException, NotEnoughMoneyInWalletException,
+            CryptoCurrencyNotInWalletException, HttpException, IOException, ClassNotFoundException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+        userRepository.deposit(dbUser, 300);
+        userRepository.buyCrypto(dbUser, new Asset("BTC", "Bitcoin", 1, 100.0, "", ""), 100);
+        userRepository.buyCrypto(dbUser, new Asset("BTC", "Bitcoin", 1, 200.0, "", ""), 200);
+        userRepository.close();
+
+        userRepository = new UsersDatabase(FILE_PATH);
+        userRepository.login(TEST_USERNAME, TEST_PASSWORD);
+        User restoredUser = userRepository.getUserByUsername(TEST_USERNAME);
+        userRepository.setCostBasis(restoredUser, CostBasis.FIFO);
+        userRepository.sellCrypto(restoredUser, new Asset("BTC", "Bitcoin", 1, 300.0, "", ""), 1);
+
+        assertEquals(200, restoredUser.getWallet().getRealizedProfit(), "Oldest lot should be sold first");
+        assertEquals(200, restoredUser.getWallet().getSpentMoney().get("BTC"), "Newest lot should be kept");
+    }
+
+    @Test
+    public void testFifoRealizedProfitIsTheMoneyThatChangedHands() throws UserAlreadyExistsException,
+            NoSuchUserException, UnauthorizedException, NotEnoughMoneyInWalletException,
+            CryptoCurrencyNotInWalletException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+        userRepository.setCostBasis(dbUser, CostBasis.FIFO);
+        userRepository.deposit(dbUser, 20);
+        userRepository.buyCrypto(dbUser, new Asset("BTC", "Bitcoin", 1, 3.0, "", ""), 10);
+        userRepository.buyCrypto(dbUser, new Asset("BTC", "Bitcoin", 1, 3.0, "", ""), 10);
+        userRepository.sellCrypto(dbUser, new Asset("BTC", "Bitcoin", 1, 6.0, "", ""), 3.33333333);
+
+        double received = dbUser.getWallet().getMoneyInAccount();
+        assertEquals(received - 10, dbUser.getWallet().getRealizedProfit(), 1e-9,
+                "Sold lot should cost exactly the money spent on it");
+        assertEquals(10, dbUser.getWallet().getSpentMoney().get("BTC"), 1e-9, "The other lot should keep its cost");
+    }
+
+    @Test
+    public void testProfitAndLossValuesAssetsWithoutPriceAtZero() throws UserAlreadyExistsException,
+            NoSuchUserException, UnauthorizedException, NotEnoughMoneyInWalletException, HttpException,
+            NoSuchAssetException, URISyntaxException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+        userRepository.deposit(dbUser, 10);
+        userRepository.buyCrypto(dbUser, new Asset("BTC", "Bitcoin", 1, 5.0, "", ""), 10);
+        AssetsDatabase assets = new AssetsDatabase(new ServerRequest() {
+            @Override
+            public CompletableFuture<ApiResponse<Asset>> getAssetById(String id) {
+                return CompletableFuture.completedFuture(
+                        new ApiResponse<>(new Asset(id, id, 1, 0.0, "", ""), HTTP_OK, null));
+            }
+        });
+
+        String profitAndLoss = dbUser.getWallet().getProfitAndLoss(assets);
+
+        assertTrue(profitAndLoss.contains("value: '0.00'"), "Asset without a price should be valued at 0");
+        assertTrue(profitAndLoss.contains("unrealizedProfit: '-10.00'"), "Its whole cost should be unrealized");
+    }
+
+    @Test
+    public void testBuyOfLessThanTheSmallestUnitIsRejected() throws UserAlreadyExistsException,
+            NoSuchUserException, UnauthorizedException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+        userRepository.deposit(dbUser, 100);
+
+        assertThrows(IllegalArgumentException.class, () -> userRepository.buyCrypto(dbUser,
+                new Asset("BTC", "Bitcoin", 1, 90_000.0, "", ""), 0.00001), "Buy of 0 coins should be rejected");
+        assertEquals(100, dbUser.getWallet().getMoneyInAccount(), "Rejected buy should not spend money");
+        assertTrue(dbUser.getWallet().getSpentMoney().isEmpty(), "Rejected buy should not add a position");
+    }
+
+    @Test
+    public void testCoinsCheaperThanAMicroDollarAreTradedAtTheirPrice() throws UserAlreadyExistsException,
+            NoSuchUserException, UnauthorizedException, NotEnoughMoneyInWalletException,
+            CryptoCurrencyNotInWalletException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+        userRepository.deposit(dbUser, 10);
+        userRepository.buyCrypto(dbUser, new Asset("PEPE", "Pepe", 1, 0.00000025, "", ""), 10);
+        userRepository.sellCrypto(dbUser, new Asset("PEPE", "Pepe", 1, 0.0000005, "", ""), 20_000_000);
+
+        assertEquals(10, dbUser.getWallet().getMoneyInAccount(), 1e-9, "Half of the coins should be sold for 10");
+        assertEquals(5, dbUser.getWallet().getSpentMoney().get("PEPE"), 1e-9, "Half of the cost should be kept");
+    }
+
+    @Test
+    public void testLimitOrderReservesMoneyUntilFilled() throws UserAlreadyExistsException, NoSuchUserException,
+            UnauthorizedException, NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+        userRepository.deposit(dbUser, 100);
+        userRepository.placeOrder(dbUser, new LimitOrder(1, TEST_USERNAME, "BTC", OrderSide.BUY,
+                100_000_000L, 80_000_000L));
+
+        assertThrows(NotEnoughMoneyInWalletException.class, () -> userRepository.withdraw(dbUser, 30),
+                "Money of open orders should not be available");
+        assertTrue(userRepository.fillOrder(TEST_USERNAME, 1, new Asset("BTC", "Bitcoin", 1, 80.0, "", "")),
+                "Open order should be filled");
+        assertFalse(userRepository.fillOrder(TEST_USERNAME, 1, new Asset("BTC", "Bitcoin", 1, 80.0, "", "")),
+                "Order cannot be filled twice");
+        assertEquals(20, dbUser.getWallet().getMoneyInAccount(), "Filled order should spend its money");
+        assertEquals(80, dbUser.getWallet().getSpentMoney().get("BTC"), "Filled order should buy the crypto");
+    }
+
+    @Test
+    public void testFiredTriggersSellProtectedCoinsOnce() throws UserAlreadyExistsException, NoSuchUserException,
+            UnauthorizedException, NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+        userRepository.deposit(dbUser, 100);
+        userRepository.buyCrypto(dbUser, new Asset("BTC", "Bitcoin", 1, 10.0, "", ""), 100);
+        Trigger trigger = new Trigger(1, TEST_USERNAME, "BTC", 8_000_000L, 0, 400_000_000L);
+        userRepository.addTrigger(dbUser, trigger);
+
+        Map<String, Asset> prices = Map.of("BTC", new Asset("BTC", "Bitcoin", 1, 8.0, "", ""));
+        assertEquals(1, userRepository.fireTriggers(List.of(trigger), prices), "Trigger should sell the coins");
+        assertEquals(0, userRepository.fireTriggers(List.of(trigger), prices), "Trigger cannot fire twice");
+        assertEquals(32, dbUser.getWallet().getMoneyInAccount(), "Only the protected quantity should be sold");
+        assertEquals(60, dbUser.getWallet().getSpentMoney().get("BTC"), "Rest of the position should keep its cost");
+        assertTrue(dbUser.getTriggers().isEmpty(), "Fired trigger should be removed from the wallet");
+    }
+
+    @Test
+    public void testFiredTriggersOfSeveralOwnersAreStored() throws UserAlreadyExistsException, NoSuchUserException,
+            UnauthorizedException, NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException, IOException,
+            ClassNotFoundException {
+        List<Trigger> triggers = new ArrayList<>();
+        for (String username : List.of(TEST_USERNAME, "otherUser")) {
+            userRepository.register(username, TEST_PASSWORD);
+            User dbUser = userRepository.getUserByUsername(username);
+            userRepository.deposit(dbUser, 100);
+            userRepository.buyCrypto(dbUser, new Asset("BTC", "Bitcoin", 1, 10.0, "", ""), 100);
+            Trigger trigger = new Trigger(1, username, "BTC", 8_000_000L, 0, 1_000_000_000L);
+            userRepository.addTrigger(dbUser, trigger);
+            triggers.add(trigger);
+        }
+
+        Map<String, Asset> prices = Map.of("BTC", new Asset("BTC", "Bitcoin", 1, 8.0, "", ""));
+        assertEquals(2, userRepository.fireTriggers(triggers, prices), "Trigger of every owner should fire");
+        userRepository.close();
+
+        userRepository = new UsersDatabase(FILE_PATH);
+        for (String username : List.of(TEST_USERNAME, "otherUser")) {
+            User storedUser = userRepository.getUserByUsername(username);
+            assertEquals(80, storedUser.getWallet().getMoneyInAccount(), "Sale should be stored for " + username);
+            assertTrue(storedUser.getTriggers().isEmpty(), "Fired trigger should be stored for " + username);
+        }
+    }
+
+    @Test
+    public void testRecurringBuyIsSkippedWithoutEnoughMoney() throws UserAlreadyExistsException,
+            NoSuchUserException, UnauthorizedException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+        userRepository.deposit(dbUser, 150);
+        RecurringBuy plan = new RecurringBuy(1, TEST_USERNAME, "BTC", 100_000_000L, 60_000, 0);
+        userRepository.addRecurringBuy(dbUser, plan);
+
+        Asset asset = new Asset("BTC", "Bitcoin", 1, 50.0, "", "");
+        assertEquals(1, userRepository.updateAll(List.of(plan), RecurringBuy::username,
+                (user, due) -> user.runRecurringBuy(due.id(), asset)), "First run should buy");
+        assertEquals(0, userRepository.updateAll(List.of(plan), RecurringBuy::username,
+                (user, due) -> user.runRecurringBuy(due.id(), asset)), "Run without enough money should be skipped");
+        assertEquals(50, dbUser.getWallet().getMoneyInAccount(), "Only the first run should spend money");
+        assertEquals(1, dbUser.getRecurringBuys().size(), "Skipped run should keep the plan");
+    }
+
+    @Test
+    public void testUpdatesOfMissingOwnersAreReported() throws UserAlreadyExistsException, NoSuchUserException,
+            UnauthorizedException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        userRepository.deposit(userRepository.getUserByUsername(TEST_USERNAME), 150);
+        RecurringBuy plan = new RecurringBuy(1, TEST_USERNAME, "BTC", 100_000_000L, 60_000, 0);
+        RecurringBuy orphan = new RecurringBuy(2, "missingOwner", "BTC", 100_000_000L, 60_000, 0);
+        userRepository.addRecurringBuy(userRepository.getUserByUsername(TEST_USERNAME), plan);
+
+        Asset asset = new Asset("BTC", "Bitcoin", 1, 50.0, "", "");
+        List<RecurringBuy> missing = new ArrayList<>();
+        assertEquals(1, userRepository.updateAll(List.of(orphan, plan), RecurringBuy::username,
+                (user, due) -> user.runRecurringBuy(due.id(), asset), missing::add), "Plan of the owner should run");
+        assertEquals(List.of(orphan), missing, "Plan without an owner should be reported");
+    }
+
+    @Test
+    public void testRebalanceReachesTargetWeights() throws UserAlreadyExistsException, NoSuchUserException,
+            UnauthorizedException, NotEnoughMoneyInWalletException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+        userRepository.deposit(dbUser, 1000);
+        userRepository.buyCrypto(dbUser, new Asset("BTC", "Bitcoin", 1, 100.0, "", ""), 600);
+        userRepository.buyCrypto(dbUser, new Asset("SOL", "Solana", 1, 10.0, "", ""), 200);
+
+        Map<String, Asset> prices = Map.of(
+                "BTC", new Asset("BTC", "Bitcoin", 1, 100.0, "", ""),
+                "ETH", new Asset("ETH", "Ethereum", 1, 50.0, "", ""),
+                "SOL", new Asset("SOL", "Solana", 1, 10.0, "", ""));
+        List<Transaction> trades = userRepository.rebalance(dbUser, Map.of("BTC", 50.0, "ETH", 50.0), prices);
+
+        assertEquals(3, trades.size(), "Rebalance should sell BTC and SOL and buy ETH");
+        Map<String, Double> spent = dbUser.getWallet().getSpentMoney();
+        assertEquals(500, spent.get("BTC"), 0.01, "BTC should take half of the wallet");
+        assertEquals(500, spent.get("ETH"), 0.01, "ETH should take half of the wallet");
+        assertFalse(spent.containsKey("SOL"), "Assets without a target should be sold");
+        assertEquals(0, dbUser.getWallet().getMoneyInAccount(), 0.01, "All money should be invested");
+        assertTrue(userRepository.rebalance(dbUser, Map.of("BTC", 50.0, "ETH", 50.0), prices).isEmpty(),
+                "Balanced wallet should not be traded");
+    }
+
+    @Test
+    public void testPlatformExposureSumsStoredAndLoadedWallets() throws UserAlreadyExistsException,
+            NoSuchUserException, UnauthorizedException, NotEnoughMoneyInWalletException, HttpException,
+            IOException, ClassNotFoundException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        userRepository.register("otherUser", TEST_PASSWORD);
+        User otherUser = userRepository.getUserByUsername("otherUser");
+        userRepository.deposit(otherUser, 100);
+        userRepository.buyCrypto(otherUser, new Asset("BTC", "Bitcoin", 1, 10.0, "", ""), 60);
+        userRepository.close();
+
+        userRepository = new UsersDatabase(FILE_PATH);
+        userRepository.login(TEST_USERNAME, TEST_PASSWORD);
+        userRepository.deposit(userRepository.getUserByUsername(TEST_USERNAME), 30);
+
+        PlatformExposure exposure = userRepository.platformExposure(
+                Map.of("BTC", new Asset("BTC", "Bitcoin", 1, 20.0, "", "")), 1);
+        assertEquals(2, exposure.walletsCount(), "Every stored wallet should be scanned");
+        assertEquals(70, exposure.money(), 0.001, "Money of loaded and stored wallets should be summed");
+        assertEquals(6, exposure.quantityOf("BTC"), 0.001, "Coins of stored wallets should be summed");
+        assertEquals(120, exposure.cryptoValue(), 0.001, "Coins should be valued with the given prices");
+        assertEquals("otherUser", exposure.topHolders().get(0).username(), "Richest wallet should be on top");
+        assertEquals(1, userRepository.loadedUsersCount(), "Scanned wallets should not be cached");
+    }
+
+    @Test
+    public void testTradesAreAppendedToAuditLog() throws UserAlreadyExistsException, NoSuchUserException,
+            UnauthorizedException, NotEnoughMoneyInWalletException, CryptoCurrencyNotInWalletException, IOException {
+        Path auditDirectory = FILE_PATH.resolveSibling(FILE_PATH.getFileName() + ".audit");
+        AuditLog auditLog = new AuditLog(auditDirectory);
+        userRepository.setAuditLog(auditLog);
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User user = userRepository.getUserByUsername(TEST_USERNAME);
+        userRepository.deposit(user, 100);
+        userRepository.buyCrypto(user, new Asset("BTC", "Bitcoin", 1, 10.0, "", ""), 50);
+        userRepository.sellCrypto(user, new Asset("BTC", "Bitcoin", 1, 20.0, "", ""));
+        userRepository.withdraw(user, 30);
+        auditLog.close();
+
+        List<AuditRecord> records;
+        try (AuditTailReader reader = new AuditTailReader(auditDirectory, 0)) {
+            records = reader.poll(10);
+        }
+        assertEquals(List.of(AuditType.DEPOSIT, AuditType.BUY, AuditType.SELL, AuditType.WITHDRAWAL),
+                records.stream().map(AuditRecord::type).toList(), "Every money movement should be audited in order");
+        assertEquals(TEST_USERNAME, records.get(1).owner(), "Record should have the owner of the wallet");
+        assertEquals(Money.toUnits(5), records.get(1).units(), "Bought coins should be audited");
+        assertEquals(Money.toMicros(100), records.get(2).micros(), "Money from the sale should be audited");
+        assertEquals(Money.price(20.0), records.get(2).price(), "Price of the sale should be audited");
+    }
+
+    @Test
+    public void testWritesAreRecordedAsFlightRecorderEvents() throws UserAlreadyExistsException,
+            NoSuchUserException, UnauthorizedException, IOException {
+        try (Recording recording = new Recording()) {
+            recording.enable(PersistenceEvent.class).withoutThreshold();
+            recording.start();
+            userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+            User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+            userRepository.deposit(dbUser, 100);
+            userRepository.takePersisted(dbUser).join();
+            recording.stop();
+            recording.dump(RECORDING_PATH);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(RECORDING_PATH).stream()
+                .filter(event -> event.getEventType().getName().equals("bg.sofia.uni.fmi.mjt.cryptowallet.Persistence"))
+                .sorted(Comparator.comparing(RecordedEvent::getStartTime))
+                .toList();
+        assertEquals(2, events.size(), "Registration and deposit should be written once each");
+        RecordedEvent deposit = events.get(1);
+        assertEquals(1, deposit.getInt("usersCount"), "Only the depositing user should be written");
+        assertEquals(1, deposit.getInt("shardsCount"), "One user is written to one shard");
+        assertTrue(deposit.getLong("bytes") > 0, "Written bytes should be recorded");
+        assertTrue(deposit.getBoolean("succeeded"), "Write should be recorded as successful");
+    }
+
+    @Test
+    public void testLeaderboardFollowsTradesAndPricesOfStoredWallets() throws UserAlreadyExistsException,
+            NoSuchUserException, UnauthorizedException, NotEnoughMoneyInWalletException,
+            CryptoCurrencyNotInWalletException, HttpException, IOException, ClassNotFoundException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        userRepository.register("otherUser", TEST_PASSWORD);
+        User user = userRepository.getUserByUsername(TEST_USERNAME);
+        User otherUser = userRepository.getUserByUsername("otherUser");
+        userRepository.deposit(user, 100);
+        userRepository.deposit(otherUser, 100);
+        userRepository.buyCrypto(user, new Asset("BTC", "Bitcoin", 1, 10.0, "", ""), 50);
+        userRepository.buyCrypto(otherUser, new Asset("ETH", "Ethereum", 1, 10.0, "", ""), 50);
+        userRepository.close();
+
+        userRepository = new UsersDatabase(FILE_PATH);
+        Leaderboard leaderboard = new Leaderboard();
+        userRepository.addWalletListener(leaderboard);
+        leaderboard.load(userRepository);
+        Asset btc = new Asset("BTC", "Bitcoin", 1, 20.0, "", "");
+        leaderboard.onPricesUpdated(new PriceSnapshot(Map.of("BTC", btc), null), List.of(btc));
+        userRepository.login("otherUser", TEST_PASSWORD);
+        userRepository.sellCrypto(userRepository.getUserByUsername("otherUser"),
+                new Asset("ETH", "Ethereum", 1, 30.0, "", ""));
+        leaderboard.close();
+
+        List<Leaderboard.Rank> ranks = leaderboard.top(3);
+        assertEquals(2, ranks.size(), "Every wallet with deposits should be ranked");
+        assertEquals("otherUser", ranks.get(0).username(), "Sold coins should be ranked by the realized profit");
+        assertEquals(100, ranks.get(0).returnPercent(), 0.001, "Return should be the profit over the deposits");
+        assertEquals(TEST_USERNAME, ranks.get(1).username(), "Held coins should be revalued with the new price");
+        assertEquals(50, ranks.get(1).profit(), 0.001, "Unrealized profit should follow the price update");
+    }
+
+    @Test
+    public void testLoginCorrect() throws UserAlreadyExistsException, NoSuchUserException, HttpException {
         userRepository.register(TEST_USERNAME, TEST_PASSWORD);
         userRepository.login(TEST_USERNAME, TEST_PASSWORD);
         assertTrue(userRepository.getUserByUsername(TEST_USERNAME).isAuthorizedForTransactions(), "Should return true when logged in");
     }
 
+    @Test
+    public void testPartialRecordLeftByACrashIsDroppedOnStart() throws UserAlreadyExistsException,
+            NoSuchUserException, UnauthorizedException, IOException, ClassNotFoundException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        userRepository.deposit(userRepository.getUserByUsername(TEST_USERNAME), 250);
+        userRepository.close();
+
+        try (var shards = Files.newDirectoryStream(FILE_PATH.getParent(), FILE_PATH.getFileName() + ".shard*")) {
+            for (Path shard : shards) {
+                try (var output = new DataOutputStream(Files.newOutputStream(shard,
+                        StandardOpenOption.APPEND))) {
+                    output.writeUTF("otherUser");
+                    output.writeInt(1000);
+                    output.write(new byte[10]);
+                }
+            }
+        }
+
+        userRepository = new UsersDatabase(FILE_PATH);
+        assertEquals(250, userRepository.getUserByUsername(TEST_USERNAME).getWallet().getMoneyInAccount(),
+                "Complete records should be kept");
+        assertThrows(NoSuchUserException.class, () -> userRepository.getUserByUsername("otherUser"),
+                "Partial record should be dropped");
+
+        userRepository.register("otherUser", TEST_PASSWORD);
+        userRepository.close();
+        userRepository = new UsersDatabase(FILE_PATH);
+        assertDoesNotThrow(() -> userRepository.getUserByUsername("otherUser"),
+                "Records appended after the recovery should be readable");
+    }
+
+    @Test
+    public void testUsersAreLoadedFromShardsAfterRestart() throws UserAlreadyExistsException, NoSuchUserException,
+            HttpException, IOException, ClassNotFoundException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        userRepository.deposit(userRepository.getUserByUsername(TEST_USERNAME), 250);
+        userRepository.close();
+
+        userRepository = new UsersDatabase(FILE_PATH);
+        assertEquals(0, userRepository.loadedUsersCount(), "Users should not be loaded before first access");
+
+        userRepository.login(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+        assertEquals(1, userRepository.loadedUsersCount(), "Only the logged in user should be loaded");
+        assertEquals(250, dbUser.getWallet().getMoneyInAccount(), "Wallet was not restored from the shard");
+    }
+
+    @Test
+    public void testOldTransactionsAreArchivedAndPagedAfterRestart() throws UserAlreadyExistsException,
+            NoSuchUserException, HttpException, IOException, ClassNotFoundException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        for (int i = 1; i <= 300; i++) {
+            userRepository.deposit(userRepository.getUserByUsername(TEST_USERNAME), i);
+        }
+        userRepository.close();
+
+        userRepository = new UsersDatabase(FILE_PATH);
+        userRepository.login(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+
+        List<Transaction> transactions = dbUser.getTransactions();
+        assertEquals(300, transactions.size(), "Archived transactions should be part of the full history");
+        assertEquals(new DepositMoneyTransaction(1).transactionString(), transactions.get(0).transactionString(),
+                "Transactions should be kept in the order they happened");
+
+        String page = dbUser.getHistory(2, 2);
+        assertEquals("#1 " + new DepositMoneyTransaction(2).transactionString() + System.lineSeparator()
+                + "#0 " + new DepositMoneyTransaction(1).transactionString(), page, "Oldest page should be newest first");
+        assertTrue(dbUser.getWalletSummary().endsWith("Showing the last 10 of 300 transactions, use history to see older ones"),
+                "Summary should only show the recent transactions");
+    }
+
+    @Test
+    public void testHistoryPageCannotExceedTheMaximumLimit() throws UserAlreadyExistsException, NoSuchUserException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User dbUser = userRepository.getUserByUsername(TEST_USERNAME);
+
+        assertThrows(IllegalArgumentException.class, () -> dbUser.getHistory(Wallet.MAX_HISTORY_LIMIT + 1, 1),
+                "History page larger than the maximum limit should be rejected");
+        assertEquals("There is no info", dbUser.getHistory(Wallet.MAX_HISTORY_LIMIT, 1),
+                "History page of the maximum limit should be allowed");
+    }
+
+    @Test
+    public void testGroupedWritesOfSeveralUsersAreAcknowledgedTogether() throws IOException, ClassNotFoundException,
+            UserAlreadyExistsException, NoSuchUserException, UnauthorizedException {
+        userRepository.close();
+        userRepository = new UsersDatabase(FILE_PATH, new PasswordHasher(), new LoginRateLimiter(),
+                PersistenceMode.GROUP, 500);
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        userRepository.register("otherUser", TEST_PASSWORD);
+        User user = userRepository.getUserByUsername(TEST_USERNAME);
+        User otherUser = userRepository.getUserByUsername("otherUser");
+
+        userRepository.deposit(user, 10);
+        userRepository.deposit(otherUser, 20);
+        CompletableFuture<Void> persisted = userRepository.takePersisted(user);
+        CompletableFuture<Void> otherPersisted = userRepository.takePersisted(otherUser);
+        assertFalse(persisted.isDone(), "Deposit should return before its write is on the disk");
+
+        CompletableFuture.allOf(persisted, otherPersisted).join();
+        assertEquals(1, userRepository.getPersister().batchesCount(), "Both deposits should be written in one batch");
+        assertTrue(userRepository.takePersisted(user).isDone(), "Acknowledged write should not be waited for again");
+    }
+
+    @Test
+    public void testGroupAndAsyncPersistenceKeepWritesAfterRestart() throws IOException, ClassNotFoundException,
+            UserAlreadyExistsException, NoSuchUserException, HttpException {
+        for (PersistenceMode mode : List.of(PersistenceMode.GROUP, PersistenceMode.ASYNC)) {
+            userRepository.close();
+            userRepository = new UsersDatabase(FILE_PATH, new PasswordHasher(), new LoginRateLimiter(), mode);
+            String username = TEST_USERNAME + mode;
+            userRepository.register(username, TEST_PASSWORD);
+            for (int i = 0; i < 10; i++) {
+                userRepository.deposit(userRepository.getUserByUsername(username), 10);
+            }
+            userRepository.close();
+
+            userRepository = new UsersDatabase(FILE_PATH);
+            userRepository.login(username, TEST_PASSWORD);
+            assertEquals(100, userRepository.getUserByUsername(username).getWallet().getMoneyInAccount(),
+                    "Writes acknowledged in " + mode + " mode should be flushed before close");
+            assertEquals(0, userRepository.getPersister().pendingWrites(), "No writes should be pending");
+        }
+    }
+
+    @Test
+    public void testAsyncPersistenceKeepsOnlyTheNewestQueuedWriteAndFlushesItOnClose() throws IOException,
+            ClassNotFoundException, UserAlreadyExistsException, NoSuchUserException, HttpException {
+        userRepository.close();
+        userRepository = new UsersDatabase(FILE_PATH, new PasswordHasher(), new LoginRateLimiter(),
+                PersistenceMode.ASYNC, TimeUnit.MINUTES.toMillis(10));
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        for (int i = 0; i < 10; i++) {
+            userRepository.deposit(userRepository.getUserByUsername(TEST_USERNAME), 10);
+        }
+
+        UserPersister persister = userRepository.getPersister();
+        assertEquals(1, persister.pendingWrites(), "Queued writes of one user should be coalesced");
+        assertEquals(100, UserShard.deserialize(persister.unflushedPayload(TEST_USERNAME)).getWallet()
+                .getMoneyInAccount(), "The newest write should be kept");
+
+        long start = System.nanoTime();
+        userRepository.close();
+        assertTrue(System.nanoTime() - start < TimeUnit.MINUTES.toNanos(1), "Close should not wait for the delay");
+
+        userRepository = new UsersDatabase(FILE_PATH);
+        userRepository.login(TEST_USERNAME, TEST_PASSWORD);
+        assertEquals(100, userRepository.getUserByUsername(TEST_USERNAME).getWallet().getMoneyInAccount(),
+                "Queued writes should be flushed on close");
+    }
+
+    @Test
+    public void testRegisterDoesNotStorePlainPassword()throws UserAlreadyExistsException, NoSuchUserException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+
+        assertNotEquals(TEST_PASSWORD, userRepository.getUserByUsername(TEST_USERNAME).getPassword(),
+                "Password should be stored hashed");
+    }
+
+    @Test
+    public void testLoginUpgradesLegacyPlainPassword() throws IOException, ClassNotFoundException,
+            NoSuchUserException, HttpException {
+        userRepository.close();
+        try (var outputStream = new ObjectOutputStream(Files.newOutputStream(FILE_PATH))) {
+            outputStream.writeObject(Map.of(TEST_USERNAME, new User(TEST_USERNAME, TEST_PASSWORD)));
+        }
+        userRepository = new UsersDatabase(FILE_PATH);
+
+        userRepository.login(TEST_USERNAME, TEST_PASSWORD);
+        String storedPassword = userRepository.getUserByUsername(TEST_USERNAME).getPassword();
+
+        assertNotEquals(TEST_PASSWORD, storedPassword, "Legacy password should be rehashed on login");
+        assertThrows(UnauthorizedException.class, () -> userRepository.login(TEST_USERNAME, storedPassword),
+                "The stored hash must not be accepted as a password");
+    }
+
+    @Test
+    public void testLoginIsRateLimitedPerUsername() throws UserAlreadyExistsException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        for (int i = 0; i < 5; i++) {
+            assertThrows(UnauthorizedException.class, () -> userRepository.login(TEST_USERNAME, "wrong"));
+        }
+
+        assertThrows(TooManyRequestsException.class, () -> userRepository.login(TEST_USERNAME, TEST_PASSWORD),
+                "Login attempts above the limit should be rejected");
+    }
+
+    @Test
+    public void testOnlyFailedLoginsOfExistingUsersAreRateLimited() throws UserAlreadyExistsException,
+            NoSuchUserException, HttpException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        for (int i = 0; i < 10; i++) {
+            userRepository.login(TEST_USERNAME, TEST_PASSWORD);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertThrows(NoSuchUserException.class, () -> userRepository.login("unknown", TEST_PASSWORD),
+                    "Attempts on unknown usernames should not be rate limited");
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertThrows(UnauthorizedException.class, () -> userRepository.login(TEST_USERNAME, "wrong"));
+        }
+        userRepository.login(TEST_USERNAME, TEST_PASSWORD);
+        assertThrows(UnauthorizedException.class, () -> userRepository.login(TEST_USERNAME, "wrong"),
+                "Successful logins should not use up the attempts");
+        assertThrows(TooManyRequestsException.class, () -> userRepository.login(TEST_USERNAME, TEST_PASSWORD),
+                "Failed attempts above the limit should block the login");
+    }
+
+    @Test
+    public void testLoginAsyncValidatesCredentials() {
+        assertThrows(IllegalArgumentException.class, () -> userRepository.loginAsync("", TEST_PASSWORD),
+                "Cannot log in with empty username");
+        assertThrows(IllegalArgumentException.class, () -> userRepository.loginAsync(null, TEST_PASSWORD),
+                "Cannot log in with null username");
+        assertThrows(IllegalArgumentException.class, () -> userRepository.loginAsync(TEST_USERNAME, ""),
+                "Cannot log in with empty password");
+    }
+
+    @Test
+    public void testConcurrentRegistrationWithSameUsernameSucceedsOnce() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger registered = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            executor.submit(() -> {
+                try {
+                    userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+                    registered.incrementAndGet();
+                } catch (UserAlreadyExistsException e) {
+                    // expected for every attempt except the first one
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        assertEquals(1, registered.get(), "Only one registration with the same username should succeed");
+    }
+
+    @Test
+    public void testConcurrentDepositsOfSameUserAreNotLost() throws UserAlreadyExistsException, NoSuchUserException,
+            InterruptedException {
+        userRepository.register(TEST_USERNAME, TEST_PASSWORD);
+        User user = userRepository.getUserByUsername(TEST_USERNAME);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1000; i++) {
+            executor.submit(() -> {
+                userRepository.deposit(user, 1);
+                return null;
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        assertEquals(1000, user.getWallet().getMoneyInAccount(), "Concurrent deposits should all be applied");
+    }
+
     @Test
     public void testLogoutCorrect() throws UserAlreadyExistsException, NoSuchUserException, UnauthorizedException {
         userRepository.register(TEST_USERNAME, TEST_PASSWORD);